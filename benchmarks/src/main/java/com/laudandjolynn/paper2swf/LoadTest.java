@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.worker.GearmanFunction;
+
+import com.laudandjolynn.paper2swf.utils.JobServerGroup;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.ProcessRunner;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
+/**
+ * 端到端压测：进程内的job server（{@link LocalJobServer}）、模拟的pdf2swf（{@link FakeSwfTools}）、
+ * 由{@link OpenOfficeFarm}启动和看管的模拟OpenOffice（{@link FakeOffice}，转换耗时可配置），
+ * 加上真实的{@link WorkerRunner}。任务由{@link SwfConvertRequest}/{@link PdfConvertRequest}生成，
+ * 经{@link JobServerGroup}以前台任务提交，与{@link SwfConvertClient#submitAsync(SwfConvertRequest)}/
+ * {@link PdfConvertClient#submitAsync(PdfConvertRequest)}的路径相同；客户端的构造函数还会建立gearman-java的阻塞连接，
+ * 在较新的JDK上这一步会空转，所以不直接创建客户端。
+ * 按固定到达率提交任务，不等待前一个任务结束，结束时报告吞吐量、延迟分布、队列深度和worker各阶段的统计。
+ * 只能在非Windows环境下运行。
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.laudandjolynn.paper2swf.LoadTest rate=20 duration=60 mix=pdf2swf
+ *
+ *  rate         每秒提交的任务数，默认10
+ *  duration     提交持续的秒数，默认30
+ *  drain        提交结束后等待未完成任务的秒数，默认60
+ *  mix          任务类型，pdf2swf、office2swf或office2pdf，默认pdf2swf
+ *  concurrency  worker并发数，默认8
+ *  processes    同时运行的pdf2swf进程上限，默认{@link ProcessRunner#DEFAULT_MAX_PROCESSES}
+ *  pages        模拟的PDF页数，默认10
+ *  pageDelay    模拟的pdf2swf每页耗时，单位秒，默认0.01
+ *  noise        模拟的pdf2swf每页额外输出的行数，默认0
+ *  offices      模拟的OpenOffice实例数，默认2
+ *  officeDelay  模拟的OpenOffice每个文档转PDF耗时，单位毫秒，默认100
+ * </pre>
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月3日 上午9:26:44
+ * @copyright: www.laudandjolynn.com
+ */
+public class LoadTest {
+	private final static String LATENCY = "loadtest.latency";
+	private final Map<String, String> options;
+	private final int rate;
+	private final int duration;
+	private final String mix;
+	private final File baseDir;
+	private LocalJobServer server = null;
+	private WorkerRunner runner = null;
+	private OpenOfficeFarm farm = null;
+	private FakeSwfTools tools = null;
+	private JobServerGroup servers = null;
+	private String srcFilePath = null;
+	private int officeBasePort = 0;
+	private final AtomicInteger submitted = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicLong queueDepthSum = new AtomicLong();
+	private final AtomicInteger queueDepthSamples = new AtomicInteger();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+	public LoadTest(Map<String, String> options) throws IOException {
+		this.options = options;
+		this.rate = getInt("rate", 10);
+		this.duration = getInt("duration", 30);
+		this.mix = get("mix", "pdf2swf");
+		if (!mix.equals("pdf2swf") && !mix.equals("office2swf")
+				&& !mix.equals("office2pdf")) {
+			throw new IllegalArgumentException("unknown mix: " + mix);
+		}
+		this.baseDir = new File(System.getProperty("java.io.tmpdir"),
+				"paper2swf-loadtest");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index == -1) {
+				throw new IllegalArgumentException("expect key=value: " + arg);
+			}
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+		LoadTest test = new LoadTest(options);
+		try {
+			test.setUp();
+			test.run();
+		} finally {
+			test.tearDown();
+		}
+		System.exit(0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void setUp() throws Exception {
+		server = new LocalJobServer();
+		ProcessRunner.setMaxProcesses(getInt("processes",
+				ProcessRunner.DEFAULT_MAX_PROCESSES));
+		tools = new FakeSwfTools(baseDir, getInt("pages", 10), get(
+				"pageDelay", "0.01"), getInt("noise", 0));
+		boolean office = !mix.equals("pdf2swf");
+		File src = new File(baseDir, office ? "load.doc" : "load.pdf");
+		new FileOutputStream(src).close();
+		srcFilePath = src.getAbsolutePath();
+
+		runner = new WorkerRunner(server.getHost(), server.getPort());
+		runner.setConcurrency(getInt("concurrency", 8));
+		if (office) {
+			int offices = getInt("offices", 2);
+			officeBasePort = FakeOffice.freePorts(offices);
+			final long officeDelay = getInt("officeDelay", 100);
+			farm = new OpenOfficeFarm(FakeOffice.command(), "127.0.0.1",
+					officeBasePort, offices) {
+				@Override
+				protected PdfConverter createConverter(String host, int port) {
+					return new StubOfficeConverter(officeDelay);
+				}
+			};
+			runner.setOpenOfficeFarm(farm);
+		}
+		Class<?> function = mix.equals("pdf2swf") ? Pdf2SwfConvertFunction.class
+				: mix.equals("office2swf") ? Office2SwfConvertFunction.class
+						: Office2PdfConvertFunction.class;
+		runner.addFunction((Class<GearmanFunction>) function);
+		final CountDownLatch started = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				runner.start();
+			}
+		}, "loadtest-worker-runner");
+		thread.setDaemon(true);
+		thread.start();
+		started.await();
+		while (server.getWorkerCount(function.getName()) == 0) {
+			// 等待worker注册函数，OpenOffice实例组在此之前启动
+			Thread.sleep(100);
+		}
+
+		servers = new JobServerGroup();
+		servers.addServer(server.getHost(), server.getPort());
+	}
+
+	private void run() throws Exception {
+		Metrics.stage(LATENCY).reset();
+		ScheduledExecutorService scheduler = Executors
+				.newScheduledThreadPool(2);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				submit();
+			}
+		}, 0, TimeUnit.SECONDS.toNanos(1) / rate, TimeUnit.NANOSECONDS);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, 0, 100, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		for (int i = 1; i <= duration; i++) {
+			Thread.sleep(1000);
+			System.out.println(String.format(
+					"%3ds submitted %d, completed %d, failed %d, queue %d",
+					i, submitted.get(), completed.get(), failed.get(),
+					server.getQueueDepth()));
+		}
+		scheduler.shutdownNow();
+		long drainUntil = System.nanoTime()
+				+ TimeUnit.SECONDS.toNanos(getInt("drain", 60));
+		while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+			Thread.sleep(100);
+		}
+		report(System.nanoTime() - start);
+	}
+
+	private void submit() {
+		final int id = submitted.incrementAndGet();
+		final StageMetrics latency = Metrics.stage(LATENCY);
+		final long begin = latency.begin();
+		int n = outstanding.incrementAndGet();
+		updateMax(maxOutstanding, n);
+		String swfDir = new File(baseDir, "swf" + (id % 64)).getAbsolutePath();
+		String function;
+		byte[] payload;
+		if (mix.equals("pdf2swf")) {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					srcFilePath, swfDir, "load" + id + ".swf", true);
+			function = request.getFunction();
+			payload = request.toPayload();
+		} else if (mix.equals("office2swf")) {
+			SwfConvertRequest request = SwfConvertRequest
+					.office2Swf_openoffice("127.0.0.1", officeBasePort,
+							tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+							srcFilePath, swfDir, "load" + id + ".swf", true);
+			function = request.getFunction();
+			payload = request.toPayload();
+		} else {
+			PdfConvertRequest request = PdfConvertRequest.office2Pdf_openoffice(
+					"127.0.0.1", officeBasePort, srcFilePath, new File(baseDir,
+							"load" + id + ".pdf").getAbsolutePath());
+			function = request.getFunction();
+			payload = request.toPayload();
+		}
+		servers.submit(function, null, payload).whenComplete(
+				new BiConsumer<GearmanJobResult, Throwable>() {
+					@Override
+					public void accept(GearmanJobResult result, Throwable t) {
+						finish(latency, begin, t == null);
+					}
+				});
+	}
+
+	private void finish(StageMetrics latency, long begin, boolean succeeded) {
+		latency.end(begin, succeeded);
+		(succeeded ? completed : failed).incrementAndGet();
+		outstanding.decrementAndGet();
+	}
+
+	private void sample() {
+		int depth = server.getQueueDepth();
+		queueDepthSum.addAndGet(depth);
+		queueDepthSamples.incrementAndGet();
+		updateMax(maxQueueDepth, depth);
+	}
+
+	private void report(long elapsed) throws Exception {
+		StageMetrics latency = Metrics.stage(LATENCY);
+		double seconds = elapsed / 1e9;
+		System.out.println();
+		System.out.println(String.format(
+				"mix %s, rate %d/s, duration %ds, elapsed %.1fs", mix, rate,
+				duration, seconds));
+		System.out.println(String.format(
+				"submitted %d, completed %d, failed %d, unfinished %d",
+				submitted.get(), completed.get(), failed.get(),
+				outstanding.get()));
+		System.out.println(String.format("throughput %.2f jobs/s",
+				completed.get() / seconds));
+		System.out.println(String.format(
+				"latency ms: mean %.1f, p50 %.0f, p95 %.0f, p99 %.0f, max %.1f",
+				latency.getMeanMillis(), latency.getP50Millis(),
+				latency.getP95Millis(), latency.getP99Millis(),
+				latency.getMaxMillis()));
+		int samples = Math.max(1, queueDepthSamples.get());
+		System.out.println(String.format(
+				"queue depth: mean %.1f, max %d; outstanding max %d",
+				(double) queueDepthSum.get() / samples, maxQueueDepth.get(),
+				maxOutstanding.get()));
+
+		// worker端各阶段的统计，与JMX上看到的相同
+		System.out.println();
+		System.out.println(String.format("%-40s %8s %8s %10s %10s %10s",
+				"stage", "count", "failures", "mean ms", "p95 ms", "max ms"));
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : mbeans.queryNames(new ObjectName(
+				"com.laudandjolynn.paper2swf:type=Stage,*"), null)) {
+			long count = (Long) mbeans.getAttribute(name, "Count");
+			if (count == 0 || LATENCY.equals(mbeans.getAttribute(name, "Name"))) {
+				continue;
+			}
+			System.out.println(String.format(
+					"%-40s %8d %8d %10.1f %10.0f %10.1f",
+					mbeans.getAttribute(name, "Name"), count,
+					mbeans.getAttribute(name, "Failures"),
+					mbeans.getAttribute(name, "MeanMillis"),
+					mbeans.getAttribute(name, "P95Millis"),
+					mbeans.getAttribute(name, "MaxMillis")));
+		}
+		TabularData failures = (TabularData) mbeans.getAttribute(
+				new ObjectName("com.laudandjolynn.paper2swf:type=Metrics"),
+				"Failures");
+		for (Object row : failures.values()) {
+			CompositeData data = (CompositeData) row;
+			System.out.println("failure " + data.get("key") + ": "
+					+ data.get("value"));
+		}
+	}
+
+	private void tearDown() {
+		if (servers != null) {
+			servers.close();
+		}
+		if (runner != null) {
+			runner.shutdown();
+		}
+		if (server != null) {
+			server.shutdown();
+		}
+	}
+
+	private String get(String key, String defaultValue) {
+		String value = options.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		String value = options.get(key);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static void updateMax(AtomicInteger max, int value) {
+		int current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * 模拟OpenOffice的转换：固定耗时后把源文件复制为PDF
+	 */
+	private static class StubOfficeConverter implements PdfConverter {
+		private final long delay;
+
+		StubOfficeConverter(long delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public int office2Pdf(String srcFilePath, String destFilePath) {
+			try {
+				Thread.sleep(delay);
+				InputStream input = new FileInputStream(srcFilePath);
+				try {
+					OutputStream output = new FileOutputStream(destFilePath);
+					try {
+						byte[] buffer = new byte[8192];
+						int n;
+						while ((n = input.read(buffer)) != -1) {
+							output.write(buffer, 0, n);
+						}
+					} finally {
+						output.close();
+					}
+				} finally {
+					input.close();
+				}
+				return 1;
+			} catch (Exception e) {
+				return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
+import com.laudandjolynn.paper2swf.utils.OpenOfficePoolConfig;
+import com.laudandjolynn.paper2swf.utils.PooledOpenOfficeConnection;
+import com.laudandjolynn.paper2swf.utils.SocketOpenOfficeConnectionFactory;
+
+/**
+ * {@link OpenOfficeConverter}借用和归还连接的开销。连接池和借用时的检查与转换器相同，
+ * 只是连接不真正连到OpenOffice，测的是池本身的锁竞争和检查，不含UNO调用
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月2日 上午11:02:48
+ * @copyright: www.laudandjolynn.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class OpenOfficePoolBenchmark {
+	@Param({ "2", "8" })
+	private int maxActive;
+	private GenericObjectPool<PooledOpenOfficeConnection> pool = null;
+
+	@Setup
+	public void setUp() {
+		OpenOfficePoolConfig config = new OpenOfficePoolConfig();
+		config.setMaxActive(maxActive);
+		config.setMaxIdle(maxActive);
+		pool = new GenericObjectPool<PooledOpenOfficeConnection>(
+				new StubConnectionFactory(config), config.toPoolConfig());
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		pool.close();
+	}
+
+	@Benchmark
+	public void borrowAndReturn() throws Exception {
+		PooledOpenOfficeConnection conn = pool.borrowObject();
+		pool.returnObject(conn);
+	}
+
+	/**
+	 * 连接不连到OpenOffice，其余沿用{@link SocketOpenOfficeConnectionFactory}，包括借用时的检查
+	 */
+	private static class StubConnectionFactory extends
+			SocketOpenOfficeConnectionFactory {
+		StubConnectionFactory(OpenOfficePoolConfig config) {
+			super("127.0.0.1", 8100, new DefaultDocumentFormatRegistry(),
+					config);
+		}
+
+		@Override
+		public PooledOpenOfficeConnection makeObject() throws Exception {
+			PooledOpenOfficeConnection conn = new PooledOpenOfficeConnection(
+					"127.0.0.1", 8100, new DefaultDocumentFormatRegistry()) {
+				@Override
+				public boolean isConnected() {
+					return true;
+				}
+
+				@Override
+				public void disconnect() {
+				}
+
+				@Override
+				public long getLastValidated() {
+					// 始终在检查间隔之内，不做UNO探测
+					return System.currentTimeMillis();
+				}
+			};
+			return conn;
+		}
+	}
+}
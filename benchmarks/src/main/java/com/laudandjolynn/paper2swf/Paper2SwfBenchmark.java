@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+
+/**
+ * {@link Paper2Swf#pdf2Swf(String, String, String, String, String, boolean, int)}的完整路径：
+ * 取页数、启动pdf2swf进程、解析进度、等待退出。pdf2swf由{@link FakeSwfTools}模拟，每页不耗时，
+ * 测到的是进程管理和输出处理本身的开销。只能在非Windows环境下运行
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月2日 上午11:40:16
+ * @copyright: www.laudandjolynn.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Paper2SwfBenchmark {
+	@Param({ "10", "100" })
+	private int pages;
+	@Param({ "1", "4" })
+	private int parallelism;
+	private FakeSwfTools tools = null;
+	private String pdfFilePath = null;
+	private String swfDir = null;
+
+	@Setup
+	public void setUp() throws IOException {
+		if (JacobNativesLoader.isWindows) {
+			throw new IllegalStateException(
+					"stub pdf2swf is a shell script, run on non-Windows only.");
+		}
+		File baseDir = new File(System.getProperty("java.io.tmpdir"),
+				"paper2swf-benchmark-" + pages);
+		tools = new FakeSwfTools(baseDir, pages, "0");
+		// 模拟的pdf2swf不读取PDF，文件存在即可
+		File pdfFile = new File(baseDir, "benchmark.pdf");
+		new FileOutputStream(pdfFile).close();
+		pdfFilePath = pdfFile.getAbsolutePath();
+		swfDir = new File(baseDir, "swf").getAbsolutePath();
+	}
+
+	@Benchmark
+	public int pdf2Swf() {
+		int r = Paper2Swf.pdf2Swf(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir(), pdfFilePath, swfDir, "benchmark.swf",
+				true, parallelism);
+		if (r != pages) {
+			throw new IllegalStateException("convert pdf to swf fail: " + r);
+		}
+		return r;
+	}
+}
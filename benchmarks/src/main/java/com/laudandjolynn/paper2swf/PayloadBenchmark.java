@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+
+/**
+ * 任务参数的编码和解码：编码同{@link SwfConvertClient}提交任务，解码同{@link Pdf2SwfConvertFunction}
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月2日 上午10:12:37
+ * @copyright: www.laudandjolynn.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+	private byte[] payload = null;
+
+	@Setup
+	public void setUp() {
+		payload = request().toPayload();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return request().toPayload();
+	}
+
+	@Benchmark
+	public void decode(Blackhole bh) {
+		JobPayload decoded = JobPayload.decode(payload,
+				JobPayload.SWFTOOLS_FILE_PATH, JobPayload.LANGUAGE_DIR,
+				JobPayload.SRC_FILE_PATH, JobPayload.SWF_DIR,
+				JobPayload.SWF_FILE_NAME, JobPayload.PAGING);
+		bh.consume(decoded.getString(JobPayload.SWFTOOLS_FILE_PATH));
+		bh.consume(decoded.getString(JobPayload.LANGUAGE_DIR));
+		bh.consume(decoded.getString(JobPayload.SRC_FILE_PATH));
+		bh.consume(decoded.getString(JobPayload.SWF_DIR));
+		bh.consume(decoded.getString(JobPayload.SWF_FILE_NAME));
+		bh.consume(decoded.getBoolean(JobPayload.PAGING));
+	}
+
+	private static SwfConvertRequest request() {
+		return SwfConvertRequest.pdf2Swf("/usr/local/swftools/pdf2swf",
+				"/usr/local/swftools/xpdf/chinese-simplified",
+				"/data/upload/2014/05/年度报告.pdf", "/data/swf/2014/05/",
+				"年度报告", true);
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.laudandjolynn.paper2swf.utils.OutputPump;
+
+/**
+ * pdf2swf输出的解析：逐行取页码，以及整段输出经{@link OutputPump}切行后取页码。
+ * regex是改为按字节扫描之前的实现，作为对照
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月2日 上午10:31:05
+ * @copyright: www.laudandjolynn.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgressScanBenchmark {
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+	private final static Pattern PAGE_PATTERN = Pattern
+			.compile("^NOTICE\\s+processing\\s+PDF\\s+page\\s+(\\d+)\\s+\\(.+\\)$");
+	private final static int PAGES = 1000;
+	private String line = null;
+	private byte[] lineBytes = null;
+	private byte[] output = null;
+
+	@Setup
+	public void setUp() {
+		line = "NOTICE  processing PDF page 128 (595x842:0:0) (move:0:0)";
+		lineBytes = line.getBytes(UTF_8);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= PAGES; i++) {
+			sb.append("NOTICE  processing PDF page ").append(i)
+					.append(" (595x842:0:0) (move:0:0)\n");
+			sb.append("WARNING Font Arial could not be loaded\n");
+		}
+		output = sb.toString().getBytes(UTF_8);
+	}
+
+	@Benchmark
+	public int scan() {
+		return SwfConverter.scanPage(lineBytes, 0, lineBytes.length);
+	}
+
+	@Benchmark
+	public int regex() {
+		Matcher matcher = PAGE_PATTERN.matcher(line);
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+	}
+
+	@Benchmark
+	public void pump(final Blackhole bh) {
+		new OutputPump(new ByteArrayInputStream(output),
+				new OutputPump.LineHandler() {
+					@Override
+					public void onLine(byte[] buffer, int offset, int length) {
+						bh.consume(SwfConverter.scanPage(buffer, offset,
+								length));
+					}
+				}, 4096).run();
+	}
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.worker.AbstractGearmanFunction;
+
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
+/**
+ * 转换函数的公共部分：以函数类名统计执行耗时和成败，失败时按异常类型计数，见{@link Metrics}
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月1日 上午10:20:41
+ * @copyright: www.laudandjolynn.com
+ */
+public abstract class AbstractConvertFunction extends AbstractGearmanFunction {
+	@Override
+	public final GearmanJobResult executeFunction() {
+		StageMetrics stage = Metrics.stage(Metrics.FUNCTION_PREFIX
+				+ getClass().getSimpleName());
+		long begin = stage.begin();
+		boolean succeeded = false;
+		try {
+			GearmanJobResult result = convert();
+			succeeded = true;
+			return result;
+		} catch (RuntimeException e) {
+			Metrics.failure(Metrics.FUNCTION_PREFIX
+					+ e.getClass().getSimpleName());
+			throw e;
+		} finally {
+			stage.end(begin, succeeded);
+		}
+	}
+
+	/**
+	 * 执行转换
+	 * 
+	 * @return 转换结果，转换失败时抛出异常
+	 */
+	protected abstract GearmanJobResult convert();
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.CircuitBreaker;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+
+/**
+ * 按文档格式在多个转换器之间路由，比如jacob和OpenOffice。每个转换器对每种格式
+ * （doc、xls、ppt、wps、et、dps，docx等并入对应格式）分别统计最近若干次转换的耗时和失败率，
+ * 文档交给每次成功转换的期望耗时（平均耗时除以成功率）最小的转换器，失败时依次换下一个。
+ * <p>
+ * 样本不足的转换器优先试用；每隔若干次请求把一次请求交给排第二的转换器，使统计跟上变化。
+ * 连续失败的转换器对该格式熔断，熔断期间不参与路由
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月5日 上午9:42:10
+ * @copyright: www.laudandjolynn.com
+ */
+public class AdaptivePdfConverter implements PdfConverter {
+	private final static Logger logger = LoggerFactory
+			.getLogger(AdaptivePdfConverter.class);
+	private final static int TRANSFER_SUCCEED = 1;
+	private final static int TRANSFER_FAILURE = 0;
+	private final Map<String, PdfConverter> backends = new LinkedHashMap<String, PdfConverter>();
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private int window = 50;
+	private int minSamples = 3;
+	private int exploreInterval = 20;
+	private int failureThreshold = 3;
+	private long openInterval = 30 * 1000;
+	private long maxOpenInterval = 5 * 60 * 1000;
+
+	/**
+	 * 添加转换器，应在开始转换之前添加，添加的顺序即样本不足时试用的顺序
+	 *
+	 * @param name
+	 *            转换器名称，用于日志
+	 * @param converter
+	 *            转换器
+	 */
+	public synchronized void addBackend(String name, PdfConverter converter) {
+		backends.put(name, converter);
+		routes.clear();
+	}
+
+	/**
+	 * 设置统计的最近转换次数
+	 *
+	 * @param window
+	 *            次数
+	 */
+	public void setWindow(int window) {
+		this.window = window;
+	}
+
+	/**
+	 * 设置参与比较前每个转换器至少要有的样本数，不足时优先试用
+	 *
+	 * @param minSamples
+	 *            样本数
+	 */
+	public void setMinSamples(int minSamples) {
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * 设置每隔多少次请求把一次请求交给排第二的转换器，0表示不试探
+	 *
+	 * @param exploreInterval
+	 *            请求次数
+	 */
+	public void setExploreInterval(int exploreInterval) {
+		this.exploreInterval = exploreInterval;
+	}
+
+	/**
+	 * 设置每个转换器每种格式的熔断参数，见{@link CircuitBreaker}
+	 *
+	 * @param failureThreshold
+	 *            连续失败多少次后熔断
+	 * @param openInterval
+	 *            第一次熔断的时间，单位毫秒
+	 * @param maxOpenInterval
+	 *            熔断时间的上限，单位毫秒
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openInterval,
+			long maxOpenInterval) {
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval;
+		this.maxOpenInterval = maxOpenInterval;
+	}
+
+	@Override
+	public int office2Pdf(String srcFilePath, String destFilePath) {
+		String format = format(srcFilePath);
+		Route route = route(format);
+		int attempts = 0;
+		for (Backend backend : route.rank()) {
+			if (!backend.breaker.allowRequest()) {
+				continue;
+			}
+			if (attempts++ > 0) {
+				// 上一个转换器可能留下了不完整的输出
+				new File(destFilePath).delete();
+				Metrics.failure("router.fallback");
+				logger.info("fall back to " + backend.name + " for "
+						+ srcFilePath);
+			}
+			long begin = System.nanoTime();
+			int r = TRANSFER_FAILURE;
+			try {
+				r = backend.converter.office2Pdf(srcFilePath, destFilePath);
+			} catch (RuntimeException e) {
+				logger.error(backend.name + " convert " + srcFilePath
+						+ " fail.", e);
+			} finally {
+				backend.record(System.nanoTime() - begin,
+						r == TRANSFER_SUCCEED);
+			}
+			if (r == TRANSFER_SUCCEED) {
+				return TRANSFER_SUCCEED;
+			}
+		}
+		logger.error("no backend can convert " + srcFilePath + " ("
+				+ format + ") to pdf.");
+		if (attempts == 0) {
+			Metrics.failure("router.unavailable");
+		}
+		return TRANSFER_FAILURE;
+	}
+
+	/**
+	 * 按当前的统计为文档排列转换器，不改变统计
+	 *
+	 * @param srcFilePath
+	 *            源文件路径
+	 * @return 转换器名称，按尝试的顺序排列，熔断的转换器排在最后
+	 */
+	List<String> rank(String srcFilePath) {
+		List<String> names = new ArrayList<String>();
+		for (Backend backend : route(format(srcFilePath)).order(false)) {
+			names.add(backend.name);
+		}
+		return names;
+	}
+
+	/**
+	 * 取得文档格式，同一程序处理的新旧格式合并为一种
+	 *
+	 * @param srcFilePath
+	 *            源文件路径
+	 * @return 格式，小写的扩展名
+	 */
+	static String format(String srcFilePath) {
+		String name = new File(srcFilePath).getName();
+		int index = name.lastIndexOf(".");
+		String ext = index == -1 ? "" : name.substring(index + 1).toLowerCase();
+		if (ext.endsWith("x") && ext.length() == 4) {
+			// docx、xlsx、pptx
+			return ext.substring(0, 3);
+		}
+		return ext;
+	}
+
+	private Route route(String format) {
+		Route route = routes.get(format);
+		if (route == null) {
+			synchronized (this) {
+				route = new Route(format);
+				for (Map.Entry<String, PdfConverter> entry : backends
+						.entrySet()) {
+					route.backends.add(new Backend(entry.getKey(), entry
+							.getValue()));
+				}
+			}
+			Route previous = routes.putIfAbsent(format, route);
+			if (previous != null) {
+				route = previous;
+			}
+		}
+		return route;
+	}
+
+	/**
+	 * 一种格式在各转换器上的统计
+	 */
+	private class Route {
+		private final String format;
+		private final List<Backend> backends = new ArrayList<Backend>();
+		private final AtomicLong requests = new AtomicLong();
+
+		private Route(String format) {
+			this.format = format;
+		}
+
+		private List<Backend> rank() {
+			return order(true);
+		}
+
+		private List<Backend> order(boolean count) {
+			final Map<Backend, Double> costs = new LinkedHashMap<Backend, Double>();
+			for (Backend backend : backends) {
+				costs.put(backend, backend.cost());
+			}
+			List<Backend> ranked = new ArrayList<Backend>(backends);
+			// 稳定排序，代价相同时保持添加顺序
+			Collections.sort(ranked, new Comparator<Backend>() {
+				@Override
+				public int compare(Backend a, Backend b) {
+					return Double.compare(costs.get(a), costs.get(b));
+				}
+			});
+			if (count && exploreInterval > 0
+					&& requests.incrementAndGet() % exploreInterval == 0
+					&& ranked.size() > 1
+					&& costs.get(ranked.get(1)) < Double.POSITIVE_INFINITY) {
+				Collections.swap(ranked, 0, 1);
+				logger.debug("explore " + ranked.get(0).name + " for "
+						+ format);
+			}
+			return ranked;
+		}
+	}
+
+	/**
+	 * 一个转换器对一种格式最近若干次转换的结果
+	 */
+	private class Backend {
+		private final String name;
+		private final PdfConverter converter;
+		private final CircuitBreaker breaker;
+		private final long[] latencies;
+		private final boolean[] succeeded;
+		private int next = 0;
+		private int samples = 0;
+
+		private Backend(String name, PdfConverter converter) {
+			this.name = name;
+			this.converter = converter;
+			this.breaker = new CircuitBreaker(failureThreshold, openInterval,
+					maxOpenInterval);
+			this.latencies = new long[window];
+			this.succeeded = new boolean[window];
+		}
+
+		private synchronized void record(long nanos, boolean success) {
+			if (success && breaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+				// 熔断后恢复，之前的统计已不能反映现状
+				samples = 0;
+				next = 0;
+			}
+			latencies[next] = nanos;
+			succeeded[next] = success;
+			next = (next + 1) % latencies.length;
+			samples = Math.min(samples + 1, latencies.length);
+			if (success) {
+				breaker.recordSuccess();
+			} else {
+				breaker.recordFailure();
+			}
+		}
+
+		/**
+		 * 每次成功转换的期望耗时，单位毫秒。样本不足或者熔断到期等待试探时为负数，优先试用；
+		 * 熔断或者全部失败时为无穷大
+		 */
+		private synchronized double cost() {
+			if (!breaker.isAvailable()) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (breaker.getState() == CircuitBreaker.State.OPEN) {
+				return -minSamples - 1;
+			}
+			if (samples < minSamples) {
+				return samples - minSamples;
+			}
+			long total = 0;
+			int successes = 0;
+			for (int i = 0; i < samples; i++) {
+				if (succeeded[i]) {
+					total += latencies[i];
+					successes++;
+				}
+			}
+			if (successes == 0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			double mean = (double) TimeUnit.NANOSECONDS.toMicros(total)
+					/ successes / 1000;
+			return mean * samples / successes;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+import com.laudandjolynn.paper2swf.utils.ScratchSpace;
+
+/**
+ * 内容传输方式，见{@link SwfConvertRequest#withContent()}。worker把源文件内容落地到本地中间目录，
+ * 在中间目录中转换，生成的swf按页序放入结果；客户端把结果中的swf写入swfDir
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月7日 上午10:12:36
+ * @copyright: www.laudandjolynn.com
+ */
+class ContentTransport {
+	private final static String SWF_SUBDIR = "swf";
+
+	private ContentTransport() {
+	}
+
+	/**
+	 *
+	 * @param payload
+	 *            任务参数
+	 * @return 任务是否以内容传输方式提交
+	 */
+	static boolean isContent(JobPayload payload) {
+		return payload.has(JobPayload.SRC_CONTENT);
+	}
+
+	/**
+	 * 在worker本地分配中间目录，写入源文件
+	 *
+	 * @param payload
+	 *            任务参数
+	 * @return 中间目录，使用完后调用{@link #release(File)}
+	 * @throws ConvertException
+	 *             写入源文件失败
+	 */
+	static File receive(JobPayload payload) {
+		ScratchSpace space = Paper2Swf.getScratchSpace();
+		// 源文件和生成的swf都在目录中，大小按源文件的两倍估计
+		File workDir = space.allocate("", 2L * payload.size());
+		if (!new File(workDir, SWF_SUBDIR).mkdirs()) {
+			space.release(workDir);
+			throw new ConvertException("can not create " + workDir);
+		}
+		try {
+			payload.transferTo(JobPayload.SRC_CONTENT, 0,
+					srcFile(payload, workDir));
+		} catch (IOException e) {
+			release(workDir);
+			throw new ConvertException("write source file fail: "
+					+ e.getMessage());
+		}
+		return workDir;
+	}
+
+	/**
+	 *
+	 * @param payload
+	 *            任务参数
+	 * @param workDir
+	 *            中间目录
+	 * @return 中间目录中的源文件
+	 */
+	static File srcFile(JobPayload payload, File workDir) {
+		String name = payload.getString(JobPayload.SRC_FILE_NAME);
+		// 只取文件名，不允许写到中间目录之外
+		name = name == null ? "" : new File(name).getName();
+		return new File(workDir, name.length() == 0 ? "src" : name);
+	}
+
+	/**
+	 *
+	 * @param workDir
+	 *            中间目录
+	 * @return 中间目录中的swf存储目录
+	 */
+	static File swfDir(File workDir) {
+		return new File(workDir, SWF_SUBDIR);
+	}
+
+	/**
+	 * 把生成的swf放入结果
+	 *
+	 * @param workDir
+	 *            中间目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @param pages
+	 *            转换返回的页数
+	 * @return 结果数据
+	 * @throws ConvertException
+	 *             生成的swf不完整
+	 */
+	static byte[] pack(File workDir, String swfFileName, boolean paging,
+			int pages) {
+		File dir = swfDir(workDir);
+		JobPayload result = new JobPayload().putInt(JobPayload.RESULT, pages);
+		try {
+			if (paging) {
+				String name = swfFileName.substring(0,
+						swfFileName.lastIndexOf("."));
+				for (int i = 1; i <= pages; i++) {
+					result.putFile(JobPayload.SWF_CONTENT, new File(dir, name
+							+ i + ".swf"));
+				}
+			} else {
+				result.putFile(JobPayload.SWF_CONTENT, new File(dir,
+						swfFileName));
+			}
+		} catch (IOException e) {
+			throw new ConvertException("missing swf output: " + e.getMessage());
+		}
+		return result.toBytes();
+	}
+
+	/**
+	 * 删除中间目录
+	 *
+	 * @param workDir
+	 *            中间目录
+	 */
+	static void release(File workDir) {
+		delete(workDir);
+		Paper2Swf.getScratchSpace().release(workDir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * 客户端把结果中的swf写入请求的swfDir
+	 *
+	 * @param jobResult
+	 *            worker返回的结果
+	 * @param request
+	 *            内容传输方式的请求
+	 * @return 转换结果
+	 * @throws ConvertException
+	 *             结果不完整或者写入失败
+	 */
+	static ConversionResult unpack(GearmanJobResult jobResult,
+			SwfConvertRequest request) {
+		JobPayload result = JobPayload.decode(jobResult.getResults());
+		int pages = result.getInt(JobPayload.RESULT, -1);
+		String swfFileName = request.getSwfFileName();
+		int files = request.isPaging() ? pages : 1;
+		if (pages < 1 || result.count(JobPayload.SWF_CONTENT) != files) {
+			throw new ConvertException("incomplete content result");
+		}
+		File swfDir = new File(request.getSwfDir());
+		swfDir.mkdirs();
+		try {
+			if (request.isPaging()) {
+				String name = swfFileName.substring(0,
+						swfFileName.lastIndexOf("."));
+				for (int i = 1; i <= pages; i++) {
+					result.transferTo(JobPayload.SWF_CONTENT, i - 1, new File(
+							swfDir, name + i + ".swf"));
+				}
+			} else {
+				result.transferTo(JobPayload.SWF_CONTENT, 0, new File(swfDir,
+						swfFileName));
+			}
+		} catch (IOException e) {
+			throw new ConvertException("write swf to " + swfDir + " fail: "
+					+ e.getMessage());
+		}
+		return new ConversionResult(ByteUtils.fromUTF8Bytes(jobResult
+				.getJobHandle()), pages);
+	}
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.ContentDigest;
+
+/**
+ * 以内容摘要为键的swf转换结果缓存，超出磁盘配额时淘汰最近最少使用的条目
+ * 
+ * <pre>
+ * 缓存目录结构：
+ *  cacheDir/摘要/1.swf ... N.swf
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午10:05:33
+ * @copyright: www.laudandjolynn.com
+ */
+public class ConversionCache {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ConversionCache.class);
+	private final static String SWF_EXT = ".swf";
+	private final File cacheDir;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long totalBytes = 0;
+	private boolean hardLink = true;
+
+	/**
+	 * 
+	 * @param cacheDir
+	 *            缓存目录
+	 * @param maxBytes
+	 *            缓存占用的最大磁盘空间，单位字节
+	 */
+	public ConversionCache(File cacheDir, long maxBytes) {
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+		cacheDir.mkdirs();
+		load();
+	}
+
+	/**
+	 * 设置是否以硬链接方式输出缓存的swf，不支持硬链接时自动改为复制
+	 * 
+	 * @param hardLink
+	 */
+	public void setHardLink(boolean hardLink) {
+		this.hardLink = hardLink;
+	}
+
+	/**
+	 * 计算缓存键
+	 * 
+	 * @param srcFile
+	 *            源文件
+	 * @param options
+	 *            影响转换结果的参数
+	 * @return
+	 * @throws IOException
+	 */
+	public String key(File srcFile, String... options) throws IOException {
+		return ContentDigest.digest(srcFile, options);
+	}
+
+	/**
+	 * 把缓存的swf输出到目的目录
+	 * 
+	 * @param key
+	 *            缓存键
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @return 返回swf的页数，-1表示未命中
+	 */
+	public int materialize(String key, String swfDir, String swfFileName,
+			boolean paging) {
+		File entryDir = new File(cacheDir, key);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || entry.pages < 1) {
+				return -1;
+			}
+			// 输出期间固定条目，被淘汰时推迟到输出完成后再删除
+			entry.pins++;
+			entryDir.setLastModified(System.currentTimeMillis());
+		}
+
+		File tgtDir = new File(swfDir);
+		tgtDir.mkdirs();
+		try {
+			for (int i = 1; i <= entry.pages; i++) {
+				File src = new File(entryDir, i + SWF_EXT);
+				File tgt = new File(tgtDir, outputFileName(swfFileName,
+						paging, i));
+				publish(src, tgt);
+			}
+			logger.info("conversion cache hit: " + key);
+			return entry.pages;
+		} catch (IOException e) {
+			// 缓存目录可能被外部删除
+			logger.error("materialize cache entry fail: " + key, e);
+		} finally {
+			synchronized (this) {
+				if (--entry.pins == 0 && entry.evicted) {
+					delete(entryDir);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 把转换结果保存到缓存
+	 * 
+	 * @param key
+	 *            缓存键
+	 * @param swfDir
+	 *            swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @param pages
+	 *            swf的页数
+	 */
+	public void store(String key, String swfDir, String swfFileName,
+			boolean paging, int pages) {
+		if (pages < 1) {
+			return;
+		}
+		synchronized (this) {
+			if (entries.containsKey(key)) {
+				return;
+			}
+		}
+
+		File tmpDir = new File(cacheDir, "." + UUID.randomUUID().toString());
+		tmpDir.mkdirs();
+		long size = 0;
+		try {
+			for (int i = 1; i <= pages; i++) {
+				File src = new File(swfDir, outputFileName(swfFileName, paging,
+						i));
+				File tgt = new File(tmpDir, i + SWF_EXT);
+				// 总是复制，避免之后对目的目录的写入破坏缓存内容
+				Files.copy(src.toPath(), tgt.toPath());
+				size += tgt.length();
+			}
+		} catch (IOException e) {
+			logger.error("store cache entry fail: " + key, e);
+			delete(tmpDir);
+			return;
+		}
+
+		synchronized (this) {
+			File entryDir = new File(cacheDir, key);
+			if (entries.containsKey(key) || !tmpDir.renameTo(entryDir)) {
+				delete(tmpDir);
+				return;
+			}
+			entries.put(key, new Entry(size, pages));
+			totalBytes += size;
+			evict();
+		}
+	}
+
+	/**
+	 * 删除目的目录中旧的swf输出。缓存以硬链接输出时，转换前必须先删除，否则pdf2swf会覆盖缓存内容
+	 * 
+	 * @param swfDir
+	 *            swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 */
+	public void clearOutput(String swfDir, String swfFileName, boolean paging) {
+		if (!paging) {
+			new File(swfDir, outputFileName(swfFileName, false, 1)).delete();
+			return;
+		}
+		for (int i = 1;; i++) {
+			File file = new File(swfDir, outputFileName(swfFileName, true, i));
+			if (!file.delete()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return 缓存当前占用的磁盘空间
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return 缓存条目数
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void publish(File src, File tgt) throws IOException {
+		tgt.delete();
+		if (hardLink) {
+			try {
+				Files.createLink(tgt.toPath(), src.toPath());
+				return;
+			} catch (UnsupportedOperationException e) {
+				hardLink = false;
+			} catch (IOException e) {
+				// 跨文件系统等情况无法建立硬链接，改为复制
+				logger.debug("create hard link fail, copy instead.", e);
+			}
+		}
+		Files.copy(src.toPath(), tgt.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			Entry entry = eldest.getValue();
+			it.remove();
+			totalBytes -= entry.size;
+			if (entry.pins > 0) {
+				entry.evicted = true;
+			} else {
+				delete(new File(cacheDir, eldest.getKey()));
+			}
+			logger.info("evict conversion cache entry: " + eldest.getKey());
+		}
+	}
+
+	/**
+	 * 从缓存目录恢复索引，按最后访问时间排序
+	 */
+	private void load() {
+		File[] dirs = cacheDir.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		Arrays.sort(dirs, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long t1 = f1.lastModified(), t2 = f2.lastModified();
+				return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+		});
+		synchronized (this) {
+			for (File dir : dirs) {
+				if (!dir.isDirectory()) {
+					continue;
+				}
+				if (dir.getName().startsWith(".")) {
+					// 上次未完成的写入
+					delete(dir);
+					continue;
+				}
+				int pages = countPages(dir);
+				if (pages < 1) {
+					delete(dir);
+					continue;
+				}
+				long size = 0;
+				File[] files = dir.listFiles();
+				for (File file : files) {
+					size += file.length();
+				}
+				entries.put(dir.getName(), new Entry(size, pages));
+				totalBytes += size;
+			}
+			evict();
+		}
+	}
+
+	private static int countPages(File entryDir) {
+		int pages = 0;
+		while (new File(entryDir, (pages + 1) + SWF_EXT).exists()) {
+			pages++;
+		}
+		return pages;
+	}
+
+	private static String outputFileName(String swfFileName, boolean paging,
+			int page) {
+		int index = swfFileName.lastIndexOf(".");
+		String name = index == -1 ? swfFileName : swfFileName.substring(0,
+				index);
+		return name + (paging ? String.valueOf(page) : "") + SWF_EXT;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * 缓存条目
+	 */
+	private static class Entry {
+		private final long size;
+		private final int pages;
+		// 正在输出该条目的线程数
+		private int pins = 0;
+		// 已被淘汰，等待输出完成后删除
+		private boolean evicted = false;
+
+		private Entry(long size, int pages) {
+			this.size = size;
+			this.pages = pages;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.util.ByteUtils;
+
+/**
+ * 前台任务的转换结果
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 上午10:27:51
+ * @copyright: www.laudandjolynn.com
+ */
+public class ConversionResult {
+	private final String jobHandle;
+	private final int result;
+
+	public ConversionResult(String jobHandle, int result) {
+		this.jobHandle = jobHandle;
+		this.result = result;
+	}
+
+	/**
+	 *
+	 * @param jobResult
+	 *            worker返回的结果，数据为转换函数的大端序int返回值
+	 * @return
+	 */
+	static ConversionResult fromJobResult(GearmanJobResult jobResult) {
+		return new ConversionResult(ByteUtils.fromUTF8Bytes(jobResult
+				.getJobHandle()), ByteUtils.fromBigEndian(jobResult
+				.getResults()));
+	}
+
+	public String getJobHandle() {
+		return jobHandle;
+	}
+
+	/**
+	 *
+	 * @return swf转换为页数，pdf转换为1表示成功
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ConversionResult [jobHandle=" + jobHandle + ", result="
+				+ result + "]";
+	}
+}
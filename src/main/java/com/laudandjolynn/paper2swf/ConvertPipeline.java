@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.laudandjolynn.paper2swf.utils.Metrics;
+
+/**
+ * office转swf的两阶段流水线：office转PDF阶段和PDF转swf阶段各有独立的线程数和有界队列，
+ * 一个文档在转swf的同时，下一个文档可以在OpenOffice中转PDF，吞吐量取决于较慢的阶段而不是两个阶段之和。
+ * 队列满时提交方阻塞，第二阶段队列满时第一阶段的线程等待，不会无限堆积中间文件。
+ *
+ * <pre>
+ * 要让不同文档的两个阶段重叠，worker的并发数应不小于两个阶段的线程数之和，见{@link WorkerRunner#setConcurrency(int)}
+ * </pre>
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月28日 上午10:17:26
+ * @copyright: www.laudandjolynn.com
+ */
+public class ConvertPipeline {
+	private final ThreadPoolExecutor pdfStage;
+	private final ThreadPoolExecutor swfStage;
+
+	/**
+	 *
+	 * @param pdfConcurrency
+	 *            office转PDF阶段的线程数
+	 * @param swfConcurrency
+	 *            PDF转swf阶段的线程数
+	 * @param queueCapacity
+	 *            每个阶段排队等待的任务数上限
+	 */
+	public ConvertPipeline(int pdfConcurrency, int swfConcurrency,
+			int queueCapacity) {
+		pdfStage = createStage("paper2swf-pdf-", pdfConcurrency, queueCapacity);
+		swfStage = createStage("paper2swf-swf-", swfConcurrency, queueCapacity);
+	}
+
+	/**
+	 * 先在第一阶段执行first，成功后在第二阶段执行second，阻塞直到结束
+	 *
+	 * @param first
+	 *            office转PDF，返回false时不再执行second
+	 * @param second
+	 *            PDF转swf
+	 * @param failure
+	 *            first返回false时的结果
+	 * @return second的结果
+	 * @throws Exception
+	 *             任一阶段抛出的异常
+	 */
+	public <T> T execute(final Callable<Boolean> first,
+			final Callable<T> second, final T failure) throws Exception {
+		// 两个阶段各自的排队时间：提交到开始执行、第一阶段结束到第二阶段开始执行
+		final long[] enqueued = { System.nanoTime() };
+		CompletableFuture<T> future = CompletableFuture.supplyAsync(
+				new Supplier<Boolean>() {
+					@Override
+					public Boolean get() {
+						Metrics.stage(Metrics.PDF_QUEUE).record(
+								System.nanoTime() - enqueued[0], true);
+						try {
+							return call(first);
+						} finally {
+							enqueued[0] = System.nanoTime();
+						}
+					}
+				}, pdfStage).thenApplyAsync(new Function<Boolean, T>() {
+			@Override
+			public T apply(Boolean succeeded) {
+				if (!succeeded) {
+					return failure;
+				}
+				Metrics.stage(Metrics.SWF_QUEUE).record(
+						System.nanoTime() - enqueued[0], true);
+				return call(second);
+			}
+		}, swfStage);
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof StageException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * @return 第一阶段正在执行和排队的任务数
+	 */
+	public int getPdfStageLoad() {
+		return pdfStage.getActiveCount() + pdfStage.getQueue().size();
+	}
+
+	/**
+	 *
+	 * @return 第二阶段正在执行和排队的任务数
+	 */
+	public int getSwfStageLoad() {
+		return swfStage.getActiveCount() + swfStage.getQueue().size();
+	}
+
+	/**
+	 * 不再接受新任务，已提交的任务继续执行
+	 */
+	public void shutdown() {
+		pdfStage.shutdown();
+		swfStage.shutdown();
+	}
+
+	private static <T> T call(Callable<T> stage) {
+		try {
+			return stage.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new StageException(e);
+		}
+	}
+
+	private static ThreadPoolExecutor createStage(final String prefix,
+			int concurrency, int queueCapacity) {
+		return new ThreadPoolExecutor(concurrency, concurrency, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, prefix
+								+ count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r,
+							ThreadPoolExecutor executor) {
+						// 队列满时等待而不是拒绝
+						if (executor.isShutdown()) {
+							throw new RejectedExecutionException(
+									"convert pipeline is shut down");
+						}
+						try {
+							executor.getQueue().put(r);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException(e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * 包装阶段抛出的受检异常
+	 */
+	private static class StageException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		StageException(Exception cause) {
+			super(cause);
+		}
+	}
+}
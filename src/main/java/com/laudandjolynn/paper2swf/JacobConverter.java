@@ -20,6 +20,8 @@ import com.jacob.com.ComThread;
 import com.jacob.com.Dispatch;
 import com.jacob.com.Variant;
 import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
 
 /**
  * jacob转换器
@@ -56,6 +58,21 @@ public class JacobConverter implements PdfConverter {
 
 	@Override
 	public int office2Pdf(String srcFilePath, String destFilePath) {
+		StageMetrics stage = Metrics.stage(Metrics.JACOB_CONVERT);
+		long begin = stage.begin();
+		int result = TRANSFER_FAILURE;
+		try {
+			result = convert(srcFilePath, destFilePath);
+		} finally {
+			stage.end(begin, result == TRANSFER_SUCCEED);
+		}
+		if (result != TRANSFER_SUCCEED) {
+			Metrics.failure("jacob.convert");
+		}
+		return result;
+	}
+
+	private int convert(String srcFilePath, String destFilePath) {
 		int index = srcFilePath.lastIndexOf(".");
 		if (index == -1) {
 			logger.error("source file must contain file extension.");
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import org.gearman.client.GearmanIOEventListener;
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacket.DataComponentName;
+import org.gearman.common.GearmanPacketImpl;
+import org.gearman.common.GearmanPacketMagic;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+import org.gearman.worker.GearmanFunction;
+import org.gearman.worker.GearmanFunctionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.PacketIO;
+
+/**
+ * 一个worker循环：独占一个job server连接，取一个任务执行一个任务。函数通过事件监听器发出的
+ * WORK_STATUS、WORK_COMPLETE、WORK_EXCEPTION等直接写回该连接。连接断开后等待片刻重连。
+ * 取任务前先获取许可，多个job server上的循环共用许可，以限制整个JVM同时执行的任务数。
+ * <p>
+ * 指定了执行器时，取到的任务交给执行器执行，循环随即获取下一个许可继续取任务，
+ * 同一连接上可以同时执行多个任务，任务结束时归还许可。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月26日 上午10:32:18
+ * @copyright: www.laudandjolynn.com
+ */
+class JobWorker implements Runnable {
+	private final static Logger logger = LoggerFactory
+			.getLogger(JobWorker.class);
+	private final static int CONNECT_TIMEOUT = 10000;
+	private final static long RECONNECT_DELAY = 1000;
+	private final String host;
+	private final int port;
+	private final List<GearmanFunctionFactory> factories;
+	private final Semaphore permits;
+	private final Executor executor;
+	private volatile boolean running = true;
+	private volatile Socket socket = null;
+
+	/**
+	 *
+	 * @param host
+	 *            job server服务地址
+	 * @param port
+	 *            job server服务端口
+	 * @param factories
+	 *            可执行的函数
+	 * @param permits
+	 *            执行任务的许可
+	 */
+	JobWorker(String host, int port, List<GearmanFunctionFactory> factories,
+			Semaphore permits) {
+		this(host, port, factories, permits, null);
+	}
+
+	/**
+	 *
+	 * @param host
+	 *            job server服务地址
+	 * @param port
+	 *            job server服务端口
+	 * @param factories
+	 *            可执行的函数
+	 * @param permits
+	 *            执行任务的许可
+	 * @param executor
+	 *            执行任务的执行器，为null时在循环线程上执行
+	 */
+	JobWorker(String host, int port, List<GearmanFunctionFactory> factories,
+			Semaphore permits, Executor executor) {
+		this.host = host;
+		this.port = port;
+		this.factories = factories;
+		this.permits = permits;
+		this.executor = executor;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				work();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (IOException e) {
+				if (!running) {
+					break;
+				}
+				logger.warn("connection to " + host + ":" + port
+						+ " lost, reconnect later. " + e.getMessage());
+				try {
+					Thread.sleep(RECONNECT_DELAY);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 停止循环，正在执行的任务不会被中断，但其结果无法再回写
+	 */
+	void shutdown() {
+		running = false;
+		Socket s = socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void work() throws IOException, InterruptedException {
+		Socket s = new Socket();
+		socket = s;
+		try {
+			if (!running) {
+				return;
+			}
+			s.setTcpNoDelay(true);
+			s.setKeepAlive(true);
+			s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(s.getInputStream()));
+			final OutputStream output = new BufferedOutputStream(
+					s.getOutputStream());
+			for (GearmanFunctionFactory factory : factories) {
+				PacketIO.write(output, packet(GearmanPacketType.CAN_DO,
+						ByteUtils.toUTF8Bytes(factory.getFunctionName())));
+			}
+			while (running) {
+				permits.acquire();
+				boolean dispatched = false;
+				try {
+					write(output, packet(GearmanPacketType.GRAB_JOB_UNIQ,
+							ByteUtils.EMPTY));
+					GearmanPacket packet = PacketIO.read(input);
+					GearmanPacketType type = packet.getPacketType();
+					if (type == GearmanPacketType.JOB_ASSIGN
+							|| type == GearmanPacketType.JOB_ASSIGN_UNIQ) {
+						if (executor == null) {
+							execute(packet, output);
+						} else {
+							dispatch(packet, output, s);
+							dispatched = true;
+						}
+						continue;
+					}
+					if (type != GearmanPacketType.NO_JOB) {
+						continue;
+					}
+				} finally {
+					if (!dispatched) {
+						permits.release();
+					}
+				}
+				// 没有任务时不占用许可，让其他job server上的循环可以取任务
+				write(output,
+						packet(GearmanPacketType.PRE_SLEEP, ByteUtils.EMPTY));
+				while (PacketIO.read(input).getPacketType() != GearmanPacketType.NOOP) {
+				}
+			}
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * 在执行器上执行任务，结束时归还许可。结果无法回写时关闭连接，由循环重连
+	 */
+	private void dispatch(final GearmanPacket packet,
+			final OutputStream output, final Socket s) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					execute(packet, output);
+				} catch (IOException e) {
+					logger.warn("write result to " + host + ":" + port
+							+ " fail. " + e.getMessage());
+					try {
+						s.close();
+					} catch (IOException ce) {
+					}
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	private void execute(GearmanPacket packet, final OutputStream output)
+			throws IOException {
+		String name = ByteUtils.fromUTF8Bytes(packet
+				.getDataComponentValue(DataComponentName.FUNCTION_NAME));
+		byte[] handle = packet
+				.getDataComponentValue(DataComponentName.JOB_HANDLE);
+		GearmanFunction function = null;
+		for (GearmanFunctionFactory factory : factories) {
+			if (factory.getFunctionName().equals(name)) {
+				function = factory.getFunction();
+				break;
+			}
+		}
+		if (function == null) {
+			logger.error("no function registered for " + name);
+			write(output, packet(GearmanPacketType.WORK_FAIL, handle));
+			return;
+		}
+
+		final IOException[] writeError = new IOException[1];
+		function.setJobHandle(handle);
+		function.setData(packet.getDataComponentValue(DataComponentName.DATA));
+		if (packet.getPacketType() == GearmanPacketType.JOB_ASSIGN_UNIQ) {
+			function.setUniqueId(packet
+					.getDataComponentValue(DataComponentName.UNIQUE_ID));
+		}
+		function.registerEventListener(new GearmanIOEventListener() {
+			@Override
+			public void handleGearmanIOEvent(GearmanPacket event) {
+				// 进度可能由转换进程的输出线程发出
+				synchronized (output) {
+					if (writeError[0] != null) {
+						return;
+					}
+					try {
+						PacketIO.write(output, event);
+					} catch (IOException e) {
+						writeError[0] = e;
+					}
+				}
+			}
+		});
+		try {
+			function.call();
+		} catch (Exception e) {
+			// 函数已经发出WORK_EXCEPTION
+			logger.error("job " + ByteUtils.fromUTF8Bytes(handle) + " of "
+					+ name + " failed.", e);
+		}
+		synchronized (output) {
+			if (writeError[0] != null) {
+				throw writeError[0];
+			}
+		}
+	}
+
+	/**
+	 * 任务在执行器上执行时，多个线程写同一连接
+	 */
+	private static void write(OutputStream output, GearmanPacket packet)
+			throws IOException {
+		synchronized (output) {
+			PacketIO.write(output, packet);
+		}
+	}
+
+	private static GearmanPacket packet(GearmanPacketType type, byte[] data) {
+		return new GearmanPacketImpl(GearmanPacketMagic.REQ, type, data);
+	}
+}
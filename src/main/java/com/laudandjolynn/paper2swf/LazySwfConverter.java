@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
+/**
+ * 按需转换：登记文档时只取页数，某一页第一次被请求时才转换，同时在后台预取之后的若干页。
+ * 输出与分页转换相同，即swfDir下的name1.swf、name2.swf……
+ * <p>
+ * 请求的页在调用线程上转换；预取在有界线程池上执行，连续的页合并为一个pdf2swf进程，
+ * 队列满时放弃预取，这些页在被请求时再转换
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月4日 上午9:36:18
+ * @copyright: www.laudandjolynn.com
+ */
+public class LazySwfConverter {
+	private final static Logger logger = LoggerFactory
+			.getLogger(LazySwfConverter.class);
+	private final ThreadPoolExecutor prefetcher;
+	private final int lookahead;
+	private final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<String, Document>();
+
+	/**
+	 *
+	 * @param concurrency
+	 *            预取的线程数
+	 * @param lookahead
+	 *            每次请求后预取的页数，0表示不预取
+	 * @param queueCapacity
+	 *            排队等待的预取任务数上限
+	 */
+	public LazySwfConverter(int concurrency, int lookahead, int queueCapacity) {
+		this.lookahead = lookahead;
+		this.prefetcher = new ThreadPoolExecutor(concurrency, concurrency, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "paper2swf-prefetch-"
+								+ count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * 登记文档，删除swfDir中同名的旧输出，不转换任何页。同名文档重复登记时替换原来的登记
+	 *
+	 * @param converter
+	 *            swf转换器
+	 * @param pdfFilePath
+	 *            源PDF文件路径，包括文件名，登记期间不能删除
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @return 文档页数，-1表示登记失败
+	 */
+	public int register(SwfConverter converter, String pdfFilePath,
+			String swfDir, String swfFileName) {
+		File pdfFile = new File(pdfFilePath);
+		if (!pdfFile.exists()) {
+			logger.error("can not find pdf file: " + pdfFilePath);
+			return -1;
+		}
+		String absPdfFilePath = pdfFile.getAbsolutePath();
+		int pages = converter.countPages(absPdfFilePath, converter.deadline());
+		if (pages <= 0) {
+			logger.error("can not count pages of " + pdfFilePath);
+			return -1;
+		}
+
+		File tgtDir = new File(swfDir);
+		tgtDir.mkdirs();
+		String name = swfFileName.substring(0, swfFileName.lastIndexOf("."));
+		// 旧输出可能属于上一个版本，删除后按需重新生成
+		for (int i = 1;; i++) {
+			if (!new File(tgtDir, name + i + ".swf").delete() && i > pages) {
+				break;
+			}
+		}
+		SwfConverter.pageIndexFile(swfDir, swfFileName).delete();
+
+		Document document = new Document(converter, absPdfFilePath, tgtDir,
+				name, pages);
+		Document previous = documents.put(key(swfDir, swfFileName), document);
+		if (previous != null) {
+			previous.closed = true;
+		}
+		logger.info("register " + pdfFilePath + " for lazy conversion, "
+				+ pages + " pages.");
+		return pages;
+	}
+
+	/**
+	 * 请求一页，尚未转换时在调用线程上转换，阻塞直到该页可用，并预取之后的页
+	 *
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param page
+	 *            页码，从1开始
+	 * @return 1表示该页已生成，-1表示文档未登记、页码超出范围或者转换失败
+	 */
+	public int requestPage(String swfDir, String swfFileName, int page) {
+		Document document = documents.get(key(swfDir, swfFileName));
+		if (document == null || page < 1 || page > document.pages) {
+			return -1;
+		}
+		StageMetrics stage = Metrics.stage(Metrics.LAZY_PAGE);
+		long begin = stage.begin();
+		boolean ready = false;
+		try {
+			ready = document.request(page);
+		} finally {
+			stage.end(begin, ready);
+		}
+		return ready ? 1 : -1;
+	}
+
+	/**
+	 * 取消登记，已生成的页保留，正在执行的预取继续执行，排队的预取不再执行
+	 *
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 */
+	public void unregister(String swfDir, String swfFileName) {
+		Document document = documents.remove(key(swfDir, swfFileName));
+		if (document != null) {
+			document.closed = true;
+		}
+	}
+
+	/**
+	 *
+	 * @return 登记的文档数
+	 */
+	public int size() {
+		return documents.size();
+	}
+
+	/**
+	 * 不再预取，正在执行的预取继续执行
+	 */
+	public void shutdown() {
+		prefetcher.shutdown();
+	}
+
+	private static String key(String swfDir, String swfFileName) {
+		return new File(swfDir, swfFileName).getAbsolutePath();
+	}
+
+	/**
+	 * 一页的转换状态，由转换该页的线程完成
+	 */
+	private static class Slot {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean ready = false;
+		private volatile boolean released = false;
+	}
+
+	private class Document {
+		private final SwfConverter converter;
+		private final String absPdfFilePath;
+		private final File tgtDir;
+		private final String name;
+		private final int pages;
+		// 下标为页码，null表示尚未转换也没有线程在转换
+		private final AtomicReferenceArray<Slot> slots;
+		private volatile boolean closed = false;
+
+		private Document(SwfConverter converter, String absPdfFilePath,
+				File tgtDir, String name, int pages) {
+			this.converter = converter;
+			this.absPdfFilePath = absPdfFilePath;
+			this.tgtDir = tgtDir;
+			this.name = name;
+			this.pages = pages;
+			this.slots = new AtomicReferenceArray<Slot>(pages + 1);
+		}
+
+		private boolean request(int page) {
+			try {
+				while (true) {
+					Slot slot = slots.get(page);
+					if (slot == null) {
+						Slot own = new Slot();
+						if (!slots.compareAndSet(page, null, own)) {
+							continue;
+						}
+						convert(page, page, new Slot[] { own });
+						slot = own;
+					}
+					prefetch(page);
+					slot.done.await();
+					if (!slot.released) {
+						return slot.ready;
+					}
+					// 预取被放弃，自己转换
+				}
+			} catch (InterruptedException e) {
+				logger.error(e.getMessage());
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/**
+		 * 占用page之后尚未转换的页，按连续区间提交预取
+		 */
+		private void prefetch(int page) {
+			int last = Math.min(page + lookahead, pages);
+			int first = page + 1;
+			while (first <= last) {
+				Slot[] claimed = new Slot[last - first + 1];
+				int end = first;
+				for (; end <= last; end++) {
+					Slot slot = new Slot();
+					if (!slots.compareAndSet(end, null, slot)) {
+						break;
+					}
+					claimed[end - first] = slot;
+				}
+				if (end > first) {
+					submit(first, end - 1, claimed);
+				}
+				first = end + 1;
+			}
+		}
+
+		private void submit(final int first, final int last,
+				final Slot[] claimed) {
+			try {
+				prefetcher.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (closed) {
+							release(first, last, claimed);
+						} else {
+							convert(first, last, claimed);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				release(first, last, claimed);
+			}
+		}
+
+		private void convert(int first, int last, Slot[] claimed) {
+			int r = converter.pdf2SwfPages(absPdfFilePath,
+					tgtDir.getAbsolutePath() + File.separator + name + "%.swf",
+					first == last ? String.valueOf(first) : first + "-" + last);
+			for (int i = first; i <= last; i++) {
+				Slot slot = claimed[i - first];
+				slot.ready = r != -1
+						&& new File(tgtDir, name + i + ".swf").isFile();
+				if (!slot.ready) {
+					// 下次请求时重试
+					slots.compareAndSet(i, slot, null);
+				}
+				slot.done.countDown();
+			}
+			if (r == -1) {
+				logger.error("convert pages " + first + "-" + last + " of "
+						+ absPdfFilePath + " fail.");
+			}
+		}
+
+		private void release(int first, int last, Slot[] claimed) {
+			for (int i = first; i <= last; i++) {
+				Slot slot = claimed[i - first];
+				slot.released = true;
+				slots.compareAndSet(i, slot, null);
+				slot.done.countDown();
+			}
+		}
+	}
+}
@@ -3,11 +3,12 @@ package com.laudandjolynn.paper2swf;
 import org.gearman.client.GearmanJobResult;
 import org.gearman.client.GearmanJobResultImpl;
 import org.gearman.util.ByteUtils;
-import org.gearman.worker.AbstractGearmanFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
 import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
 
 /**
  * @author: Laud
@@ -15,36 +16,37 @@ import com.laudandjolynn.paper2swf.utils.ConvertException;
  * @date: 2014年4月21日 下午1:08:21
  * @copyright: www.laudandjolynn.com
  */
-public class Office2PdfConvertFunction extends AbstractGearmanFunction {
+public class Office2PdfConvertFunction extends AbstractConvertFunction {
 	private final static Logger logger = LoggerFactory
 			.getLogger(Office2PdfConvertFunction.class);
 
 	@Override
-	public GearmanJobResult executeFunction() {
-		String data = ByteUtils.fromUTF8Bytes((byte[]) this.data);
-		String[] params = data.split("\0");
-
-		int index = 0;
-		String srcFilePath = params[index++];
-		String destFilePath = params[index++];
+	protected GearmanJobResult convert() {
+		JobPayload payload = JobPayload.decode((byte[]) this.data,
+				JobPayload.SRC_FILE_PATH, JobPayload.DEST_FILE_PATH,
+				JobPayload.OPENOFFICE_HOST, JobPayload.OPENOFFICE_PORT);
+		String srcFilePath = payload.getString(JobPayload.SRC_FILE_PATH);
+		String destFilePath = payload.getString(JobPayload.DEST_FILE_PATH);
 
 		PdfConverter converter = null;
-		if (params.length > index) {
-			String host = params[index++];
-			int port = ByteUtils.fromBigEndian(ByteUtils
-					.toUTF8Bytes(params[index]));
-			converter = new OpenOfficeConverter(host, port);
+		if (payload.has(JobPayload.OPENOFFICE_HOST)) {
+			String host = payload.getString(JobPayload.OPENOFFICE_HOST);
+			int port = payload.getInt(JobPayload.OPENOFFICE_PORT,
+					SocketOpenOfficeConnection.DEFAULT_PORT);
+			converter = OpenOfficeConverterRegistry.getPdfConverter(host, port);
 		} else {
 			converter = new JacobConverter();
 		}
 		int r = converter.office2Pdf(srcFilePath, destFilePath);
-		if (r == -1) {
+		// PdfConverter以1表示成功，0表示失败
+		if (r != 1) {
 			logger.error("convert office to pdf fail.");
 			throw new ConvertException("convert office to pdf fail");
 		}
 
 		GearmanJobResult result = new GearmanJobResultImpl(
-				ByteUtils.toBigEndian(r));
+				this.jobHandle, true, ByteUtils.toBigEndian(r), ByteUtils.EMPTY,
+				ByteUtils.EMPTY, 0, 0);
 		return result;
 	}
 }
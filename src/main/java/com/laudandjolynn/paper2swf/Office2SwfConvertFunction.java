@@ -10,55 +10,81 @@
  ******************************************************************************/
 package com.laudandjolynn.paper2swf;
 
+import java.io.File;
+
 import org.gearman.client.GearmanJobResult;
 import org.gearman.client.GearmanJobResultImpl;
 import org.gearman.util.ByteUtils;
-import org.gearman.worker.AbstractGearmanFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
 import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
 
 /**
+ * office转swf。设置了{@link Paper2Swf#setConvertPipeline(ConvertPipeline)}时，转PDF和转swf两个阶段
+ * 在流水线上执行，同一worker上的多个任务可以交错使用OpenOffice和pdf2swf
+ * 
  * @author: Laud
  * @email: htd0324@gmail.com
  * @date: 2014年4月3日 上午11:07:55
  * @copyright: www.laudandjolynn.com
  */
-public class Office2SwfConvertFunction extends AbstractGearmanFunction {
+public class Office2SwfConvertFunction extends AbstractConvertFunction {
 	private final static Logger logger = LoggerFactory
 			.getLogger(Office2SwfConvertFunction.class);
 
 	@Override
-	public GearmanJobResult executeFunction() {
-		String data = ByteUtils.fromUTF8Bytes((byte[]) this.data);
-		String[] params = data.split("\0");
-
-		int index = 0;
-		String swftoolsFilePath = params[index++];
-		String languageDir = params[index++];
-		String officeFilePath = params[index++];
-		String swfDir = params[index++];
-		String swfFileName = params[index++];
-		boolean paging = params[index++].equals("true") ? true : false;
-
-		int r = -1;
-		if (params.length > index) {
-			String host = params[index++];
-			int port = ByteUtils.fromBigEndian(ByteUtils
-					.toUTF8Bytes(params[index]));
-			r = Paper2Swf.office2Swf_openoffice(host, port, swftoolsFilePath,
-					languageDir, officeFilePath, swfDir, swfFileName, paging);
-		} else {
-			r = Paper2Swf.office2Swf_jacob(swftoolsFilePath, languageDir,
-					officeFilePath, swfDir, swfFileName, paging);
+	protected GearmanJobResult convert() {
+		JobPayload payload = JobPayload.decode((byte[]) this.data,
+				JobPayload.SWFTOOLS_FILE_PATH, JobPayload.LANGUAGE_DIR,
+				JobPayload.SRC_FILE_PATH, JobPayload.SWF_DIR,
+				JobPayload.SWF_FILE_NAME, JobPayload.PAGING,
+				JobPayload.OPENOFFICE_HOST, JobPayload.OPENOFFICE_PORT);
+		String swftoolsFilePath = payload
+				.getString(JobPayload.SWFTOOLS_FILE_PATH);
+		String languageDir = payload.getString(JobPayload.LANGUAGE_DIR);
+		String officeFilePath = payload.getString(JobPayload.SRC_FILE_PATH);
+		String swfDir = payload.getString(JobPayload.SWF_DIR);
+		String swfFileName = payload.getString(JobPayload.SWF_FILE_NAME);
+		boolean paging = payload.getBoolean(JobPayload.PAGING);
+		File workDir = null;
+		if (ContentTransport.isContent(payload)) {
+			workDir = ContentTransport.receive(payload);
+			officeFilePath = ContentTransport.srcFile(payload, workDir)
+					.getPath();
+			swfDir = ContentTransport.swfDir(workDir).getPath();
 		}
-		if (r == -1) {
-			logger.error("convert office to swf fail.");
-			throw new ConvertException("convert office to swf fail");
+
+		try {
+			int r = -1;
+			if (payload.has(JobPayload.OPENOFFICE_HOST)) {
+				String host = payload.getString(JobPayload.OPENOFFICE_HOST);
+				int port = payload.getInt(JobPayload.OPENOFFICE_PORT,
+						SocketOpenOfficeConnection.DEFAULT_PORT);
+				r = Paper2Swf.office2Swf_openoffice(host, port,
+						swftoolsFilePath, languageDir, officeFilePath, swfDir,
+						swfFileName, paging, new WorkStatusListener(this));
+			} else {
+				r = Paper2Swf.office2Swf_jacob(swftoolsFilePath, languageDir,
+						officeFilePath, swfDir, swfFileName, paging,
+						new WorkStatusListener(this));
+			}
+			if (r == -1) {
+				logger.error("convert office to swf fail.");
+				throw new ConvertException("convert office to swf fail");
+			}
+			byte[] data = workDir == null ? ByteUtils.toBigEndian(r)
+					: ContentTransport.pack(workDir, swfFileName, paging, r);
+			GearmanJobResult result = new GearmanJobResultImpl(
+					this.jobHandle, true, data, ByteUtils.EMPTY,
+					ByteUtils.EMPTY, 0, 0);
+			return result;
+		} finally {
+			if (workDir != null) {
+				ContentTransport.release(workDir);
+			}
 		}
-		GearmanJobResult result = new GearmanJobResultImpl(
-				ByteUtils.toBigEndian(r));
-		return result;
 	}
 }
@@ -11,17 +11,22 @@
 package com.laudandjolynn.paper2swf;
 
 import java.io.File;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
-import com.artofsolving.jodconverter.DocumentConverter;
 import com.artofsolving.jodconverter.DocumentFormat;
+import com.artofsolving.jodconverter.DocumentFormatRegistry;
 import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
-import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConverter;
+import com.laudandjolynn.paper2swf.utils.CircuitBreaker;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.OpenOfficePoolConfig;
+import com.laudandjolynn.paper2swf.utils.PooledOpenOfficeConnection;
 import com.laudandjolynn.paper2swf.utils.SocketOpenOfficeConnectionFactory;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
 
 /**
  * open office转换器
@@ -32,6 +37,8 @@ import com.laudandjolynn.paper2swf.utils.SocketOpenOfficeConnectionFactory;
  *  参考资料：http://www.artofsolving.com/node/10
  * </pre>
  * 
+ * 每个OpenOffice服务有一个熔断器，连续连接失败后一段时间内转换直接失败，不再逐个等待连接超时
+ * 
  * @author: Laud
  * @email: htd0324@gmail.com
  * @date: 2014年4月2日 下午8:47:27
@@ -40,7 +47,12 @@ import com.laudandjolynn.paper2swf.utils.SocketOpenOfficeConnectionFactory;
 public class OpenOfficeConverter implements PdfConverter {
 	private final static Logger logger = LoggerFactory
 			.getLogger(OpenOfficeConverter.class);
-	private GenericObjectPool<SocketOpenOfficeConnection> gop = null;
+	private final static DocumentFormatRegistry FORMAT_REGISTRY = new DefaultDocumentFormatRegistry();
+	private final static DocumentFormat PDF_FORMAT = FORMAT_REGISTRY
+			.getFormatByFileExtension("pdf");
+	private GenericObjectPool<PooledOpenOfficeConnection> gop = null;
+	private final String endpoint;
+	private final CircuitBreaker breaker;
 
 	/**
 	 * 默认构造函数，localhost, default port
@@ -58,16 +70,57 @@ public class OpenOfficeConverter implements PdfConverter {
 	 *            openoffice服务端口
 	 */
 	public OpenOfficeConverter(String host, int port) {
+		this(host, port, new OpenOfficePoolConfig());
+	}
+
+	/**
+	 * 
+	 * @param host
+	 *            openoffice服务地址
+	 * @param port
+	 *            openoffice服务端口
+	 * @param poolConfig
+	 *            连接池配置
+	 */
+	public OpenOfficeConverter(String host, int port,
+			OpenOfficePoolConfig poolConfig) {
 		SocketOpenOfficeConnectionFactory factory = new SocketOpenOfficeConnectionFactory(
-				host, port);
-		this.gop = new GenericObjectPool<SocketOpenOfficeConnection>(factory);
+				host, port, FORMAT_REGISTRY, poolConfig);
+		this.gop = new GenericObjectPool<PooledOpenOfficeConnection>(factory,
+				poolConfig.toPoolConfig());
+		this.endpoint = host + ":" + port;
+		this.breaker = new CircuitBreaker(poolConfig.getFailureThreshold(),
+				poolConfig.getOpenInterval(), poolConfig.getMaxOpenInterval());
 	}
 
 	@Override
 	public int office2Pdf(String srcFilePath, String destFilePath) {
-		SocketOpenOfficeConnection conn = null;
+		if (!breaker.allowRequest()) {
+			logger.error("OpenOffice " + endpoint + " is unavailable.");
+			Metrics.failure("openoffice.circuit-open");
+			return 0;
+		}
+		PooledOpenOfficeConnection conn = null;
+		boolean broken = false;
+		// 无法连接或者连接在转换过程中断开，区别于文档本身转换失败
+		boolean unreachable = true;
+		// 连接池耗尽只说明负载高，不代表服务故障，不计入熔断
+		boolean exhausted = false;
+		StageMetrics stage = Metrics.stage(Metrics.OPENOFFICE_CONVERT);
+		long begin = 0;
 		try {
-			conn = gop.borrowObject();
+			long borrowBegin = System.nanoTime();
+			try {
+				conn = gop.borrowObject();
+			} catch (NoSuchElementException e) {
+				exhausted = isExhausted(e);
+				throw e;
+			} finally {
+				Metrics.stage(Metrics.OPENOFFICE_BORROW).record(
+						System.nanoTime() - borrowBegin, conn != null);
+			}
+			unreachable = false;
+			begin = stage.begin();
 			File srcFile = new File(srcFilePath);
 			logger.info("open document with OpenOffice "
 					+ srcFile.getAbsolutePath());
@@ -81,24 +134,95 @@ public class OpenOfficeConverter implements PdfConverter {
 			if (tgtFile.exists()) {
 				tgtFile.delete();
 			}
-			DefaultDocumentFormatRegistry formatRegistry = new DefaultDocumentFormatRegistry();
-			DocumentFormat pdf = formatRegistry.getFormatByFileExtension("pdf");
-			conn.connect();
-			DocumentConverter converter = new OpenOfficeDocumentConverter(conn);
-			converter.convert(srcFile, tgtFile, pdf);
+			conn.getDocumentConverter().convert(srcFile, tgtFile, PDF_FORMAT);
+			conn.markValidated();
+			stage.end(begin, true);
+			begin = 0;
 			return 1;
 		} catch (Exception e) {
-			logger.error("call OpenOffice fail.", e);
+			broken = true;
+			if (exhausted) {
+				Metrics.failure("openoffice.exhausted");
+				logger.error("OpenOffice " + endpoint
+						+ " connection pool is exhausted.", e);
+			} else {
+				unreachable = unreachable || !conn.isConnected();
+				Metrics.failure(unreachable ? "openoffice.unreachable"
+						: "openoffice.convert");
+				logger.error("call OpenOffice fail.", e);
+			}
 		} finally {
+			if (begin != 0) {
+				stage.end(begin, false);
+			}
 			if (conn != null) {
 				try {
-					gop.returnObject(conn);
+					if (broken) {
+						// 转换失败的连接可能已损坏，不再放回池中
+						gop.invalidateObject(conn);
+					} else {
+						gop.returnObject(conn);
+					}
 				} catch (Exception e) {
 					logger.error(e.getMessage(), e);
 				}
 			}
+			if (exhausted) {
+				breaker.recordIgnored();
+			} else {
+				record(unreachable);
+			}
 		}
 		return 0;
 	}
 
+	/**
+	 * 
+	 * @return 熔断器是否会放行转换请求
+	 */
+	public boolean isAvailable() {
+		return breaker.isAvailable();
+	}
+
+	/**
+	 * 
+	 * @return 熔断器状态
+	 */
+	public CircuitBreaker.State getCircuitState() {
+		return breaker.getState();
+	}
+
+	/**
+	 * commons-pool在等待空闲连接超时和新建连接校验失败时都抛出NoSuchElementException，后者说明服务有问题
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private static boolean isExhausted(NoSuchElementException e) {
+		String message = e.getMessage();
+		return message == null
+				|| !message.startsWith("Could not create a validated object");
+	}
+
+	private void record(boolean unreachable) {
+		if (!unreachable) {
+			breaker.recordSuccess();
+		} else if (breaker.recordFailure()) {
+			logger.error("OpenOffice " + endpoint
+					+ " keeps failing, open circuit and evict idle connections.");
+			// 空闲连接连着同一个有问题的服务
+			gop.clear();
+		}
+	}
+
+	/**
+	 * 关闭连接池，断开所有OpenOffice连接
+	 */
+	public void close() {
+		try {
+			gop.close();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
 }
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.laudandjolynn.paper2swf.utils.OpenOfficePoolConfig;
+
+/**
+ * 进程内共享的OpenOffice转换器注册表，按host:port复用转换器及其连接池。
+ * 设置了{@link OpenOfficeFarm}时，发往其地址的请求由本进程看管的实例处理
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月22日 上午11:02:51
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficeConverterRegistry {
+	private final static Map<String, OpenOfficeConverter> converters = new ConcurrentHashMap<String, OpenOfficeConverter>();
+	private static volatile OpenOfficePoolConfig poolConfig = new OpenOfficePoolConfig();
+	private static volatile OpenOfficeFarm farm = null;
+
+	private OpenOfficeConverterRegistry() {
+	}
+
+	/**
+	 * 设置连接池配置，只对之后新建的转换器生效
+	 * 
+	 * @param config
+	 *            连接池配置
+	 */
+	public static void setPoolConfig(OpenOfficePoolConfig config) {
+		poolConfig = config;
+	}
+
+	/**
+	 * 设置本进程看管的OpenOffice实例组，null表示不使用
+	 * 
+	 * @param officeFarm
+	 */
+	public static void setFarm(OpenOfficeFarm officeFarm) {
+		farm = officeFarm;
+	}
+
+	/**
+	 * 取得转换器，地址属于{@link #setFarm(OpenOfficeFarm)}设置的实例组时返回实例组，
+	 * 否则返回{@link #getConverter(String, int)}
+	 * 
+	 * @param host
+	 *            openoffice服务地址
+	 * @param port
+	 *            openoffice服务端口
+	 * @return
+	 */
+	public static PdfConverter getPdfConverter(String host, int port) {
+		OpenOfficeFarm officeFarm = farm;
+		if (officeFarm != null && officeFarm.serves(host, port)) {
+			return officeFarm;
+		}
+		return getConverter(host, port);
+	}
+
+	/**
+	 * 取得指定OpenOffice服务的共享转换器
+	 * 
+	 * @param host
+	 *            openoffice服务地址
+	 * @param port
+	 *            openoffice服务端口
+	 * @return
+	 */
+	public static OpenOfficeConverter getConverter(String host, int port) {
+		String key = host + ":" + port;
+		OpenOfficeConverter converter = converters.get(key);
+		if (converter != null) {
+			return converter;
+		}
+		synchronized (converters) {
+			converter = converters.get(key);
+			if (converter == null) {
+				converter = new OpenOfficeConverter(host, port, poolConfig);
+				converters.put(key, converter);
+			}
+			return converter;
+		}
+	}
+
+	/**
+	 * 关闭所有共享转换器的连接池
+	 */
+	public static void shutdown() {
+		synchronized (converters) {
+			for (OpenOfficeConverter converter : converters.values()) {
+				converter.close();
+			}
+			converters.clear();
+		}
+	}
+}
@@ -0,0 +1,556 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.CircuitBreaker;
+import com.laudandjolynn.paper2swf.utils.OpenOfficePoolConfig;
+import com.laudandjolynn.paper2swf.utils.OutputPump;
+import com.laudandjolynn.paper2swf.utils.ProcessRunner;
+
+/**
+ * 由本进程启动和看管的一组headless OpenOffice实例，监听连续的端口，转换请求轮流分配到各个实例。
+ * soffice会慢慢泄漏内存，实例在完成一定数量的转换、占用内存或者平均转换耗时超过阈值后，
+ * 等正在进行的转换结束再重启；实例意外退出或者连接熔断时也会被重启，熔断的实例不再分配请求。
+ *
+ * <pre>
+ * 默认启动命令：
+ *  soffice -headless -accept=socket,host={host},port={port};urp; -nofirststartwizard -norestore -nologo -env:UserInstallation={profile}
+ *  每个实例使用独立的用户配置目录，否则多个实例无法同时运行
+ * </pre>
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月29日 下午2:16:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficeFarm implements PdfConverter {
+	private final static Logger logger = LoggerFactory
+			.getLogger(OpenOfficeFarm.class);
+	public final static String HOST = "{host}";
+	public final static String PORT = "{port}";
+	public final static String PROFILE = "{profile}";
+	private final static int STARTING = 0;
+	private final static int READY = 1;
+	private final static int DRAINING = 2;
+	private final static int DOWN = 3;
+	private final static int TAIL_SIZE = 2048;
+	private final static long PORT_POLL_INTERVAL = 200;
+	private final static long RETRY_INTERVAL = 5000;
+	// 平均耗时的平滑系数，单个大文档不会立即触发重启
+	private final static double LATENCY_WEIGHT = 0.2;
+	private final List<String> command;
+	private final String host;
+	private final int basePort;
+	private final Instance[] instances;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicInteger restarts = new AtomicInteger();
+	private final ScheduledThreadPoolExecutor supervisor;
+	private OpenOfficePoolConfig poolConfig = new OpenOfficePoolConfig();
+	private int maxConversions = 200;
+	private long maxMemory = 0;
+	private long maxLatency = 0;
+	private long startupTimeout = 60 * 1000;
+	private long checkInterval = 5000;
+	private volatile boolean closed = false;
+
+	/**
+	 * 在本机启动实例
+	 *
+	 * @param sofficePath
+	 *            soffice执行文件路径，比如/usr/lib/openoffice/program/soffice
+	 * @param basePort
+	 *            第一个实例的端口，其余实例依次加1
+	 * @param size
+	 *            实例数
+	 */
+	public OpenOfficeFarm(String sofficePath, int basePort, int size) {
+		this(Arrays.asList(sofficePath, "-headless", "-accept=socket,host="
+				+ HOST + ",port=" + PORT + ";urp;", "-nofirststartwizard",
+				"-norestore", "-nologo", "-env:UserInstallation=" + PROFILE),
+				"127.0.0.1", basePort, size);
+	}
+
+	/**
+	 *
+	 * @param command
+	 *            启动命令，其中的{host}、{port}、{profile}替换为实例的地址、端口和用户配置目录
+	 * @param host
+	 *            实例监听的地址
+	 * @param basePort
+	 *            第一个实例的端口，其余实例依次加1
+	 * @param size
+	 *            实例数
+	 */
+	public OpenOfficeFarm(List<String> command, String host, int basePort,
+			int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be positive.");
+		}
+		this.command = new ArrayList<String>(command);
+		this.host = host;
+		this.basePort = basePort;
+		this.instances = new Instance[size];
+		for (int i = 0; i < size; i++) {
+			instances[i] = new Instance(basePort + i);
+		}
+		this.supervisor = new ScheduledThreadPoolExecutor(size,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "paper2swf-office-"
+								+ count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 *
+	 * @param poolConfig
+	 *            每个实例的连接池配置
+	 */
+	public void setPoolConfig(OpenOfficePoolConfig poolConfig) {
+		this.poolConfig = poolConfig;
+	}
+
+	/**
+	 *
+	 * @param maxConversions
+	 *            实例完成多少次转换后重启，小于等于0表示不限，默认200
+	 */
+	public void setMaxConversions(int maxConversions) {
+		this.maxConversions = maxConversions;
+	}
+
+	/**
+	 *
+	 * @param maxMemory
+	 *            实例及其子进程占用的物理内存超过多少字节后重启，0表示不检查。只支持Linux
+	 */
+	public void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 *
+	 * @param maxLatency
+	 *            实例的平均转换耗时超过多少毫秒后重启，0表示不检查
+	 */
+	public void setMaxLatency(long maxLatency) {
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 *
+	 * @param startupTimeout
+	 *            等待实例开始监听端口的最长时间，也是所有实例都在重启时转换请求的最长等待时间，单位毫秒
+	 */
+	public void setStartupTimeout(long startupTimeout) {
+		this.startupTimeout = startupTimeout;
+	}
+
+	/**
+	 *
+	 * @param checkInterval
+	 *            检查实例是否存活和占用内存的间隔，单位毫秒，默认5秒
+	 */
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * 启动所有实例，阻塞直到实例开始监听端口或者超时。未能启动的实例稍后重试
+	 *
+	 * @return 已就绪的实例数
+	 */
+	public int start() {
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (final Instance instance : instances) {
+			futures.add(supervisor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return launch(instance);
+				}
+			}));
+		}
+		int ready = 0;
+		try {
+			for (Future<Boolean> future : futures) {
+				if (future.get()) {
+					ready++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error(e.getMessage(), e);
+		}
+		supervisor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+		logger.info(ready + " of " + instances.length
+				+ " OpenOffice instances are ready on " + host + ":"
+				+ basePort + "-" + (basePort + instances.length - 1));
+		return ready;
+	}
+
+	/**
+	 *
+	 * @param host
+	 * @param port
+	 * @return 是否为该组实例的地址
+	 */
+	public boolean serves(String host, int port) {
+		return this.host.equals(host) && port >= basePort
+				&& port < basePort + instances.length;
+	}
+
+	@Override
+	public int office2Pdf(String srcFilePath, String destFilePath) {
+		Instance instance = acquire();
+		if (instance == null) {
+			logger.error("no OpenOffice instance is available.");
+			return 0;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			PdfConverter converter = instance.converter;
+			if (converter == null) {
+				// 实例刚被结束
+				return 0;
+			}
+			return converter.office2Pdf(srcFilePath, destFilePath);
+		} finally {
+			release(instance, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 *
+	 * @return 启动以来重启实例的次数
+	 */
+	public int getRestartCount() {
+		return restarts.get();
+	}
+
+	/**
+	 *
+	 * @return 已就绪的实例数
+	 */
+	public int getReadyCount() {
+		int ready = 0;
+		synchronized (instances) {
+			for (Instance instance : instances) {
+				if (instance.state == READY) {
+					ready++;
+				}
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * 停止所有实例
+	 */
+	public void shutdown() {
+		synchronized (instances) {
+			closed = true;
+			instances.notifyAll();
+		}
+		supervisor.shutdownNow();
+		for (Instance instance : instances) {
+			stop(instance);
+		}
+	}
+
+	/**
+	 * 创建连接某个实例的转换器
+	 *
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	protected PdfConverter createConverter(String host, int port) {
+		return new OpenOfficeConverter(host, port, poolConfig);
+	}
+
+	Process getProcess(int index) {
+		return instances[index].process;
+	}
+
+	/**
+	 * 从下一个实例开始轮流查找就绪的实例，有实例正在启动时等待，其余实例都熔断时直接返回
+	 */
+	private Instance acquire() {
+		long deadline = System.currentTimeMillis() + startupTimeout;
+		synchronized (instances) {
+			while (!closed) {
+				int start = next.getAndIncrement();
+				boolean pending = false;
+				for (int i = 0; i < instances.length; i++) {
+					Instance instance = instances[Math.abs((start + i)
+							% instances.length)];
+					if (instance.state != READY) {
+						pending = true;
+						continue;
+					}
+					if (!instance.process.isAlive()) {
+						logger.warn("OpenOffice on port " + instance.port
+								+ " exited unexpectedly.");
+						scheduleRestart(instance, 0);
+						pending = true;
+						continue;
+					}
+					if (instance.converter instanceof OpenOfficeConverter
+							&& !((OpenOfficeConverter) instance.converter)
+									.isAvailable()) {
+						continue;
+					}
+					instance.inFlight++;
+					return instance;
+				}
+				if (!pending) {
+					break;
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					break;
+				}
+				try {
+					instances.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void release(Instance instance, long elapsed) {
+		synchronized (instances) {
+			instance.inFlight--;
+			instance.conversions++;
+			instance.latency = instance.conversions == 1 ? elapsed
+					: instance.latency * (1 - LATENCY_WEIGHT) + elapsed
+							* LATENCY_WEIGHT;
+			if (instance.state == READY) {
+				if (maxConversions > 0
+						&& instance.conversions >= maxConversions) {
+					logger.info("recycle OpenOffice on port " + instance.port
+							+ " after " + instance.conversions
+							+ " conversions.");
+					instance.state = DRAINING;
+				} else if (maxLatency > 0 && instance.latency > maxLatency) {
+					logger.info("recycle OpenOffice on port " + instance.port
+							+ ", average latency " + (long) instance.latency
+							+ "ms.");
+					instance.state = DRAINING;
+				} else if (instance.converter instanceof OpenOfficeConverter
+						&& ((OpenOfficeConverter) instance.converter)
+								.getCircuitState() == CircuitBreaker.State.OPEN) {
+					logger.info("recycle OpenOffice on port " + instance.port
+							+ ", circuit is open.");
+					instance.state = DRAINING;
+				}
+			}
+			if (instance.state == DRAINING && instance.inFlight == 0) {
+				scheduleRestart(instance, 0);
+			}
+		}
+	}
+
+	/**
+	 * 定时检查实例是否存活以及占用的内存
+	 */
+	private void check() {
+		for (Instance instance : instances) {
+			synchronized (instances) {
+				if (instance.state != READY) {
+					continue;
+				}
+				if (!instance.process.isAlive()) {
+					logger.warn("OpenOffice on port " + instance.port
+							+ " exited unexpectedly.");
+					scheduleRestart(instance, 0);
+					continue;
+				}
+			}
+			if (maxMemory <= 0) {
+				continue;
+			}
+			long memory = ProcessRunner.residentMemory(instance.process);
+			synchronized (instances) {
+				if (instance.state == READY && memory > maxMemory) {
+					logger.info("recycle OpenOffice on port " + instance.port
+							+ ", resident memory " + memory + " bytes.");
+					instance.state = DRAINING;
+					if (instance.inFlight == 0) {
+						scheduleRestart(instance, 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 调用时持有instances锁
+	 */
+	private void scheduleRestart(final Instance instance, long delay) {
+		instance.state = STARTING;
+		if (closed) {
+			return;
+		}
+		supervisor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				stop(instance);
+				restarts.incrementAndGet();
+				launch(instance);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean launch(Instance instance) {
+		List<String> cmd = new ArrayList<String>();
+		String profile = new File(System.getProperty("java.io.tmpdir"),
+				"paper2swf-office-" + instance.port).toURI().toString();
+		for (String arg : command) {
+			cmd.add(arg.replace(HOST, host)
+					.replace(PORT, String.valueOf(instance.port))
+					.replace(PROFILE, profile));
+		}
+		OutputPump pump = null;
+		try {
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			instance.process = pb.start();
+			instance.process.getOutputStream().close();
+			pump = new OutputPump(instance.process.getInputStream(), null,
+					TAIL_SIZE);
+			Thread reader = new Thread(pump, "paper2swf-office-reader-"
+					+ instance.port);
+			reader.setDaemon(true);
+			reader.start();
+			if (waitForPort(instance)) {
+				PdfConverter converter = createConverter(host, instance.port);
+				synchronized (instances) {
+					instance.converter = converter;
+					instance.conversions = 0;
+					instance.latency = 0;
+					instance.state = READY;
+					instances.notifyAll();
+				}
+				logger.info("OpenOffice is ready on port " + instance.port);
+				return true;
+			}
+		} catch (IOException e) {
+			logger.error("can not start OpenOffice: " + cmd, e);
+		}
+		logger.error("OpenOffice on port " + instance.port
+				+ " did not start, retry later. output: "
+				+ (pump == null ? "" : pump.getTail()));
+		stop(instance);
+		synchronized (instances) {
+			instance.state = DOWN;
+			if (!closed) {
+				scheduleRestart(instance, RETRY_INTERVAL);
+			}
+		}
+		return false;
+	}
+
+	private boolean waitForPort(Instance instance) {
+		long deadline = System.currentTimeMillis() + startupTimeout;
+		while (!closed && System.currentTimeMillis() < deadline) {
+			if (!instance.process.isAlive()) {
+				return false;
+			}
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, instance.port),
+						(int) PORT_POLL_INTERVAL);
+				return true;
+			} catch (IOException e) {
+				// 还没开始监听
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+			try {
+				Thread.sleep(PORT_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private void stop(Instance instance) {
+		PdfConverter converter = instance.converter;
+		instance.converter = null;
+		if (converter instanceof OpenOfficeConverter) {
+			((OpenOfficeConverter) converter).close();
+		}
+		Process process = instance.process;
+		if (process != null) {
+			ProcessRunner.destroyTree(process);
+			try {
+				// 等待端口释放
+				process.waitFor(startupTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Instance {
+		private final int port;
+		private volatile Process process = null;
+		private volatile PdfConverter converter = null;
+		// 以下字段由instances锁保护
+		private int state = STARTING;
+		private int inFlight = 0;
+		private int conversions = 0;
+		private double latency = 0;
+
+		private Instance(int port) {
+			this.port = port;
+		}
+	}
+}
@@ -11,12 +11,15 @@
 package com.laudandjolynn.paper2swf;
 
 import java.io.File;
-import java.util.UUID;
+import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.ScratchSpace;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
 
 /**
  * @author: Laud
@@ -27,9 +30,93 @@ import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
 public class Paper2Swf {
 	private final static Logger logger = LoggerFactory
 			.getLogger(Paper2Swf.class);
+	private static volatile ConversionCache conversionCache = null;
+	private static volatile ScratchSpace scratchSpace = new ScratchSpace();
+	private static volatile ConvertPipeline convertPipeline = null;
+	private static volatile long swfTimeout = SwfConverter.DEFAULT_TIMEOUT;
+	private static volatile boolean incremental = false;
+	private static volatile WriteBehindPublisher writeBehindPublisher = null;
+	private static volatile LazySwfConverter lazySwfConverter = new LazySwfConverter(
+			2, 5, 64);
 
 	public enum ConvertTech {
-		JACOB, OPEN_OFFICE
+		JACOB, OPEN_OFFICE, ADAPTIVE
+	}
+
+	/**
+	 * 设置转换结果缓存，null表示不使用缓存
+	 * 
+	 * @param cache
+	 *            转换结果缓存
+	 */
+	public static void setConversionCache(ConversionCache cache) {
+		conversionCache = cache;
+	}
+
+	/**
+	 * 设置office转swf时中间PDF的存放位置
+	 * 
+	 * @param space
+	 *            中间文件存放位置
+	 */
+	public static void setScratchSpace(ScratchSpace space) {
+		scratchSpace = space;
+	}
+
+	static ScratchSpace getScratchSpace() {
+		return scratchSpace;
+	}
+
+	/**
+	 * 设置office转swf的流水线，null表示两个阶段都在调用线程上执行
+	 * 
+	 * @param pipeline
+	 *            两阶段流水线
+	 */
+	public static void setConvertPipeline(ConvertPipeline pipeline) {
+		convertPipeline = pipeline;
+	}
+
+	/**
+	 * 设置PDF转swf的超时时间，超时后结束pdf2swf进程，转换失败
+	 * 
+	 * @param timeout
+	 *            超时时间，单位毫秒，0表示不限时
+	 */
+	public static void setSwfTimeout(long timeout) {
+		swfTimeout = timeout;
+	}
+
+	/**
+	 * 设置分页转换是否增量进行，开启后同名文档的修订版只转换变化的页，见
+	 * {@link SwfConverter#setIncremental(boolean)}
+	 * 
+	 * @param incremental
+	 *            是否增量转换
+	 */
+	public static void setIncremental(boolean incremental) {
+		Paper2Swf.incremental = incremental;
+	}
+
+	/**
+	 * 设置swf的延迟发布，pdf2swf输出到本地暂存目录，再在后台移动到swfDir，见
+	 * {@link SwfConverter#setWriteBehindPublisher(WriteBehindPublisher)}
+	 * 
+	 * @param publisher
+	 *            延迟发布器，null表示直接输出到swfDir
+	 */
+	public static void setWriteBehindPublisher(WriteBehindPublisher publisher) {
+		writeBehindPublisher = publisher;
+	}
+
+	/**
+	 * 设置按需转换使用的转换器，决定预取的页数和线程数
+	 * 
+	 * @param converter
+	 *            按需转换器
+	 */
+	public static void setLazySwfConverter(LazySwfConverter converter) {
+		lazySwfConverter = converter;
 	}
 
 	/**
@@ -52,8 +139,143 @@ public class Paper2Swf {
 	public static int pdf2Swf(String swftoolsFilePath, String languageDir,
 			String pdfFilePath, String swfDir, String swfFileName,
 			boolean paging) {
+		return pdf2Swf(swftoolsFilePath, languageDir, pdfFilePath, swfDir,
+				swfFileName, paging, 1);
+	}
+
+	/**
+	 * pdf to swf, sync, 分页时按页码区间并行执行多个pdf2swf进程
+	 * 
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param pdfFilePath
+	 *            源PDF文件路径，包括文件名
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param parallelism
+	 *            并行的pdf2swf进程数
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int pdf2Swf(String swftoolsFilePath, String languageDir,
+			String pdfFilePath, String swfDir, String swfFileName,
+			boolean paging, int parallelism) {
+		return pdf2Swf(swftoolsFilePath, languageDir, pdfFilePath, swfDir,
+				swfFileName, paging, parallelism, null);
+	}
+
+	/**
+	 * pdf to swf, sync, 转换过程中通知进度
+	 * 
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param pdfFilePath
+	 *            源PDF文件路径，包括文件名
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param parallelism
+	 *            并行的pdf2swf进程数
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int pdf2Swf(String swftoolsFilePath, String languageDir,
+			String pdfFilePath, String swfDir, String swfFileName,
+			boolean paging, int parallelism, ProgressListener listener) {
+		ConversionCache cache = conversionCache;
+		String key = cacheKey(cache, pdfFilePath, "pdf2swf", languageDir,
+				String.valueOf(paging));
+		if (key != null) {
+			int pages = cache.materialize(key, swfDir, swfFileName, paging);
+			if (pages != -1) {
+				if (paging) {
+					SwfConverter.pageIndexFile(swfDir, swfFileName).delete();
+				}
+				if (listener != null) {
+					listener.onProgress(pages, pages);
+				}
+				return pages;
+			}
+			if (!paging || !incremental) {
+				// 增量转换要沿用已有的页，由转换器自行清理
+				cache.clearOutput(swfDir, swfFileName, paging);
+			}
+		}
+
+		SwfConverter converter = new SwfConverter(swftoolsFilePath, languageDir);
+		converter.setParallelism(parallelism);
+		converter.setTimeout(swfTimeout);
+		converter.setIncremental(incremental);
+		converter.setWriteBehindPublisher(writeBehindPublisher);
+		int pages = converter.pdf2Swf(pdfFilePath, swfDir, swfFileName,
+				paging, listener);
+		if (key != null && pages != -1) {
+			store(cache, key, swfDir, swfFileName, paging, pages);
+		}
+		return pages;
+	}
+
+	/**
+	 * 登记PDF文档按需分页转换，只取页数，每页在第一次请求时才转换，见
+	 * {@link #requestPage(String, String, int)}
+	 * 
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param pdfFilePath
+	 *            源PDF文件路径，包括文件名，取消登记前不能删除
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @return 返回文档的页数，-1表示登记失败
+	 */
+	public static int registerPdf2Swf(String swftoolsFilePath,
+			String languageDir, String pdfFilePath, String swfDir,
+			String swfFileName) {
 		SwfConverter converter = new SwfConverter(swftoolsFilePath, languageDir);
-		return converter.pdf2Swf(pdfFilePath, swfDir, swfFileName, paging);
+		converter.setTimeout(swfTimeout);
+		return lazySwfConverter.register(converter, pdfFilePath, swfDir,
+				swfFileName);
+	}
+
+	/**
+	 * 请求按需转换的文档的一页，尚未生成时转换该页，阻塞直到完成，并在后台预取之后的页
+	 * 
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param page
+	 *            页码，从1开始
+	 * @return 1表示该页已生成，-1表示失败
+	 */
+	public static int requestPage(String swfDir, String swfFileName, int page) {
+		return lazySwfConverter.requestPage(swfDir, swfFileName, page);
+	}
+
+	/**
+	 * 取消按需转换的登记，已生成的页保留
+	 * 
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 */
+	public static void unregisterPdf2Swf(String swfDir, String swfFileName) {
+		lazySwfConverter.unregister(swfDir, swfFileName);
 	}
 
 	/**
@@ -74,23 +296,33 @@ public class Paper2Swf {
 	public static int office2Swf_jacob(String swftoolsFilePath,
 			String languageDir, String srcFilePath, String swfDir,
 			String swfFileName, boolean paging) {
-		PdfConverter pdfConverter = new JacobConverter();
-		String tempDir = JacobNativesLoader.nativesDir.getAbsolutePath();
-		String pdfFilePath = tempDir + File.separator
-				+ UUID.randomUUID().toString() + ".pdf";
-		File pdfFile = new File(pdfFilePath);
-		try {
-			pdfConverter.office2Pdf(srcFilePath, pdfFilePath);
-			return pdf2Swf(swftoolsFilePath, languageDir, pdfFilePath, swfDir,
-					swfFileName, paging);
-		} catch (Exception e) {
-			logger.error(e.getMessage(), e);
-		} finally {
-			if (pdfFile.exists()) {
-				pdfFile.delete();
-			}
-		}
-		return -1;
+		return office2Swf_jacob(swftoolsFilePath, languageDir, srcFilePath,
+				swfDir, swfFileName, paging, null);
+	}
+
+	/**
+	 * 使用jacob将office转成pdf, 然后再转swf, sync, 转换过程中通知进度
+	 * 
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int office2Swf_jacob(String swftoolsFilePath,
+			String languageDir, String srcFilePath, String swfDir,
+			String swfFileName, boolean paging, ProgressListener listener) {
+		return office2Swf(new JacobConverter(), ConvertTech.JACOB,
+				swftoolsFilePath, languageDir, srcFilePath, swfDir,
+				swfFileName, paging, listener);
 	}
 
 	/**
@@ -115,22 +347,197 @@ public class Paper2Swf {
 	public static int office2Swf_openoffice(String host, int port,
 			String swftoolsFilePath, String languageDir, String officeFilePath,
 			String swfDir, String swfFileName, boolean paging) {
-		PdfConverter pdfConverter = new OpenOfficeConverter(host, port);
-		String tempDir = JacobNativesLoader.nativesDir.getAbsolutePath();
-		String pdfFilePath = tempDir + File.separator
-				+ UUID.randomUUID().toString() + ".pdf";
-		File pdfFile = new File(pdfFilePath);
+		return office2Swf_openoffice(host, port, swftoolsFilePath,
+				languageDir, officeFilePath, swfDir, swfFileName, paging, null);
+	}
+
+	/**
+	 * 使用openoffice将office转成pdf, 然后再转swf, sync, 转换过程中通知进度
+	 * 
+	 * @param host
+	 * @param port
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param officeFilePath
+	 *            office文件路径
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int office2Swf_openoffice(String host, int port,
+			String swftoolsFilePath, String languageDir, String officeFilePath,
+			String swfDir, String swfFileName, boolean paging,
+			ProgressListener listener) {
+		return office2Swf(
+				OpenOfficeConverterRegistry.getPdfConverter(host, port),
+				ConvertTech.OPEN_OFFICE, swftoolsFilePath, languageDir,
+				officeFilePath, swfDir, swfFileName, paging, listener);
+	}
+
+	/**
+	 * 由路由转换器按格式选择jacob或openoffice将office转成pdf, 然后再转swf, sync
+	 * 
+	 * @param converter
+	 *            路由转换器，应在多次转换之间共用，以积累统计
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param officeFilePath
+	 *            office文件路径
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int office2Swf_adaptive(AdaptivePdfConverter converter,
+			String swftoolsFilePath, String languageDir, String officeFilePath,
+			String swfDir, String swfFileName, boolean paging) {
+		return office2Swf_adaptive(converter, swftoolsFilePath, languageDir,
+				officeFilePath, swfDir, swfFileName, paging, null);
+	}
+
+	/**
+	 * 由路由转换器按格式选择jacob或openoffice将office转成pdf, 然后再转swf, sync, 转换过程中通知进度
+	 * 
+	 * @param converter
+	 *            路由转换器，应在多次转换之间共用，以积累统计
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param officeFilePath
+	 *            office文件路径
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public static int office2Swf_adaptive(AdaptivePdfConverter converter,
+			String swftoolsFilePath, String languageDir, String officeFilePath,
+			String swfDir, String swfFileName, boolean paging,
+			ProgressListener listener) {
+		return office2Swf(converter, ConvertTech.ADAPTIVE, swftoolsFilePath,
+				languageDir, officeFilePath, swfDir, swfFileName, paging,
+				listener);
+	}
+
+	private static int office2Swf(final PdfConverter pdfConverter,
+			ConvertTech tech, final String swftoolsFilePath,
+			final String languageDir, final String srcFilePath,
+			final String swfDir, final String swfFileName,
+			final boolean paging, final ProgressListener listener) {
+		final ConversionCache cache = conversionCache;
+		final String key = cacheKey(cache, srcFilePath, tech.name(), languageDir,
+				String.valueOf(paging));
+		if (key != null) {
+			int pages = cache.materialize(key, swfDir, swfFileName, paging);
+			if (pages != -1) {
+				if (paging) {
+					SwfConverter.pageIndexFile(swfDir, swfFileName).delete();
+				}
+				if (listener != null) {
+					listener.onProgress(pages, pages);
+				}
+				return pages;
+			}
+			if (!paging || !incremental) {
+				// 增量转换要沿用已有的页，由转换器自行清理
+				cache.clearOutput(swfDir, swfFileName, paging);
+			}
+		}
+
+		final ScratchSpace space = scratchSpace;
+		// 以源文件大小估计PDF大小
+		final File pdfFile = space.allocate(".pdf",
+				new File(srcFilePath).length());
+		final String pdfFilePath = pdfFile.getAbsolutePath();
+		Callable<Boolean> toPdf = new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				if (pdfConverter.office2Pdf(srcFilePath, pdfFilePath) != 1) {
+					logger.error("convert office to pdf fail.");
+					return false;
+				}
+				return true;
+			}
+		};
+		Callable<Integer> toSwf = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				SwfConverter converter = new SwfConverter(swftoolsFilePath,
+						languageDir);
+				converter.setTimeout(swfTimeout);
+				converter.setIncremental(incremental);
+				converter.setWriteBehindPublisher(writeBehindPublisher);
+				int pages = converter.pdf2Swf(pdfFilePath, swfDir,
+						swfFileName, paging, listener);
+				if (key != null && pages != -1) {
+					store(cache, key, swfDir, swfFileName, paging, pages);
+				}
+				return pages;
+			}
+		};
+		ConvertPipeline pipeline = convertPipeline;
 		try {
-			pdfConverter.office2Pdf(officeFilePath, pdfFilePath);
-			return pdf2Swf(swftoolsFilePath, languageDir, pdfFilePath, swfDir,
-					swfFileName, paging);
+			if (pipeline != null) {
+				return pipeline.execute(toPdf, toSwf, -1);
+			}
+			return toPdf.call() ? toSwf.call() : -1;
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 		} finally {
-			if (pdfFile.exists()) {
-				pdfFile.delete();
-			}
+			long begin = System.nanoTime();
+			space.release(pdfFile);
+			Metrics.stage(Metrics.SCRATCH_RELEASE).record(
+					System.nanoTime() - begin, true);
 		}
 		return -1;
 	}
+
+	private static void store(ConversionCache cache, String key,
+			String swfDir, String swfFileName, boolean paging, int pages) {
+		StageMetrics stage = Metrics.stage(Metrics.CACHE_STORE);
+		long begin = stage.begin();
+		boolean succeeded = false;
+		try {
+			cache.store(key, swfDir, swfFileName, paging, pages);
+			succeeded = true;
+		} finally {
+			stage.end(begin, succeeded);
+		}
+	}
+
+	/**
+	 * 计算缓存键，未设置缓存或源文件不可读时返回null
+	 */
+	private static String cacheKey(ConversionCache cache, String srcFilePath,
+			String... options) {
+		if (cache == null) {
+			return null;
+		}
+		try {
+			return cache.key(new File(srcFilePath), options);
+		} catch (IOException e) {
+			logger.error("digest source file fail.", e);
+		}
+		return null;
+	}
+
 }
@@ -10,14 +10,16 @@
  ******************************************************************************/
 package com.laudandjolynn.paper2swf;
 
+import java.io.File;
+
 import org.gearman.client.GearmanJobResult;
 import org.gearman.client.GearmanJobResultImpl;
 import org.gearman.util.ByteUtils;
-import org.gearman.worker.AbstractGearmanFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
 
 /**
  * @author: Laud
@@ -25,32 +27,49 @@ import com.laudandjolynn.paper2swf.utils.ConvertException;
  * @date: 2014年4月2日 下午10:34:00
  * @copyright: www.laudandjolynn.com
  */
-public class Pdf2SwfConvertFunction extends AbstractGearmanFunction {
+public class Pdf2SwfConvertFunction extends AbstractConvertFunction {
 	private final static Logger logger = LoggerFactory
 			.getLogger(Pdf2SwfConvertFunction.class);
 
 	@Override
-	public GearmanJobResult executeFunction() {
-		String data = ByteUtils.fromUTF8Bytes((byte[]) this.data);
-		String[] params = data.split("\0");
+	protected GearmanJobResult convert() {
+		JobPayload payload = JobPayload.decode((byte[]) this.data,
+				JobPayload.SWFTOOLS_FILE_PATH, JobPayload.LANGUAGE_DIR,
+				JobPayload.SRC_FILE_PATH, JobPayload.SWF_DIR,
+				JobPayload.SWF_FILE_NAME, JobPayload.PAGING);
+		String swftoolsFilePath = payload
+				.getString(JobPayload.SWFTOOLS_FILE_PATH);
+		String languageDir = payload.getString(JobPayload.LANGUAGE_DIR);
+		String pdfFilePath = payload.getString(JobPayload.SRC_FILE_PATH);
+		String swfDir = payload.getString(JobPayload.SWF_DIR);
+		String swfFileName = payload.getString(JobPayload.SWF_FILE_NAME);
+		boolean paging = payload.getBoolean(JobPayload.PAGING);
+		File workDir = null;
+		if (ContentTransport.isContent(payload)) {
+			workDir = ContentTransport.receive(payload);
+			pdfFilePath = ContentTransport.srcFile(payload, workDir).getPath();
+			swfDir = ContentTransport.swfDir(workDir).getPath();
+		}
 
-		int index = 0;
-		String swftoolsFilePath = params[index++];
-		String languageDir = params[index++];
-		String pdfFilePath = params[index++];
-		String swfDir = params[index++];
-		String swfFileName = params[index++];
-		boolean paging = params[index].equals("true") ? true : false;
+		try {
+			int r = Paper2Swf.pdf2Swf(swftoolsFilePath, languageDir,
+					pdfFilePath, swfDir, swfFileName, paging, 1,
+					new WorkStatusListener(this));
+			if (r == -1) {
+				logger.error("convert pdf to swf fail.");
+				throw new ConvertException("convert pdf to swf fail");
+			}
 
-		int r = Paper2Swf.pdf2Swf(swftoolsFilePath, languageDir, pdfFilePath,
-				swfDir, swfFileName, paging);
-		if (r == -1) {
-			logger.error("convert pdf to swf fail.");
-			throw new ConvertException("convert pdf to swf fail");
+			byte[] data = workDir == null ? ByteUtils.toBigEndian(r)
+					: ContentTransport.pack(workDir, swfFileName, paging, r);
+			GearmanJobResult result = new GearmanJobResultImpl(
+					this.jobHandle, true, data, ByteUtils.EMPTY,
+					ByteUtils.EMPTY, 0, 0);
+			return result;
+		} finally {
+			if (workDir != null) {
+				ContentTransport.release(workDir);
+			}
 		}
-
-		GearmanJobResult result = new GearmanJobResultImpl(
-				ByteUtils.toBigEndian(r));
-		return result;
 	}
 }
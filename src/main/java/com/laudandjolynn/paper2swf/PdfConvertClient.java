@@ -1,19 +1,30 @@
 package com.laudandjolynn.paper2swf;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import org.gearman.client.GearmanClient;
 import org.gearman.client.GearmanClientImpl;
 import org.gearman.client.GearmanJob;
+import org.gearman.client.GearmanJob.JobPriority;
 import org.gearman.client.GearmanJobImpl;
+import org.gearman.client.GearmanJobResult;
 import org.gearman.client.GearmanJobStatus;
 import org.gearman.common.GearmanJobServerConnection;
+import org.gearman.common.GearmanJobServerIpConnection;
 import org.gearman.common.GearmanNIOJobServerConnection;
-import org.gearman.util.ByteUtils;
+import org.gearman.common.GearmanPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobLane;
+import com.laudandjolynn.paper2swf.utils.JobServerGroup;
+import com.laudandjolynn.paper2swf.utils.JobSubmitPipeline;
 
 /**
  * @author: Laud
@@ -24,7 +35,11 @@ import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
 public class PdfConvertClient {
 	private final static Logger logger = LoggerFactory
 			.getLogger(PdfConvertClient.class);
+	private final List<GearmanJobServerConnection> conns;
 	private GearmanClient client;
+	private JobServerGroup servers = new JobServerGroup();
+	private boolean coalesce = false;
+	private JobPriority priority = JobPriority.NORMAL;
 
 	/**
 	 * 
@@ -32,8 +47,23 @@ public class PdfConvertClient {
 	 *            job server连接对象
 	 */
 	public PdfConvertClient(GearmanJobServerConnection conn) {
-		client = new GearmanClientImpl();
-		client.addJobServer(conn);
+		this(Collections.singletonList(conn));
+	}
+
+	/**
+	 * 
+	 * @param conns
+	 *            多个job server的连接对象，提交的任务分摊到各个job server，某个job server
+	 *            不可用时改投其他job server
+	 */
+	public PdfConvertClient(List<GearmanJobServerConnection> conns) {
+		this.conns = conns;
+		for (GearmanJobServerConnection conn : conns) {
+			if (conn instanceof GearmanJobServerIpConnection) {
+				GearmanJobServerIpConnection ipConn = (GearmanJobServerIpConnection) conn;
+				servers.addServer(ipConn.getHost(), ipConn.getPort());
+			}
+		}
 	}
 
 	/**
@@ -47,6 +77,27 @@ public class PdfConvertClient {
 		this(new GearmanNIOJobServerConnection(host, port));
 	}
 
+	/**
+	 * 
+	 * @param coalesce
+	 *            是否以源文件内容和转换参数作为任务唯一标识，job server会把相同的未结束任务合并为一次执行，
+	 *            默认为false。批量提交和异步提交可以逐次指定
+	 */
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * 
+	 * @param priority
+	 *            任务优先级，默认为NORMAL。HIGH用于等待结果的交互请求，提交到worker保留了执行能力的交互通道，
+	 *            见{@link JobLane}；LOW用于批量转换，job server优先分派同一通道中优先级高的任务。
+	 *            批量提交和异步提交可以逐次指定
+	 */
+	public void setPriority(JobPriority priority) {
+		this.priority = priority;
+	}
+
 	/**
 	 * 
 	 * @param srcFilePath
@@ -55,7 +106,7 @@ public class PdfConvertClient {
 	 *            目的文件路径
 	 */
 	public void office2Pdf_jacob(String srcFilePath, String destFilePath) {
-		office2Pdf(srcFilePath, destFilePath, null);
+		submit(PdfConvertRequest.office2Pdf_jacob(srcFilePath, destFilePath));
 	}
 
 	/**
@@ -70,66 +121,125 @@ public class PdfConvertClient {
 	 */
 	public void office2Pdf_openoffice(String host, int port,
 			String srcFilePath, String destFilePath) {
-		office2Pdf(srcFilePath, destFilePath, new OpenOfficeConfig(host, port));
+		submit(PdfConvertRequest.office2Pdf_openoffice(host, port,
+				srcFilePath, destFilePath));
 	}
 
 	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
 	 * 
-	 * @param type
-	 *            转换方式
-	 * @param srcFilePath
-	 *            源文件路径
-	 * @param destFilePath
-	 *            目的文件路径
-	 * @param cfg
-	 *            OpenOffice配置
+	 * @param requests
+	 *            转换请求
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<PdfConvertRequest> requests)
+			throws IOException {
+		return submitBatch(requests, coalesce, priority);
+	}
+
+	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
+	 * 
+	 * @param requests
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<PdfConvertRequest> requests,
+			boolean coalesce) throws IOException {
+		return submitBatch(requests, coalesce, priority);
+	}
+
+	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
+	 * 
+	 * @param requests
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @param priority
+	 *            任务优先级，见{@link #setPriority(JobPriority)}
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<PdfConvertRequest> requests,
+			boolean coalesce, JobPriority priority) throws IOException {
+		if (servers.size() == 0) {
+			throw new IllegalStateException(
+					"Batch submission requires ip job server connections");
+		}
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>(
+				requests.size());
+		for (PdfConvertRequest request : requests) {
+			packets.add(JobSubmitPipeline.backgroundJob(request.getFunction(),
+					uniqueId(request, coalesce), request.toPayload(), priority));
+		}
+		return servers.submitBatch(packets);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(PdfConvertRequest request) {
+		return submitAsync(request, coalesce, priority);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
 	 */
-	private void office2Pdf(String srcFilePath, String destFilePath,
-			OpenOfficeConfig cfg) {
-		byte[] srcFilePathData = ByteUtils.toUTF8Bytes(srcFilePath);
-		int srcFilePathDataLen = srcFilePathData.length;
-		byte[] destFilePathData = ByteUtils.toUTF8Bytes(destFilePath);
-		int destFilePathDataLen = destFilePathData.length;
-
-		int totalBytes = srcFilePathDataLen + destFilePathDataLen + 1;
-		byte[] data = new byte[totalBytes];
-		int offset = 0;
-
-		// src file path
-		System.arraycopy(srcFilePathData, 0, data, offset, srcFilePathDataLen);
-		offset += srcFilePathDataLen;
-		data[offset++] = '\0';
-
-		// dest file path
-		System.arraycopy(destFilePathData, 0, data, offset, destFilePathDataLen);
-
-		if (cfg != null) {// open office
-			byte[] hostData = ByteUtils.toUTF8Bytes(cfg.getHost());
-			int hostDataLen = hostData.length;
-			byte[] portData = ByteUtils.toBigEndian(cfg.getPort());
-			int portDataLen = portData.length;
-
-			byte[] oo = new byte[totalBytes + hostDataLen + portDataLen + 2];
-			offset += destFilePathDataLen;
-			data[offset++] = '\0';
-
-			System.arraycopy(data, 0, oo, 0, data.length);
-
-			// host
-			System.arraycopy(hostData, 0, oo, offset, hostDataLen);
-			offset += hostDataLen;
-			data[offset++] = '\0';
-
-			// port
-			System.arraycopy(portData, 0, oo, offset, portDataLen);
-
-			data = oo;
+	public CompletableFuture<ConversionResult> submitAsync(
+			PdfConvertRequest request, boolean coalesce) {
+		return submitAsync(request, coalesce, priority);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接。
+	 * pdf转换不支持内容传输方式，worker直接写入destFilePath，见{@link PdfConvertRequest}
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @param priority
+	 *            任务优先级，见{@link #setPriority(JobPriority)}
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(
+			PdfConvertRequest request, boolean coalesce, JobPriority priority) {
+		if (servers.size() == 0) {
+			throw new IllegalStateException(
+					"Async submission requires ip job server connections");
 		}
+		return servers.submit(request.getFunction(),
+				uniqueId(request, coalesce), request.toPayload(), priority)
+				.thenApply(
+				new Function<GearmanJobResult, ConversionResult>() {
+					@Override
+					public ConversionResult apply(GearmanJobResult jobResult) {
+						return ConversionResult.fromJobResult(jobResult);
+					}
+				});
+	}
 
-		String function = Office2PdfConvertFunction.class.getCanonicalName();
-		String uniqueId = null;
-		GearmanJob job = GearmanJobImpl.createBackgroundJob(function, data,
-				uniqueId);
+	private void submit(PdfConvertRequest request) {
+		String uniqueId = uniqueId(request, coalesce);
+		GearmanJob job = GearmanJobImpl.createBackgroundJob(
+				JobLane.function(request.getFunction(), priority),
+				request.toPayload(), priority, uniqueId);
+		GearmanClient client = client();
 		client.submit(job);
 
 		try {
@@ -141,4 +251,47 @@ public class PdfConvertClient {
 			logger.error(e.getMessage(), e);
 		}
 	}
+
+	/**
+	 * 
+	 * @param request
+	 * @param coalesce
+	 * @return 不合并或者无法读取源文件时为null
+	 */
+	private String uniqueId(PdfConvertRequest request, boolean coalesce) {
+		if (!coalesce) {
+			return null;
+		}
+		try {
+			return request.uniqueId();
+		} catch (IOException e) {
+			// 源文件可能只对worker可见，退回不合并
+			logger.warn("can not digest " + request.getSrcFilePath()
+					+ ", submit without unique id. " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 后台任务使用gearman-java客户端，首次用到时才连接job server，
+	 * 只使用{@link #submitAsync(PdfConvertRequest)}的客户端不建立这些连接
+	 * 
+	 * @return gearman-java客户端
+	 */
+	private synchronized GearmanClient client() {
+		if (client == null) {
+			client = new GearmanClientImpl();
+			for (GearmanJobServerConnection conn : conns) {
+				client.addJobServer(conn);
+			}
+		}
+		return client;
+	}
+
+	public synchronized void shutdown() throws IllegalStateException {
+		if (client != null) {
+			client.shutdown();
+		}
+		servers.close();
+	}
 }
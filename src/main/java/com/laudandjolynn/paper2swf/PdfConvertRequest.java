@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.laudandjolynn.paper2swf.utils.ContentDigest;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
+
+/**
+ * 一次pdf转换请求，对应{@link PdfConvertClient}的一次提交，用于批量提交。
+ * 
+ * <p>
+ * pdf转换只能以路径方式提交，没有{@link SwfConvertRequest#withContent()}那样的内容传输方式：
+ * worker按srcFilePath读取源文件，按destFilePath写入pdf，客户端与worker必须共享文件系统。
+ * OpenOffice同样按路径读写文件，也要能访问这些路径
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午10:52:13
+ * @copyright: www.laudandjolynn.com
+ */
+public class PdfConvertRequest {
+	private final String srcFilePath;
+	private final String destFilePath;
+	private final OpenOfficeConfig openOfficeConfig;
+
+	private PdfConvertRequest(String srcFilePath, String destFilePath,
+			OpenOfficeConfig cfg) {
+		this.srcFilePath = srcFilePath;
+		this.destFilePath = destFilePath;
+		this.openOfficeConfig = cfg;
+	}
+
+	/**
+	 *
+	 * @param srcFilePath
+	 *            源文件路径
+	 * @param destFilePath
+	 *            目的文件路径
+	 * @return
+	 */
+	public static PdfConvertRequest office2Pdf_jacob(String srcFilePath,
+			String destFilePath) {
+		return new PdfConvertRequest(srcFilePath, destFilePath, null);
+	}
+
+	/**
+	 *
+	 * @param host
+	 *            openoffice服务地址
+	 * @param port
+	 *            openoffice服务端口
+	 * @param srcFilePath
+	 *            源文件路径
+	 * @param destFilePath
+	 *            目的文件路径
+	 * @return
+	 */
+	public static PdfConvertRequest office2Pdf_openoffice(String host,
+			int port, String srcFilePath, String destFilePath) {
+		return new PdfConvertRequest(srcFilePath, destFilePath,
+				new OpenOfficeConfig(host, port));
+	}
+
+	/**
+	 *
+	 * @return worker上注册的函数名
+	 */
+	public String getFunction() {
+		return Office2PdfConvertFunction.class.getCanonicalName();
+	}
+
+	public String getSrcFilePath() {
+		return srcFilePath;
+	}
+
+	public String getDestFilePath() {
+		return destFilePath;
+	}
+
+	/**
+	 *
+	 * @return 任务数据
+	 */
+	public byte[] toPayload() {
+		JobPayload payload = new JobPayload().putString(
+				JobPayload.SRC_FILE_PATH, srcFilePath).putString(
+				JobPayload.DEST_FILE_PATH, destFilePath);
+		if (openOfficeConfig != null) {// open office
+			payload.putString(JobPayload.OPENOFFICE_HOST,
+					openOfficeConfig.getHost()).putInt(
+					JobPayload.OPENOFFICE_PORT, openOfficeConfig.getPort());
+		}
+		return payload.toBytes();
+	}
+
+	/**
+	 * 由源文件内容和目的文件路径计算任务唯一标识，见{@link SwfConvertRequest#uniqueId()}
+	 *
+	 * @return 任务唯一标识
+	 * @throws IOException
+	 *             读取源文件失败
+	 */
+	public String uniqueId() throws IOException {
+		return ContentDigest.digest(new File(srcFilePath), getFunction(),
+				destFilePath);
+	}
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+/**
+ * 转换进度监听器
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 上午9:20:14
+ * @copyright: www.laudandjolynn.com
+ */
+public interface ProgressListener {
+	/**
+	 * 转换进度
+	 * 
+	 * @param numerator
+	 *            已转换完成的页数
+	 * @param denominator
+	 *            总页数，0表示未知
+	 */
+	public void onProgress(long numerator, long denominator);
+}
@@ -11,19 +11,35 @@
 package com.laudandjolynn.paper2swf;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.gearman.client.GearmanClient;
 import org.gearman.client.GearmanClientImpl;
 import org.gearman.client.GearmanJob;
+import org.gearman.client.GearmanJob.JobPriority;
 import org.gearman.client.GearmanJobImpl;
+import org.gearman.client.GearmanJobResult;
 import org.gearman.client.GearmanJobStatus;
 import org.gearman.common.GearmanJobServerConnection;
+import org.gearman.common.GearmanJobServerIpConnection;
 import org.gearman.common.GearmanNIOJobServerConnection;
-import org.gearman.util.ByteUtils;
+import org.gearman.common.GearmanPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobLane;
+import com.laudandjolynn.paper2swf.utils.JobMultiplexer;
+import com.laudandjolynn.paper2swf.utils.JobServerGroup;
+import com.laudandjolynn.paper2swf.utils.JobSubmitPipeline;
 
 /**
  * @author: Laud
@@ -34,7 +50,12 @@ import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
 public class SwfConvertClient {
 	private final static Logger logger = LoggerFactory
 			.getLogger(SwfConvertClient.class);
+	private final List<GearmanJobServerConnection> conns;
 	private GearmanClient client;
+	private ExecutorService unpackExecutor;
+	private JobServerGroup servers = new JobServerGroup();
+	private boolean coalesce = false;
+	private JobPriority priority = JobPriority.NORMAL;
 
 	/**
 	 * 
@@ -42,8 +63,23 @@ public class SwfConvertClient {
 	 *            job server连接对象
 	 */
 	public SwfConvertClient(GearmanJobServerConnection conn) {
-		client = new GearmanClientImpl();
-		client.addJobServer(conn);
+		this(Collections.singletonList(conn));
+	}
+
+	/**
+	 * 
+	 * @param conns
+	 *            多个job server的连接对象，提交的任务分摊到各个job server，某个job server
+	 *            不可用时改投其他job server
+	 */
+	public SwfConvertClient(List<GearmanJobServerConnection> conns) {
+		this.conns = conns;
+		for (GearmanJobServerConnection conn : conns) {
+			if (conn instanceof GearmanJobServerIpConnection) {
+				GearmanJobServerIpConnection ipConn = (GearmanJobServerIpConnection) conn;
+				servers.addServer(ipConn.getHost(), ipConn.getPort());
+			}
+		}
 	}
 
 	/**
@@ -57,6 +93,27 @@ public class SwfConvertClient {
 		this(new GearmanNIOJobServerConnection(host, port));
 	}
 
+	/**
+	 * 
+	 * @param coalesce
+	 *            是否以源文件内容和转换参数作为任务唯一标识，job server会把相同的未结束任务合并为一次执行，
+	 *            默认为false。批量提交和异步提交可以逐次指定
+	 */
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * 
+	 * @param priority
+	 *            任务优先级，默认为NORMAL。HIGH用于等待结果的交互请求，提交到worker保留了执行能力的交互通道，
+	 *            见{@link JobLane}；LOW用于批量转换，job server优先分派同一通道中优先级高的任务。
+	 *            批量提交和异步提交可以逐次指定
+	 */
+	public void setPriority(JobPriority priority) {
+		this.priority = priority;
+	}
+
 	/**
 	 * 
 	 * @param swftoolsFilePath
@@ -71,151 +128,21 @@ public class SwfConvertClient {
 	 *            swf文件名
 	 * @param paging
 	 *            是否分页
+	 * @return 已提交的后台任务
 	 */
-	public void pdf2Swf(String swftoolsFilePath, String languageDir,
+	public GearmanJob pdf2Swf(String swftoolsFilePath, String languageDir,
 			String pdfFilePath, String swfDir, String swfFileName,
 			boolean paging) {
-		byte[] swftoolsFilePathData = ByteUtils.toUTF8Bytes(swftoolsFilePath);
-		int swftoolsFilePathDataLen = swftoolsFilePathData.length;
-		byte[] languageDirData = ByteUtils.toUTF8Bytes(languageDir);
-		int languageDirDataLen = languageDirData.length;
-		byte[] pdfFilePathData = ByteUtils.toUTF8Bytes(pdfFilePath);
-		int pdfFilePathDataLen = pdfFilePathData.length;
-		byte[] swfDirData = ByteUtils.toUTF8Bytes(swfDir);
-		int swfDirDataLen = swfDirData.length;
-		byte[] swfFileNameData = ByteUtils.toUTF8Bytes(swfFileName);
-		int swfFileNameDataLen = swfFileNameData.length;
-		byte[] pagingData = paging ? "true".getBytes() : "false".getBytes();
-		int pagingDataLen = pagingData.length;
-
-		int totalBytes = swftoolsFilePathDataLen + languageDirDataLen
-				+ pdfFilePathDataLen + swfDirDataLen + swfFileNameDataLen
-				+ pagingDataLen + 5;
-		byte[] data = new byte[totalBytes];
-		int offset = 0;
-		// swf tools file path
-		System.arraycopy(swftoolsFilePathData, 0, data, offset,
-				swftoolsFilePathDataLen);
-		offset += swftoolsFilePathDataLen;
-		data[offset++] = '\0';
-
-		// language dir
-		System.arraycopy(languageDirData, 0, data, offset, languageDirDataLen);
-		offset += languageDirDataLen;
-		data[offset++] = '\0';
-
-		// pdf file path
-		System.arraycopy(pdfFilePathData, 0, data, offset, pdfFilePathDataLen);
-		offset += pdfFilePathDataLen;
-		data[offset++] = '\0';
-
-		// swf dir
-		System.arraycopy(swfDirData, 0, data, offset, swfDirDataLen);
-		offset += swfDirDataLen;
-		data[offset++] = '\0';
-
-		// swf file name
-		System.arraycopy(swfFileNameData, 0, data, offset, swfFileNameDataLen);
-		offset += swfFileNameDataLen;
-		data[offset++] = '\0';
-
-		// paging
-		System.arraycopy(pagingData, 0, data, offset, pagingDataLen);
-
-		String function = Pdf2SwfConvertFunction.class.getCanonicalName();
-		String uniqueId = null;
-		GearmanJob job = GearmanJobImpl.createBackgroundJob(function, data,
-				uniqueId);
-		client.submit(job);
-
-		try {
-			GearmanJobStatus status = client.getJobStatus(job);
-			logger.info("job status: " + status);
-		} catch (IllegalStateException e) {
-			logger.error(e.getMessage(), e);
-		} catch (IOException e) {
-			logger.error(e.getMessage(), e);
-		}
+		return submit(SwfConvertRequest.pdf2Swf(swftoolsFilePath, languageDir,
+				pdfFilePath, swfDir, swfFileName, paging));
 	}
 
-	private void office2Swf(String swftoolsFilePath, String languageDir,
-			String srcFilePath, String swfDir, String swfFileName,
-			boolean paging, OpenOfficeConfig cfg) {
-		byte[] swftoolsFilePathData = ByteUtils.toUTF8Bytes(swftoolsFilePath);
-		int swftoolsFilePathDataLen = swftoolsFilePathData.length;
-		byte[] languageDirData = ByteUtils.toUTF8Bytes(languageDir);
-		int languageDirDataLen = languageDirData.length;
-		byte[] officeFilePathData = ByteUtils.toUTF8Bytes(srcFilePath);
-		int officeFilePathDataLen = officeFilePathData.length;
-		byte[] swfDirData = ByteUtils.toUTF8Bytes(swfDir);
-		int swfDirDataLen = swfDirData.length;
-		byte[] swfFileNameData = ByteUtils.toUTF8Bytes(swfFileName);
-		int swfFileNameDataLen = swfFileNameData.length;
-		byte[] pagingData = paging ? "true".getBytes() : "false".getBytes();
-		int pagingDataLen = pagingData.length;
-
-		int totalBytes = swftoolsFilePathDataLen + languageDirDataLen
-				+ officeFilePathDataLen + swfDirDataLen + swfFileNameDataLen
-				+ pagingDataLen + 5;
-		byte[] data = new byte[totalBytes];
-		int offset = 0;
-		// swf tools file path
-		System.arraycopy(swftoolsFilePathData, 0, data, offset,
-				swftoolsFilePathDataLen);
-		offset += swftoolsFilePathDataLen;
-		data[offset++] = '\0';
-
-		// language dir
-		System.arraycopy(languageDirData, 0, data, offset, languageDirDataLen);
-		offset += languageDirDataLen;
-		data[offset++] = '\0';
-
-		// office file path
-		System.arraycopy(officeFilePathData, 0, data, offset,
-				officeFilePathDataLen);
-		offset += officeFilePathDataLen;
-		data[offset++] = '\0';
-
-		// swf dir
-		System.arraycopy(swfDirData, 0, data, offset, swfDirDataLen);
-		offset += swfDirDataLen;
-		data[offset++] = '\0';
-
-		// swf file name
-		System.arraycopy(swfFileNameData, 0, data, offset, swfFileNameDataLen);
-		offset += swfFileNameDataLen;
-		data[offset++] = '\0';
-
-		// paging
-		System.arraycopy(pagingData, 0, data, offset, pagingDataLen);
-
-		if (cfg != null) {// open office
-			byte[] hostData = ByteUtils.toUTF8Bytes(cfg.getHost());
-			int hostDataLen = hostData.length;
-			byte[] portData = ByteUtils.toBigEndian(cfg.getPort());
-			int portDataLen = portData.length;
-
-			byte[] oo = new byte[totalBytes + hostDataLen + portDataLen + 2];
-			offset += pagingDataLen;
-			data[offset++] = '\0';
-
-			System.arraycopy(data, 0, oo, 0, data.length);
-
-			// host
-			System.arraycopy(hostData, 0, oo, offset, hostDataLen);
-			offset += hostDataLen;
-			data[offset++] = '\0';
-
-			// port
-			System.arraycopy(portData, 0, oo, offset, portDataLen);
-
-			data = oo;
-		}
-
-		String function = Office2SwfConvertFunction.class.getCanonicalName();
-		String uniqueId = null;
-		GearmanJob job = GearmanJobImpl.createBackgroundJob(function, data,
-				uniqueId);
+	private GearmanJob submit(SwfConvertRequest request) {
+		String uniqueId = uniqueId(request, coalesce);
+		GearmanJob job = GearmanJobImpl.createBackgroundJob(
+				JobLane.function(request.getFunction(), priority),
+				request.toPayload(), priority, uniqueId);
+		GearmanClient client = client();
 		client.submit(job);
 
 		try {
@@ -226,6 +153,7 @@ public class SwfConvertClient {
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
 		}
+		return job;
 	}
 
 	/**
@@ -246,12 +174,14 @@ public class SwfConvertClient {
 	 *            swf文件名
 	 * @param paging
 	 *            是否分页
+	 * @return 已提交的后台任务
 	 */
-	public void office2Swf_openoffice(String host, int port,
+	public GearmanJob office2Swf_openoffice(String host, int port,
 			String swftoolsFilePath, String languageDir, String officeFilePath,
 			String swfDir, String swfFileName, boolean paging) {
-		office2Swf(swftoolsFilePath, languageDir, officeFilePath, swfDir,
-				swfFileName, paging, new OpenOfficeConfig(host, port));
+		return submit(SwfConvertRequest.office2Swf_openoffice(host, port,
+				swftoolsFilePath, languageDir, officeFilePath, swfDir,
+				swfFileName, paging));
 	}
 
 	/**
@@ -268,18 +198,263 @@ public class SwfConvertClient {
 	 *            swf文件名
 	 * @param paging
 	 *            是否分页
+	 * @return 已提交的后台任务
 	 */
-	public void office2Swf_jacob(String swftoolsFilePath, String languageDir,
-			String officeFilePath, String swfDir, String swfFileName,
-			boolean paging) {
-		office2Swf(swftoolsFilePath, languageDir, officeFilePath, swfDir,
-				swfFileName, paging, null);
+	public GearmanJob office2Swf_jacob(String swftoolsFilePath,
+			String languageDir, String officeFilePath, String swfDir,
+			String swfFileName, boolean paging) {
+		return submit(SwfConvertRequest.office2Swf_jacob(swftoolsFilePath,
+				languageDir, officeFilePath, swfDir, swfFileName, paging));
+	}
+
+	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
+	 * 
+	 * @param requests
+	 *            转换请求
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<SwfConvertRequest> requests)
+			throws IOException {
+		return submitBatch(requests, coalesce, priority);
 	}
 
-	public void shutdown() throws IllegalStateException {
+	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
+	 * 
+	 * @param requests
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<SwfConvertRequest> requests,
+			boolean coalesce) throws IOException {
+		return submitBatch(requests, coalesce, priority);
+	}
+
+	/**
+	 * 批量提交后台任务，请求连续写出而不逐个等待job server应答，适合一次性提交大量文档
+	 * 
+	 * @param requests
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @param priority
+	 *            任务优先级，见{@link #setPriority(JobPriority)}
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public List<String> submitBatch(List<SwfConvertRequest> requests,
+			boolean coalesce, JobPriority priority) throws IOException {
+		if (servers.size() == 0) {
+			throw new IllegalStateException(
+					"Batch submission requires ip job server connections");
+		}
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>(
+				requests.size());
+		for (SwfConvertRequest request : requests) {
+			if (request.isContent()) {
+				throw new IllegalArgumentException(
+						"Content requests must be submitted asynchronously");
+			}
+			packets.add(JobSubmitPipeline.backgroundJob(request.getFunction(),
+					uniqueId(request, coalesce), request.toPayload(), priority));
+		}
+		return servers.submitBatch(packets);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(SwfConvertRequest request) {
+		return submitAsync(request, coalesce, priority);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(
+			SwfConvertRequest request, boolean coalesce) {
+		return submitAsync(request, coalesce, priority);
+	}
+
+	/**
+	 * 以前台任务提交，调用线程不会阻塞，任务结束时返回worker的转换结果。每个job server上未结束的任务共用一个连接。
+	 * 内容传输方式的请求在返回结果之前把生成的swf写入swfDir，见{@link SwfConvertRequest#withContent()}
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @param priority
+	 *            任务优先级，见{@link #setPriority(JobPriority)}
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(
+			SwfConvertRequest request, boolean coalesce, JobPriority priority) {
+		return submitAsync(request, coalesce, priority, null);
+	}
+
+	/**
+	 * 以前台任务提交，并接收转换进度。worker每完成一页发送一次任务状态，前台任务的状态随连接推送，
+	 * 不必像{@link #trackProgress(GearmanJob, ProgressListener, long)}那样轮询
+	 * 
+	 * @param request
+	 *            转换请求
+	 * @param coalesce
+	 *            是否合并相同的任务，见{@link #setCoalesce(boolean)}
+	 * @param priority
+	 *            任务优先级，见{@link #setPriority(JobPriority)}
+	 * @param listener
+	 *            进度监听器，可以为null。在所有任务共用的读线程中调用，应尽快返回
+	 * @return 转换结果，转换失败时以{@link ConvertException}结束
+	 */
+	public CompletableFuture<ConversionResult> submitAsync(
+			final SwfConvertRequest request, boolean coalesce,
+			JobPriority priority, final ProgressListener listener) {
+		if (servers.size() == 0) {
+			throw new IllegalStateException(
+					"Async submission requires ip job server connections");
+		}
+		JobMultiplexer.StatusListener statusListener = null;
+		if (listener != null) {
+			statusListener = new JobMultiplexer.StatusListener() {
+				@Override
+				public void onStatus(long numerator, long denominator) {
+					listener.onProgress(numerator, denominator);
+				}
+			};
+		}
+		CompletableFuture<GearmanJobResult> future = servers.submit(
+				request.getFunction(), uniqueId(request, coalesce),
+				request.toPayload(), priority, statusListener);
+		if (request.isContent()) {
+			// 解包要写swf文件，不能占用所有任务共用的读线程
+			return future.thenApplyAsync(
+					new Function<GearmanJobResult, ConversionResult>() {
+						@Override
+						public ConversionResult apply(GearmanJobResult jobResult) {
+							return ContentTransport.unpack(jobResult, request);
+						}
+					}, unpackExecutor());
+		}
+		return future
+				.thenApply(new Function<GearmanJobResult, ConversionResult>() {
+					@Override
+					public ConversionResult apply(GearmanJobResult jobResult) {
+						return ConversionResult.fromJobResult(jobResult);
+					}
+				});
+	}
+
+	/**
+	 * 跟踪后台任务的转换进度，worker每完成一页就会更新一次任务状态，直到任务结束才返回
+	 * 
+	 * @param job
+	 *            已提交的后台任务
+	 * @param listener
+	 *            进度监听器
+	 * @param interval
+	 *            查询任务状态的间隔，单位毫秒
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void trackProgress(GearmanJob job, ProgressListener listener,
+			long interval) throws IOException, InterruptedException {
+		long numerator = -1;
+		GearmanClient client = client();
+		while (true) {
+			GearmanJobStatus status = client.getJobStatus(job);
+			if (!status.isKnown()) {
+				// job server不再保存已结束的后台任务
+				return;
+			}
+			if (status.isRunning() && status.getNumerator() != numerator) {
+				numerator = status.getNumerator();
+				listener.onProgress(numerator, status.getDenominator());
+			}
+			Thread.sleep(interval);
+		}
+	}
+
+	/**
+	 * 
+	 * @param request
+	 * @param coalesce
+	 * @return 不合并或者无法读取源文件时为null
+	 */
+	private String uniqueId(SwfConvertRequest request, boolean coalesce) {
+		if (!coalesce) {
+			return null;
+		}
+		try {
+			return request.uniqueId();
+		} catch (IOException e) {
+			// 源文件可能只对worker可见，退回不合并
+			logger.warn("can not digest " + request.getSrcFilePath()
+					+ ", submit without unique id. " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 后台任务和进度查询使用gearman-java客户端，首次用到时才连接job server，
+	 * 只使用{@link #submitAsync(SwfConvertRequest)}的客户端不建立这些连接
+	 * 
+	 * @return gearman-java客户端
+	 */
+	private synchronized GearmanClient client() {
 		if (client == null) {
-			throw new IllegalStateException("No client to shutdown");
+			client = new GearmanClientImpl();
+			for (GearmanJobServerConnection conn : conns) {
+				client.addJobServer(conn);
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * 内容传输方式的结果在此线程池中解包，首次用到时才创建
+	 * 
+	 * @return 解包线程池
+	 */
+	private synchronized ExecutorService unpackExecutor() {
+		if (unpackExecutor == null) {
+			unpackExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "paper2swf-unpack-"
+							+ count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return unpackExecutor;
+	}
+
+	public synchronized void shutdown() throws IllegalStateException {
+		if (client != null) {
+			client.shutdown();
+		}
+		servers.close();
+		if (unpackExecutor != null) {
+			unpackExecutor.shutdown();
 		}
-		client.shutdown();
 	}
 }
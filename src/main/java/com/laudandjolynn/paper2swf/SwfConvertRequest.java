@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.laudandjolynn.paper2swf.utils.ContentDigest;
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+import com.laudandjolynn.paper2swf.utils.OpenOfficeConfig;
+
+/**
+ * 一次swf转换请求，对应{@link SwfConvertClient}的一次提交，用于批量提交
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午10:36:48
+ * @copyright: www.laudandjolynn.com
+ */
+public class SwfConvertRequest {
+	private final String function;
+	private final String swftoolsFilePath;
+	private final String languageDir;
+	private final String srcFilePath;
+	private final String swfDir;
+	private final String swfFileName;
+	private final boolean paging;
+	private final OpenOfficeConfig openOfficeConfig;
+	private final boolean content;
+
+	private SwfConvertRequest(String function, String swftoolsFilePath,
+			String languageDir, String srcFilePath, String swfDir,
+			String swfFileName, boolean paging, OpenOfficeConfig cfg) {
+		this(function, swftoolsFilePath, languageDir, srcFilePath, swfDir,
+				swfFileName, paging, cfg, false);
+	}
+
+	private SwfConvertRequest(String function, String swftoolsFilePath,
+			String languageDir, String srcFilePath, String swfDir,
+			String swfFileName, boolean paging, OpenOfficeConfig cfg,
+			boolean content) {
+		this.function = function;
+		this.swftoolsFilePath = swftoolsFilePath;
+		this.languageDir = languageDir;
+		this.srcFilePath = srcFilePath;
+		this.swfDir = swfDir;
+		this.swfFileName = swfFileName;
+		this.paging = paging;
+		this.openOfficeConfig = cfg;
+		this.content = content;
+	}
+
+	/**
+	 *
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param pdfFilePath
+	 *            PDF文件路径
+	 * @param swfDir
+	 *            swf文件存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @return
+	 */
+	public static SwfConvertRequest pdf2Swf(String swftoolsFilePath,
+			String languageDir, String pdfFilePath, String swfDir,
+			String swfFileName, boolean paging) {
+		return new SwfConvertRequest(
+				Pdf2SwfConvertFunction.class.getCanonicalName(),
+				swftoolsFilePath, languageDir, pdfFilePath, swfDir,
+				swfFileName, paging, null);
+	}
+
+	/**
+	 *
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param officeFilePath
+	 *            office文件路径
+	 * @param swfDir
+	 *            swf文件存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @return
+	 */
+	public static SwfConvertRequest office2Swf_jacob(String swftoolsFilePath,
+			String languageDir, String officeFilePath, String swfDir,
+			String swfFileName, boolean paging) {
+		return new SwfConvertRequest(
+				Office2SwfConvertFunction.class.getCanonicalName(),
+				swftoolsFilePath, languageDir, officeFilePath, swfDir,
+				swfFileName, paging, null);
+	}
+
+	/**
+	 *
+	 * @param host
+	 *            openoffice服务地址
+	 * @param port
+	 *            openoffice服务端口
+	 * @param swftoolsFilePath
+	 *            swftools执行文件路径，包括文件名，比如c:\swftools\pdf2swf.exe
+	 * @param languageDir
+	 *            语言支持文件目录，比如c:\swftools\xpdf\
+	 * @param officeFilePath
+	 *            office文件路径
+	 * @param swfDir
+	 *            swf文件存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @return
+	 */
+	public static SwfConvertRequest office2Swf_openoffice(String host,
+			int port, String swftoolsFilePath, String languageDir,
+			String officeFilePath, String swfDir, String swfFileName,
+			boolean paging) {
+		return new SwfConvertRequest(
+				Office2SwfConvertFunction.class.getCanonicalName(),
+				swftoolsFilePath, languageDir, officeFilePath, swfDir,
+				swfFileName, paging, new OpenOfficeConfig(host, port));
+	}
+
+	/**
+	 * 以内容传输方式提交：源文件内容随任务发送，worker在本地中间目录转换，生成的swf随结果返回，
+	 * 由客户端写入swfDir，worker与客户端不必共享文件系统。只能以前台任务提交，
+	 * 源文件和生成的swf都在内存中传输，适合小文档。{@link PdfConvertRequest}没有对应的方式
+	 *
+	 * @return 内容传输方式的请求
+	 */
+	public SwfConvertRequest withContent() {
+		return new SwfConvertRequest(function, swftoolsFilePath, languageDir,
+				srcFilePath, swfDir, swfFileName, paging, openOfficeConfig,
+				true);
+	}
+
+	/**
+	 *
+	 * @return 是否以内容传输方式提交
+	 */
+	public boolean isContent() {
+		return content;
+	}
+
+	/**
+	 *
+	 * @return worker上注册的函数名
+	 */
+	public String getFunction() {
+		return function;
+	}
+
+	public String getSrcFilePath() {
+		return srcFilePath;
+	}
+
+	public String getSwfDir() {
+		return swfDir;
+	}
+
+	public String getSwfFileName() {
+		return swfFileName;
+	}
+
+	public boolean isPaging() {
+		return paging;
+	}
+
+	/**
+	 *
+	 * @return 任务数据
+	 * @throws ConvertException
+	 *             内容传输方式下读取源文件失败
+	 */
+	public byte[] toPayload() {
+		JobPayload payload = new JobPayload()
+				.putString(JobPayload.SWFTOOLS_FILE_PATH, swftoolsFilePath)
+				.putString(JobPayload.LANGUAGE_DIR, languageDir);
+		if (content) {
+			// 不发送路径，不支持内容传输的旧版本worker会直接失败
+			File srcFile = new File(srcFilePath);
+			try {
+				payload.putString(JobPayload.SRC_FILE_NAME, srcFile.getName())
+						.putFile(JobPayload.SRC_CONTENT, srcFile);
+			} catch (IOException e) {
+				throw new ConvertException("can not read " + srcFilePath
+						+ ": " + e.getMessage());
+			}
+		} else {
+			payload.putString(JobPayload.SRC_FILE_PATH, srcFilePath).putString(
+					JobPayload.SWF_DIR, swfDir);
+		}
+		payload.putString(JobPayload.SWF_FILE_NAME, swfFileName).putBoolean(
+				JobPayload.PAGING, paging);
+		if (openOfficeConfig != null) {// open office
+			payload.putString(JobPayload.OPENOFFICE_HOST,
+					openOfficeConfig.getHost()).putInt(
+					JobPayload.OPENOFFICE_PORT, openOfficeConfig.getPort());
+		}
+		return payload.toBytes();
+	}
+
+	/**
+	 * 由源文件内容和转换参数计算任务唯一标识。job server把相同标识的未结束任务合并为一次执行，
+	 * 所以输出位置也计入标识，输出到不同位置的请求不会被合并。传输方式的结果格式不同，
+	 * 路径方式和内容传输方式的请求也不会被合并
+	 *
+	 * @return 任务唯一标识
+	 * @throws IOException
+	 *             读取源文件失败
+	 */
+	public String uniqueId() throws IOException {
+		return ContentDigest.digest(new File(srcFilePath), function,
+				swftoolsFilePath, languageDir, swfDir, swfFileName,
+				String.valueOf(paging), String.valueOf(content));
+	}
+}
@@ -12,13 +12,36 @@ package com.laudandjolynn.paper2swf;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.OutputPump;
+import com.laudandjolynn.paper2swf.utils.PdfPageFingerprints;
+import com.laudandjolynn.paper2swf.utils.ProcessRunner;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
 /**
  * swf转换器
  * 
@@ -29,9 +52,27 @@ import org.apache.log4j.Logger;
  */
 public class SwfConverter {
 	private static final Logger log = Logger.getLogger(SwfConverter.class);
-	private static final String SWF_TOOLS_RESPONSE_REGEX = "^NOTICE\\s+processing\\s+PDF\\s+page\\s+(\\d+)\\s+\\(.+\\)$";
+	private static final long PROGRESS_POLL_INTERVAL = 200;
+	/**
+	 * 默认转换超时时间，30分钟
+	 */
+	public static final long DEFAULT_TIMEOUT = 30 * 60 * 1000;
+	/**
+	 * 页面指纹索引文件的扩展名，与分页swf存放在同一目录
+	 */
+	public static final String PAGE_INDEX_EXT = ".pages";
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte[] SWF_TOOLS_INFO_PAGE_PREFIX = ascii("page=");
+	// pdf2swf开始处理一页时的输出：NOTICE  processing PDF page 1 (595x842:0:0)
+	private static final byte[][] SWF_TOOLS_RESPONSE_WORDS = {
+			ascii("NOTICE"), ascii("processing"), ascii("PDF"), ascii("page") };
 	private String swftoolsFilePath = null;
 	private String languageDir = null;
+	private int parallelism = 1;
+	private int minPagesPerRange = 20;
+	private long timeout = DEFAULT_TIMEOUT;
+	private boolean incremental = false;
+	private WriteBehindPublisher publisher = null;
 
 	/**
 	 * 取得SWF转换器实例
@@ -50,6 +91,62 @@ public class SwfConverter {
 		this.languageDir = languageDir;
 	}
 
+	/**
+	 * 设置并行转换的pdf2swf进程数，大于1时分页转换会把文档按页码区间拆分并行执行
+	 * 
+	 * @param parallelism
+	 *            并行进程数
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * 设置每个页码区间最少包含的页数，页数较少的文档不值得拆分
+	 * 
+	 * @param minPagesPerRange
+	 *            每个区间最少页数，至少为1
+	 */
+	public void setMinPagesPerRange(int minPagesPerRange) {
+		if (minPagesPerRange < 1) {
+			throw new IllegalArgumentException(
+					"minPagesPerRange must be positive.");
+		}
+		this.minPagesPerRange = minPagesPerRange;
+	}
+
+	/**
+	 * 设置一次转换的超时时间，包括取页数和所有页码区间，超时后结束所有pdf2swf进程并返回失败
+	 * 
+	 * @param timeout
+	 *            超时时间，单位毫秒，0表示不限时
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * 设置是否增量转换。开启后分页转换会在swf目录中保存每页的指纹索引，
+	 * 再次转换同名文档时只转换指纹有变化的页，其余页沿用已有的swf
+	 * 
+	 * @param incremental
+	 *            是否增量转换
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * 设置延迟发布，pdf2swf输出到本地暂存目录，完成的页在后台移动到swfDir，全部移动完成后才返回。
+	 * 增量转换要沿用swfDir中已有的页，不使用延迟发布
+	 * 
+	 * @param publisher
+	 *            延迟发布器，null表示直接输出到swfDir
+	 */
+	public void setWriteBehindPublisher(WriteBehindPublisher publisher) {
+		this.publisher = publisher;
+	}
+
 	/**
 	 * PDF转swf
 	 * 
@@ -65,20 +162,59 @@ public class SwfConverter {
 	 */
 	public int pdf2Swf(String pdfFilePath, String swfDir, String swfFileName,
 			boolean paging) {
+		return pdf2Swf(pdfFilePath, swfDir, swfFileName, paging, null);
+	}
+
+	/**
+	 * PDF转swf，分页时每转换完成一页通知一次进度
+	 * 
+	 * @param pdfFilePath
+	 *            源PDF文件路径，包括文件名
+	 * @param swfDir
+	 *            目的swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param pageing
+	 *            是否分页
+	 * @param listener
+	 *            进度监听器，在调用线程上回调，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	public int pdf2Swf(String pdfFilePath, String swfDir, String swfFileName,
+			boolean paging, ProgressListener listener) {
+		StageMetrics stage = Metrics.stage(Metrics.PDF2SWF);
+		long begin = stage.begin();
+		int pages = -1;
+		try {
+			pages = convert(pdfFilePath, swfDir, swfFileName, paging, listener);
+		} finally {
+			stage.end(begin, pages != -1);
+		}
+		if (pages != -1) {
+			Metrics.pages(pages);
+		}
+		return pages;
+	}
+
+	private int convert(String pdfFilePath, String swfDir, String swfFileName,
+			boolean paging, ProgressListener listener) {
 		File swftoolsFile = new File(this.swftoolsFilePath);
 		File languageDir = new File(this.languageDir);
 		File pdfFile = new File(pdfFilePath);
 
 		if (!swftoolsFile.exists()) {
 			log.error("can not find swftools.");
+			Metrics.failure("pdf2swf.config");
 			return -1;
 		}
 		if (!languageDir.exists()) {
 			log.error("can not find xpdf directory path.");
+			Metrics.failure("pdf2swf.config");
 			return -1;
 		}
 		if (!pdfFile.exists()) {
 			log.error("can not find pdf file.");
+			Metrics.failure("pdf2swf.input");
 			return -1;
 		}
 
@@ -91,62 +227,794 @@ public class SwfConverter {
 		}
 
 		int index = swfFileName.lastIndexOf(".");
-		String absSwfToolsFilePath = swftoolsFile.getAbsolutePath()
-				+ File.separator;
-		String absLanguageDir = languageDir.getAbsolutePath();
 		String absPdfFilePath = pdfFile.getAbsolutePath();
 		String swfFileNameWithoutExt = swfFileName.substring(0, index);
-		String absSwfDir = tgtFile.getAbsolutePath() + File.separator;
+		String absSwfFilePath = tgtFile.getAbsolutePath() + File.separator
+				+ swfFileNameWithoutExt + (paging ? "%" : "") + ".swf";
 
-		String cmd = "\"" + absSwfToolsFilePath + "pdf2swf.exe\" \""
-				+ absPdfFilePath + "\" -o \"" + absSwfDir
-				+ swfFileNameWithoutExt + (paging ? "%" : "")
-				+ ".swf\" -f -T 9 -t -s storeallcharacters -s languagedir=\""
-				+ absLanguageDir + "\"";
+		long deadline = deadline();
+		if (paging && incremental) {
+			return incrementalPdf2Swf(absPdfFilePath, tgtFile,
+					swfFileNameWithoutExt, deadline, listener);
+		}
+		if (paging) {
+			// 非增量转换不维护索引，删除旧索引以免下次增量转换时与输出不符
+			pageIndexFile(swfDir, swfFileName).delete();
+		}
+		if (publisher != null) {
+			return writeBehindPdf2Swf(absPdfFilePath, tgtFile, swfFileName,
+					paging, deadline, listener);
+		}
+		return fullPdf2Swf(absPdfFilePath, absSwfFilePath, paging, deadline,
+				listener, null);
+	}
 
-		log.info("execute cmd: " + cmd);
+	/**
+	 * 整篇转换到暂存目录，完成的页由延迟发布器移动到swf输出目录
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param tgtDir
+	 *            swf输出目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @param paging
+	 *            是否分页
+	 * @param deadline
+	 *            截止时间，0表示不限时，包括发布的时间
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换或者发布失败
+	 */
+	private int writeBehindPdf2Swf(String absPdfFilePath, File tgtDir,
+			String swfFileName, boolean paging, long deadline,
+			ProgressListener listener) {
+		WriteBehindPublisher.Publication publication = null;
+		try {
+			publication = publisher.open(tgtDir, deadline);
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			Metrics.failure("pdf2swf.staging");
+			return -1;
+		}
+		String name = swfFileName.substring(0, swfFileName.lastIndexOf("."));
+		String absSwfFilePath = publication.getDir().getAbsolutePath()
+				+ File.separator + (paging ? name + "%.swf" : swfFileName);
+		int pages = -1;
+		try {
+			pages = fullPdf2Swf(absPdfFilePath, absSwfFilePath, paging,
+					deadline, listener, paging ? new PageSink(publication,
+							name) : null);
+			if (pages == -1) {
+				return -1;
+			}
+			if (!paging) {
+				publication.submit(swfFileName);
+			}
+			if (!publication.await()) {
+				log.error("publish swf to " + tgtDir + " fail.");
+				Metrics.failure("pdf2swf.publish");
+				pages = -1;
+			}
+			return pages;
+		} finally {
+			if (pages == -1) {
+				publication.abort();
+			}
+		}
+	}
+
+	/**
+	 * 整篇转换
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param absSwfFilePath
+	 *            swf输出路径，分页时含占位符%
+	 * @param paging
+	 *            是否分页
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	private int fullPdf2Swf(String absPdfFilePath, String absSwfFilePath,
+			boolean paging, long deadline, ProgressListener listener,
+			PageSink sink) {
+		int pages = 0;
+		if (paging && (parallelism > 1 || listener != null)) {
+			pages = Math.max(countPages(absPdfFilePath, deadline), 0);
+			if (parallelism > 1 && pages >= minPagesPerRange * 2) {
+				return parallelPdf2Swf(absPdfFilePath, absSwfFilePath, pages,
+						deadline, new Progress(listener, pages, sink));
+			}
+		}
+
+		Progress progress = new Progress(listener, paging ? pages : 1, sink);
+		progress.report();
+		int page = execute(buildCommand(absPdfFilePath, absSwfFilePath, null),
+				paging, deadline, progress);
+		if (page != -1) {
+			progress.finish(page);
+			log.info("create swf file successful.");
+		}
+		return page;
+	}
+
+	/**
+	 * 增量转换：按页面指纹对比上次转换保存的索引，未变化的页沿用已有的swf并按新页码重新编号，
+	 * 只转换新增或变化的页。没有索引、文档无法计算指纹或者没有可沿用的页时整篇转换。
+	 * <p>
+	 * 新文档先在暂存目录中组装完整，之后才替换旧页和索引，转换失败时旧文档保持不变
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param tgtDir
+	 *            swf输出目录
+	 * @param name
+	 *            swf文件名，不含扩展名
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @param listener
+	 *            进度监听器，可以为null
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	private int incrementalPdf2Swf(String absPdfFilePath, File tgtDir,
+			String name, long deadline, ProgressListener listener) {
+		File indexFile = pageIndexFile(tgtDir.getPath(), name + ".swf");
+		List<String> previous = readPageIndex(indexFile);
+		String[] fingerprints = PdfPageFingerprints.compute(new File(
+				absPdfFilePath));
+		String absSwfFilePath = tgtDir.getAbsolutePath() + File.separator
+				+ name + "%.swf";
+
+		// 新页码 -> 沿用的旧页码，0表示需要转换
+		int[] sources = new int[fingerprints == null ? 1
+				: fingerprints.length + 1];
+		int reused = 0;
+		if (fingerprints != null && previous != null) {
+			Map<String, Integer> oldPages = new HashMap<String, Integer>();
+			for (int i = previous.size(); i >= 1; i--) {
+				if (pageFile(tgtDir, name, i).isFile()) {
+					oldPages.put(previous.get(i - 1), i);
+				}
+			}
+			for (int i = 1; i < sources.length; i++) {
+				Integer old = oldPages.get(fingerprints[i - 1]);
+				if (old != null) {
+					sources[i] = old;
+					reused++;
+				}
+			}
+		}
+
+		if (reused == 0) {
+			if (!deletePageIndex(indexFile)) {
+				return -1;
+			}
+			// 已有的输出可能是缓存条目的硬链接，先删除再写，不能原地覆盖
+			deletePages(tgtDir, name, 1,
+					previous == null ? 0 : previous.size());
+			int pages = fullPdf2Swf(absPdfFilePath, absSwfFilePath, true,
+					deadline, listener, null);
+			if (fingerprints != null && pages == fingerprints.length) {
+				writePageIndex(indexFile, fingerprints);
+			}
+			return pages;
+		}
+
+		int pages = fingerprints.length;
+		// 与输出目录在同一存储上，组装好的页可以直接改名
+		File staging = new File(tgtDir, "." + name + ".incremental");
+		deleteDir(staging);
+		try {
+			if (!staging.mkdirs()) {
+				throw new IOException("can not create directory: " + staging);
+			}
+			Progress progress = new Progress(listener, pages);
+			for (int i = 0; i < reused; i++) {
+				progress.pageDone();
+			}
+			progress.report();
+			String ranges = toRanges(sources);
+			if (ranges.length() > 0
+					&& execute(buildCommand(absPdfFilePath,
+							staging.getAbsolutePath() + File.separator + name
+									+ "%.swf", ranges), true, deadline,
+							progress) == -1) {
+				return -1;
+			}
+			linkPages(tgtDir, name, sources, staging);
+			for (int i = 1; i <= pages; i++) {
+				if (!pageFile(staging, name, i).isFile()) {
+					log.error("missing swf page after incremental conversion: "
+							+ i);
+					Metrics.failure("pdf2swf.incremental");
+					return -1;
+				}
+			}
+
+			// 新文档已完整，替换旧页
+			if (!deletePageIndex(indexFile)) {
+				return -1;
+			}
+			deletePages(tgtDir, name, 1, Math.max(pages, previous.size()));
+			for (int i = 1; i <= pages; i++) {
+				Files.move(pageFile(staging, name, i).toPath(),
+						pageFile(tgtDir, name, i).toPath());
+			}
+			writePageIndex(indexFile, fingerprints);
+			progress.finish(pages);
+			log.info("create swf file successful, reused " + reused + " of "
+					+ pages + " pages.");
+			return pages;
+		} catch (IOException e) {
+			log.error("reuse swf pages fail: " + e.getMessage());
+			Metrics.failure("pdf2swf.incremental");
+			return -1;
+		} finally {
+			deleteDir(staging);
+		}
+	}
+
+	/**
+	 * 在暂存目录中按新页码建立沿用的旧页，旧页原样保留，替换前不改动输出目录。
+	 * 旧页最后一次沿用时建立硬链接，旧页删除后只剩这一个名字；同一旧页沿用到多个新页码时其余的复制，
+	 * 避免多页共用同一文件
+	 */
+	private static void linkPages(File tgtDir, String name, int[] sources,
+			File staging) throws IOException {
+		for (int i = 1; i < sources.length; i++) {
+			if (sources[i] == 0) {
+				continue;
+			}
+			boolean usedAgain = false;
+			for (int k = i + 1; k < sources.length && !usedAgain; k++) {
+				usedAgain = sources[k] == sources[i];
+			}
+			File old = pageFile(tgtDir, name, sources[i]);
+			File page = pageFile(staging, name, i);
+			if (usedAgain) {
+				Files.copy(old.toPath(), page.toPath());
+				continue;
+			}
+			try {
+				Files.createLink(page.toPath(), old.toPath());
+				continue;
+			} catch (UnsupportedOperationException e) {
+				log.debug("hard link is not supported, copy instead.");
+			} catch (IOException e) {
+				log.debug("create hard link fail, copy instead: "
+						+ e.getMessage());
+			}
+			Files.copy(old.toPath(), page.toPath());
+		}
+	}
+
+	private static boolean deletePageIndex(File indexFile) {
+		if (indexFile.exists() && !indexFile.delete()) {
+			log.error("can not delete page index: " + indexFile);
+			return false;
+		}
+		return true;
+	}
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * 删除分页swf，从first开始删到last，之后继续删除连续存在的页
+	 */
+	private static void deletePages(File tgtDir, String name, int first,
+			int last) {
+		for (int i = first;; i++) {
+			File page = pageFile(tgtDir, name, i);
+			if (!page.delete() && i > last && !page.exists()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 分页swf的页面指纹索引文件，swf目录中的输出由其他途径改写时应删除
+	 * 
+	 * @param swfDir
+	 *            swf存储目录
+	 * @param swfFileName
+	 *            swf文件名
+	 * @return 索引文件
+	 */
+	static File pageIndexFile(String swfDir, String swfFileName) {
+		int index = swfFileName.lastIndexOf(".");
+		return new File(swfDir, (index == -1 ? swfFileName
+				: swfFileName.substring(0, index)) + PAGE_INDEX_EXT);
+	}
 
-		BufferedReader br = null;
+	private static File pageFile(File tgtDir, String name, int page) {
+		return new File(tgtDir, name + page + ".swf");
+	}
+
+	/**
+	 * 需要转换的页码列表，连续的页码合并为区间，比如2,5-7
+	 */
+	static String toRanges(int[] sources) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i < sources.length; i++) {
+			if (sources[i] != 0) {
+				continue;
+			}
+			int last = i;
+			while (last + 1 < sources.length && sources[last + 1] == 0) {
+				last++;
+			}
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(i);
+			if (last > i) {
+				sb.append('-').append(last);
+			}
+			i = last;
+		}
+		return sb.toString();
+	}
+
+	private static List<String> readPageIndex(File indexFile) {
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		List<String> fingerprints = new ArrayList<String>();
 		try {
-			ProcessBuilder pb = new ProcessBuilder(cmd);
-			pb.redirectErrorStream(true);
-			Process process = pb.start();
-			int page = -1;
-			if (paging) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(indexFile), ASCII));
+			try {
 				String line = null;
-				Pattern pattern = Pattern.compile(SWF_TOOLS_RESPONSE_REGEX);
-				Matcher matcher = null;
-
-				br = new BufferedReader(new InputStreamReader(
-						process.getInputStream()));
-				while ((line = br.readLine()) != null) {
-					matcher = pattern.matcher(line);
-					if (matcher.matches()) {
-						page = Integer.valueOf(matcher.group(1));
+				while ((line = reader.readLine()) != null) {
+					if (line.length() > 0) {
+						fingerprints.add(line);
 					}
 				}
-			} else {
-				page = 1;
+			} finally {
+				reader.close();
 			}
+			return fingerprints;
+		} catch (IOException e) {
+			log.error("read page index fail: " + e.getMessage());
+		}
+		return null;
+	}
 
-			process.waitFor();
-			log.info("create swf file successful.");
-			return page;
+	private static void writePageIndex(File indexFile, String[] fingerprints) {
+		File tmpFile = new File(indexFile.getParentFile(), "."
+				+ indexFile.getName() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(
+					tmpFile), ASCII);
+			try {
+				for (String fingerprint : fingerprints) {
+					writer.write(fingerprint);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmpFile.renameTo(indexFile)) {
+				throw new IOException("can not rename " + tmpFile);
+			}
 		} catch (IOException e) {
-			log.error(e.getMessage());
+			// 没有索引时下次整篇转换，不影响本次结果
+			log.error("write page index fail: " + e.getMessage());
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * 按页码区间拆分文档，在有界线程池上并行执行多个pdf2swf进程
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param absSwfFilePath
+	 *            swf输出路径，含分页占位符%
+	 * @param pages
+	 *            文档总页数
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @param progress
+	 *            转换进度，由调用线程汇报
+	 * @return 返回生成的swf的页数，-1表示转换失败
+	 */
+	private int parallelPdf2Swf(final String absPdfFilePath,
+			final String absSwfFilePath, int pages, final long deadline,
+			final Progress progress) {
+		int ranges = Math.min(parallelism, pages / minPagesPerRange);
+		int pagesPerRange = (pages + ranges - 1) / ranges;
+		log.info("convert " + pages + " pages in " + ranges
+				+ " parallel ranges.");
+
+		ExecutorService executor = Executors.newFixedThreadPool(ranges);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		try {
+			for (int first = 1; first <= pages; first += pagesPerRange) {
+				int last = Math.min(first + pagesPerRange - 1, pages);
+				final String range = first + "-" + last;
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return execute(
+								buildCommand(absPdfFilePath, absSwfFilePath,
+										range), true, deadline, progress);
+					}
+				}));
+			}
+			progress.report();
+			for (Future<Integer> future : futures) {
+				while (true) {
+					try {
+						if (future.get(PROGRESS_POLL_INTERVAL,
+								TimeUnit.MILLISECONDS) == -1) {
+							log.error("convert page range fail.");
+							return -1;
+						}
+						break;
+					} catch (TimeoutException e) {
+						progress.report();
+					}
+				}
+			}
+			progress.finish(pages);
+			log.info("create swf file successful.");
+			return pages;
 		} catch (InterruptedException e) {
 			log.error(e.getMessage());
-		} catch (NumberFormatException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
 			log.error(e.getMessage());
 		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-					log.error(e.getMessage());
+			executor.shutdownNow();
+		}
+		return -1;
+	}
+
+	/**
+	 * 转换指定的页，输出为分页swf，供按需转换使用
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param absSwfFilePath
+	 *            swf输出路径，含分页占位符%
+	 * @param pages
+	 *            页码区间，比如1-5
+	 * @return 返回最后处理的页码，-1表示转换失败
+	 */
+	int pdf2SwfPages(String absPdfFilePath, String absSwfFilePath,
+			String pages) {
+		return execute(buildCommand(absPdfFilePath, absSwfFilePath, pages),
+				true, deadline(), new Progress(null, 0));
+	}
+
+	/**
+	 * 
+	 * @return 从现在开始计算的截止时间，0表示不限时
+	 */
+	long deadline() {
+		return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	/**
+	 * 使用pdf2swf的-I参数取得PDF文档的页数
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @return 文档页数，-1表示无法取得
+	 */
+	int countPages(String absPdfFilePath, long deadline) {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(getExecutablePath());
+		cmd.add("-I");
+		cmd.add(absPdfFilePath);
+
+		final AtomicInteger pages = new AtomicInteger(0);
+		try {
+			ProcessRunner.Result result = ProcessRunner.run(cmd, deadline,
+					new OutputPump.LineHandler() {
+						@Override
+						public void onLine(byte[] buffer, int offset, int length) {
+							if (regionMatches(buffer, offset, offset + length,
+									SWF_TOOLS_INFO_PAGE_PREFIX)) {
+								pages.incrementAndGet();
+							}
+						}
+					});
+			if (result.succeeded()) {
+				return pages.get();
+			}
+			log.error("count pages fail, exit code: " + result.getExitCode()
+					+ ", output: " + result.getTail());
+		} catch (IOException e) {
+			log.error(e.getMessage());
+		} catch (InterruptedException e) {
+			log.error(e.getMessage());
+			Thread.currentThread().interrupt();
+		}
+		return -1;
+	}
+
+	private String getExecutablePath() {
+		File swftoolsFile = new File(this.swftoolsFilePath);
+		return swftoolsFile.getAbsolutePath() + File.separator
+				+ (JacobNativesLoader.isWindows ? "pdf2swf.exe" : "pdf2swf");
+	}
+
+	/**
+	 * 构造pdf2swf命令
+	 * 
+	 * @param absPdfFilePath
+	 *            源PDF文件绝对路径
+	 * @param absSwfFilePath
+	 *            swf输出路径
+	 * @param pages
+	 *            页码区间，比如1-50或2,5-7，null表示全部页
+	 * @return
+	 */
+	private List<String> buildCommand(String absPdfFilePath,
+			String absSwfFilePath, String pages) {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(getExecutablePath());
+		cmd.add(absPdfFilePath);
+		cmd.add("-o");
+		cmd.add(absSwfFilePath);
+		if (pages != null) {
+			cmd.add("-p");
+			cmd.add(pages);
+		}
+		cmd.add("-f");
+		cmd.add("-T");
+		cmd.add("9");
+		cmd.add("-t");
+		cmd.add("-s");
+		cmd.add("storeallcharacters");
+		cmd.add("-s");
+		cmd.add("languagedir=" + new File(this.languageDir).getAbsolutePath());
+		return cmd;
+	}
+
+	/**
+	 * 执行pdf2swf命令
+	 * 
+	 * @param cmd
+	 *            命令
+	 * @param paging
+	 *            是否分页，分页时从pdf2swf的输出中解析页码
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @param progress
+	 *            转换进度
+	 * @return 返回最后处理的页码，-1表示转换失败
+	 */
+	private int execute(List<String> cmd, boolean paging, long deadline,
+			final Progress progress) {
+		log.info("execute cmd: " + cmd);
+
+		final AtomicInteger page = new AtomicInteger(-1);
+		OutputPump.LineHandler handler = null;
+		if (paging) {
+			handler = new OutputPump.LineHandler() {
+				@Override
+				public void onLine(byte[] buffer, int offset, int length) {
+					int current = scanPage(buffer, offset, length);
+					if (current != -1) {
+						// pdf2swf开始处理下一页时，上一页已经输出完成
+						if (page.get() != -1) {
+							progress.pageDone(page.get());
+						}
+						page.set(current);
+					}
 				}
+			};
+		}
+		try {
+			ProcessRunner.Result result = ProcessRunner.run(cmd, deadline,
+					handler, new Runnable() {
+						@Override
+						public void run() {
+							progress.poll();
+						}
+					}, PROGRESS_POLL_INTERVAL);
+			if (!result.succeeded()) {
+				log.error((result.isTimedOut() ? "pdf2swf timed out"
+						: "pdf2swf fail, exit code: " + result.getExitCode())
+						+ ", output: " + result.getTail());
+				Metrics.failure(result.isTimedOut() ? "pdf2swf.timeout"
+						: "pdf2swf.exit");
+				return -1;
+			}
+			if (!paging) {
+				return 1;
 			}
+			if (page.get() != -1) {
+				progress.pageDone(page.get());
+			}
+			return page.get();
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			Metrics.failure("pdf2swf.start");
+		} catch (InterruptedException e) {
+			log.error(e.getMessage());
+			Thread.currentThread().interrupt();
 		}
 		return -1;
 	}
+
+	/**
+	 * 从pdf2swf的一行输出中解析正在处理的页码，相当于匹配
+	 * ^NOTICE\s+processing\s+PDF\s+page\s+(\d+)\s+\(.+\)$，但不创建对象
+	 * 
+	 * @param line
+	 *            输出缓冲区
+	 * @param offset
+	 *            行起始位置
+	 * @param length
+	 *            行长度
+	 * @return 页码，-1表示不是处理页面的输出
+	 */
+	static int scanPage(byte[] line, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		for (byte[] word : SWF_TOOLS_RESPONSE_WORDS) {
+			if (pos != offset) {
+				int next = skipSpaces(line, pos, end);
+				if (next == pos) {
+					return -1;
+				}
+				pos = next;
+			}
+			if (!regionMatches(line, pos, end, word)) {
+				return -1;
+			}
+			pos += word.length;
+		}
+		int next = skipSpaces(line, pos, end);
+		if (next == pos) {
+			return -1;
+		}
+		pos = next;
+		int page = 0;
+		int digits = pos;
+		while (pos < end && line[pos] >= '0' && line[pos] <= '9') {
+			if (page > (Integer.MAX_VALUE - 9) / 10) {
+				return -1;
+			}
+			page = page * 10 + (line[pos++] - '0');
+		}
+		if (pos == digits) {
+			return -1;
+		}
+		next = skipSpaces(line, pos, end);
+		if (next == pos) {
+			return -1;
+		}
+		pos = next;
+		if (end - pos < 3 || line[pos] != '(' || line[end - 1] != ')') {
+			return -1;
+		}
+		return page;
+	}
+
+	private static int skipSpaces(byte[] line, int pos, int end) {
+		while (pos < end
+				&& (line[pos] == ' ' || (line[pos] >= '\t' && line[pos] <= '\r'))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static boolean regionMatches(byte[] line, int pos, int end,
+			byte[] word) {
+		if (end - pos < word.length) {
+			return false;
+		}
+		for (int i = 0; i < word.length; i++) {
+			if (line[pos + i] != word[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * 把pdf2swf已输出完成的页交给延迟发布器
+	 */
+	private static class PageSink {
+		private final WriteBehindPublisher.Publication publication;
+		private final String name;
+
+		private PageSink(WriteBehindPublisher.Publication publication,
+				String name) {
+			this.publication = publication;
+			this.name = name;
+		}
+
+		private void pageDone(int page) {
+			publication.submit(name + page + ".swf");
+		}
+	}
+
+	/**
+	 * 转换进度，由工作线程计数，在调用线程上通知监听器
+	 */
+	private static class Progress {
+		private final ProgressListener listener;
+		private final long total;
+		private final AtomicInteger completed = new AtomicInteger(0);
+		private final Thread owner = Thread.currentThread();
+		private int reported = -1;
+
+		private final PageSink sink;
+
+		private Progress(ProgressListener listener, long total) {
+			this(listener, total, null);
+		}
+
+		private Progress(ProgressListener listener, long total, PageSink sink) {
+			this.listener = listener;
+			this.total = total;
+			this.sink = sink;
+		}
+
+		private void pageDone() {
+			completed.incrementAndGet();
+		}
+
+		/**
+		 * 在输出线程上调用，延迟发布时可能因发布队列满而等待
+		 */
+		private void pageDone(int page) {
+			pageDone();
+			if (sink != null) {
+				sink.pageDone(page);
+			}
+		}
+
+		/**
+		 * 在调用线程上汇报进度，页码区间的工作线程上不汇报
+		 */
+		private void poll() {
+			if (Thread.currentThread() == owner) {
+				report();
+			}
+		}
+
+		private void report() {
+			int pages = completed.get();
+			if (listener != null && pages != reported) {
+				reported = pages;
+				listener.onProgress(pages, Math.max(total, pages));
+			}
+		}
+
+		private void finish(int pages) {
+			if (listener != null && reported != pages) {
+				reported = pages;
+				listener.onProgress(pages, pages);
+			}
+		}
+	}
 }
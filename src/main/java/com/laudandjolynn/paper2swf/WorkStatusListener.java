@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import org.gearman.worker.AbstractGearmanFunction;
+
+/**
+ * 把转换进度作为gearman WORK_STATUS发送给job server
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 上午10:42:36
+ * @copyright: www.laudandjolynn.com
+ */
+public class WorkStatusListener implements ProgressListener {
+	private final AbstractGearmanFunction function;
+
+	/**
+	 * 
+	 * @param function
+	 *            正在执行的gearman function
+	 */
+	public WorkStatusListener(AbstractGearmanFunction function) {
+		this.function = function;
+	}
+
+	@Override
+	public void onProgress(long numerator, long denominator) {
+		function.sendStatus((int) numerator, (int) denominator);
+	}
+}
@@ -10,24 +10,51 @@
  ******************************************************************************/
 package com.laudandjolynn.paper2swf;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.gearman.common.GearmanJobServerConnection;
-import org.gearman.common.GearmanNIOJobServerConnection;
+import org.gearman.worker.DefaultGearmanFunctionFactory;
 import org.gearman.worker.GearmanFunction;
-import org.gearman.worker.GearmanWorker;
-import org.gearman.worker.GearmanWorkerImpl;
+import org.gearman.worker.GearmanFunctionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.JobLane;
+import com.laudandjolynn.paper2swf.utils.Metrics;
 
 /**
+ * 在一个JVM内运行多个worker循环，每个循环独占一个job server连接、同一时刻执行一个任务，
+ * 所有循环共用{@link OpenOfficeConverterRegistry}中的连接池。配置了多个job server时，
+ * 每个job server上都有相同数量的循环，但同时执行的任务总数不超过并发数。
+ * 使用虚拟线程时，每个job server上每个通道只有一个循环，取到的任务各自在新的虚拟线程上执行，
+ * 同时执行的任务数同样由并发数限制。
+ * <p>
+ * 每个函数同时注册普通通道和交互通道，见{@link JobLane}。保留给交互通道的循环只取交互任务，
+ * 大量批量任务占满其余循环时，交互任务仍然可以立即执行
+ * 
  * @author: Laud
  * @email: htd0324@gmail.com
  * @date: 2014年4月2日 下午10:37:52
  * @copyright: www.laudandjolynn.com
  */
 public class WorkerRunner {
-	private GearmanJobServerConnection conn = null;
+	private final static Logger logger = LoggerFactory
+			.getLogger(WorkerRunner.class);
+	private final static String THREAD_PREFIX = "paper2swf-worker-";
+	private final List<String> hosts = new ArrayList<String>();
+	private final List<Integer> ports = new ArrayList<Integer>();
 	private List<Class<GearmanFunction>> functions = new ArrayList<Class<GearmanFunction>>();
+	private int concurrency = 1;
+	private int reserved = 0;
+	private boolean virtualThreads = false;
+	private OpenOfficeFarm officeFarm = null;
+	private final List<JobWorker> workers = new ArrayList<JobWorker>();
+	private volatile boolean shutdown = false;
 
 	/**
 	 * 
@@ -37,19 +64,207 @@ public class WorkerRunner {
 	 *            job server服务端口
 	 */
 	public WorkerRunner(String host, int port) {
-		conn = new GearmanNIOJobServerConnection(host, port);
+		addServer(host, port);
+	}
+
+	/**
+	 * 从多个job server取任务，某个job server不可用时不影响其他job server上的任务
+	 * 
+	 * @param host
+	 *            job server服务地址
+	 * @param port
+	 *            job server服务端口
+	 */
+	public void addServer(String host, int port) {
+		hosts.add(host);
+		ports.add(port);
 	}
 
 	public void addFunction(Class<GearmanFunction> function) {
 		functions.add(function);
 	}
 
+	/**
+	 * 
+	 * @param concurrency
+	 *            同时执行的任务数，默认为1
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be positive.");
+		}
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * 
+	 * @param reserved
+	 *            并发数中只执行交互任务的数量，默认为0，必须小于并发数
+	 */
+	public void setReservedConcurrency(int reserved) {
+		if (reserved < 0) {
+			throw new IllegalArgumentException(
+					"reserved concurrency must not be negative.");
+		}
+		this.reserved = reserved;
+	}
+
+	/**
+	 * 
+	 * @param virtualThreads
+	 *            是否在虚拟线程上执行任务，任务大部分时间在等待OpenOffice和pdf2swf进程，
+	 *            使用虚拟线程时可以把并发数设得更大。每个任务在自己的虚拟线程上执行，
+	 *            并发数只限制同时执行的任务数，不再对应循环和连接的数量。当前JVM不支持虚拟线程时使用普通线程
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * 
+	 * @param officeFarm
+	 *            由worker启动和看管的OpenOffice实例组，在开始取任务之前启动，发往其地址的转换请求由这些实例处理
+	 */
+	public void setOpenOfficeFarm(OpenOfficeFarm officeFarm) {
+		this.officeFarm = officeFarm;
+	}
+
+	/**
+	 * 启动worker，阻塞直到{@link #shutdown()}。转换统计以MXBean发布，见{@link Metrics}
+	 */
 	public void start() {
-		GearmanWorker worker = new GearmanWorkerImpl();
-		worker.addServer(conn);
+		if (reserved >= concurrency) {
+			throw new IllegalStateException(
+					"reserved concurrency must be less than concurrency.");
+		}
+		Metrics.register();
+		if (officeFarm != null) {
+			// 预先启动OpenOffice，第一个任务不必等待
+			officeFarm.start();
+			OpenOfficeConverterRegistry.setFarm(officeFarm);
+		}
+		List<GearmanFunctionFactory> factories = new ArrayList<GearmanFunctionFactory>();
+		List<GearmanFunctionFactory> interactiveFactories = new ArrayList<GearmanFunctionFactory>();
 		for (Class<GearmanFunction> fun : functions) {
-			worker.registerFunction(fun);
+			GearmanFunctionFactory interactive = new DefaultGearmanFunctionFactory(
+					JobLane.interactive(fun.getName()), fun.getName());
+			factories.add(interactive);
+			factories.add(new DefaultGearmanFunctionFactory(fun.getName()));
+			interactiveFactories.add(interactive);
+		}
+		ThreadFactory threadFactory = virtualThreads ? createVirtualThreadFactory()
+				: null;
+		Executor executor = null;
+		if (threadFactory == null) {
+			threadFactory = createPlatformThreadFactory();
+		} else {
+			executor = createExecutor(threadFactory);
+		}
+		List<Thread> threads = new ArrayList<Thread>();
+		synchronized (workers) {
+			if (shutdown) {
+				return;
+			}
+			Semaphore permits = new Semaphore(concurrency - reserved);
+			Semaphore reservedPermits = new Semaphore(reserved);
+			for (int i = 0; i < hosts.size(); i++) {
+				List<JobWorker> loops = new ArrayList<JobWorker>();
+				if (executor == null) {
+					for (int j = 0; j < concurrency; j++) {
+						loops.add(j < reserved ? new JobWorker(hosts.get(i),
+								ports.get(i), interactiveFactories,
+								reservedPermits) : new JobWorker(hosts.get(i),
+								ports.get(i), factories, permits));
+					}
+				} else {
+					if (reserved > 0) {
+						loops.add(new JobWorker(hosts.get(i), ports.get(i),
+								interactiveFactories, reservedPermits, executor));
+					}
+					loops.add(new JobWorker(hosts.get(i), ports.get(i),
+							factories, permits, executor));
+				}
+				for (JobWorker worker : loops) {
+					workers.add(worker);
+					threads.add(threadFactory.newThread(worker));
+				}
+				logger.info("start " + loops.size() + " worker loops on "
+						+ hosts.get(i) + ":" + ports.get(i) + ", run up to "
+						+ concurrency + " jobs"
+						+ (executor == null ? "" : " on virtual threads")
+						+ ", " + reserved + " reserved for interactive jobs");
+			}
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			shutdown();
+		}
+	}
+
+	/**
+	 * 停止所有worker循环，正在执行的任务会执行完，但结果不再回写job server
+	 */
+	public void shutdown() {
+		synchronized (workers) {
+			shutdown = true;
+			for (JobWorker worker : workers) {
+				worker.shutdown();
+			}
+			workers.clear();
+		}
+		if (officeFarm != null) {
+			OpenOfficeConverterRegistry.setFarm(null);
+			officeFarm.shutdown();
+		}
+		Metrics.unregister();
+	}
+
+	/**
+	 * 
+	 * @return 当前JVM不支持虚拟线程时为null
+	 */
+	private static ThreadFactory createVirtualThreadFactory() {
+		try {
+			// 以反射调用Thread.ofVirtual().name(prefix, 0).factory()，保持对旧JDK的兼容
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, THREAD_PREFIX, 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (Exception e) {
+			logger.warn("virtual threads are not available, use platform threads instead.");
+			return null;
 		}
-		worker.work();
+	}
+
+	/**
+	 * 每个任务一个新线程，同时执行的任务数由循环的许可限制
+	 */
+	private static Executor createExecutor(final ThreadFactory threadFactory) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				threadFactory.newThread(command).start();
+			}
+		};
+	}
+
+	private static ThreadFactory createPlatformThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, THREAD_PREFIX + count.getAndIncrement());
+			}
+		};
 	}
 }
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
+/**
+ * 延迟发布：pdf2swf把swf写到本地暂存目录，每完成一页就放入有界队列，由发布线程成批移动到目的swfDir，
+ * 转换不必等待目的存储（比如网络卷）的写入。队列满时放入的一方等待，pdf2swf的输出无人读取，
+ * 转换随之放慢。
+ * <p>
+ * 每页以改名的方式出现在目的目录中，跨存储时先复制为目的目录中的临时文件，目的目录中不会出现不完整的页。
+ * 一次转换的所有页都发布后才算完成
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月8日 上午9:51:24
+ * @copyright: www.laudandjolynn.com
+ */
+public class WriteBehindPublisher {
+	private final static Logger logger = LoggerFactory
+			.getLogger(WriteBehindPublisher.class);
+	private final File stagingDir;
+	private final int batchSize;
+	private final BlockingQueue<Entry> queue;
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private volatile boolean shutdown = false;
+
+	/**
+	 *
+	 * @param stagingDir
+	 *            本地暂存目录，应与目的目录不在同一存储上
+	 * @param threads
+	 *            发布线程数
+	 * @param queueCapacity
+	 *            等待发布的页数上限
+	 * @param batchSize
+	 *            发布线程一次取出的最大页数
+	 */
+	public WriteBehindPublisher(File stagingDir, int threads,
+			int queueCapacity, int batchSize) {
+		this.stagingDir = stagingDir;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Entry>(queueCapacity);
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "paper2swf-publisher-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			this.threads.add(thread);
+		}
+	}
+
+	/**
+	 * 为一次转换分配暂存目录
+	 *
+	 * @param targetDir
+	 *            目的swf存储目录
+	 * @param deadline
+	 *            截止时间，0表示不限时
+	 * @return 发布状态
+	 * @throws IOException
+	 *             无法创建暂存目录
+	 */
+	Publication open(File targetDir, long deadline) throws IOException {
+		if (shutdown) {
+			throw new IllegalStateException("publisher has been shut down");
+		}
+		File dir = new File(stagingDir, UUID.randomUUID().toString());
+		if (!dir.mkdirs()) {
+			throw new IOException("can not create " + dir);
+		}
+		return new Publication(dir, targetDir, deadline);
+	}
+
+	/**
+	 * 停止发布线程，队列中尚未发布的页作为失败处理
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		failQueued();
+	}
+
+	/**
+	 * 取出队列中尚未发布的页，作为失败处理
+	 */
+	private void failQueued() {
+		List<Entry> rest = new ArrayList<Entry>();
+		queue.drainTo(rest);
+		for (Entry entry : rest) {
+			entry.publication.done(entry.fileName, false);
+		}
+	}
+
+	private void work() {
+		List<Entry> batch = new ArrayList<Entry>(batchSize);
+		try {
+			while (!shutdown) {
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+				StageMetrics stage = Metrics.stage(Metrics.PUBLISH);
+				long begin = stage.begin();
+				boolean succeeded = true;
+				for (Entry entry : batch) {
+					succeeded &= entry.publication.publish(entry.fileName);
+				}
+				stage.end(begin, succeeded);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			for (Entry entry : batch) {
+				entry.publication.done(entry.fileName, false);
+			}
+		}
+	}
+
+	private static class Entry {
+		private final Publication publication;
+		private final String fileName;
+
+		private Entry(Publication publication, String fileName) {
+			this.publication = publication;
+			this.fileName = fileName;
+		}
+	}
+
+	/**
+	 * 一次转换的发布状态
+	 */
+	class Publication {
+		private final File dir;
+		private final File targetDir;
+		private final long deadline;
+		private int pending = 0;
+		private boolean failed = false;
+		private boolean aborted = false;
+
+		private Publication(File dir, File targetDir, long deadline) {
+			this.dir = dir;
+			this.targetDir = targetDir;
+			this.deadline = deadline;
+		}
+
+		/**
+		 *
+		 * @return 暂存目录，pdf2swf的输出位置
+		 */
+		File getDir() {
+			return dir;
+		}
+
+		/**
+		 * 把暂存目录中已写完的文件放入发布队列，队列满时等待，超过截止时间则发布失败
+		 *
+		 * @param fileName
+		 *            文件名
+		 */
+		void submit(String fileName) {
+			synchronized (this) {
+				if (failed || aborted) {
+					return;
+				}
+				pending++;
+			}
+			try {
+				long wait = deadline == 0 ? Long.MAX_VALUE : deadline
+						- System.currentTimeMillis();
+				if (queue.offer(new Entry(this, fileName), wait,
+						TimeUnit.MILLISECONDS)) {
+					if (shutdown) {
+						// 停止时已清空过队列，之后放入的页没有发布线程处理
+						failQueued();
+					}
+					return;
+				}
+				logger.error("publish queue is full, give up " + fileName);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			done(fileName, false);
+		}
+
+		/**
+		 * 等待所有页发布完成，删除暂存目录
+		 *
+		 * @return 是否全部发布成功
+		 */
+		boolean await() {
+			try {
+				synchronized (this) {
+					while (pending > 0 && !failed) {
+						long wait = deadline == 0 ? 0 : deadline
+								- System.currentTimeMillis();
+						if (deadline != 0 && wait <= 0) {
+							logger.error("publish to " + targetDir
+									+ " timed out.");
+							failed = true;
+							break;
+						}
+						wait(wait);
+					}
+					if (failed) {
+						aborted = true;
+					}
+					return !failed;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				abort();
+				return false;
+			} finally {
+				cleanup();
+			}
+		}
+
+		/**
+		 * 放弃发布，队列中的页不再发布，删除暂存目录
+		 */
+		void abort() {
+			synchronized (this) {
+				aborted = true;
+			}
+			cleanup();
+		}
+
+		private boolean publish(String fileName) {
+			synchronized (this) {
+				if (aborted) {
+					done(fileName, false);
+					return false;
+				}
+			}
+			File src = new File(dir, fileName);
+			File dest = new File(targetDir, fileName);
+			boolean succeeded = false;
+			try {
+				try {
+					Files.move(src.toPath(), dest.toPath(),
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					// 不在同一存储上，先复制为临时文件再改名
+					File tmp = new File(targetDir, "." + fileName + ".tmp");
+					Files.copy(src.toPath(), tmp.toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+					Files.move(tmp.toPath(), dest.toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+					src.delete();
+				}
+				succeeded = true;
+			} catch (IOException e) {
+				logger.error("publish " + fileName + " to " + targetDir
+						+ " fail: " + e.getMessage());
+				Metrics.failure("publish.move");
+			}
+			done(fileName, succeeded);
+			return succeeded;
+		}
+
+		private synchronized void done(String fileName, boolean succeeded) {
+			pending--;
+			if (!succeeded) {
+				failed = true;
+				new File(dir, fileName).delete();
+			}
+			if (aborted) {
+				cleanup();
+			}
+			notifyAll();
+		}
+
+		private synchronized void cleanup() {
+			if (pending > 0) {
+				// 队列中的页由发布线程处理完后再删除
+				return;
+			}
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+/**
+ * 熔断器。连续失败达到阈值后断开，断开期间请求直接失败；经过一段时间后半开，
+ * 只放行一个试探请求，成功则闭合，失败则再次断开，断开时间加倍直到上限。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 上午9:28:14
+ * @copyright: www.laudandjolynn.com
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openInterval;
+	private final long maxOpenInterval;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long currentInterval = 0;
+	private long openUntil = 0;
+
+	/**
+	 *
+	 * @param failureThreshold
+	 *            连续失败多少次后断开
+	 * @param openInterval
+	 *            第一次断开的时间，单位毫秒
+	 * @param maxOpenInterval
+	 *            断开时间的上限，单位毫秒
+	 */
+	public CircuitBreaker(int failureThreshold, long openInterval,
+			long maxOpenInterval) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException(
+					"failureThreshold must be positive.");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval;
+		this.maxOpenInterval = Math.max(openInterval, maxOpenInterval);
+	}
+
+	/**
+	 * 请求之前调用，返回true时请求结束后必须调用{@link #recordSuccess()}或者{@link #recordFailure()}
+	 *
+	 * @return 是否放行
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() >= openUntil) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		default:
+			// 半开时已有试探请求在进行
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @return 当前是否会放行请求，不改变状态
+	 */
+	public synchronized boolean isAvailable() {
+		return state == State.CLOSED
+				|| (state == State.OPEN && System.currentTimeMillis() >= openUntil);
+	}
+
+	public synchronized void recordSuccess() {
+		state = State.CLOSED;
+		failures = 0;
+		currentInterval = 0;
+	}
+
+	/**
+	 * 请求没有得到能说明服务状态的结果，不计入成功或失败。半开时交还试探机会，下一个请求重新试探
+	 */
+	public synchronized void recordIgnored() {
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+		}
+	}
+
+	/**
+	 *
+	 * @return 是否因为这次失败而断开
+	 */
+	public synchronized boolean recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN
+				|| (state == State.CLOSED && failures >= failureThreshold)) {
+			currentInterval = currentInterval == 0 ? openInterval : Math.min(
+					currentInterval * 2, maxOpenInterval);
+			openUntil = System.currentTimeMillis() + currentInterval;
+			state = State.OPEN;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * 文档内容摘要，由源文件内容和转换参数共同决定
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午9:48:27
+ * @copyright: www.laudandjolynn.com
+ */
+public class ContentDigest {
+	private final static byte SEPARATOR = 0;
+
+	private ContentDigest() {
+	}
+
+	/**
+	 * 计算文件内容及转换参数的SHA-1摘要
+	 * 
+	 * @param file
+	 *            源文件
+	 * @param options
+	 *            转换参数
+	 * @return 十六进制摘要
+	 * @throws IOException
+	 */
+	public static String digest(File file, String... options)
+			throws IOException {
+		MessageDigest md = DigestUtils.getSha1Digest();
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			DigestUtils.updateDigest(md, input);
+		} finally {
+			input.close();
+		}
+		for (String option : options) {
+			md.update(SEPARATOR);
+			if (option != null) {
+				DigestUtils.updateDigest(md, option);
+			}
+		}
+		return Hex.encodeHexString(md.digest());
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import org.gearman.client.GearmanJob.JobPriority;
+import org.gearman.common.GearmanPacketType;
+
+/**
+ * 任务通道。高优先级的交互任务提交到函数名加后缀的交互通道，worker可以为交互通道保留执行能力，
+ * 不会被排队的批量任务占满；普通和低优先级任务使用原函数名。两个通道内的任务都由job server按优先级排队
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月6日 上午9:15:32
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobLane {
+	/**
+	 * 交互通道函数名的后缀
+	 */
+	public final static String INTERACTIVE_SUFFIX = "#interactive";
+
+	private JobLane() {
+	}
+
+	/**
+	 * 取得按优先级提交时使用的函数名
+	 *
+	 * @param function
+	 *            函数名
+	 * @param priority
+	 *            优先级
+	 * @return 高优先级时为交互通道的函数名，否则为原函数名
+	 */
+	public static String function(String function, JobPriority priority) {
+		return priority == JobPriority.HIGH ? interactive(function) : function;
+	}
+
+	/**
+	 *
+	 * @param function
+	 *            函数名
+	 * @return 交互通道的函数名
+	 */
+	public static String interactive(String function) {
+		return function + INTERACTIVE_SUFFIX;
+	}
+
+	/**
+	 * 取得提交任务的请求类型
+	 *
+	 * @param priority
+	 *            优先级
+	 * @param background
+	 *            是否后台任务
+	 * @return SUBMIT_JOB及其优先级和后台变体
+	 */
+	public static GearmanPacketType submitType(JobPriority priority,
+			boolean background) {
+		switch (priority) {
+		case HIGH:
+			return background ? GearmanPacketType.SUBMIT_JOB_HIGH_BG
+					: GearmanPacketType.SUBMIT_JOB_HIGH;
+		case LOW:
+			return background ? GearmanPacketType.SUBMIT_JOB_LOW_BG
+					: GearmanPacketType.SUBMIT_JOB_LOW;
+		default:
+			return background ? GearmanPacketType.SUBMIT_JOB_BG
+					: GearmanPacketType.SUBMIT_JOB;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gearman.client.GearmanJob.JobPriority;
+import org.gearman.client.GearmanJobResult;
+import org.gearman.client.GearmanJobResultImpl;
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacket.DataComponentName;
+import org.gearman.common.GearmanPacketImpl;
+import org.gearman.common.GearmanPacketMagic;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 在一个连接上同时执行多个前台任务。提交只写出SUBMIT_JOB请求，由一个读线程按任务句柄
+ * 分发WORK_COMPLETE、WORK_FAIL、WORK_EXCEPTION，完成对应的future，调用方无需为每个任务占用线程。
+ * WORK_STATUS转给提交时指定的{@link StatusListener}。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 上午9:41:22
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobMultiplexer {
+	private final static Logger logger = LoggerFactory
+			.getLogger(JobMultiplexer.class);
+	private final static byte[] EXCEPTIONS = ByteUtils
+			.toAsciiBytes("exceptions");
+	private final static int CONNECT_TIMEOUT = 10000;
+	private final String host;
+	private final int port;
+	private final Object lock = new Object();
+	// 等待JOB_CREATED的请求，job server按请求顺序应答
+	private final LinkedList<Pending> awaitingCreation = new LinkedList<Pending>();
+	// 相同唯一标识的任务被job server合并，同一连接上的多次提交得到同一个任务句柄
+	private final Map<String, List<Pending>> running = new ConcurrentHashMap<String, List<Pending>>();
+	private Socket socket = null;
+	private OutputStream output = null;
+	private volatile boolean optionPending = false;
+
+	/**
+	 *
+	 * @param host
+	 *            job server服务地址
+	 * @param port
+	 *            job server服务端口
+	 */
+	public JobMultiplexer(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * 提交前台任务
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @return 任务结果，任务失败时以{@link ConvertException}结束，连接中断时以
+	 *         {@link IOException}结束
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function, String uniqueId,
+			byte[] data) {
+		return submit(function, uniqueId, data, JobPriority.NORMAL);
+	}
+
+	/**
+	 * 按优先级提交前台任务，高优先级时提交到交互通道，见{@link JobLane}
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @param priority
+	 *            优先级
+	 * @return 任务结果，见{@link #submit(String, String, byte[])}
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function,
+			String uniqueId, byte[] data, JobPriority priority) {
+		return submit(function, uniqueId, data, priority, null);
+	}
+
+	/**
+	 * 按优先级提交前台任务，任务执行中worker发送的WORK_STATUS转给listener
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @param priority
+	 *            优先级
+	 * @param listener
+	 *            任务状态监听器，可以为null。在读线程中调用，应尽快返回
+	 * @return 任务结果，见{@link #submit(String, String, byte[])}
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function,
+			String uniqueId, byte[] data, JobPriority priority,
+			StatusListener listener) {
+		CompletableFuture<GearmanJobResult> future = new CompletableFuture<GearmanJobResult>();
+		byte[] packet = new GearmanPacketImpl(GearmanPacketMagic.REQ,
+				JobLane.submitType(priority, false),
+				GearmanPacketImpl.generatePacketData(
+						ByteUtils.toUTF8Bytes(JobLane.function(function,
+								priority)),
+						uniqueId == null ? ByteUtils.EMPTY : ByteUtils
+								.toUTF8Bytes(uniqueId), data)).toBytes();
+		synchronized (lock) {
+			try {
+				connect();
+				awaitingCreation.add(new Pending(future, listener));
+				output.write(packet);
+				output.flush();
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+				disconnect(socket, e);
+			}
+		}
+		return future;
+	}
+
+	/**
+	 *
+	 * @return 尚未结束的任务数
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			int count = awaitingCreation.size();
+			for (List<Pending> pendings : running.values()) {
+				count += pendings.size();
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * 关闭连接，未结束的任务以{@link IOException}结束
+	 */
+	public void close() {
+		synchronized (lock) {
+			disconnect(socket, new IOException("job multiplexer closed"));
+		}
+	}
+
+	private void connect() throws IOException {
+		if (socket != null) {
+			return;
+		}
+		final Socket s = new Socket();
+		s.setTcpNoDelay(true);
+		s.setKeepAlive(true);
+		s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+		OutputStream out = new BufferedOutputStream(s.getOutputStream());
+		// 让job server转发WORK_EXCEPTION，失败原因才能传回调用方
+		PacketIO.write(out, new GearmanPacketImpl(GearmanPacketMagic.REQ,
+				GearmanPacketType.OPTION_REQ, EXCEPTIONS));
+		socket = s;
+		output = out;
+		optionPending = true;
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read(s);
+			}
+		}, "job-multiplexer-" + host + ":" + port);
+		reader.setDaemon(true);
+		reader.start();
+		logger.debug("job multiplexer connected to {}:{}", host, port);
+	}
+
+	private void read(Socket s) {
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(s.getInputStream()));
+			while (true) {
+				dispatch(PacketIO.read(input));
+			}
+		} catch (IOException e) {
+			synchronized (lock) {
+				disconnect(s, e);
+			}
+		} catch (RuntimeException e) {
+			logger.error(e.getMessage(), e);
+			synchronized (lock) {
+				disconnect(s, new IOException(e));
+			}
+		}
+	}
+
+	private void dispatch(GearmanPacket packet) {
+		GearmanPacketType type = packet.getPacketType();
+		Pending pending = null;
+		String handle = null;
+		switch (type) {
+		case JOB_CREATED:
+			handle = handle(packet);
+			synchronized (lock) {
+				pending = awaitingCreation.poll();
+				if (pending != null) {
+					List<Pending> pendings = running.get(handle);
+					if (pendings == null) {
+						pendings = new ArrayList<Pending>(1);
+						running.put(handle, pendings);
+					}
+					pendings.add(pending);
+				}
+			}
+			break;
+		case WORK_STATUS:
+			handle = handle(packet);
+			status(handle, number(packet, DataComponentName.NUMERATOR),
+					number(packet, DataComponentName.DENOMINATOR));
+			break;
+		case WORK_COMPLETE:
+			handle = handle(packet);
+			GearmanJobResult result = new GearmanJobResultImpl(
+					ByteUtils.toUTF8Bytes(handle), true,
+					packet.getDataComponentValue(DataComponentName.DATA),
+					ByteUtils.EMPTY, ByteUtils.EMPTY, 0, 0);
+			for (Pending p : finish(handle)) {
+				p.future.complete(result);
+			}
+			break;
+		case WORK_FAIL:
+			handle = handle(packet);
+			for (Pending p : finish(handle)) {
+				p.future.completeExceptionally(new ConvertException("job "
+						+ handle + " failed"));
+			}
+			break;
+		case WORK_EXCEPTION:
+			handle = handle(packet);
+			String message = ByteUtils.fromUTF8Bytes(packet
+					.getDataComponentValue(DataComponentName.DATA));
+			for (Pending p : finish(handle)) {
+				p.future.completeExceptionally(new ConvertException("job "
+						+ handle + " failed: " + message));
+			}
+			break;
+		case OPTION_RES:
+			optionPending = false;
+			break;
+		case ERROR:
+			if (optionPending) {
+				// job server不支持exceptions选项，失败时只会收到WORK_FAIL
+				optionPending = false;
+				logger.warn("job server {}:{} does not forward exceptions",
+						host, port);
+				break;
+			}
+			synchronized (lock) {
+				pending = awaitingCreation.poll();
+			}
+			if (pending != null) {
+				pending.future.completeExceptionally(new IOException(
+						"job server error: "
+								+ ByteUtils.fromUTF8Bytes(packet
+										.getDataComponentValue(DataComponentName.ERROR_TEXT))));
+			}
+			break;
+		default:
+			// WORK_DATA等不影响任务结果
+			break;
+		}
+	}
+
+	/**
+	 * 把任务状态转给提交时指定的监听器
+	 */
+	private void status(String handle, long numerator, long denominator) {
+		List<Pending> pendings;
+		synchronized (lock) {
+			pendings = running.get(handle);
+			if (pendings == null) {
+				return;
+			}
+			pendings = new ArrayList<Pending>(pendings);
+		}
+		for (Pending p : pendings) {
+			if (p.listener == null) {
+				continue;
+			}
+			try {
+				p.listener.onStatus(numerator, denominator);
+			} catch (RuntimeException e) {
+				// 监听器出错不能影响读线程和其他任务
+				logger.error("status listener of job " + handle + " fail.", e);
+			}
+		}
+	}
+
+	/**
+	 * 取出等待该任务结果的所有请求
+	 */
+	private List<Pending> finish(String handle) {
+		synchronized (lock) {
+			List<Pending> pendings = running.remove(handle);
+			if (pendings == null) {
+				return Collections.emptyList();
+			}
+			return pendings;
+		}
+	}
+
+	private static long number(GearmanPacket packet, DataComponentName name) {
+		try {
+			return Long.parseLong(ByteUtils.fromUTF8Bytes(packet
+					.getDataComponentValue(name)));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String handle(GearmanPacket packet) {
+		return ByteUtils.fromUTF8Bytes(packet
+				.getDataComponentValue(DataComponentName.JOB_HANDLE));
+	}
+
+	/**
+	 * 断开指定连接，并结束其上所有未完成的任务，调用前需持有lock
+	 *
+	 * @param s
+	 * @param cause
+	 */
+	private void disconnect(Socket s, IOException cause) {
+		if (s == null || s != socket) {
+			return;
+		}
+		socket = null;
+		output = null;
+		try {
+			s.close();
+		} catch (IOException e) {
+		}
+		List<Pending> pending = new ArrayList<Pending>(awaitingCreation);
+		for (List<Pending> pendings : running.values()) {
+			pending.addAll(pendings);
+		}
+		awaitingCreation.clear();
+		running.clear();
+		if (!pending.isEmpty()) {
+			logger.warn("connection to " + host + ":" + port + " lost, "
+					+ pending.size() + " jobs aborted", cause);
+		}
+		for (Pending p : pending) {
+			p.future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * 任务状态监听器
+	 */
+	public interface StatusListener {
+		/**
+		 *
+		 * @param numerator
+		 *            worker报告的已完成量
+		 * @param denominator
+		 *            worker报告的总量
+		 */
+		public void onStatus(long numerator, long denominator);
+	}
+
+	/**
+	 * 一次提交，等待结果的future和状态监听器
+	 */
+	private static class Pending {
+		private final CompletableFuture<GearmanJobResult> future;
+		private final StatusListener listener;
+
+		private Pending(CompletableFuture<GearmanJobResult> future,
+				StatusListener listener) {
+			this.future = future;
+			this.listener = listener;
+		}
+	}
+}
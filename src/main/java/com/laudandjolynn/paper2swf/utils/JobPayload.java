@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gearman.util.ByteUtils;
+
+/**
+ * gearman任务参数编解码，客户端与worker共用
+ * 
+ * <pre>
+ * 格式：
+ *  0x00 版本(1字节) {字段标识(1字节) 长度(4字节, big-endian) 值}*
+ * 版本号取0x01-0x1f之间的值。旧版本客户端使用\0分隔的字符串，第一个参数为空时同样以0x00开头，
+ * 但其后是下一个参数的文本或者另一个\0，参数都是路径、文件名等文本，不会出现这些控制字符，
+ * worker据此兼容旧格式。版本号在此范围内但不是当前版本时拒绝解码。
+ * 解码时跳过未知的字段标识，新增参数不影响旧版本的worker。
+ * 同一字段标识可以出现多次，比如按页序排列的多个swf文件。
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月26日 上午9:35:47
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobPayload {
+	public final static byte SWFTOOLS_FILE_PATH = 1;
+	public final static byte LANGUAGE_DIR = 2;
+	public final static byte SRC_FILE_PATH = 3;
+	public final static byte DEST_FILE_PATH = 4;
+	public final static byte SWF_DIR = 5;
+	public final static byte SWF_FILE_NAME = 6;
+	public final static byte PAGING = 7;
+	public final static byte OPENOFFICE_HOST = 8;
+	public final static byte OPENOFFICE_PORT = 9;
+	public final static byte SRC_CONTENT = 10;
+	public final static byte SRC_FILE_NAME = 11;
+	public final static byte RESULT = 12;
+	public final static byte SWF_CONTENT = 13;
+
+	private final static byte MAGIC = 0;
+	private final static byte VERSION = 1;
+	private final static int HEADER_LENGTH = 2;
+	private final static int FIELD_HEADER_LENGTH = 5;
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final List<byte[]> values;
+	private final List<Byte> tags;
+	// 以文件内容为值的字段，编码时才读取，与values一一对应，其他字段为null
+	private final List<File> files;
+	private final byte[] data;
+	private int length = HEADER_LENGTH;
+
+	/**
+	 * 构造待编码的任务参数
+	 */
+	public JobPayload() {
+		this.values = new ArrayList<byte[]>();
+		this.tags = new ArrayList<Byte>();
+		this.files = new ArrayList<File>();
+		this.data = null;
+	}
+
+	private JobPayload(byte[] data) {
+		this.values = null;
+		this.tags = null;
+		this.files = null;
+		this.data = data;
+	}
+
+	public JobPayload putString(byte tag, String value) {
+		if (value != null) {
+			put(tag, value.getBytes(UTF_8));
+		}
+		return this;
+	}
+
+	public JobPayload putInt(byte tag, int value) {
+		byte[] bytes = new byte[4];
+		writeInt(bytes, 0, value);
+		return put(tag, bytes);
+	}
+
+	public JobPayload putBoolean(byte tag, boolean value) {
+		return put(tag, new byte[] { (byte) (value ? 1 : 0) });
+	}
+
+	public JobPayload put(byte tag, byte[] value) {
+		if (values == null) {
+			throw new IllegalStateException("decoded payload is read only");
+		}
+		tags.add(tag);
+		values.add(value);
+		files.add(null);
+		length += FIELD_HEADER_LENGTH + value.length;
+		return this;
+	}
+
+	/**
+	 * 以文件内容为字段值。编码时经FileChannel直接读入编码数据，不经过中间缓冲，编码前文件不能改变
+	 * 
+	 * @param tag
+	 *            字段标识
+	 * @param file
+	 *            文件
+	 * @return
+	 * @throws IOException
+	 *             文件不存在或者超过编码数据的长度上限
+	 */
+	public JobPayload putFile(byte tag, File file) throws IOException {
+		if (values == null) {
+			throw new IllegalStateException("decoded payload is read only");
+		}
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		long size = file.length();
+		if (size > Integer.MAX_VALUE - FIELD_HEADER_LENGTH - length) {
+			throw new IOException(file.getPath() + " is too large, " + size
+					+ " bytes.");
+		}
+		tags.add(tag);
+		values.add(null);
+		files.add(file);
+		length += FIELD_HEADER_LENGTH + (int) size;
+		return this;
+	}
+
+	/**
+	 * 编码
+	 * 
+	 * @return
+	 * @throws ConvertException
+	 *             读取{@link #putFile(byte, File)}的文件失败
+	 */
+	public byte[] toBytes() {
+		if (data != null) {
+			return data;
+		}
+		byte[] bytes = new byte[length];
+		bytes[0] = MAGIC;
+		bytes[1] = VERSION;
+		int offset = HEADER_LENGTH;
+		for (int i = 0; i < values.size(); i++) {
+			byte[] value = values.get(i);
+			File file = files.get(i);
+			int len = value == null ? (int) file.length() : value.length;
+			bytes[offset] = tags.get(i);
+			writeInt(bytes, offset + 1, len);
+			offset += FIELD_HEADER_LENGTH;
+			if (value == null) {
+				readFile(file, bytes, offset, len);
+			} else {
+				System.arraycopy(value, 0, bytes, offset, len);
+			}
+			offset += len;
+		}
+		if (offset != bytes.length) {
+			throw new ConvertException("file size changed while encoding");
+		}
+		return bytes;
+	}
+
+	private static void readFile(File file, byte[] bytes, int offset, int len) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			if (channel.size() != len) {
+				throw new ConvertException(file.getPath()
+						+ " changed while encoding");
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, len);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) == -1) {
+					throw new ConvertException(file.getPath()
+							+ " changed while encoding");
+				}
+			}
+		} catch (IOException e) {
+			throw new ConvertException("read " + file.getPath() + " fail: "
+					+ e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 解码
+	 * 
+	 * @param data
+	 *            任务参数
+	 * @param legacyTags
+	 *            旧格式中各参数依次对应的字段标识
+	 * @return
+	 * @throws ConvertException
+	 *             参数格式错误
+	 */
+	public static JobPayload decode(byte[] data, byte... legacyTags) {
+		if (data == null || data.length == 0) {
+			throw new ConvertException("empty job payload");
+		}
+		if (!isVersioned(data)) {
+			return fromLegacy(data, legacyTags);
+		}
+		if (data[1] != VERSION) {
+			throw new ConvertException("unsupported job payload version: "
+					+ data[1]);
+		}
+		int offset = HEADER_LENGTH;
+		while (offset < data.length) {
+			if (offset + FIELD_HEADER_LENGTH > data.length) {
+				throw new ConvertException("corrupt job payload");
+			}
+			int len = readInt(data, offset + 1);
+			offset += FIELD_HEADER_LENGTH;
+			if (len < 0 || len > data.length - offset) {
+				throw new ConvertException("corrupt job payload");
+			}
+			offset += len;
+		}
+		return new JobPayload(data);
+	}
+
+	/**
+	 * 
+	 * @return 是否以0x00和版本号开头，否则为旧格式
+	 */
+	private static boolean isVersioned(byte[] data) {
+		return data.length >= HEADER_LENGTH && data[0] == MAGIC
+				&& data[1] > 0 && data[1] < 0x20;
+	}
+
+	/**
+	 * 转换旧版本客户端的\0分隔参数
+	 */
+	private static JobPayload fromLegacy(byte[] data, byte... legacyTags) {
+		String[] params = ByteUtils.fromUTF8Bytes(data).split("\0");
+		JobPayload payload = new JobPayload();
+		for (int i = 0; i < params.length && i < legacyTags.length; i++) {
+			byte tag = legacyTags[i];
+			if (tag == PAGING) {
+				payload.putBoolean(tag, params[i].equals("true"));
+			} else if (tag == OPENOFFICE_PORT) {
+				payload.putInt(tag,
+						ByteUtils.fromBigEndian(ByteUtils.toUTF8Bytes(params[i])));
+			} else {
+				payload.putString(tag, params[i]);
+			}
+		}
+		return decode(payload.toBytes());
+	}
+
+	/**
+	 * @return 字段值在编码数据中的位置，-1表示不存在
+	 */
+	private int find(byte tag) {
+		byte[] bytes = decoded();
+		int offset = HEADER_LENGTH;
+		while (offset < bytes.length) {
+			int len = readInt(bytes, offset + 1);
+			if (bytes[offset] == tag) {
+				return offset + FIELD_HEADER_LENGTH;
+			}
+			offset += FIELD_HEADER_LENGTH + len;
+		}
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @return 编码数据的长度，单位字节
+	 */
+	public int size() {
+		return data != null ? data.length : length;
+	}
+
+	public boolean has(byte tag) {
+		return find(tag) != -1;
+	}
+
+	/**
+	 * 
+	 * @param tag
+	 *            字段标识
+	 * @return 该字段出现的次数
+	 */
+	public int count(byte tag) {
+		byte[] bytes = decoded();
+		int count = 0;
+		int offset = HEADER_LENGTH;
+		while (offset < bytes.length) {
+			if (bytes[offset] == tag) {
+				count++;
+			}
+			offset += FIELD_HEADER_LENGTH + readInt(bytes, offset + 1);
+		}
+		return count;
+	}
+
+	/**
+	 * 把字段值经FileChannel直接从编码数据写入文件，不经过中间缓冲，文件已存在时覆盖
+	 * 
+	 * @param tag
+	 *            字段标识
+	 * @param index
+	 *            该字段的第几次出现，从0开始
+	 * @param file
+	 *            目的文件
+	 * @return 是否存在该字段
+	 * @throws IOException
+	 */
+	public boolean transferTo(byte tag, int index, File file)
+			throws IOException {
+		byte[] bytes = decoded();
+		int offset = HEADER_LENGTH;
+		while (offset < bytes.length) {
+			int len = readInt(bytes, offset + 1);
+			if (bytes[offset] == tag && index-- == 0) {
+				FileOutputStream out = new FileOutputStream(file);
+				try {
+					FileChannel channel = out.getChannel();
+					ByteBuffer buffer = ByteBuffer.wrap(bytes, offset
+							+ FIELD_HEADER_LENGTH, len);
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				} finally {
+					out.close();
+				}
+				return true;
+			}
+			offset += FIELD_HEADER_LENGTH + len;
+		}
+		return false;
+	}
+
+	public String getString(byte tag) {
+		int offset = find(tag);
+		if (offset == -1) {
+			return null;
+		}
+		return new String(decoded(), offset, valueLength(offset), UTF_8);
+	}
+
+	/**
+	 * 
+	 * @param tag
+	 *            字段标识
+	 * @param defaultValue
+	 *            字段不存在时的默认值
+	 * @return
+	 * @throws ConvertException
+	 *             字段值不足4字节
+	 */
+	public int getInt(byte tag, int defaultValue) {
+		int offset = find(tag);
+		if (offset == -1) {
+			return defaultValue;
+		}
+		if (valueLength(offset) < 4) {
+			throw new ConvertException("corrupt job payload");
+		}
+		return readInt(decoded(), offset);
+	}
+
+	/**
+	 * 
+	 * @param tag
+	 *            字段标识
+	 * @return 字段不存在时为false
+	 * @throws ConvertException
+	 *             字段值为空
+	 */
+	public boolean getBoolean(byte tag) {
+		int offset = find(tag);
+		if (offset == -1) {
+			return false;
+		}
+		if (valueLength(offset) < 1) {
+			throw new ConvertException("corrupt job payload");
+		}
+		return decoded()[offset] != 0;
+	}
+
+	private int valueLength(int offset) {
+		return readInt(decoded(), offset - FIELD_HEADER_LENGTH + 1);
+	}
+
+	private byte[] decoded() {
+		if (data == null) {
+			throw new IllegalStateException("payload has not been decoded");
+		}
+		return data;
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xff) << 24)
+				| ((bytes[offset + 1] & 0xff) << 16)
+				| ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.gearman.client.GearmanJob.JobPriority;
+import org.gearman.client.GearmanJobResult;
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacket.DataComponentName;
+import org.gearman.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一组job server。提交按轮询分摊到各个job server，某个job server连接失败后暂时跳过，
+ * 跳过的时间逐次加倍，期满后再尝试；所有job server都不可用时仍依次尝试。
+ * 批量提交中途失败的部分会改投下一个job server，已被原job server接受的任务可能重复提交。
+ * 带唯一标识的任务按标识固定投往同一个job server，相同的任务才能被合并。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月27日 上午9:46:12
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobServerGroup {
+	private final static Logger logger = LoggerFactory
+			.getLogger(JobServerGroup.class);
+	private final static long DEFAULT_RETRY_INTERVAL = 1000;
+	private final static long MAX_RETRY_INTERVAL = 60000;
+	private final List<Server> servers = new ArrayList<Server>();
+	private final AtomicInteger next = new AtomicInteger();
+	private long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+	public void addServer(String host, int port) {
+		servers.add(new Server(host, port));
+	}
+
+	/**
+	 *
+	 * @param retryInterval
+	 *            job server失败后第一次跳过的时间，单位毫秒
+	 */
+	public void setRetryInterval(long retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+
+	/**
+	 *
+	 * @param maxInFlight
+	 *            批量提交时每个连接已发送但未应答的请求数上限
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		for (Server server : servers) {
+			server.pipeline.setMaxInFlight(maxInFlight);
+		}
+	}
+
+	/**
+	 *
+	 * @param timeout
+	 *            批量提交时多长时间没有收到应答即认为该job server失败，单位毫秒
+	 */
+	public void setTimeout(long timeout) {
+		for (Server server : servers) {
+			server.pipeline.setTimeout(timeout);
+		}
+	}
+
+	public int size() {
+		return servers.size();
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return 该job server当前是否被跳过
+	 */
+	public boolean isAvailable(int index) {
+		return servers.get(index).isAvailable(System.currentTimeMillis());
+	}
+
+	/**
+	 * 批量提交后台任务，轮流分给可用的job server。带唯一标识的任务固定投往按标识选定的job server，
+	 * 以便job server合并相同的任务
+	 *
+	 * @param packets
+	 *            提交任务的请求包
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 *             所有job server都失败
+	 */
+	public List<String> submitBatch(List<GearmanPacket> packets)
+			throws IOException {
+		if (servers.isEmpty()) {
+			throw new IOException("no job server configured");
+		}
+		List<Server> ordered = order();
+		long now = System.currentTimeMillis();
+		int available = 0;
+		while (available < ordered.size()
+				&& ordered.get(available).isAvailable(now)) {
+			available++;
+		}
+		Map<Server, List<Integer>> assigned = new LinkedHashMap<Server, List<Integer>>();
+		for (int i = 0; i < packets.size(); i++) {
+			Server server = preferred(packets.get(i), now);
+			if (server == null) {
+				server = ordered.get(available == 0 ? 0 : i % available);
+			}
+			List<Integer> indexes = assigned.get(server);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				assigned.put(server, indexes);
+			}
+			indexes.add(i);
+		}
+		String[] handles = new String[packets.size()];
+		for (Map.Entry<Server, List<Integer>> entry : assigned.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			List<GearmanPacket> chunk = new ArrayList<GearmanPacket>(
+					indexes.size());
+			for (Integer index : indexes) {
+				chunk.add(packets.get(index));
+			}
+			List<Server> candidates = new ArrayList<Server>(ordered);
+			candidates.remove(entry.getKey());
+			candidates.add(0, entry.getKey());
+			List<String> created = submitChunk(chunk, candidates);
+			for (int i = 0; i < indexes.size(); i++) {
+				handles[indexes.get(i)] = created.get(i);
+			}
+		}
+		return Arrays.asList(handles);
+	}
+
+	private List<String> submitChunk(List<GearmanPacket> chunk,
+			List<Server> candidates) throws IOException {
+		IOException last = null;
+		for (Server server : candidates) {
+			try {
+				List<String> handles = server.pipeline.submit(chunk);
+				server.succeeded();
+				return handles;
+			} catch (IOException e) {
+				server.failed(e);
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * 提交前台任务，连接不上的job server会被跳过
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @return 任务结果，见{@link JobMultiplexer#submit(String, String, byte[])}
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function,
+			String uniqueId, byte[] data) {
+		return submit(function, uniqueId, data, JobPriority.NORMAL);
+	}
+
+	/**
+	 * 按优先级提交前台任务，连接不上的job server会被跳过
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @param priority
+	 *            优先级，高优先级时提交到交互通道，见{@link JobLane}
+	 * @return 任务结果，见{@link JobMultiplexer#submit(String, String, byte[])}
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function,
+			String uniqueId, byte[] data, JobPriority priority) {
+		return submit(function, uniqueId, data, priority, null);
+	}
+
+	/**
+	 * 按优先级提交前台任务，连接不上的job server会被跳过
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @param priority
+	 *            优先级，高优先级时提交到交互通道，见{@link JobLane}
+	 * @param listener
+	 *            任务状态监听器，可以为null，见
+	 *            {@link JobMultiplexer#submit(String, String, byte[], JobPriority, JobMultiplexer.StatusListener)}
+	 * @return 任务结果，见{@link JobMultiplexer#submit(String, String, byte[])}
+	 */
+	public CompletableFuture<GearmanJobResult> submit(String function,
+			String uniqueId, byte[] data, JobPriority priority,
+			JobMultiplexer.StatusListener listener) {
+		CompletableFuture<GearmanJobResult> future = null;
+		List<Server> candidates = order();
+		if (uniqueId != null && !servers.isEmpty()) {
+			Server server = servers.get(index(ByteUtils.toUTF8Bytes(uniqueId)));
+			if (server.isAvailable(System.currentTimeMillis())) {
+				candidates.remove(server);
+				candidates.add(0, server);
+			}
+		}
+		for (final Server server : candidates) {
+			future = server.multiplexer.submit(function, uniqueId, data,
+					priority, listener);
+			if (future.isCompletedExceptionally()) {
+				// 连接失败，请求没有写出
+				server.failed(cause(future));
+				continue;
+			}
+			future.whenComplete(new BiConsumer<GearmanJobResult, Throwable>() {
+				@Override
+				public void accept(GearmanJobResult result, Throwable t) {
+					if (t instanceof CompletionException) {
+						t = t.getCause();
+					}
+					if (t instanceof IOException) {
+						server.failed((IOException) t);
+					} else {
+						server.succeeded();
+					}
+				}
+			});
+			return future;
+		}
+		if (future == null) {
+			future = new CompletableFuture<GearmanJobResult>();
+			future.completeExceptionally(new IOException(
+					"no job server configured"));
+		}
+		return future;
+	}
+
+	/**
+	 *
+	 * @return 尚未结束的前台任务数
+	 */
+	public int getPendingCount() {
+		int count = 0;
+		for (Server server : servers) {
+			count += server.multiplexer.getPendingCount();
+		}
+		return count;
+	}
+
+	public void close() {
+		for (Server server : servers) {
+			server.pipeline.close();
+			server.multiplexer.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return 从下一个轮询位置开始，可用的在前，被跳过的按恢复时间先后排在后面
+	 */
+	private List<Server> order() {
+		int size = servers.size();
+		if (size == 0) {
+			return servers;
+		}
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+		long now = System.currentTimeMillis();
+		List<Server> available = new ArrayList<Server>(size);
+		List<Server> skipped = new ArrayList<Server>();
+		// 排序期间恢复时间可能被其他线程修改，先取快照
+		final Map<Server, Long> skipUntil = new HashMap<Server, Long>();
+		for (int i = 0; i < size; i++) {
+			Server server = servers.get((start + i) % size);
+			long until = server.skipUntil;
+			if (now >= until) {
+				available.add(server);
+			} else {
+				skipped.add(server);
+				skipUntil.put(server, until);
+			}
+		}
+		Collections.sort(skipped, new Comparator<Server>() {
+			@Override
+			public int compare(Server o1, Server o2) {
+				return skipUntil.get(o1).compareTo(skipUntil.get(o2));
+			}
+		});
+		available.addAll(skipped);
+		return available;
+	}
+
+	/**
+	 *
+	 * @param packet
+	 * @param now
+	 * @return 按唯一标识选定且可用的job server，没有唯一标识时为null
+	 */
+	private Server preferred(GearmanPacket packet, long now) {
+		byte[] uniqueId = packet
+				.getDataComponentValue(DataComponentName.UNIQUE_ID);
+		if (uniqueId == null || uniqueId.length == 0) {
+			return null;
+		}
+		Server server = servers.get(index(uniqueId));
+		return server.isAvailable(now) ? server : null;
+	}
+
+	private int index(byte[] uniqueId) {
+		return (Arrays.hashCode(uniqueId) & Integer.MAX_VALUE) % servers.size();
+	}
+
+	private static IOException cause(CompletableFuture<?> future) {
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				return (IOException) e.getCause();
+			}
+			return new IOException(e.getCause());
+		}
+		return null;
+	}
+
+	private class Server {
+		private final String host;
+		private final int port;
+		private final JobSubmitPipeline pipeline;
+		private final JobMultiplexer multiplexer;
+		private long interval = 0;
+		private volatile long skipUntil = 0;
+
+		Server(String host, int port) {
+			this.host = host;
+			this.port = port;
+			this.pipeline = new JobSubmitPipeline(host, port);
+			this.multiplexer = new JobMultiplexer(host, port);
+		}
+
+		boolean isAvailable(long now) {
+			return now >= skipUntil;
+		}
+
+		synchronized void succeeded() {
+			interval = 0;
+			skipUntil = 0;
+		}
+
+		synchronized void failed(IOException e) {
+			long now = System.currentTimeMillis();
+			if (now < skipUntil) {
+				// 同一连接上的多个任务一起失败，只计一次
+				return;
+			}
+			interval = interval == 0 ? retryInterval : Math.min(interval * 2,
+					MAX_RETRY_INTERVAL);
+			skipUntil = now + interval;
+			logger.warn("job server " + host + ":" + port + " failed, skip it for "
+					+ interval + "ms. " + (e == null ? "" : e.getMessage()));
+		}
+	}
+}
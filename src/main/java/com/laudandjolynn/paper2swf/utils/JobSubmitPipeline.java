@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.gearman.client.GearmanJob.JobPriority;
+import org.gearman.common.GearmanNIOJobServerConnection;
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacketImpl;
+import org.gearman.common.GearmanPacketMagic;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 批量提交后台任务。SUBMIT_JOB_BG请求连续写入同一个连接，不必等待前一个JOB_CREATED，
+ * job server按顺序应答，所以应答顺序即提交顺序。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午11:08:25
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobSubmitPipeline {
+	private final static Logger logger = LoggerFactory
+			.getLogger(JobSubmitPipeline.class);
+	private final static long DEFAULT_TIMEOUT = 30000;
+	private final static int DEFAULT_MAX_IN_FLIGHT = 1024;
+	private final static long SELECT_INTERVAL = 100;
+	private final String host;
+	private final int port;
+	private GearmanNIOJobServerConnection conn = null;
+	private long timeout = DEFAULT_TIMEOUT;
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+	/**
+	 *
+	 * @param host
+	 *            job server服务地址
+	 * @param port
+	 *            job server服务端口
+	 */
+	public JobSubmitPipeline(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 *
+	 * @param timeout
+	 *            多长时间没有收到任何应答即认为提交失败，单位毫秒
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 *
+	 * @param maxInFlight
+	 *            已发送但未应答的请求数上限，避免job server应答堆积
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 *
+	 * @param function
+	 *            函数名
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @return SUBMIT_JOB_BG请求包
+	 */
+	public static GearmanPacket backgroundJob(String function,
+			String uniqueId, byte[] data) {
+		return backgroundJob(function, uniqueId, data, JobPriority.NORMAL);
+	}
+
+	/**
+	 *
+	 * @param function
+	 *            函数名，高优先级时提交到交互通道，见{@link JobLane}
+	 * @param uniqueId
+	 *            任务唯一标识，可以为null
+	 * @param data
+	 *            任务数据
+	 * @param priority
+	 *            优先级
+	 * @return SUBMIT_JOB_BG及其优先级变体的请求包
+	 */
+	public static GearmanPacket backgroundJob(String function,
+			String uniqueId, byte[] data, JobPriority priority) {
+		return new GearmanPacketImpl(GearmanPacketMagic.REQ,
+				JobLane.submitType(priority, true),
+				GearmanPacketImpl.generatePacketData(
+						ByteUtils.toUTF8Bytes(JobLane.function(function,
+								priority)),
+						uniqueId == null ? ByteUtils.EMPTY : ByteUtils
+								.toUTF8Bytes(uniqueId), data));
+	}
+
+	/**
+	 *
+	 * @param packets
+	 *            提交任务的请求包
+	 * @return 任务句柄，与请求一一对应
+	 * @throws IOException
+	 */
+	public synchronized List<String> submit(List<GearmanPacket> packets)
+			throws IOException {
+		List<String> handles = new ArrayList<String>(packets.size());
+		if (packets.isEmpty()) {
+			return handles;
+		}
+		try {
+			if (conn == null || !conn.isOpen()) {
+				conn = new GearmanNIOJobServerConnection(host, port);
+				conn.open();
+			}
+			Iterator<GearmanPacket> pending = packets.iterator();
+			int sent = 0;
+			long deadline = System.currentTimeMillis() + timeout;
+			while (handles.size() < packets.size()) {
+				while (pending.hasNext() && sent - handles.size() < maxInFlight) {
+					conn.write(pending.next());
+					sent++;
+				}
+				if (conn.hasBufferedWriteData()) {
+					conn.write(null);
+				}
+
+				boolean received = false;
+				GearmanPacket packet = null;
+				while ((packet = conn.read()) != null) {
+					received = true;
+					GearmanPacketType type = packet.getPacketType();
+					if (type == GearmanPacketType.JOB_CREATED) {
+						handles.add(ByteUtils.fromUTF8Bytes(packet
+								.getDataComponentValue(GearmanPacket.DataComponentName.JOB_HANDLE)));
+					} else if (type == GearmanPacketType.ERROR) {
+						throw new IOException("job server error: "
+								+ ByteUtils.fromUTF8Bytes(packet
+										.getDataComponentValue(GearmanPacket.DataComponentName.ERROR_TEXT)));
+					}
+				}
+				long now = System.currentTimeMillis();
+				if (received) {
+					deadline = now + timeout;
+				} else if (now >= deadline) {
+					throw new IOException("timed out after " + handles.size()
+							+ " of " + packets.size() + " jobs created");
+				} else {
+					await(Math.min(deadline - now, SELECT_INTERVAL));
+				}
+			}
+		} catch (IOException e) {
+			// 连接状态未知，下次重新建立
+			close();
+			throw e;
+		}
+		logger.debug("{} jobs submitted to {}:{}", new Object[] {
+				handles.size(), host, port });
+		return handles;
+	}
+
+	/**
+	 * 等待连接可读，或者在写缓冲未清空时可写
+	 *
+	 * @param millis
+	 * @throws IOException
+	 */
+	private void await(long millis) throws IOException {
+		Selector selector = conn.getSelector();
+		int ops = SelectionKey.OP_READ;
+		if (conn.hasBufferedWriteData()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		for (SelectionKey key : selector.keys()) {
+			key.interestOps(ops);
+		}
+		selector.selectedKeys().clear();
+		selector.select(millis);
+		// 连接自身的write依赖可写事件才会真正发送
+		for (SelectionKey key : selector.keys()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	public synchronized void close() {
+		if (conn != null && conn.isOpen()) {
+			conn.close();
+		}
+		conn = null;
+	}
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程内的转换统计。各阶段的统计在首次使用时创建，调用{@link #register()}后以MXBean发布：
+ *
+ * <pre>
+ *  com.laudandjolynn.paper2swf:type=Metrics             总页数、页数/秒、按原因统计的失败次数
+ *  com.laudandjolynn.paper2swf:type=Stage,name=[阶段]    各阶段的次数、失败数、正在执行数、耗时分布
+ * </pre>
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午2:41:17
+ * @copyright: www.laudandjolynn.com
+ */
+public class Metrics {
+	private final static Logger logger = LoggerFactory
+			.getLogger(Metrics.class);
+	private final static String DOMAIN = "com.laudandjolynn.paper2swf";
+	/**
+	 * 一次PDF转swf，包括取页数和所有pdf2swf进程
+	 */
+	public final static String PDF2SWF = "pdf2swf";
+	/**
+	 * 从连接池借用OpenOffice连接的等待
+	 */
+	public final static String OPENOFFICE_BORROW = "openoffice.borrow";
+	/**
+	 * OpenOffice转PDF，不包括借用连接
+	 */
+	public final static String OPENOFFICE_CONVERT = "openoffice.convert";
+	/**
+	 * jacob转PDF
+	 */
+	public final static String JACOB_CONVERT = "jacob.convert";
+	/**
+	 * 流水线转PDF阶段的排队等待
+	 */
+	public final static String PDF_QUEUE = "pipeline.pdf.queue";
+	/**
+	 * 流水线转swf阶段的排队等待
+	 */
+	public final static String SWF_QUEUE = "pipeline.swf.queue";
+	/**
+	 * 写入转换结果缓存
+	 */
+	public final static String CACHE_STORE = "cache.store";
+	/**
+	 * 删除中间PDF文件
+	 */
+	public final static String SCRATCH_RELEASE = "scratch.release";
+	/**
+	 * 按需转换时请求一页的等待，页已预取完成时接近0
+	 */
+	public final static String LAZY_PAGE = "lazy.page";
+	/**
+	 * 延迟发布时一批swf从暂存目录移动到目的目录
+	 */
+	public final static String PUBLISH = "publish";
+	/**
+	 * gearman任务，后接function类名
+	 */
+	public final static String FUNCTION_PREFIX = "function.";
+	private final static ConcurrentMap<String, StageMetrics> stages = new ConcurrentHashMap<String, StageMetrics>();
+	private final static ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<String, LongAdder>();
+	private final static LongAdder pages = new LongAdder();
+	private final static RateMeter pageRate = new RateMeter();
+	private static volatile boolean registered = false;
+
+	private Metrics() {
+	}
+
+	/**
+	 *
+	 * @param name
+	 *            阶段名称
+	 * @return 阶段统计，不存在时创建
+	 */
+	public static StageMetrics stage(String name) {
+		StageMetrics stage = stages.get(name);
+		if (stage != null) {
+			return stage;
+		}
+		stage = new StageMetrics(name);
+		StageMetrics existing = stages.putIfAbsent(name, stage);
+		if (existing != null) {
+			return existing;
+		}
+		if (registered) {
+			register(stageName(name), stage);
+		}
+		return stage;
+	}
+
+	/**
+	 * 记录生成的swf页数
+	 *
+	 * @param n
+	 */
+	public static void pages(int n) {
+		pages.add(n);
+		pageRate.mark(n);
+	}
+
+	/**
+	 * 记录一次失败
+	 *
+	 * @param cause
+	 *            失败原因，比如pdf2swf.timeout
+	 */
+	public static void failure(String cause) {
+		LongAdder counter = failures.get(cause);
+		if (counter == null) {
+			counter = new LongAdder();
+			LongAdder existing = failures.putIfAbsent(cause, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.increment();
+	}
+
+	/**
+	 * 以MXBean发布所有统计到平台MBeanServer，之后创建的阶段也会发布
+	 */
+	public static synchronized void register() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		register(summaryName(), new Summary());
+		for (StageMetrics stage : stages.values()) {
+			register(stageName(stage.getName()), stage);
+		}
+	}
+
+	/**
+	 * 取消发布，统计数据保留
+	 */
+	public static synchronized void unregister() {
+		if (!registered) {
+			return;
+		}
+		registered = false;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (ObjectName name : server.queryNames(new ObjectName(DOMAIN
+					+ ":*"), null)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	private static void register(ObjectName name, Object mbean) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (!server.isRegistered(name)) {
+				server.registerMBean(mbean, name);
+			}
+		} catch (Exception e) {
+			logger.error("can not register " + name, e);
+		}
+	}
+
+	static ObjectName summaryName() {
+		try {
+			return new ObjectName(DOMAIN + ":type=Metrics");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static ObjectName stageName(String stage) {
+		try {
+			return new ObjectName(DOMAIN + ":type=Stage,name="
+					+ ObjectName.quote(stage));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Summary implements MetricsMXBean {
+		@Override
+		public long getPages() {
+			return pages.sum();
+		}
+
+		@Override
+		public double getPagesPerSecond() {
+			return pageRate.rate();
+		}
+
+		@Override
+		public Map<String, Long> getFailures() {
+			Map<String, Long> snapshot = new TreeMap<String, Long>();
+			for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+				snapshot.put(entry.getKey(), entry.getValue().sum());
+			}
+			return snapshot;
+		}
+	}
+}
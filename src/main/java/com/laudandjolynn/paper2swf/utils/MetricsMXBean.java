@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.util.Map;
+
+/**
+ * 转换总体统计
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午2:07:12
+ * @copyright: www.laudandjolynn.com
+ */
+public interface MetricsMXBean {
+	/**
+	 *
+	 * @return 生成的swf总页数
+	 */
+	long getPages();
+
+	/**
+	 *
+	 * @return 最近一分钟平均每秒生成的swf页数
+	 */
+	double getPagesPerSecond();
+
+	/**
+	 *
+	 * @return 按原因统计的失败次数
+	 */
+	Map<String, Long> getFailures();
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+/**
+ * OpenOffice连接池配置
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月22日 上午10:12:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficePoolConfig {
+	private int maxActive = 8;
+	private int maxIdle = 8;
+	private int minIdle = 0;
+	private long maxWait = -1L;
+	private long timeBetweenEvictionRunsMillis = 60 * 1000L;
+	private long minEvictableIdleTimeMillis = 5 * 60 * 1000L;
+	private boolean testOnBorrow = true;
+	private long connectTimeout = 2000L;
+	private long probeTimeout = 5000L;
+	private long validationInterval = 5000L;
+	private int failureThreshold = 3;
+	private long openInterval = 5000L;
+	private long maxOpenInterval = 60 * 1000L;
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	/**
+	 * @param maxActive
+	 *            最大活动连接数，即同时转换的文档数
+	 */
+	public void setMaxActive(int maxActive) {
+		this.maxActive = maxActive;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	/**
+	 * @param maxIdle
+	 *            最大空闲连接数
+	 */
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @param maxWait
+	 *            连接耗尽时借用连接的最长等待时间（毫秒），小于0表示一直等待
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public long getTimeBetweenEvictionRunsMillis() {
+		return timeBetweenEvictionRunsMillis;
+	}
+
+	/**
+	 * @param timeBetweenEvictionRunsMillis
+	 *            空闲连接回收线程的运行间隔（毫秒），小于等于0表示不回收
+	 */
+	public void setTimeBetweenEvictionRunsMillis(
+			long timeBetweenEvictionRunsMillis) {
+		this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+	}
+
+	public long getMinEvictableIdleTimeMillis() {
+		return minEvictableIdleTimeMillis;
+	}
+
+	/**
+	 * @param minEvictableIdleTimeMillis
+	 *            连接空闲超过该时间（毫秒）后被回收
+	 */
+	public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+		this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            建立连接的超时时间（毫秒），包括TCP连接和UNO握手
+	 */
+	public void setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public long getProbeTimeout() {
+		return probeTimeout;
+	}
+
+	/**
+	 * @param probeTimeout
+	 *            检查连接是否可用时，等待OpenOffice响应的最长时间（毫秒）
+	 */
+	public void setProbeTimeout(long probeTimeout) {
+		this.probeTimeout = probeTimeout;
+	}
+
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+
+	/**
+	 * @param validationInterval
+	 *            连接在该时间（毫秒）内检查过或者成功转换过时，借用时不再检查
+	 */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            连续多少次连接失败后熔断，熔断期间转换直接失败
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getOpenInterval() {
+		return openInterval;
+	}
+
+	/**
+	 * @param openInterval
+	 *            熔断后多久（毫秒）放行一个试探请求，试探失败时加倍
+	 */
+	public void setOpenInterval(long openInterval) {
+		this.openInterval = openInterval;
+	}
+
+	public long getMaxOpenInterval() {
+		return maxOpenInterval;
+	}
+
+	/**
+	 * @param maxOpenInterval
+	 *            熔断时间的上限（毫秒）
+	 */
+	public void setMaxOpenInterval(long maxOpenInterval) {
+		this.maxOpenInterval = maxOpenInterval;
+	}
+
+	/**
+	 * 转换为commons-pool的连接池配置
+	 * 
+	 * @return
+	 */
+	public GenericObjectPool.Config toPoolConfig() {
+		GenericObjectPool.Config config = new GenericObjectPool.Config();
+		config.maxActive = maxActive;
+		config.maxIdle = maxIdle;
+		config.minIdle = minIdle;
+		config.maxWait = maxWait;
+		config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+		config.testOnBorrow = testOnBorrow;
+		config.testWhileIdle = true;
+		config.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+		config.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+		return config;
+	}
+}
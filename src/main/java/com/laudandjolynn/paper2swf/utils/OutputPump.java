@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 持续读取子进程的输出直到结束，避免管道写满后子进程阻塞。按行回调处理器，行内容直接引用读缓冲区，
+ * 不创建字符串；超过缓冲区长度的行只回调前面部分。另外保留最后若干字节的输出，用于出错时诊断。
+ * 占用的内存与输出量无关。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月29日 上午9:42:17
+ * @copyright: www.laudandjolynn.com
+ */
+public class OutputPump implements Runnable {
+	private final static Logger logger = LoggerFactory
+			.getLogger(OutputPump.class);
+	private final static int BUFFER_SIZE = 8192;
+	private final InputStream input;
+	private final LineHandler handler;
+	private final byte[] tail;
+	private long tailWritten = 0;
+
+	/**
+	 * 行处理器，在读取线程上回调
+	 */
+	public interface LineHandler {
+		/**
+		 *
+		 * @param buffer
+		 *            读缓冲区，回调返回后会被覆盖
+		 * @param offset
+		 *            行起始位置
+		 * @param length
+		 *            行长度，不包括换行符
+		 */
+		void onLine(byte[] buffer, int offset, int length);
+	}
+
+	/**
+	 *
+	 * @param input
+	 *            子进程的输出
+	 * @param handler
+	 *            行处理器，可以为null
+	 * @param tailSize
+	 *            保留的输出末尾字节数
+	 */
+	public OutputPump(InputStream input, LineHandler handler, int tailSize) {
+		this.input = input;
+		this.handler = handler;
+		this.tail = new byte[tailSize];
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		// 缓冲区中未处理部分的起始位置和结束位置
+		int start = 0;
+		int end = 0;
+		// 当前行超过缓冲区长度，丢弃到下一个换行符为止
+		boolean skipping = false;
+		try {
+			int n = 0;
+			while ((n = input.read(buffer, end, buffer.length - end)) != -1) {
+				appendTail(buffer, end, n);
+				int scan = end;
+				end += n;
+				for (int i = scan; i < end; i++) {
+					if (buffer[i] != '\n') {
+						continue;
+					}
+					if (!skipping) {
+						line(buffer, start, i);
+					}
+					skipping = false;
+					start = i + 1;
+				}
+				if (start == end) {
+					start = end = 0;
+				} else if (end == buffer.length) {
+					if (start == 0) {
+						// 整个缓冲区只有一行
+						if (!skipping) {
+							line(buffer, 0, end);
+						}
+						skipping = true;
+						end = 0;
+					} else {
+						System.arraycopy(buffer, start, buffer, 0, end - start);
+						end -= start;
+						start = 0;
+					}
+				}
+			}
+			if (start < end && !skipping) {
+				line(buffer, start, end);
+			}
+		} catch (IOException e) {
+			// 进程被结束时管道关闭
+			logger.debug(e.getMessage());
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return 最后若干字节的输出，可能从某个多字节字符中间开始
+	 */
+	public synchronized String getTail() {
+		int size = (int) Math.min(tailWritten, tail.length);
+		int from = (int) ((tailWritten - size) % tail.length);
+		byte[] bytes = new byte[size];
+		int first = Math.min(size, tail.length - from);
+		System.arraycopy(tail, from, bytes, 0, first);
+		System.arraycopy(tail, 0, bytes, first, size - first);
+		return new String(bytes, Charset.defaultCharset());
+	}
+
+	private synchronized void appendTail(byte[] bytes, int offset, int length) {
+		if (tail.length == 0) {
+			return;
+		}
+		if (length > tail.length) {
+			offset += length - tail.length;
+			tailWritten += length - tail.length;
+			length = tail.length;
+		}
+		int pos = (int) (tailWritten % tail.length);
+		int first = Math.min(length, tail.length - pos);
+		System.arraycopy(bytes, offset, tail, pos, first);
+		System.arraycopy(bytes, offset + first, tail, 0, length - first);
+		tailWritten += length;
+	}
+
+	private void line(byte[] buffer, int from, int to) {
+		if (handler == null) {
+			return;
+		}
+		if (to > from && buffer[to - 1] == '\r') {
+			to--;
+		}
+		try {
+			handler.onLine(buffer, from, to - from);
+		} catch (RuntimeException e) {
+			// 处理器出错也要继续读取，否则子进程会阻塞
+			logger.error(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacketImpl;
+
+/**
+ * 在阻塞流上读写gearman协议包。GearmanPacketImpl(InputStream)以轮询available()的方式等待数据，
+ * 只适合已完整缓冲的数据，所以这里先按包头长度读满再交给它解析。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月26日 上午10:05:37
+ * @copyright: www.laudandjolynn.com
+ */
+public final class PacketIO {
+	private final static int HEADER_LENGTH = 12;
+
+	private PacketIO() {
+	}
+
+	/**
+	 * 读取一个完整的包，阻塞直到读完
+	 *
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 *             连接关闭或者读取失败
+	 */
+	public static GearmanPacket read(DataInputStream input) throws IOException {
+		byte[] header = new byte[HEADER_LENGTH];
+		input.readFully(header);
+		int length = ByteBuffer.wrap(header, 8, 4).getInt();
+		if (length < 0) {
+			throw new IOException("illegal packet length: " + length);
+		}
+		byte[] bytes = new byte[HEADER_LENGTH + length];
+		System.arraycopy(header, 0, bytes, 0, HEADER_LENGTH);
+		input.readFully(bytes, HEADER_LENGTH, length);
+		return new GearmanPacketImpl(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * 写出一个包并刷新，多个线程共用一个输出流时由调用方同步
+	 *
+	 * @param output
+	 * @param packet
+	 * @throws IOException
+	 */
+	public static void write(OutputStream output, GearmanPacket packet)
+			throws IOException {
+		output.write(packet.toBytes());
+		output.flush();
+	}
+}
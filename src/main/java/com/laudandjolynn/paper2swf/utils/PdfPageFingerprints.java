@@ -0,0 +1,736 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PDF页面指纹。一页的指纹是页面字典（含继承的资源、页面框和旋转）连同它引用的全部对象的SHA-1摘要，
+ * 引用按被引用对象的摘要计算而不是按对象编号，因此修订版重新编号对象不影响未改动页面的指纹。
+ * 指向其他页面的引用按页码计算，指向上层的/Parent、/P不计入。
+ * <p>
+ * 只做识别页面所需的最小解析：逐个扫描文件中的间接对象和对象流，不依赖交叉引用表。
+ * 加密文档、无法解码的对象流、缺失的对象等情况一律返回null，由调用方整篇转换
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月3日 上午10:12:46
+ * @copyright: www.laudandjolynn.com
+ */
+public class PdfPageFingerprints {
+	private final static Logger logger = LoggerFactory
+			.getLogger(PdfPageFingerprints.class);
+	private final static Charset ASCII = Charset.forName("ISO-8859-1");
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+	private final static long MAX_FILE_SIZE = 512L * 1024 * 1024;
+	private final static int MAX_DEPTH = 256;
+	private final static Object NULL = new Object();
+	private final static Set<String> UPWARD_KEYS = new HashSet<String>(
+			Arrays.asList("Parent", "P"));
+	private final static String[] INHERITABLE_KEYS = { "Resources",
+			"MediaBox", "CropBox", "Rotate" };
+
+	private final byte[] data;
+	private final Map<Integer, Object> objects = new HashMap<Integer, Object>();
+	private final Map<Integer, Integer> offsets = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> pageNumbers = new HashMap<Integer, Integer>();
+	private final Map<Integer, byte[]> digests = new HashMap<Integer, byte[]>();
+	private final Set<Integer> visiting = new HashSet<Integer>();
+	private Map<String, Object> trailer = null;
+	private int trailerOffset = -1;
+	private int pos = 0;
+
+	private PdfPageFingerprints(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * 计算PDF文档每一页的指纹
+	 *
+	 * @param pdfFile
+	 *            PDF文件
+	 * @return 按页码顺序排列的十六进制指纹，无法识别文档结构时返回null
+	 */
+	public static String[] compute(File pdfFile) {
+		try {
+			if (pdfFile.length() > MAX_FILE_SIZE) {
+				return null;
+			}
+			return new PdfPageFingerprints(Files.readAllBytes(pdfFile.toPath()))
+					.compute();
+		} catch (IOException e) {
+			logger.error("read pdf file fail: " + pdfFile, e);
+		} catch (MalformedPdfException e) {
+			logger.info("can not fingerprint pages of " + pdfFile + ": "
+					+ e.getMessage());
+		} catch (RuntimeException e) {
+			logger.info("can not fingerprint pages of " + pdfFile + ": " + e);
+		}
+		return null;
+	}
+
+	private String[] compute() {
+		scan();
+		if (trailer == null) {
+			throw new MalformedPdfException("trailer not found");
+		}
+		if (trailer.containsKey("Encrypt")) {
+			throw new MalformedPdfException("encrypted");
+		}
+		Map<String, Object> catalog = dict(resolve(trailer.get("Root")));
+		List<Ref> pageRefs = new ArrayList<Ref>();
+		List<Map<String, Object>> pages = new ArrayList<Map<String, Object>>();
+		Object root = catalog.get("Pages");
+		if (!(root instanceof Ref)) {
+			throw new MalformedPdfException("page tree not found");
+		}
+		collectPages((Ref) root, new HashMap<String, Object>(), pageRefs,
+				pages, new HashSet<Integer>(), 0);
+		for (int i = 0; i < pageRefs.size(); i++) {
+			pageNumbers.put(pageRefs.get(i).num, i + 1);
+		}
+
+		String[] fingerprints = new String[pages.size()];
+		for (int i = 0; i < fingerprints.length; i++) {
+			int num = pageRefs.get(i).num;
+			visiting.add(num);
+			MessageDigest md = DigestUtils.getSha1Digest();
+			update(md, pages.get(i), 0);
+			visiting.remove(num);
+			fingerprints[i] = Hex.encodeHexString(md.digest());
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * 按顺序展开页面树，页面字典中合并进继承的属性
+	 */
+	private void collectPages(Ref ref, Map<String, Object> inherited,
+			List<Ref> pageRefs, List<Map<String, Object>> pages,
+			Set<Integer> seen, int depth) {
+		if (depth > MAX_DEPTH || !seen.add(ref.num)) {
+			throw new MalformedPdfException("page tree cycle at " + ref.num);
+		}
+		Map<String, Object> node = dict(resolve(ref));
+		Object kids = resolve(node.get("Kids"));
+		if (kids instanceof List) {
+			Map<String, Object> attrs = new HashMap<String, Object>(inherited);
+			for (String key : INHERITABLE_KEYS) {
+				if (node.containsKey(key)) {
+					attrs.put(key, node.get(key));
+				}
+			}
+			for (Object kid : (List<?>) kids) {
+				if (!(kid instanceof Ref)) {
+					throw new MalformedPdfException("direct page tree node");
+				}
+				collectPages((Ref) kid, attrs, pageRefs, pages, seen,
+						depth + 1);
+			}
+			return;
+		}
+		Map<String, Object> page = new HashMap<String, Object>(inherited);
+		page.putAll(node);
+		pageRefs.add(ref);
+		pages.add(page);
+	}
+
+	private void update(MessageDigest md, Object value, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new MalformedPdfException("object nesting too deep");
+		}
+		if (value instanceof Ref) {
+			int num = ((Ref) value).num;
+			Integer page = pageNumbers.get(num);
+			if (page != null) {
+				tag(md, 'p', page.toString());
+			} else if (visiting.contains(num)) {
+				tag(md, 'c', "");
+			} else {
+				md.update((byte) 'r');
+				md.update(digest(num, depth));
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> dict = (Map<?, ?>) value;
+			md.update((byte) 'd');
+			for (Map.Entry<?, ?> entry : new TreeMap<Object, Object>(dict)
+					.entrySet()) {
+				if (UPWARD_KEYS.contains(entry.getKey())) {
+					continue;
+				}
+				tag(md, 'n', (String) entry.getKey());
+				update(md, entry.getValue(), depth + 1);
+			}
+			md.update((byte) 'e');
+		} else if (value instanceof List) {
+			md.update((byte) 'a');
+			for (Object item : (List<?>) value) {
+				update(md, item, depth + 1);
+			}
+			md.update((byte) 'e');
+		} else if (value instanceof Stream) {
+			Stream stream = (Stream) value;
+			update(md, stream.dict, depth + 1);
+			tag(md, 'S', Integer.toString(stream.end - stream.start));
+			md.update(data, stream.start, stream.end - stream.start);
+		} else if (value instanceof Name) {
+			tag(md, 'n', ((Name) value).name);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			tag(md, 's', Integer.toString(bytes.length));
+			md.update(bytes);
+		} else if (value == NULL) {
+			tag(md, 'z', "");
+		} else {
+			// 数字、布尔值
+			tag(md, 'v', value.toString());
+		}
+	}
+
+	private byte[] digest(int num, int depth) {
+		byte[] digest = digests.get(num);
+		if (digest == null) {
+			Object value = objects.get(num);
+			if (value == null) {
+				throw new MalformedPdfException("missing object " + num);
+			}
+			visiting.add(num);
+			MessageDigest md = DigestUtils.getSha1Digest();
+			update(md, value, depth + 1);
+			visiting.remove(num);
+			digest = md.digest();
+			digests.put(num, digest);
+		}
+		return digest;
+	}
+
+	private static void tag(MessageDigest md, char tag, String value) {
+		md.update((byte) tag);
+		md.update(value.getBytes(UTF_8));
+		md.update((byte) 0);
+	}
+
+	private Object resolve(Object value) {
+		if (value instanceof Ref) {
+			Object target = objects.get(((Ref) value).num);
+			if (target == null) {
+				throw new MalformedPdfException("missing object "
+						+ ((Ref) value).num);
+			}
+			return target;
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> dict(Object value) {
+		if (value instanceof Stream) {
+			return ((Stream) value).dict;
+		}
+		if (value instanceof Map) {
+			return (Map<String, Object>) value;
+		}
+		throw new MalformedPdfException("dictionary expected");
+	}
+
+	/**
+	 * 顺序扫描文件中的间接对象和trailer，同一编号以文件中靠后的定义为准（增量更新追加在文件末尾）。
+	 * 流的内容直接跳过，不会在其中误认对象
+	 */
+	private void scan() {
+		List<Stream> objectStreams = new ArrayList<Stream>();
+		int i = 0;
+		while (i < data.length) {
+			if (!isRegularStart(i)) {
+				i++;
+				continue;
+			}
+			byte b = data[i];
+			if (b >= '0' && b <= '9') {
+				int next = scanObject(i, objectStreams);
+				i = next > i ? next : i + 1;
+			} else if (b == 't' && keywordAt(i, "trailer")) {
+				pos = i + 7;
+				Object value = parseObject(0);
+				if (value instanceof Map) {
+					offerTrailer(dict(value), i);
+				}
+				i = Math.max(pos, i + 1);
+			} else {
+				i++;
+			}
+		}
+		for (Stream stream : objectStreams) {
+			readObjectStream(stream);
+		}
+	}
+
+	/**
+	 * 尝试在i处解析“编号 代数 obj”开始的间接对象
+	 *
+	 * @return 对象结束位置，不是间接对象时返回i
+	 */
+	private int scanObject(int i, List<Stream> objectStreams) {
+		pos = i;
+		long num = readInteger();
+		if (num < 0 || num > Integer.MAX_VALUE || !skipWhitespace()) {
+			return i;
+		}
+		long gen = readInteger();
+		if (gen < 0 || !skipWhitespace() || !keywordAt(pos, "obj")) {
+			return i;
+		}
+		int offset = i;
+		pos += 3;
+		Object value;
+		try {
+			value = parseObject(0);
+		} catch (RuntimeException e) {
+			// 不是完整的对象，比如注释或损坏的内容
+			return i;
+		}
+		skipWhitespaceAndComments();
+		if (keywordAt(pos, "stream") && value instanceof Map) {
+			Stream stream = readStream(dict(value));
+			if (stream == null) {
+				return i;
+			}
+			value = stream;
+			if (new Name("ObjStm").equals(stream.dict.get("Type"))) {
+				stream.offset = offset;
+				objectStreams.add(stream);
+			} else if (new Name("XRef").equals(stream.dict.get("Type"))) {
+				offerTrailer(stream.dict, offset);
+			}
+		}
+		define((int) num, value, offset);
+		skipWhitespaceAndComments();
+		if (keywordAt(pos, "endobj")) {
+			pos += 6;
+		}
+		return pos;
+	}
+
+	private Stream readStream(Map<String, Object> dict) {
+		pos += 6;
+		if (pos < data.length && data[pos] == '\r') {
+			pos++;
+		}
+		if (pos < data.length && data[pos] == '\n') {
+			pos++;
+		}
+		int start = pos;
+		Object length = dict.get("Length");
+		if (length instanceof Long) {
+			long end = start + (Long) length;
+			if (end <= data.length) {
+				pos = (int) end;
+				skipWhitespace();
+				if (keywordAt(pos, "endstream")) {
+					pos += 9;
+					return new Stream(dict, start, (int) end);
+				}
+			}
+		}
+		// 长度是间接对象或者不准确时查找endstream
+		int end = indexOf("endstream", start);
+		if (end == -1) {
+			return null;
+		}
+		pos = end + 9;
+		if (end > start && data[end - 1] == '\n') {
+			end--;
+		}
+		if (end > start && data[end - 1] == '\r') {
+			end--;
+		}
+		return new Stream(dict, start, end);
+	}
+
+	private void readObjectStream(Stream stream) {
+		Object filter = stream.dict.get("Filter");
+		if (filter instanceof List && ((List<?>) filter).size() == 1) {
+			filter = ((List<?>) filter).get(0);
+		}
+		byte[] decoded;
+		if (filter == null) {
+			decoded = Arrays.copyOfRange(data, stream.start, stream.end);
+		} else if (new Name("FlateDecode").equals(filter)
+				&& !stream.dict.containsKey("DecodeParms")) {
+			decoded = inflate(data, stream.start, stream.end);
+		} else {
+			// 无法解码，其中的对象在计算指纹时按缺失处理
+			return;
+		}
+		Object n = stream.dict.get("N");
+		Object first = stream.dict.get("First");
+		if (!(n instanceof Long) || !(first instanceof Long)) {
+			return;
+		}
+		PdfPageFingerprints parser = new PdfPageFingerprints(decoded);
+		parser.pos = 0;
+		int count = (int) Math.min((Long) n, decoded.length);
+		long[] header = new long[count * 2];
+		for (int i = 0; i < header.length; i++) {
+			parser.skipWhitespaceAndComments();
+			header[i] = parser.readInteger();
+			if (header[i] < 0) {
+				return;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			long offset = (Long) first + header[i * 2 + 1];
+			if (header[i * 2] > Integer.MAX_VALUE || offset >= decoded.length) {
+				continue;
+			}
+			parser.pos = (int) offset;
+			define((int) header[i * 2], parser.parseObject(0), stream.offset);
+		}
+	}
+
+	private static byte[] inflate(byte[] data, int start, int end) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, start, end - start);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(end - start) * 4);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buffer);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new MalformedPdfException("bad object stream: "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void define(int num, Object value, int offset) {
+		Integer previous = offsets.get(num);
+		if (previous == null || previous <= offset) {
+			objects.put(num, value);
+			offsets.put(num, offset);
+		}
+	}
+
+	private void offerTrailer(Map<String, Object> dict, int offset) {
+		if (offset >= trailerOffset && dict.containsKey("Root")) {
+			trailer = dict;
+			trailerOffset = offset;
+		}
+	}
+
+	private Object parseObject(int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new MalformedPdfException("object nesting too deep");
+		}
+		skipWhitespaceAndComments();
+		if (pos >= data.length) {
+			throw new MalformedPdfException("unexpected end of file");
+		}
+		byte b = data[pos];
+		if (b == '<') {
+			if (pos + 1 < data.length && data[pos + 1] == '<') {
+				pos += 2;
+				Map<String, Object> dict = new LinkedHashMap<String, Object>();
+				while (true) {
+					skipWhitespaceAndComments();
+					if (pos + 1 < data.length && data[pos] == '>'
+							&& data[pos + 1] == '>') {
+						pos += 2;
+						return dict;
+					}
+					Object key = parseObject(depth + 1);
+					if (!(key instanceof Name)) {
+						throw new MalformedPdfException("name expected at "
+								+ pos);
+					}
+					dict.put(((Name) key).name, parseObject(depth + 1));
+				}
+			}
+			return readHexString();
+		}
+		if (b == '[') {
+			pos++;
+			List<Object> array = new ArrayList<Object>();
+			while (true) {
+				skipWhitespaceAndComments();
+				if (pos < data.length && data[pos] == ']') {
+					pos++;
+					return array;
+				}
+				array.add(parseObject(depth + 1));
+			}
+		}
+		if (b == '(') {
+			return readLiteralString();
+		}
+		if (b == '/') {
+			int start = ++pos;
+			while (pos < data.length && isRegular(data[pos])) {
+				pos++;
+			}
+			return new Name(new String(data, start, pos - start, ASCII));
+		}
+		if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.') {
+			String token = readToken();
+			if (token.indexOf('.') != -1) {
+				return Double.valueOf(token);
+			}
+			long value = Long.parseLong(token);
+			// 尝试“编号 代数 R”
+			int mark = pos;
+			if (value >= 0 && skipWhitespace()) {
+				long gen = readInteger();
+				if (gen >= 0 && skipWhitespace() && keywordAt(pos, "R")) {
+					pos++;
+					return new Ref((int) value);
+				}
+			}
+			pos = mark;
+			return value;
+		}
+		String keyword = readToken();
+		if ("true".equals(keyword) || "false".equals(keyword)) {
+			return Boolean.valueOf(keyword);
+		}
+		if ("null".equals(keyword)) {
+			return NULL;
+		}
+		throw new MalformedPdfException("unexpected token '" + keyword
+				+ "' at " + pos);
+	}
+
+	private byte[] readHexString() {
+		pos++;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int high = -1;
+		while (pos < data.length && data[pos] != '>') {
+			int digit = Character.digit(data[pos++], 16);
+			if (digit == -1) {
+				continue;
+			}
+			if (high == -1) {
+				high = digit;
+			} else {
+				out.write(high << 4 | digit);
+				high = -1;
+			}
+		}
+		if (high != -1) {
+			out.write(high << 4);
+		}
+		pos++;
+		return out.toByteArray();
+	}
+
+	/**
+	 * 读取字面字符串，保留转义前的原始字节，只需要正确找到结束位置
+	 */
+	private byte[] readLiteralString() {
+		int start = pos++;
+		int nesting = 1;
+		while (pos < data.length && nesting > 0) {
+			byte b = data[pos++];
+			if (b == '\\') {
+				pos++;
+			} else if (b == '(') {
+				nesting++;
+			} else if (b == ')') {
+				nesting--;
+			}
+		}
+		if (nesting > 0) {
+			throw new MalformedPdfException("unterminated string");
+		}
+		return Arrays.copyOfRange(data, start + 1, pos - 1);
+	}
+
+	private String readToken() {
+		int start = pos;
+		while (pos < data.length && isRegular(data[pos])) {
+			pos++;
+		}
+		if (pos == start) {
+			throw new MalformedPdfException("unexpected character at " + pos);
+		}
+		return new String(data, start, pos - start, ASCII);
+	}
+
+	/**
+	 * @return 非负整数，不是整数时返回-1
+	 */
+	private long readInteger() {
+		int start = pos;
+		long value = 0;
+		while (pos < data.length && data[pos] >= '0' && data[pos] <= '9'
+				&& pos - start < 18) {
+			value = value * 10 + (data[pos++] - '0');
+		}
+		if (pos == start || (pos < data.length && isRegular(data[pos]))) {
+			return -1;
+		}
+		return value;
+	}
+
+	/**
+	 * @return 是否跳过了至少一个空白字符
+	 */
+	private boolean skipWhitespace() {
+		int start = pos;
+		while (pos < data.length && isWhitespace(data[pos])) {
+			pos++;
+		}
+		return pos > start;
+	}
+
+	private void skipWhitespaceAndComments() {
+		while (pos < data.length) {
+			if (isWhitespace(data[pos])) {
+				pos++;
+			} else if (data[pos] == '%') {
+				while (pos < data.length && data[pos] != '\n'
+						&& data[pos] != '\r') {
+					pos++;
+				}
+			} else {
+				break;
+			}
+		}
+	}
+
+	private boolean keywordAt(int i, String keyword) {
+		int end = i + keyword.length();
+		if (end > data.length) {
+			return false;
+		}
+		for (int k = 0; k < keyword.length(); k++) {
+			if (data[i + k] != keyword.charAt(k)) {
+				return false;
+			}
+		}
+		return end == data.length || !isRegular(data[end]);
+	}
+
+	private int indexOf(String keyword, int from) {
+		byte first = (byte) keyword.charAt(0);
+		for (int i = from; i < data.length; i++) {
+			if (data[i] == first && keywordAt(i, keyword)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isRegularStart(int i) {
+		return isRegular(data[i]) && (i == 0 || !isRegular(data[i - 1]));
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f'
+				|| b == 0;
+	}
+
+	private static boolean isRegular(byte b) {
+		if (isWhitespace(b)) {
+			return false;
+		}
+		switch (b) {
+		case '(':
+		case ')':
+		case '<':
+		case '>':
+		case '[':
+		case ']':
+		case '{':
+		case '}':
+		case '/':
+		case '%':
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	private static class Ref {
+		private final int num;
+
+		private Ref(int num) {
+			this.num = num;
+		}
+	}
+
+	private static class Name {
+		private final String name;
+
+		private Name(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Name && ((Name) obj).name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	private static class Stream {
+		private final Map<String, Object> dict;
+		private final int start;
+		private final int end;
+		private int offset = 0;
+
+		private Stream(Map<String, Object> dict, int start, int end) {
+			this.dict = dict;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private static class MalformedPdfException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private MalformedPdfException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import com.artofsolving.jodconverter.DocumentConverter;
+import com.artofsolving.jodconverter.DocumentFormatRegistry;
+import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
+import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConverter;
+
+/**
+ * 池化的OpenOffice连接，连接上绑定的文档转换器随连接一起复用
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月22日 上午10:35:18
+ * @copyright: www.laudandjolynn.com
+ */
+public class PooledOpenOfficeConnection extends SocketOpenOfficeConnection {
+	private final DocumentFormatRegistry formatRegistry;
+	private DocumentConverter converter = null;
+	private volatile long lastValidated = 0;
+
+	/**
+	 * 
+	 * @param host
+	 *            OpenOffice服务地址
+	 * @param port
+	 *            OpenOffice服务端口
+	 * @param formatRegistry
+	 *            文档格式注册表
+	 */
+	public PooledOpenOfficeConnection(String host, int port,
+			DocumentFormatRegistry formatRegistry) {
+		super(host, port);
+		this.formatRegistry = formatRegistry;
+	}
+
+	/**
+	 * 取得绑定在该连接上的文档转换器
+	 * 
+	 * @return
+	 */
+	public synchronized DocumentConverter getDocumentConverter() {
+		if (converter == null) {
+			converter = new OpenOfficeDocumentConverter(this, formatRegistry);
+		}
+		return converter;
+	}
+
+	/**
+	 * 
+	 * @return 最后一次确认连接可用的时间
+	 */
+	public long getLastValidated() {
+		return lastValidated;
+	}
+
+	/**
+	 * 记录连接可用，比如刚完成一次转换
+	 */
+	public void markValidated() {
+		lastValidated = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 执行外部进程。整个JVM同时运行的子进程数受一个全局信号量限制；每次执行有截止时间，
+ * 超时后强制结束进程及其所有子孙进程；输出由单独的线程通过{@link OutputPump}读取，返回退出码和输出末尾。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月28日 下午4:36:02
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProcessRunner {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ProcessRunner.class);
+	/**
+	 * 默认同时运行的子进程数上限，CPU核数的2倍，pdf2swf读写文件时不占用CPU
+	 */
+	public final static int DEFAULT_MAX_PROCESSES = Runtime.getRuntime()
+			.availableProcessors() * 2;
+	private final static long READER_JOIN_TIMEOUT = 5000;
+	private final static int TAIL_SIZE = 4096;
+	private static volatile Semaphore processes = new Semaphore(
+			DEFAULT_MAX_PROCESSES);
+
+	/**
+	 * 执行结果
+	 */
+	public static class Result {
+		private final int exitCode;
+		private final boolean timedOut;
+		private final String tail;
+
+		Result(int exitCode, boolean timedOut, String tail) {
+			this.exitCode = exitCode;
+			this.timedOut = timedOut;
+			this.tail = tail;
+		}
+
+		/**
+		 *
+		 * @return 进程退出码，超时被结束时为-1
+		 */
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 *
+		 * @return 输出的最后4KB，用于诊断
+		 */
+		public String getTail() {
+			return tail;
+		}
+
+		/**
+		 *
+		 * @return 未超时且退出码为0
+		 */
+		public boolean succeeded() {
+			return !timedOut && exitCode == 0;
+		}
+	}
+
+	private ProcessRunner() {
+	}
+
+	/**
+	 * 设置同时运行的子进程数上限，默认为{@link #DEFAULT_MAX_PROCESSES}，已在运行的进程不受影响
+	 *
+	 * @param maxProcesses
+	 */
+	public static void setMaxProcesses(int maxProcesses) {
+		if (maxProcesses < 1) {
+			throw new IllegalArgumentException("maxProcesses must be positive.");
+		}
+		processes = new Semaphore(maxProcesses);
+	}
+
+	/**
+	 * 执行命令，阻塞直到进程结束并且输出处理完，或者超过截止时间
+	 *
+	 * @param cmd
+	 *            命令
+	 * @param deadline
+	 *            截止时间，System.currentTimeMillis()的值，0表示不限时
+	 * @param handler
+	 *            输出处理器，标准错误合并到标准输出，可以为null
+	 * @return 执行结果
+	 * @throws IOException
+	 *             进程无法启动
+	 * @throws InterruptedException
+	 *             等待时被中断，进程已被结束
+	 */
+	public static Result run(List<String> cmd, long deadline,
+			OutputPump.LineHandler handler) throws IOException,
+			InterruptedException {
+		return run(cmd, deadline, handler, null, 0);
+	}
+
+	/**
+	 * 执行命令，等待期间每隔tickInterval毫秒在调用线程上执行一次tick
+	 *
+	 * @param cmd
+	 *            命令
+	 * @param deadline
+	 *            截止时间，System.currentTimeMillis()的值，0表示不限时
+	 * @param handler
+	 *            输出处理器，可以为null
+	 * @param tick
+	 *            等待期间定时执行的任务，比如汇报进度，可以为null
+	 * @param tickInterval
+	 *            执行tick的间隔，单位毫秒
+	 * @return 执行结果
+	 * @throws IOException
+	 *             进程无法启动
+	 * @throws InterruptedException
+	 *             等待时被中断，进程已被结束
+	 */
+	public static Result run(List<String> cmd, long deadline,
+			OutputPump.LineHandler handler, Runnable tick, long tickInterval)
+			throws IOException, InterruptedException {
+		Semaphore permits = processes;
+		if (deadline > 0) {
+			if (!permits.tryAcquire(remaining(deadline), TimeUnit.MILLISECONDS)) {
+				logger.error("wait for process slot timed out: " + cmd);
+				return new Result(-1, true, "");
+			}
+		} else {
+			permits.acquire();
+		}
+		try {
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			Process process = pb.start();
+			process.getOutputStream().close();
+			OutputPump pump = new OutputPump(process.getInputStream(), handler,
+					TAIL_SIZE);
+			Thread reader = new Thread(pump, "process-reader");
+			reader.setDaemon(true);
+			reader.start();
+
+			boolean exited = false;
+			try {
+				while (!exited) {
+					long wait = deadline > 0 ? remaining(deadline)
+							: Long.MAX_VALUE;
+					if (wait == 0) {
+						break;
+					}
+					if (tick != null) {
+						wait = Math.min(wait, tickInterval);
+					}
+					exited = process.waitFor(wait, TimeUnit.MILLISECONDS);
+					if (tick != null) {
+						tick.run();
+					}
+				}
+			} finally {
+				if (!exited) {
+					// 超时或者被中断
+					destroyTree(process);
+				}
+			}
+			if (exited) {
+				// 输出处理器可能在等待（比如延迟发布的队列已满），所有输出处理完结果才完整，
+				// 不能在处理器仍在运行时返回
+				if (deadline > 0) {
+					long wait = remaining(deadline);
+					if (wait > 0) {
+						reader.join(wait);
+					}
+				} else {
+					reader.join();
+				}
+				if (!reader.isAlive()) {
+					return new Result(process.exitValue(), false,
+							pump.getTail());
+				}
+				logger.error("process output was not handled before deadline: "
+						+ cmd);
+			} else {
+				reader.join(READER_JOIN_TIMEOUT);
+				logger.error("process timed out and was killed: " + cmd);
+			}
+			return new Result(-1, true, pump.getTail());
+		} finally {
+			permits.release();
+		}
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(0, deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * 结束进程及其子孙进程。Process.descendants()在Java 9才提供，以反射调用，
+	 * 旧JVM上只结束进程本身
+	 *
+	 * @param process
+	 */
+	public static void destroyTree(Process process) {
+		try {
+			Method descendants = Process.class.getMethod("descendants");
+			Method destroyForcibly = Class.forName("java.lang.ProcessHandle")
+					.getMethod("destroyForcibly");
+			Stream<?> handles = (Stream<?>) descendants.invoke(process);
+			Iterator<?> iterator = handles.iterator();
+			while (iterator.hasNext()) {
+				destroyForcibly.invoke(iterator.next());
+			}
+		} catch (Exception e) {
+			logger.debug("can not kill descendants of process. "
+					+ e.getMessage());
+		}
+		process.destroyForcibly();
+	}
+
+	/**
+	 * 取得进程及其子孙进程占用的物理内存。soffice等启动脚本会派生真正的工作进程，所以要计入子孙进程。
+	 * 读取/proc/[pid]/status中的VmRSS，只支持Linux，进程号以反射取得，需要Java 9
+	 *
+	 * @param process
+	 * @return 物理内存字节数，-1表示无法取得
+	 */
+	public static long residentMemory(Process process) {
+		try {
+			Method pid = Class.forName("java.lang.ProcessHandle").getMethod(
+					"pid");
+			Method toHandle = Process.class.getMethod("toHandle");
+			Method descendants = Process.class.getMethod("descendants");
+			long total = residentMemory((Long) pid.invoke(toHandle
+					.invoke(process)));
+			if (total == -1) {
+				return -1;
+			}
+			Stream<?> handles = (Stream<?>) descendants.invoke(process);
+			Iterator<?> iterator = handles.iterator();
+			while (iterator.hasNext()) {
+				total += Math.max(0,
+						residentMemory((Long) pid.invoke(iterator.next())));
+			}
+			return total;
+		} catch (Exception e) {
+			logger.debug("can not get memory of process. " + e.getMessage());
+			return -1;
+		}
+	}
+
+	private static long residentMemory(long pid) throws IOException {
+		File status = new File("/proc/" + pid + "/status");
+		if (!status.exists()) {
+			return -1;
+		}
+		BufferedReader br = new BufferedReader(new FileReader(status));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					String kb = line.substring(6).trim();
+					kb = kb.substring(0, kb.indexOf(' '));
+					return Long.parseLong(kb) * 1024;
+				}
+			}
+			// 僵尸进程没有VmRSS
+			return 0;
+		} finally {
+			br.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近一分钟的速率，按秒分桶计数。桶过期时的清零不加锁，并发下可能有少量误差
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午2:12:48
+ * @copyright: www.laudandjolynn.com
+ */
+class RateMeter {
+	private final static int WINDOW = 60;
+	private final AtomicLongArray counts = new AtomicLongArray(WINDOW);
+	private final AtomicLongArray seconds = new AtomicLongArray(WINDOW);
+
+	void mark(long n) {
+		long second = System.currentTimeMillis() / 1000;
+		int index = (int) (second % WINDOW);
+		long old = seconds.get(index);
+		if (old != second && seconds.compareAndSet(index, old, second)) {
+			counts.set(index, 0);
+		}
+		counts.addAndGet(index, n);
+	}
+
+	/**
+	 *
+	 * @return 最近一分钟平均每秒的次数
+	 */
+	double rate() {
+		long second = System.currentTimeMillis() / 1000;
+		long total = 0;
+		for (int i = 0; i < WINDOW; i++) {
+			if (second - seconds.get(i) < WINDOW) {
+				total += counts.get(i);
+			}
+		}
+		return (double) total / WINDOW;
+	}
+
+	void reset() {
+		for (int i = 0; i < WINDOW; i++) {
+			seconds.set(i, 0);
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 转换中间文件的存放位置。pdf2swf只能读取文件，所以中间PDF仍需落地，但不必写到持久磁盘：
+ * 预计大小不超过阈值、且内存文件系统剩余空间足够时放在内存文件系统（Linux上默认为/dev/shm），
+ * 否则放在磁盘临时目录。
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月27日 下午3:08:44
+ * @copyright: www.laudandjolynn.com
+ */
+public class ScratchSpace {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ScratchSpace.class);
+	private final static long DEFAULT_THRESHOLD = 64L * 1024 * 1024;
+	private final static File SHM = new File("/dev/shm");
+	// 预计大小之外预留的空间倍数，避免多个转换同时写满内存文件系统
+	private final static int HEADROOM = 2;
+	private final File memoryDir;
+	private final File diskDir;
+	private final long threshold;
+	private final Map<File, Long> reserved = new ConcurrentHashMap<File, Long>();
+
+	/**
+	 * 有/dev/shm时使用/dev/shm，磁盘目录为{@link JacobNativesLoader#nativesDir}，阈值64MB
+	 */
+	public ScratchSpace() {
+		this(SHM.isDirectory() && SHM.canWrite() ? new File(SHM, "paper2swf")
+				: null, JacobNativesLoader.nativesDir, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 *
+	 * @param memoryDir
+	 *            内存文件系统上的目录，null表示只使用磁盘
+	 * @param diskDir
+	 *            磁盘临时目录
+	 * @param threshold
+	 *            放入内存文件系统的最大预计大小，单位字节
+	 */
+	public ScratchSpace(File memoryDir, File diskDir, long threshold) {
+		this.memoryDir = memoryDir;
+		this.diskDir = diskDir;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * 分配一个中间文件，使用完后调用{@link #release(File)}
+	 *
+	 * @param suffix
+	 *            文件扩展名，比如.pdf
+	 * @param expectedBytes
+	 *            预计大小，单位字节
+	 * @return 尚未创建的文件
+	 */
+	public File allocate(String suffix, long expectedBytes) {
+		String name = UUID.randomUUID().toString() + suffix;
+		if (memoryDir != null && expectedBytes <= threshold) {
+			synchronized (reserved) {
+				memoryDir.mkdirs();
+				long needed = Math.max(expectedBytes, 1) * HEADROOM;
+				if (memoryDir.getUsableSpace() - reservedBytes() >= needed) {
+					File file = new File(memoryDir, name);
+					reserved.put(file, needed);
+					return file;
+				}
+			}
+			logger.debug("not enough space in " + memoryDir
+					+ ", use disk instead.");
+		}
+		diskDir.mkdirs();
+		return new File(diskDir, name);
+	}
+
+	/**
+	 * 删除中间文件，释放预留的空间
+	 *
+	 * @param file
+	 */
+	public void release(File file) {
+		if (file.exists() && !file.delete()) {
+			logger.warn("can not delete scratch file " + file);
+		}
+		reserved.remove(file);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return 是否位于内存文件系统
+	 */
+	public boolean isInMemory(File file) {
+		return memoryDir != null && memoryDir.equals(file.getParentFile());
+	}
+
+	private long reservedBytes() {
+		long total = 0;
+		for (Long bytes : reserved.values()) {
+			total += bytes;
+		}
+		return total;
+	}
+}
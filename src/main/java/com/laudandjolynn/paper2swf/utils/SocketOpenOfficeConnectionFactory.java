@@ -10,20 +10,56 @@
  ******************************************************************************/
 package com.laudandjolynn.paper2swf.utils;
 
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
+import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
+import com.artofsolving.jodconverter.DocumentFormatRegistry;
 
 /**
+ * OpenOffice连接工厂。UNO调用本身没有超时，建立连接、检查连接和断开连接都在单独的线程上执行并限时，
+ * 卡住的OpenOffice不会让借用连接的线程一直等待
+ * 
  * @author: Laud
  * @email: htd0324@gmail.com
  * @date: 2014年4月2日 下午8:28:33
  * @copyright: www.laudandjolynn.com
  */
 public class SocketOpenOfficeConnectionFactory extends
-		BasePoolableObjectFactory<SocketOpenOfficeConnection> {
+		BasePoolableObjectFactory<PooledOpenOfficeConnection> {
+	private final static Logger logger = LoggerFactory
+			.getLogger(SocketOpenOfficeConnectionFactory.class);
+	private final static ExecutorService UNO_EXECUTOR = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "paper2swf-uno-"
+							+ count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 	private String host = null;
 	private int port;
+	private DocumentFormatRegistry formatRegistry = null;
+	private OpenOfficePoolConfig config = null;
 
 	/**
 	 * 构造函数
@@ -34,22 +70,129 @@ public class SocketOpenOfficeConnectionFactory extends
 	 *            OpenOffice服务端口
 	 */
 	public SocketOpenOfficeConnectionFactory(String host, int port) {
+		this(host, port, new DefaultDocumentFormatRegistry());
+	}
+
+	/**
+	 * 构造函数
+	 * 
+	 * @param host
+	 *            OpenOffice服务地址
+	 * @param port
+	 *            OpenOffice服务端口
+	 * @param formatRegistry
+	 *            所有连接共享的文档格式注册表
+	 */
+	public SocketOpenOfficeConnectionFactory(String host, int port,
+			DocumentFormatRegistry formatRegistry) {
+		this(host, port, formatRegistry, new OpenOfficePoolConfig());
+	}
+
+	/**
+	 * 构造函数
+	 * 
+	 * @param host
+	 *            OpenOffice服务地址
+	 * @param port
+	 *            OpenOffice服务端口
+	 * @param formatRegistry
+	 *            所有连接共享的文档格式注册表
+	 * @param config
+	 *            连接超时、检查超时等配置
+	 */
+	public SocketOpenOfficeConnectionFactory(String host, int port,
+			DocumentFormatRegistry formatRegistry, OpenOfficePoolConfig config) {
 		this.host = host;
 		this.port = port;
+		this.formatRegistry = formatRegistry;
+		this.config = config;
 	}
 
 	@Override
-	public SocketOpenOfficeConnection makeObject() throws Exception {
-		return new SocketOpenOfficeConnection(host, port);
+	public PooledOpenOfficeConnection makeObject() throws Exception {
+		// 先探测端口，OpenOffice没有启动时不必等待UNO连接的系统超时
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port),
+					(int) config.getConnectTimeout());
+		} finally {
+			socket.close();
+		}
+		final PooledOpenOfficeConnection conn = new PooledOpenOfficeConnection(
+				host, port, formatRegistry);
+		try {
+			call(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					conn.connect();
+					return null;
+				}
+			}, config.getConnectTimeout());
+		} catch (TimeoutException e) {
+			destroyObject(conn);
+			throw new ConnectException("connect to OpenOffice " + host + ":"
+					+ port + " timed out");
+		}
+		conn.markValidated();
+		return conn;
 	}
 
 	@Override
-	public void destroyObject(SocketOpenOfficeConnection conn) throws Exception {
-		conn.disconnect();
+	public void destroyObject(final PooledOpenOfficeConnection conn)
+			throws Exception {
+		// 断开连接也可能卡住，不在调用线程上等待
+		UNO_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					conn.disconnect();
+				} catch (RuntimeException e) {
+					logger.debug(e.getMessage());
+				}
+			}
+		});
 	}
 
 	@Override
-	public boolean validateObject(SocketOpenOfficeConnection conn) {
-		return conn.isConnected();
+	public boolean validateObject(final PooledOpenOfficeConnection conn) {
+		if (!conn.isConnected()) {
+			return false;
+		}
+		if (System.currentTimeMillis() - conn.getLastValidated() < config
+				.getValidationInterval()) {
+			return true;
+		}
+		try {
+			// 一次UNO往返，确认OpenOffice仍在响应
+			call(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return conn.getDesktop();
+				}
+			}, config.getProbeTimeout());
+			conn.markValidated();
+			return true;
+		} catch (Exception e) {
+			logger.warn("OpenOffice " + host + ":" + port
+					+ " does not respond, evict connection. " + e);
+			return false;
+		}
+	}
+
+	private static <T> T call(Callable<T> task, long timeout)
+			throws Exception {
+		Future<T> future = UNO_EXECUTOR.submit(task);
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw new IOException(cause);
+		}
 	}
 }
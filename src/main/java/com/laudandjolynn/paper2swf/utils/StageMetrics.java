@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个转换阶段的次数、失败数、正在执行数和耗时直方图。记录一次只需要几次无竞争的累加，可以放在每个任务的路径上
+ *
+ * <pre>
+ * StageMetrics stage = Metrics.stage(Metrics.PDF2SWF);
+ * long begin = stage.begin();
+ * boolean succeeded = false;
+ * try {
+ * 	...
+ * } finally {
+ * 	stage.end(begin, succeeded);
+ * }
+ * </pre>
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午2:20:41
+ * @copyright: www.laudandjolynn.com
+ */
+public class StageMetrics implements StageMetricsMXBean {
+	// 直方图区间上界，单位毫秒，最后一个区间无上界
+	private final static long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200,
+			500, 1000, 2000, 5000, 10000, 20000, 60000, 120000, 300000, 600000 };
+	private final String name;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+	private final RateMeter rate = new RateMeter();
+
+	StageMetrics(String name) {
+		this.name = name;
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * 阶段开始，正在执行数加1
+	 *
+	 * @return 开始时间，传给{@link #end(long, boolean)}
+	 */
+	public long begin() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * 阶段结束，正在执行数减1
+	 *
+	 * @param begin
+	 *            {@link #begin()}的返回值
+	 * @param succeeded
+	 *            是否成功
+	 */
+	public void end(long begin, boolean succeeded) {
+		inFlight.decrementAndGet();
+		record(System.nanoTime() - begin, succeeded);
+	}
+
+	/**
+	 * 记录一次耗时，不影响正在执行数，用于在别处计时的阶段，比如排队等待
+	 *
+	 * @param nanos
+	 *            耗时，单位纳秒
+	 * @param succeeded
+	 *            是否成功
+	 */
+	public void record(long nanos, boolean succeeded) {
+		count.increment();
+		if (!succeeded) {
+			failures.increment();
+		}
+		totalNanos.add(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int i = 0;
+		while (i < BOUNDS.length && millis >= BOUNDS[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		rate.mark(1);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return percentile(0.5);
+	}
+
+	@Override
+	public double getP95Millis() {
+		return percentile(0.95);
+	}
+
+	@Override
+	public double getP99Millis() {
+		return percentile(0.99);
+	}
+
+	@Override
+	public double getThroughput() {
+		return rate.rate();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+		failures.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		rate.reset();
+	}
+
+	private double percentile(double p) {
+		long[] snapshot = new long[buckets.length];
+		long total = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			snapshot[i] = buckets[i].sum();
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * p);
+		long seen = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(BOUNDS[i], getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf.utils;
+
+/**
+ * 一个转换阶段的统计，耗时单位为毫秒，分位数取所在直方图区间的上界
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午2:05:33
+ * @copyright: www.laudandjolynn.com
+ */
+public interface StageMetricsMXBean {
+	String getName();
+
+	long getCount();
+
+	long getFailures();
+
+	int getInFlight();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double getP50Millis();
+
+	double getP95Millis();
+
+	double getP99Millis();
+
+	/**
+	 *
+	 * @return 最近一分钟平均每秒完成次数
+	 */
+	double getThroughput();
+
+	void reset();
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月5日 下午2:31:07
+ * @copyright: www.laudandjolynn.com
+ */
+public class AdaptivePdfConverterTest extends TestCase {
+	private File baseDir = new File(AdaptivePdfConverterTest.class
+			.getResource("/").getPath(), "adaptive");
+	private String pdfFilePath = new File(baseDir, "out.pdf").getPath();
+
+	public void testFormat() {
+		assertEquals("doc", AdaptivePdfConverter.format("/data/a.docx"));
+		assertEquals("xls", AdaptivePdfConverter.format("/data/a.XLSX"));
+		assertEquals("wps", AdaptivePdfConverter.format("a.b/c.wps"));
+		assertEquals("", AdaptivePdfConverter.format("/data.x/readme"));
+	}
+
+	public void testRouteToFastest() {
+		StubConverter jacob = new StubConverter();
+		jacob.delays.put("doc", 5L);
+		jacob.delays.put("xls", 60L);
+		StubConverter openoffice = new StubConverter();
+		openoffice.delays.put("doc", 60L);
+		openoffice.delays.put("xls", 5L);
+		AdaptivePdfConverter router = new AdaptivePdfConverter();
+		router.addBackend("jacob", jacob);
+		router.addBackend("openoffice", openoffice);
+		router.setMinSamples(2);
+		router.setExploreInterval(0);
+
+		// 样本不足时轮流试用
+		for (int i = 0; i < 4; i++) {
+			assertEquals(1, router.office2Pdf("a.doc", pdfFilePath));
+			assertEquals(1, router.office2Pdf("a.xlsx", pdfFilePath));
+		}
+		assertEquals(4, jacob.calls.get());
+		assertEquals(4, openoffice.calls.get());
+		assertEquals("jacob", router.rank("b.docx").get(0));
+		assertEquals("openoffice", router.rank("b.xls").get(0));
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(1, router.office2Pdf("a.doc", pdfFilePath));
+		}
+		assertEquals(9, jacob.calls.get());
+		assertEquals(4, openoffice.calls.get());
+	}
+
+	public void testFallback() {
+		StubConverter jacob = new StubConverter();
+		jacob.failing = true;
+		StubConverter openoffice = new StubConverter();
+		openoffice.delays.put("et", 20L);
+		AdaptivePdfConverter router = new AdaptivePdfConverter();
+		router.addBackend("jacob", jacob);
+		router.addBackend("openoffice", openoffice);
+		router.setMinSamples(1);
+		router.setCircuitBreaker(2, 60 * 1000, 60 * 1000);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(1, router.office2Pdf("a.et", pdfFilePath));
+		}
+		// 失败1次后排在后面，不再首先尝试
+		assertEquals(1, jacob.calls.get());
+		assertEquals(5, openoffice.calls.get());
+		assertEquals("jacob", router.rank("a.et").get(1));
+		// 统计按格式区分
+		assertEquals("jacob", router.rank("a.doc").get(0));
+
+		// 都失败时依次尝试，连续失败2次后熔断，不再尝试
+		openoffice.failing = true;
+		assertEquals(0, router.office2Pdf("a.et", pdfFilePath));
+		assertEquals(2, jacob.calls.get());
+		assertEquals(0, router.office2Pdf("a.et", pdfFilePath));
+		assertEquals(2, jacob.calls.get());
+		assertEquals(7, openoffice.calls.get());
+		assertEquals(0, router.office2Pdf("a.et", pdfFilePath));
+		assertEquals(7, openoffice.calls.get());
+		// 其他格式不受熔断影响
+		openoffice.failing = false;
+		assertEquals(1, router.office2Pdf("a.doc", pdfFilePath));
+		assertEquals(3, jacob.calls.get());
+	}
+
+	public void testExplore() {
+		StubConverter fast = new StubConverter();
+		StubConverter slow = new StubConverter();
+		slow.delays.put("ppt", 30L);
+		AdaptivePdfConverter router = new AdaptivePdfConverter();
+		router.addBackend("slow", slow);
+		router.addBackend("fast", fast);
+		router.setMinSamples(1);
+		router.setExploreInterval(5);
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals(1, router.office2Pdf("a.ppt", pdfFilePath));
+		}
+		// 试用各1次，之后每5次请求有1次交给排第二的
+		assertEquals(5, slow.calls.get());
+		assertEquals(15, fast.calls.get());
+	}
+
+	private static class StubConverter implements PdfConverter {
+		private final Map<String, Long> delays = new HashMap<String, Long>();
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile boolean failing = false;
+
+		@Override
+		public int office2Pdf(String srcFilePath, String destFilePath) {
+			calls.incrementAndGet();
+			Long delay = delays.get(AdaptivePdfConverter.format(srcFilePath));
+			try {
+				Thread.sleep(delay == null ? 1 : delay);
+				if (failing) {
+					return 0;
+				}
+				File destFile = new File(destFilePath);
+				destFile.getParentFile().mkdirs();
+				new FileOutputStream(destFile).close();
+				return 1;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				fail(e.getMessage());
+			}
+			return 0;
+		}
+	}
+}
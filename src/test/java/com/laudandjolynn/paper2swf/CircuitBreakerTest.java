@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.CircuitBreaker;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 上午10:41:09
+ * @copyright: www.laudandjolynn.com
+ */
+public class CircuitBreakerTest extends TestCase {
+	public void testOpenAfterThreshold() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(3, 60000, 60000);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(breaker.allowRequest());
+			assertFalse(breaker.recordFailure());
+		}
+		// 成功后重新计数
+		assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		for (int i = 0; i < 2; i++) {
+			assertTrue(breaker.allowRequest());
+			assertFalse(breaker.recordFailure());
+		}
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.recordFailure());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertFalse(breaker.isAvailable());
+	}
+
+	public void testHalfOpen() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 100, 1000);
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.recordFailure());
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(150);
+		assertTrue(breaker.isAvailable());
+		// 只放行一个试探请求
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		// 试探失败，断开时间加倍
+		assertTrue(breaker.recordFailure());
+		Thread.sleep(150);
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(100);
+		assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	public void testIgnored() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 100, 1000);
+		breaker.recordIgnored();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.recordFailure());
+		Thread.sleep(150);
+		assertTrue(breaker.allowRequest());
+		// 试探请求没有结果，下一个请求可以重新试探，断开时间不变
+		breaker.recordIgnored();
+		assertTrue(breaker.isAvailable());
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 下午2:16:50
+ * @copyright: www.laudandjolynn.com
+ */
+public class ConversionCacheTest extends TestCase {
+	private File baseDir = new File(ConversionCacheTest.class.getResource("/")
+			.getPath(), "cache");
+
+	@Override
+	protected void setUp() throws Exception {
+		delete(baseDir);
+	}
+
+	private void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	private void write(File file, int size) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream output = new FileOutputStream(file);
+		output.write(new byte[size]);
+		output.close();
+	}
+
+	public void testStoreAndMaterialize() throws IOException {
+		ConversionCache cache = new ConversionCache(new File(baseDir, "c1"),
+				1024 * 1024);
+		File srcFile = new File(ConversionCacheTest.class.getResource(
+				"/TestConverter.pdf").getPath());
+		String key = cache.key(srcFile, "pdf2swf", "true");
+		assertFalse(key.equals(cache.key(srcFile, "pdf2swf", "false")));
+
+		File swfDir = new File(baseDir, "out1");
+		write(new File(swfDir, "doc1.swf"), 100);
+		write(new File(swfDir, "doc2.swf"), 100);
+		assertEquals(-1, cache.materialize(key, swfDir.getPath(), "doc.swf",
+				true));
+		cache.store(key, swfDir.getPath(), "doc.swf", true, 2);
+		assertEquals(200, cache.getTotalBytes());
+
+		File otherDir = new File(baseDir, "out2");
+		assertEquals(2, cache.materialize(key, otherDir.getPath(),
+				"other.swf", true));
+		assertTrue(new File(otherDir, "other1.swf").exists());
+		assertTrue(new File(otherDir, "other2.swf").exists());
+
+		// 重新加载索引
+		cache = new ConversionCache(new File(baseDir, "c1"), 1024 * 1024);
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.materialize(key, otherDir.getPath(),
+				"other.swf", true));
+	}
+
+	public void testEvictLeastRecentlyUsed() throws IOException {
+		ConversionCache cache = new ConversionCache(new File(baseDir, "c2"),
+				250);
+		File swfDir = new File(baseDir, "out3");
+		write(new File(swfDir, "doc.swf"), 100);
+
+		cache.store("a", swfDir.getPath(), "doc.swf", false, 1);
+		cache.store("b", swfDir.getPath(), "doc.swf", false, 1);
+		assertEquals(1, cache.materialize("a", swfDir.getPath(), "doc.swf",
+				false));
+		cache.store("c", swfDir.getPath(), "doc.swf", false, 1);
+
+		assertEquals(2, cache.size());
+		assertEquals(-1, cache.materialize("b", swfDir.getPath(), "doc.swf",
+				false));
+		assertEquals(1, cache.materialize("a", swfDir.getPath(), "doc.swf",
+				false));
+		assertEquals(1, cache.materialize("c", swfDir.getPath(), "doc.swf",
+				false));
+	}
+
+	public void testMissingEntryIsMiss() throws IOException {
+		File entryRoot = new File(baseDir, "c3");
+		ConversionCache cache = new ConversionCache(entryRoot, 1024);
+		File swfDir = new File(baseDir, "out4");
+		write(new File(swfDir, "doc.swf"), 100);
+
+		cache.store("empty", swfDir.getPath(), "doc.swf", false, 0);
+		assertEquals(0, cache.size());
+		assertEquals(-1, cache.materialize("empty", swfDir.getPath(),
+				"doc.swf", false));
+
+		cache.store("a", swfDir.getPath(), "doc.swf", false, 1);
+		// 条目目录在索引命中后被删除，不能当作0页的命中
+		delete(new File(entryRoot, "a"));
+		assertEquals(-1, cache.materialize("a", new File(baseDir, "out5")
+				.getPath(), "doc.swf", false));
+	}
+}
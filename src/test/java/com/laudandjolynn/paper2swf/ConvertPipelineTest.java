@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月28日 下午2:05:51
+ * @copyright: www.laudandjolynn.com
+ */
+public class ConvertPipelineTest extends TestCase {
+	private final static long STAGE_MILLIS = 200;
+	private ConvertPipeline pipeline = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		pipeline = new ConvertPipeline(1, 1, 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pipeline.shutdown();
+	}
+
+	public void testOverlap() throws Exception {
+		final int documents = 8;
+		final AtomicInteger maxPdfLoad = new AtomicInteger();
+		ExecutorService callers = Executors.newFixedThreadPool(documents);
+		try {
+			long start = System.currentTimeMillis();
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < documents; i++) {
+				final int pages = i + 1;
+				results.add(callers.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return pipeline.execute(new Callable<Boolean>() {
+							@Override
+							public Boolean call() throws Exception {
+								Thread.sleep(STAGE_MILLIS);
+								return true;
+							}
+						}, new Callable<Integer>() {
+							@Override
+							public Integer call() throws Exception {
+								maxPdfLoad.set(Math.max(maxPdfLoad.get(),
+										pipeline.getPdfStageLoad()));
+								Thread.sleep(STAGE_MILLIS);
+								return pages;
+							}
+						}, -1);
+					}
+				}));
+			}
+			for (int i = 0; i < documents; i++) {
+				assertEquals(i + 1, results.get(i).get(30, TimeUnit.SECONDS)
+						.intValue());
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			// 串行需要documents * 2 * STAGE_MILLIS，流水线约为(documents + 1) * STAGE_MILLIS
+			assertTrue("elapsed " + elapsed + "ms", elapsed < documents * 2
+					* STAGE_MILLIS * 3 / 4);
+			// 转swf的同时有文档在转PDF
+			assertTrue(maxPdfLoad.get() > 0);
+		} finally {
+			callers.shutdown();
+		}
+	}
+
+	public void testFailure() throws Exception {
+		final AtomicInteger secondCalls = new AtomicInteger();
+		Callable<Integer> second = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return secondCalls.incrementAndGet();
+			}
+		};
+		assertEquals(-1, pipeline.execute(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return false;
+			}
+		}, second, -1).intValue());
+		assertEquals(0, secondCalls.get());
+
+		try {
+			pipeline.execute(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					throw new IOException("openoffice is down");
+				}
+			}, second, -1);
+			fail("first stage fails");
+		} catch (IOException e) {
+			assertEquals("openoffice is down", e.getMessage());
+		}
+		assertEquals(0, secondCalls.get());
+	}
+}
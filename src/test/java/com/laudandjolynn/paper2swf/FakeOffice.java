@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 模拟soffice的进程，只监听UNO端口、接受连接，不处理协议。由{@link OpenOfficeFarm}以子进程启动
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月29日 下午4:02:51
+ * @copyright: www.laudandjolynn.com
+ */
+public class FakeOffice {
+	/**
+	 *
+	 * @return 启动命令，端口为占位符{@link OpenOfficeFarm#PORT}
+	 */
+	public static List<String> command() {
+		return new ArrayList<String>(Arrays.asList(
+				System.getProperty("java.home") + "/bin/java", "-cp",
+				System.getProperty("java.class.path"),
+				FakeOffice.class.getName(), OpenOfficeFarm.PORT));
+	}
+
+	/**
+	 * 找连续count个空闲端口
+	 */
+	public static int freePorts(int count) throws IOException {
+		for (int base = 20000 + (int) (Math.random() * 20000);; base += count) {
+			boolean free = true;
+			for (int i = 0; i < count && free; i++) {
+				try {
+					new ServerSocket(base + i, 1,
+							InetAddress.getByName("127.0.0.1")).close();
+				} catch (IOException e) {
+					free = false;
+				}
+			}
+			if (free) {
+				return base;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ServerSocket server = new ServerSocket(Integer.parseInt(args[0]), 50,
+				InetAddress.getByName("127.0.0.1"));
+		System.out.println("listening on " + args[0]);
+		while (true) {
+			Socket socket = server.accept();
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.gearman.util.ByteUtils;
+
+/**
+ * 模拟pdf2swf的shell脚本，仅用于非Windows环境下的测试
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月23日 下午3:40:12
+ * @copyright: www.laudandjolynn.com
+ */
+public class FakeSwfTools {
+	private File swftoolsDir = null;
+	private File languageDir = null;
+
+	/**
+	 * 
+	 * @param baseDir
+	 *            生成脚本的目录
+	 * @param pages
+	 *            模拟的PDF页数
+	 * @param delayPerPage
+	 *            每页转换耗时，单位秒，比如0.01
+	 * @throws IOException
+	 */
+	public FakeSwfTools(File baseDir, int pages, String delayPerPage)
+			throws IOException {
+		this(baseDir, pages, delayPerPage, 0);
+	}
+
+	/**
+	 * 
+	 * @param baseDir
+	 *            生成脚本的目录
+	 * @param pages
+	 *            模拟的PDF页数
+	 * @param delayPerPage
+	 *            每页转换耗时，单位秒，比如0.01
+	 * @param noiseLines
+	 *            每页额外输出的警告行数，模拟字体缺失等大量输出
+	 * @throws IOException
+	 */
+	public FakeSwfTools(File baseDir, int pages, String delayPerPage,
+			int noiseLines) throws IOException {
+		swftoolsDir = new File(baseDir, "swftools");
+		languageDir = new File(swftoolsDir, "xpdf");
+		languageDir.mkdirs();
+
+		StringBuilder script = new StringBuilder();
+		script.append("#!/bin/sh\n");
+		script.append("PAGES=").append(pages).append("\n");
+		script.append("if [ \"$1\" = \"-I\" ]; then\n");
+		script.append("  for i in $(seq 1 $PAGES); do echo \"page=$i width=595.00 height=842.00\"; done\n");
+		script.append("  exit 0\n");
+		script.append("fi\n");
+		script.append("OUT=$3; RANGES=1-$PAGES\n");
+		script.append("while [ $# -gt 0 ]; do\n");
+		script.append("  if [ \"$1\" = \"-p\" ]; then RANGES=$2; fi\n");
+		script.append("  shift\n");
+		script.append("done\n");
+		// 页码列表如2,5-7
+		script.append("for i in $(for r in $(echo $RANGES | tr ',' ' '); do seq ${r%-*} ${r#*-}; done); do\n");
+		script.append("  sleep ").append(delayPerPage).append("\n");
+		script.append("  echo \"NOTICE  processing PDF page $i (595x842:0:0) (move:0:0)\"\n");
+		for (int i = 0; i < noiseLines; i++) {
+			script.append("  echo \"WARNING Couldn't find font SimSun-").append(i)
+					.append(" in page $i, using Times-Roman\"\n");
+		}
+		script.append("  echo \"page $i\" > \"$(echo \"$OUT\" | sed \"s/%/$i/\")\"\n");
+		script.append("done\n");
+
+		File pdf2swf = new File(swftoolsDir, "pdf2swf");
+		OutputStream output = new FileOutputStream(pdf2swf);
+		try {
+			output.write(ByteUtils.toUTF8Bytes(script.toString()));
+		} finally {
+			output.close();
+		}
+		pdf2swf.setExecutable(true);
+	}
+
+	public String getSwftoolsFilePath() {
+		return swftoolsDir.getAbsolutePath();
+	}
+
+	public String getLanguageDir() {
+		return languageDir.getAbsolutePath();
+	}
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.PdfPageFingerprints;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月3日 下午3:05:21
+ * @copyright: www.laudandjolynn.com
+ */
+public class IncrementalPdf2SwfTest extends TestCase {
+	private File baseDir = new File(IncrementalPdf2SwfTest.class.getResource(
+			"/").getPath(), "incremental");
+
+	@Override
+	protected void setUp() throws Exception {
+		delete(baseDir);
+		baseDir.mkdirs();
+	}
+
+	private void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	public void testFingerprints() throws IOException {
+		String[] real = PdfPageFingerprints.compute(new File(
+				IncrementalPdf2SwfTest.class.getResource("/TestConverter.pdf")
+						.getPath()));
+		assertEquals(2, real.length);
+		assertFalse(real[0].equals(real[1]));
+
+		String[] rev1 = fingerprints("rev1.pdf",
+				new String[] { "A", "B", "C" }, 1, false);
+		assertEquals(3, rev1.length);
+		// 对象重新编号、放入对象流不影响指纹
+		assertEquals(rev1, fingerprints("rev1-renumbered.pdf", new String[] {
+				"A", "B", "C" }, 40, false));
+		assertEquals(rev1, fingerprints("rev1-compressed.pdf", new String[] {
+				"A", "B", "C" }, 7, true));
+
+		String[] rev2 = fingerprints("rev2.pdf", new String[] { "A", "X", "C" },
+				1, false);
+		assertEquals(rev1[0], rev2[0]);
+		assertFalse(rev1[1].equals(rev2[1]));
+		assertEquals(rev1[2], rev2[2]);
+		// 内容相同的页指纹相同
+		String[] same = fingerprints("same.pdf", new String[] { "A", "A" }, 1,
+				false);
+		assertEquals(same[0], same[1]);
+
+		File garbage = new File(baseDir, "garbage.pdf");
+		write(garbage, ByteUtils.toUTF8Bytes("%PDF-1.4\nnot a pdf"));
+		assertNull(PdfPageFingerprints.compute(garbage));
+		File encrypted = new File(baseDir, "encrypted.pdf");
+		write(encrypted, pdf(new String[] { "A" }, 1, false, "/Encrypt 99 0 R"));
+		assertNull(PdfPageFingerprints.compute(encrypted));
+	}
+
+	public void testIncrementalPdf2Swf() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File swfDir = new File(baseDir, "swf");
+		File index = new File(swfDir, "doc" + SwfConverter.PAGE_INDEX_EXT);
+
+		assertEquals(5, convert(new String[] { "A", "B", "C", "D", "E" }, 1));
+		assertEquals(5, Files.readAllLines(index.toPath()).size());
+		for (int i = 1; i <= 5; i++) {
+			assertEquals("page " + i, read(swfDir, i));
+			// 标记已有的页，沿用时内容不变
+			write(new File(swfDir, "doc" + i + ".swf"),
+					ByteUtils.toUTF8Bytes("rev1 " + i));
+		}
+
+		// 插入一页，对象全部重新编号
+		assertEquals(6, convert(new String[] { "A", "X", "B", "C", "D", "E" },
+				30));
+		assertEquals("rev1 1", read(swfDir, 1));
+		assertEquals("page 2", read(swfDir, 2));
+		for (int i = 3; i <= 6; i++) {
+			assertEquals("rev1 " + (i - 1), read(swfDir, i));
+		}
+		assertEquals(6, Files.readAllLines(index.toPath()).size());
+
+		// 删除页、调整顺序、重复页，都不需要转换
+		final List<long[]> progress = new ArrayList<long[]>();
+		FakeSwfTools tools = new FakeSwfTools(new File(baseDir, "tools4"), 4,
+				"0");
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setIncremental(true);
+		assertEquals(4, converter.pdf2Swf(
+				pdf("rev3.pdf", new String[] { "D", "A", "D", "X" }, 1)
+						.getPath(), swfDir.getPath(), "doc.swf", true,
+				new ProgressListener() {
+					@Override
+					public void onProgress(long numerator, long denominator) {
+						progress.add(new long[] { numerator, denominator });
+					}
+				}));
+		assertEquals("rev1 4", read(swfDir, 1));
+		assertEquals("rev1 1", read(swfDir, 2));
+		assertEquals("rev1 4", read(swfDir, 3));
+		assertEquals("page 2", read(swfDir, 4));
+		assertFalse(new File(swfDir, "doc5.swf").exists());
+		assertFalse(new File(swfDir, "doc6.swf").exists());
+		assertEquals(4, progress.get(progress.size() - 1)[0]);
+		assertFalse(new File(swfDir, ".doc.incremental").exists());
+
+		// 非增量转换删除索引
+		converter.setIncremental(false);
+		assertEquals(4, converter.pdf2Swf(new File(baseDir, "rev3.pdf")
+				.getPath(), swfDir.getPath(), "doc.swf", true));
+		assertFalse(index.exists());
+		assertEquals("page 1", read(swfDir, 1));
+	}
+
+	public void testIncrementalFailure() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File swfDir = new File(baseDir, "swf");
+		File index = new File(swfDir, "doc" + SwfConverter.PAGE_INDEX_EXT);
+		assertEquals(3, convert(new String[] { "A", "B", "C" }, 1));
+		for (int i = 1; i <= 3; i++) {
+			write(new File(swfDir, "doc" + i + ".swf"),
+					ByteUtils.toUTF8Bytes("rev1 " + i));
+		}
+		byte[] indexData = Files.readAllBytes(index.toPath());
+
+		// pdf2swf写出部分页后失败
+		FakeSwfTools tools = new FakeSwfTools(new File(baseDir, "broken"), 4,
+				"0");
+		File pdf2swf = new File(tools.getSwftoolsFilePath(), "pdf2swf");
+		write(pdf2swf, ByteUtils.toUTF8Bytes("#!/bin/sh\n"
+				+ "echo \"page 2\" > \"$(echo \"$3\" | sed \"s/%/2/\")\"\n"
+				+ "exit 1\n"));
+		pdf2swf.setExecutable(true);
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setIncremental(true);
+		File rev2 = pdf("rev2.pdf", new String[] { "C", "X", "A", "B" }, 1);
+		assertEquals(-1, converter.pdf2Swf(rev2.getPath(), swfDir.getPath(),
+				"doc.swf", true));
+
+		// 旧文档和索引保持不变
+		for (int i = 1; i <= 3; i++) {
+			assertEquals("rev1 " + i, read(swfDir, i));
+		}
+		assertFalse(new File(swfDir, "doc4.swf").exists());
+		assertTrue(Arrays.equals(indexData, Files.readAllBytes(index.toPath())));
+		assertFalse(new File(swfDir, ".doc.incremental").exists());
+
+		// 恢复后仍然可以沿用旧页
+		tools = new FakeSwfTools(new File(baseDir, "fixed"), 4, "0");
+		converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setIncremental(true);
+		assertEquals(4, converter.pdf2Swf(rev2.getPath(), swfDir.getPath(),
+				"doc.swf", true));
+		assertEquals("rev1 3", read(swfDir, 1));
+		assertEquals("page 2", read(swfDir, 2));
+		assertEquals("rev1 1", read(swfDir, 3));
+		assertEquals("rev1 2", read(swfDir, 4));
+	}
+
+	public void testIncrementalFallback() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File swfDir = new File(baseDir, "swf");
+		File index = new File(swfDir, "doc" + SwfConverter.PAGE_INDEX_EXT);
+		assertEquals(3, convert(new String[] { "A", "B", "C" }, 1));
+		write(new File(swfDir, "doc1.swf"), ByteUtils.toUTF8Bytes("rev1 1"));
+
+		// 无法计算指纹时整篇转换，不保存索引
+		FakeSwfTools tools = new FakeSwfTools(new File(baseDir, "tools2"), 2,
+				"0");
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setIncremental(true);
+		File garbage = new File(baseDir, "garbage.pdf");
+		write(garbage, ByteUtils.toUTF8Bytes("%PDF-1.4\nnot a pdf"));
+		assertEquals(2, converter.pdf2Swf(garbage.getPath(), swfDir.getPath(),
+				"doc.swf", true));
+		assertEquals("page 1", read(swfDir, 1));
+		assertFalse(new File(swfDir, "doc3.swf").exists());
+		assertFalse(index.exists());
+	}
+
+	private int convert(String[] pages, int firstObject) throws IOException {
+		FakeSwfTools tools = new FakeSwfTools(new File(baseDir, "tools"
+				+ pages.length), pages.length, "0");
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setIncremental(true);
+		File pdf = pdf("rev" + pages.length + ".pdf", pages, firstObject);
+		return converter.pdf2Swf(pdf.getPath(), new File(baseDir, "swf")
+				.getPath(), "doc.swf", true);
+	}
+
+	private String[] fingerprints(String name, String[] pages,
+			int firstObject, boolean compressed) throws IOException {
+		File file = new File(baseDir, name);
+		write(file, pdf(pages, firstObject, compressed, ""));
+		return PdfPageFingerprints.compute(file);
+	}
+
+	private File pdf(String name, String[] pages, int firstObject)
+			throws IOException {
+		File file = new File(baseDir, name);
+		write(file, pdf(pages, firstObject, false, ""));
+		return file;
+	}
+
+	private static void assertEquals(String[] expected, String[] actual) {
+		assertNotNull(actual);
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+	}
+
+	/**
+	 * 生成每页一行文字的PDF，对象从firstObject开始倒序编号，compressed时页面树放在对象流中
+	 */
+	private static byte[] pdf(String[] pages, int firstObject,
+			boolean compressed, String trailer) throws IOException {
+		int count = pages.length;
+		int catalog = firstObject + 2 * count + 2;
+		int tree = catalog - 1;
+		int font = firstObject;
+		List<String> plain = new ArrayList<String>();
+		List<String> packed = new ArrayList<String>();
+		StringBuilder kids = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			int page = tree - 1 - 2 * i;
+			int contents = page - 1;
+			kids.append(page).append(" 0 R ");
+			String text = "BT /F1 24 Tf 72 720 Td (" + pages[i] + ") Tj ET";
+			plain.add(contents + " 0 obj\n<< /Length " + text.length()
+					+ " >>\nstream\n" + text + "\nendstream\nendobj\n");
+			(compressed ? packed : plain).add(page + " 0 obj\n<< /Type /Page /Parent "
+					+ tree + " 0 R /Contents " + contents + " 0 R >>\nendobj\n");
+		}
+		(compressed ? packed : plain).add(tree + " 0 obj\n<< /Type /Pages /Kids ["
+				+ kids + "] /Count " + count + " /MediaBox [0 0 595 842]"
+				+ " /Resources << /Font << /F1 " + font + " 0 R >> >> >>\nendobj\n");
+		plain.add(font + " 0 obj\n<< /Type /Font /Subtype /Type1"
+				+ " /BaseFont /Helvetica >>\nendobj\n");
+		(compressed ? packed : plain).add(catalog + " 0 obj\n<< /Type /Catalog /Pages "
+				+ tree + " 0 R >>\nendobj\n");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(ByteUtils.toUTF8Bytes("%PDF-1.5\n"));
+		for (String obj : plain) {
+			out.write(ByteUtils.toUTF8Bytes(obj));
+		}
+		if (compressed) {
+			StringBuilder header = new StringBuilder();
+			StringBuilder body = new StringBuilder();
+			for (String obj : packed) {
+				String num = obj.substring(0, obj.indexOf(' '));
+				header.append(num).append(' ').append(body.length())
+						.append(' ');
+				body.append(obj.substring(obj.indexOf("obj\n") + 4,
+						obj.lastIndexOf("endobj"))).append(' ');
+			}
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+			DeflaterOutputStream deflater = new DeflaterOutputStream(deflated);
+			deflater.write(ByteUtils.toUTF8Bytes(header.toString()
+					+ body.toString()));
+			deflater.close();
+			out.write(ByteUtils.toUTF8Bytes((catalog + 1) + " 0 obj\n<< /Type /ObjStm /N "
+					+ packed.size() + " /First " + header.length()
+					+ " /Filter /FlateDecode /Length " + deflated.size()
+					+ " >>\nstream\n"));
+			out.write(deflated.toByteArray());
+			out.write(ByteUtils.toUTF8Bytes("\nendstream\nendobj\n"));
+		}
+		// 不写交叉引用表，指纹计算不依赖它
+		out.write(ByteUtils.toUTF8Bytes("trailer\n<< /Root " + catalog
+				+ " 0 R " + trailer + " >>\n%%EOF\n"));
+		return out.toByteArray();
+	}
+
+	private static String read(File swfDir, int page) throws IOException {
+		return new String(Files.readAllBytes(new File(swfDir, "doc" + page
+				+ ".swf").toPath()), "UTF-8").trim();
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(data);
+		} finally {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobMultiplexer;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 下午3:12:09
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobMultiplexerTest extends TestCase {
+	private final static String FUNCTION = Pdf2SwfConvertFunction.class
+			.getCanonicalName();
+	private LocalJobServer server = null;
+	private JobMultiplexer multiplexer = null;
+	private List<LocalWorker> workers = new ArrayList<LocalWorker>();
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LocalJobServer();
+		multiplexer = new JobMultiplexer(server.getHost(), server.getPort());
+		// 模拟pdf2swf：文件名即页数，负数表示转换失败
+		for (int i = 0; i < 4; i++) {
+			workers.add(new LocalWorker(server.getHost(), server.getPort(),
+					FUNCTION, new LocalWorker.Handler() {
+						@Override
+						public byte[] execute(byte[] data) throws Exception {
+							String name = new File(JobPayload.decode(
+									data).getString(JobPayload.SRC_FILE_PATH))
+									.getName();
+							int pages = Integer.parseInt(name.substring(0,
+									name.indexOf('.')));
+							if (pages < 0) {
+								throw new ConvertException(
+										"convert pdf to swf fail");
+							}
+							return ByteUtils.toBigEndian(pages);
+						}
+					}));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		multiplexer.close();
+		for (LocalWorker worker : workers) {
+			worker.shutdown();
+		}
+		server.shutdown();
+	}
+
+	private CompletableFuture<GearmanJobResult> submit(int pages) {
+		SwfConvertRequest request = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", "/data/" + pages + ".pdf", "/swf",
+				pages + ".swf", true);
+		return multiplexer.submit(request.getFunction(), null,
+				request.toPayload());
+	}
+
+	public void testManyInFlight() throws Exception {
+		List<CompletableFuture<GearmanJobResult>> futures = new ArrayList<CompletableFuture<GearmanJobResult>>();
+		for (int i = 0; i < 2000; i++) {
+			futures.add(submit(i));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			ConversionResult result = ConversionResult.fromJobResult(futures
+					.get(i).get(30, TimeUnit.SECONDS));
+			assertEquals(i, result.getResult());
+			assertNotNull(result.getJobHandle());
+		}
+		assertEquals(0, multiplexer.getPendingCount());
+		assertEquals(0, server.getJobCount());
+	}
+
+	public void testFailure() throws Exception {
+		CompletableFuture<GearmanJobResult> failed = submit(-1);
+		CompletableFuture<GearmanJobResult> succeeded = submit(3);
+		try {
+			failed.get(30, TimeUnit.SECONDS);
+			fail("job should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ConvertException);
+			assertTrue(e.getCause().getMessage()
+					.contains("convert pdf to swf fail"));
+		}
+		assertEquals(3,
+				ByteUtils.fromBigEndian(succeeded.get(30, TimeUnit.SECONDS)
+						.getResults()));
+	}
+
+	public void testConnectionLost() throws Exception {
+		for (LocalWorker worker : workers) {
+			worker.shutdown();
+		}
+		CompletableFuture<GearmanJobResult> future = submit(1);
+		server.shutdown();
+		try {
+			future.get(30, TimeUnit.SECONDS);
+			fail("connection is lost");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(0, multiplexer.getPendingCount());
+	}
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月26日 上午11:20:08
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobPayloadTest extends TestCase {
+	public void testEncodeDecode() {
+		byte[] data = new JobPayload()
+				.putString(JobPayload.SRC_FILE_PATH, "d:\\文档\\test.doc")
+				.putBoolean(JobPayload.PAGING, true)
+				.put((byte) 100, new byte[] { 1, 2, 3 })
+				.putString(JobPayload.OPENOFFICE_HOST, "127.0.0.1")
+				.putInt(JobPayload.OPENOFFICE_PORT, 8100).toBytes();
+
+		JobPayload payload = JobPayload.decode(data);
+		assertEquals("d:\\文档\\test.doc",
+				payload.getString(JobPayload.SRC_FILE_PATH));
+		assertTrue(payload.getBoolean(JobPayload.PAGING));
+		assertEquals("127.0.0.1", payload.getString(JobPayload.OPENOFFICE_HOST));
+		assertEquals(8100, payload.getInt(JobPayload.OPENOFFICE_PORT, 0));
+		assertFalse(payload.has(JobPayload.SWF_DIR));
+		assertNull(payload.getString(JobPayload.SWF_DIR));
+	}
+
+	public void testDecodeLegacy() {
+		byte[] data = ByteUtils.toUTF8Bytes("c:\\swftools\0c:\\xpdf\0"
+				+ "c:\\test.pdf\0c:\\swf\0test.swf\0true");
+		JobPayload payload = JobPayload.decode(data,
+				JobPayload.SWFTOOLS_FILE_PATH, JobPayload.LANGUAGE_DIR,
+				JobPayload.SRC_FILE_PATH, JobPayload.SWF_DIR,
+				JobPayload.SWF_FILE_NAME, JobPayload.PAGING);
+		assertEquals("c:\\swftools",
+				payload.getString(JobPayload.SWFTOOLS_FILE_PATH));
+		assertEquals("test.swf", payload.getString(JobPayload.SWF_FILE_NAME));
+		assertTrue(payload.getBoolean(JobPayload.PAGING));
+
+		// 第一个参数为空时同样以0x00开头
+		data = ByteUtils.toUTF8Bytes("\0c:\\xpdf\0c:\\test.pdf");
+		payload = JobPayload.decode(data, JobPayload.SWFTOOLS_FILE_PATH,
+				JobPayload.LANGUAGE_DIR, JobPayload.SRC_FILE_PATH);
+		assertEquals("", payload.getString(JobPayload.SWFTOOLS_FILE_PATH));
+		assertEquals("c:\\xpdf", payload.getString(JobPayload.LANGUAGE_DIR));
+		assertEquals("c:\\test.pdf",
+				payload.getString(JobPayload.SRC_FILE_PATH));
+		data = ByteUtils.toUTF8Bytes("\0\0test.pdf");
+		payload = JobPayload.decode(data, JobPayload.SWFTOOLS_FILE_PATH,
+				JobPayload.LANGUAGE_DIR, JobPayload.SRC_FILE_PATH);
+		assertEquals("", payload.getString(JobPayload.LANGUAGE_DIR));
+		assertEquals("test.pdf", payload.getString(JobPayload.SRC_FILE_PATH));
+	}
+
+	public void testFile() throws Exception {
+		File dir = new File(JobPayloadTest.class.getResource("/").getPath(),
+				"payload");
+		dir.mkdirs();
+		File src = new File(dir, "src.bin");
+		byte[] content = new byte[100000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		FileOutputStream output = new FileOutputStream(src);
+		try {
+			output.write(content);
+		} finally {
+			output.close();
+		}
+
+		byte[] data = new JobPayload()
+				.putFile(JobPayload.SWF_CONTENT, src)
+				.putString(JobPayload.SWF_FILE_NAME, "test.swf")
+				.put(JobPayload.SWF_CONTENT, new byte[] { 7 }).toBytes();
+		JobPayload payload = JobPayload.decode(data);
+		assertEquals(data.length, payload.size());
+		assertEquals(2, payload.count(JobPayload.SWF_CONTENT));
+		assertEquals("test.swf", payload.getString(JobPayload.SWF_FILE_NAME));
+		File dest = new File(dir, "dest.bin");
+		assertTrue(payload.transferTo(JobPayload.SWF_CONTENT, 0, dest));
+		assertTrue(Arrays.equals(content, Files.readAllBytes(dest.toPath())));
+		assertTrue(payload.transferTo(JobPayload.SWF_CONTENT, 1, dest));
+		assertTrue(Arrays.equals(new byte[] { 7 },
+				Files.readAllBytes(dest.toPath())));
+		assertFalse(payload.transferTo(JobPayload.SWF_CONTENT, 2, dest));
+
+		try {
+			new JobPayload().putFile(JobPayload.SRC_CONTENT, new File(dir,
+					"missing.bin"));
+			fail();
+		} catch (FileNotFoundException e) {
+		}
+	}
+
+	public void testDecodeCorrupt() {
+		byte[] data = new JobPayload().putString(JobPayload.SRC_FILE_PATH,
+				"test.doc").toBytes();
+		byte[] truncated = new byte[data.length - 1];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		try {
+			JobPayload.decode(truncated);
+			fail();
+		} catch (ConvertException e) {
+		}
+
+		// 未知版本
+		byte[] future = data.clone();
+		future[1] = 2;
+		try {
+			JobPayload.decode(future);
+			fail();
+		} catch (ConvertException e) {
+		}
+
+		// 字段值长度不足
+		JobPayload payload = JobPayload.decode(new JobPayload()
+				.put(JobPayload.OPENOFFICE_PORT, new byte[] { 1, 2 })
+				.put(JobPayload.PAGING, new byte[0]).toBytes());
+		try {
+			payload.getInt(JobPayload.OPENOFFICE_PORT, 0);
+			fail();
+		} catch (ConvertException e) {
+		}
+		try {
+			payload.getBoolean(JobPayload.PAGING);
+			fail();
+		} catch (ConvertException e) {
+		}
+	}
+}
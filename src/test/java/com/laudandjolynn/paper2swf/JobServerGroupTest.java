@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.gearman.client.GearmanJobResult;
+import org.gearman.common.GearmanPacket;
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.JobServerGroup;
+import com.laudandjolynn.paper2swf.utils.JobSubmitPipeline;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月27日 上午11:20:05
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobServerGroupTest extends TestCase {
+	private LocalJobServer server1 = null;
+	private LocalJobServer server2 = null;
+	private JobServerGroup group = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		server1 = new LocalJobServer();
+		server2 = new LocalJobServer();
+		group = new JobServerGroup();
+		group.addServer(server1.getHost(), server1.getPort());
+		group.addServer(server2.getHost(), server2.getPort());
+		group.setTimeout(500);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		group.close();
+		server1.shutdown();
+		server2.shutdown();
+	}
+
+	private static List<GearmanPacket> packets(int count) {
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>();
+		for (int i = 0; i < count; i++) {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					"/opt/swftools", "/opt/swftools/xpdf", "/data/" + i
+							+ ".pdf", "/swf/" + i, i + ".swf", true);
+			packets.add(JobSubmitPipeline.backgroundJob(request.getFunction(),
+					null, request.toPayload()));
+		}
+		return packets;
+	}
+
+	public void testSpread() throws Exception {
+		List<String> handles = group.submitBatch(packets(1000));
+		assertEquals(1000, handles.size());
+		assertEquals(500, server1.getQueueDepth());
+		assertEquals(500, server2.getQueueDepth());
+		// 两个job server的句柄可能相同，不要求唯一
+		assertTrue(new HashSet<String>(handles).size() >= 500);
+	}
+
+	public void testFailover() throws Exception {
+		group.setRetryInterval(300);
+		server2.shutdown();
+		List<String> handles = group.submitBatch(packets(100));
+		assertEquals(100, handles.size());
+		assertEquals(100, server1.getQueueDepth());
+		assertTrue(group.isAvailable(0));
+		assertFalse(group.isAvailable(1));
+
+		// 被跳过的job server不再分到任务
+		assertEquals(10, group.submitBatch(packets(10)).size());
+		assertEquals(110, server1.getQueueDepth());
+
+		LocalWorker worker = new LocalWorker(server1.getHost(),
+				server1.getPort(), Pdf2SwfConvertFunction.class.getCanonicalName(),
+				new LocalWorker.Handler() {
+					@Override
+					public byte[] execute(byte[] data) throws Exception {
+						return ByteUtils.toBigEndian(1);
+					}
+				});
+		try {
+			List<CompletableFuture<GearmanJobResult>> futures = new ArrayList<CompletableFuture<GearmanJobResult>>();
+			for (int i = 0; i < 10; i++) {
+				SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+						"/opt/swftools", "/opt/swftools/xpdf", "/data/0.pdf",
+						"/swf/0", "0.swf", true);
+				futures.add(group.submit(request.getFunction(), null,
+						request.toPayload()));
+			}
+			for (CompletableFuture<GearmanJobResult> future : futures) {
+				assertNotNull(future.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			worker.shutdown();
+		}
+
+		// 跳过期满后再次尝试，期间的失败会使跳过时间加倍
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!group.isAvailable(1) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(group.isAvailable(1));
+	}
+
+	public void testCoalesce() throws Exception {
+		String pdfFilePath = JobServerGroupTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		SwfConvertRequest request = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", pdfFilePath, "/swf/0", "0.swf", true);
+		SwfConvertRequest same = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", pdfFilePath, "/swf/0", "0.swf", true);
+		SwfConvertRequest other = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", pdfFilePath, "/swf/1", "0.swf", true);
+		assertEquals(request.uniqueId(), same.uniqueId());
+		assertFalse(request.uniqueId().equals(other.uniqueId()));
+		// 内容传输方式的结果格式不同，不与路径方式合并
+		SwfConvertRequest content = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", pdfFilePath, "/swf/0", "0.swf", true)
+				.withContent();
+		assertFalse(request.uniqueId().equals(content.uniqueId()));
+		assertTrue(request.uniqueId().length() <= 64);
+
+		// 同一个job server上相同标识的任务合并为一个
+		LocalJobServer server = new LocalJobServer();
+		JobServerGroup single = new JobServerGroup();
+		single.addServer(server.getHost(), server.getPort());
+		try {
+			List<GearmanPacket> packets = new ArrayList<GearmanPacket>();
+			for (int i = 0; i < 20; i++) {
+				SwfConvertRequest r = i % 2 == 0 ? request : other;
+				packets.add(JobSubmitPipeline.backgroundJob(r.getFunction(),
+						r.uniqueId(), r.toPayload()));
+			}
+			List<String> handles = single.submitBatch(packets);
+			assertEquals(20, handles.size());
+			assertEquals(2, new HashSet<String>(handles).size());
+			assertEquals(2, server.getQueueDepth());
+		} finally {
+			single.close();
+			server.shutdown();
+		}
+
+		// 多个job server时按标识选定job server
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>();
+		for (int i = 0; i < 20; i++) {
+			SwfConvertRequest r = i % 2 == 0 ? request : other;
+			packets.add(JobSubmitPipeline.backgroundJob(r.getFunction(),
+					r.uniqueId(), r.toPayload()));
+		}
+		group.submitBatch(packets);
+		assertEquals(2, server1.getQueueDepth() + server2.getQueueDepth());
+	}
+
+	public void testCoalesceAsync() throws Exception {
+		String pdfFilePath = JobServerGroupTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		LocalJobServer server = new LocalJobServer();
+		final AtomicInteger executed = new AtomicInteger();
+		LocalWorker worker = new LocalWorker(server.getHost(),
+				server.getPort(), Pdf2SwfConvertFunction.class.getCanonicalName(),
+				new LocalWorker.Handler() {
+					@Override
+					public byte[] execute(byte[] data) throws Exception {
+						executed.incrementAndGet();
+						Thread.sleep(500);
+						return ByteUtils.toBigEndian(3);
+					}
+				});
+		SwfConvertClient client = new SwfConvertClient(server.getHost(),
+				server.getPort());
+		client.setCoalesce(true);
+		try {
+			// 同一连接上相同的两次提交被合并，得到同一个任务句柄，两个future都要完成
+			CompletableFuture<ConversionResult> first = client
+					.submitAsync(SwfConvertRequest.pdf2Swf("/opt/swftools",
+							"/opt/swftools/xpdf", pdfFilePath, "/swf/0",
+							"0.swf", true));
+			CompletableFuture<ConversionResult> second = client
+					.submitAsync(SwfConvertRequest.pdf2Swf("/opt/swftools",
+							"/opt/swftools/xpdf", pdfFilePath, "/swf/0",
+							"0.swf", true));
+			ConversionResult firstResult = first.get(30, TimeUnit.SECONDS);
+			ConversionResult secondResult = second.get(30, TimeUnit.SECONDS);
+			assertEquals(3, firstResult.getResult());
+			assertEquals(3, secondResult.getResult());
+			assertEquals(firstResult.getJobHandle(), secondResult.getJobHandle());
+			assertEquals(1, executed.get());
+		} finally {
+			client.shutdown();
+			worker.shutdown();
+			server.shutdown();
+		}
+	}
+}
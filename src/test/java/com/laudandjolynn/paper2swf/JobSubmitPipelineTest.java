@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gearman.common.GearmanPacket;
+
+import com.laudandjolynn.paper2swf.utils.JobSubmitPipeline;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 下午2:15:36
+ * @copyright: www.laudandjolynn.com
+ */
+public class JobSubmitPipelineTest extends TestCase {
+	private LocalJobServer server = null;
+	private JobSubmitPipeline pipeline = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LocalJobServer();
+		pipeline = new JobSubmitPipeline(server.getHost(), server.getPort());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pipeline.close();
+		server.shutdown();
+	}
+
+	public void testSubmitBatch() throws Exception {
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>();
+		for (int i = 0; i < 5000; i++) {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					"/opt/swftools", "/opt/swftools/xpdf", "/data/" + i
+							+ ".pdf", "/swf/" + i, i + ".swf", i % 2 == 0);
+			packets.add(JobSubmitPipeline.backgroundJob(request.getFunction(),
+					null, request.toPayload()));
+		}
+		List<String> handles = pipeline.submit(packets);
+		assertEquals(packets.size(), handles.size());
+		assertEquals(packets.size(), new HashSet<String>(handles).size());
+		assertEquals(packets.size(), server.getSubmittedCount());
+		assertEquals(packets.size(), server.getQueueDepth());
+
+		// 连接复用，继续提交
+		PdfConvertRequest request = PdfConvertRequest.office2Pdf_openoffice(
+				"127.0.0.1", 8100, "/data/0.doc", "/pdf/0.pdf");
+		handles = pipeline.submit(Collections
+				.singletonList(JobSubmitPipeline.backgroundJob(
+						request.getFunction(), null, request.toPayload())));
+		assertEquals(1, handles.size());
+		assertEquals(packets.size() + 1, server.getSubmittedCount());
+	}
+
+	public void testSubmitWhenServerDown() throws Exception {
+		SwfConvertRequest request = SwfConvertRequest.pdf2Swf("/opt/swftools",
+				"/opt/swftools/xpdf", "/data/0.pdf", "/swf/0", "0.swf", false);
+		List<GearmanPacket> packets = new ArrayList<GearmanPacket>();
+		packets.add(JobSubmitPipeline.backgroundJob(request.getFunction(),
+				null, request.toPayload()));
+		assertEquals(1, pipeline.submit(packets).size());
+
+		server.shutdown();
+		pipeline.setTimeout(500);
+		try {
+			pipeline.submit(packets);
+			fail("job server is down");
+		} catch (IOException e) {
+		}
+	}
+}
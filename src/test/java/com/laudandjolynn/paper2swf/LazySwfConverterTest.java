@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月4日 上午11:20:43
+ * @copyright: www.laudandjolynn.com
+ */
+public class LazySwfConverterTest extends TestCase {
+	private File baseDir = new File(LazySwfConverterTest.class
+			.getResource("/").getPath(), "lazy");
+
+	public void testRequestPage() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 30, "0.01");
+		final String swfDir = new File(baseDir, "swf").getAbsolutePath();
+		// 上一个版本留下的输出
+		new File(swfDir).mkdirs();
+		new FileOutputStream(new File(swfDir, "doc1.swf")).close();
+		new FileOutputStream(new File(swfDir, "doc31.swf")).close();
+
+		final LazySwfConverter lazy = new LazySwfConverter(1, 3, 10);
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		String pdfFilePath = LazySwfConverterTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		assertEquals(30, lazy.register(converter, pdfFilePath, swfDir,
+				"doc.swf"));
+		assertFalse(new File(swfDir, "doc1.swf").exists());
+		assertFalse(new File(swfDir, "doc31.swf").exists());
+
+		assertEquals(1, lazy.requestPage(swfDir, "doc.swf", 10));
+		assertTrue(new File(swfDir, "doc10.swf").exists());
+		// 之后的3页在后台预取
+		for (int i = 11; i <= 13; i++) {
+			waitFor(new File(swfDir, "doc" + i + ".swf"));
+		}
+		assertFalse(new File(swfDir, "doc9.swf").exists());
+		assertFalse(new File(swfDir, "doc14.swf").exists());
+
+		// 并发请求同一页
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return lazy.requestPage(swfDir, "doc.swf", 30);
+				}
+			}));
+		}
+		for (Future<Integer> future : futures) {
+			assertEquals(1, future.get().intValue());
+		}
+		executor.shutdown();
+
+		assertEquals(-1, lazy.requestPage(swfDir, "doc.swf", 31));
+		assertEquals(-1, lazy.requestPage(swfDir, "other.swf", 1));
+		lazy.unregister(swfDir, "doc.swf");
+		assertEquals(0, lazy.size());
+		assertEquals(-1, lazy.requestPage(swfDir, "doc.swf", 1));
+		assertTrue(new File(swfDir, "doc10.swf").exists());
+		lazy.shutdown();
+	}
+
+	public void testRegisterFail() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 30, "0");
+		LazySwfConverter lazy = new LazySwfConverter(1, 3, 10);
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		assertEquals(-1, lazy.register(converter, new File(baseDir,
+				"missing.pdf").getPath(), baseDir.getPath(), "doc.swf"));
+		assertEquals(0, lazy.size());
+		lazy.shutdown();
+	}
+
+	private static void waitFor(File file) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!file.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(file.getName(), file.exists());
+	}
+}
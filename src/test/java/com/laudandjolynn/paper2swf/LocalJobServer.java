@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacketImpl;
+import org.gearman.common.GearmanPacketMagic;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+
+/**
+ * 进程内的简易gearman job server，实现客户端和worker用到的那部分协议，仅用于测试
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月24日 上午9:52:07
+ * @copyright: www.laudandjolynn.com
+ */
+public class LocalJobServer {
+	private final static int PRIORITY_HIGH = 0;
+	private final static int PRIORITY_NORMAL = 1;
+	private final static int PRIORITY_LOW = 2;
+
+	private final ServerSocket serverSocket;
+	private final List<Session> sessions = new CopyOnWriteArrayList<Session>();
+	private final AtomicInteger handleSequence = new AtomicInteger();
+	private final Object lock = new Object();
+	private final Map<String, List<LinkedList<Job>>> queues = new HashMap<String, List<LinkedList<Job>>>();
+	private final Map<String, Job> jobs = new HashMap<String, Job>();
+	private final Map<String, Job> uniqueJobs = new HashMap<String, Job>();
+	private final AtomicInteger submitted = new AtomicInteger();
+	private volatile boolean running = true;
+
+	public LocalJobServer() throws IOException {
+		serverSocket = new ServerSocket(0, 128,
+				InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "local-gearmand-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getHost() {
+		return "127.0.0.1";
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 *
+	 * @return 收到的提交任务请求数
+	 */
+	public int getSubmittedCount() {
+		return submitted.get();
+	}
+
+	/**
+	 *
+	 * @return 尚未结束的任务数
+	 */
+	public int getJobCount() {
+		synchronized (lock) {
+			return jobs.size();
+		}
+	}
+
+	/**
+	 *
+	 * @return 等待worker领取的任务数
+	 */
+	public int getQueueDepth() {
+		synchronized (lock) {
+			int depth = 0;
+			for (List<LinkedList<Job>> lanes : queues.values()) {
+				for (LinkedList<Job> lane : lanes) {
+					depth += lane.size();
+				}
+			}
+			return depth;
+		}
+	}
+
+	/**
+	 *
+	 * @param function
+	 *            函数名
+	 * @return 已注册该函数的worker连接数
+	 */
+	public int getWorkerCount(String function) {
+		int count = 0;
+		for (Session session : sessions) {
+			if (session.abilities.contains(function)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public void shutdown() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+		}
+		for (Session session : sessions) {
+			session.close();
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				final Session session = new Session(socket);
+				sessions.add(session);
+				Thread reader = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						session.serve();
+					}
+				}, "local-gearmand-session");
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException e) {
+				// 关闭
+			}
+		}
+	}
+
+	private void submit(Session client, GearmanPacketType type, byte[] data)
+			throws IOException {
+		byte[][] args = split(data, 3);
+		String function = ByteUtils.fromUTF8Bytes(args[0]);
+		String uniqueId = ByteUtils.fromUTF8Bytes(args[1]);
+		boolean background = type == GearmanPacketType.SUBMIT_JOB_BG
+				|| type == GearmanPacketType.SUBMIT_JOB_HIGH_BG
+				|| type == GearmanPacketType.SUBMIT_JOB_LOW_BG;
+		int priority = PRIORITY_NORMAL;
+		if (type == GearmanPacketType.SUBMIT_JOB_HIGH
+				|| type == GearmanPacketType.SUBMIT_JOB_HIGH_BG) {
+			priority = PRIORITY_HIGH;
+		} else if (type == GearmanPacketType.SUBMIT_JOB_LOW
+				|| type == GearmanPacketType.SUBMIT_JOB_LOW_BG) {
+			priority = PRIORITY_LOW;
+		}
+		submitted.incrementAndGet();
+
+		Job job;
+		synchronized (lock) {
+			String uniqueKey = function + '\0' + uniqueId;
+			job = uniqueId.length() == 0 ? null : uniqueJobs.get(uniqueKey);
+			if (job == null) {
+				job = new Job("H:local:" + handleSequence.incrementAndGet(),
+						function, uniqueId, args[2]);
+				jobs.put(job.handle, job);
+				if (uniqueId.length() != 0) {
+					uniqueJobs.put(uniqueKey, job);
+				}
+				lanes(function).get(priority).add(job);
+			}
+			if (!background) {
+				job.clients.add(client);
+			}
+		}
+		client.send(GearmanPacketType.JOB_CREATED,
+				ByteUtils.toUTF8Bytes(job.handle));
+		wakeWorkers(function);
+	}
+
+	private List<LinkedList<Job>> lanes(String function) {
+		List<LinkedList<Job>> lanes = queues.get(function);
+		if (lanes == null) {
+			lanes = new ArrayList<LinkedList<Job>>();
+			for (int i = 0; i <= PRIORITY_LOW; i++) {
+				lanes.add(new LinkedList<Job>());
+			}
+			queues.put(function, lanes);
+		}
+		return lanes;
+	}
+
+	private Job grab(Session worker) {
+		synchronized (lock) {
+			for (int priority = PRIORITY_HIGH; priority <= PRIORITY_LOW; priority++) {
+				for (String function : worker.abilities) {
+					List<LinkedList<Job>> lanes = queues.get(function);
+					if (lanes != null && !lanes.get(priority).isEmpty()) {
+						Job job = lanes.get(priority).removeFirst();
+						job.worker = worker;
+						job.running = true;
+						return job;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	private boolean hasJobFor(Session worker) {
+		synchronized (lock) {
+			for (String function : worker.abilities) {
+				List<LinkedList<Job>> lanes = queues.get(function);
+				if (lanes != null) {
+					for (LinkedList<Job> lane : lanes) {
+						if (!lane.isEmpty()) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private void wakeWorkers(String function) {
+		for (Session session : sessions) {
+			if (session.sleeping && session.abilities.contains(function)) {
+				session.sleeping = false;
+				session.sendQuietly(GearmanPacketType.NOOP, new byte[0]);
+			}
+		}
+	}
+
+	private void status(Session client, byte[] data) throws IOException {
+		String handle = ByteUtils.fromUTF8Bytes(data);
+		Job job;
+		synchronized (lock) {
+			job = jobs.get(handle);
+		}
+		String known = job == null ? "0" : "1";
+		String running = job != null && job.running ? "1" : "0";
+		long numerator = job == null ? 0 : job.numerator;
+		long denominator = job == null ? 0 : job.denominator;
+		client.send(GearmanPacketType.STATUS_RES, GearmanPacketImpl
+				.generatePacketData(ByteUtils.toUTF8Bytes(handle),
+						ByteUtils.toUTF8Bytes(known),
+						ByteUtils.toUTF8Bytes(running),
+						ByteUtils.toUTF8Bytes(String.valueOf(numerator)),
+						ByteUtils.toUTF8Bytes(String.valueOf(denominator))));
+	}
+
+	private void workUpdate(GearmanPacketType type, byte[] data) {
+		byte[][] args = split(data, 2);
+		String handle = ByteUtils.fromUTF8Bytes(args[0]);
+		List<Session> clients;
+		synchronized (lock) {
+			Job job = jobs.get(handle);
+			if (job == null) {
+				return;
+			}
+			clients = new ArrayList<Session>(job.clients);
+			if (type == GearmanPacketType.WORK_STATUS) {
+				byte[][] ratio = split(args[1], 2);
+				job.numerator = Long.parseLong(ByteUtils
+						.fromUTF8Bytes(ratio[0]));
+				job.denominator = Long.parseLong(ByteUtils
+						.fromUTF8Bytes(ratio[1]));
+			} else if (type == GearmanPacketType.WORK_COMPLETE
+					|| type == GearmanPacketType.WORK_FAIL
+					|| type == GearmanPacketType.WORK_EXCEPTION) {
+				finish(job);
+			}
+		}
+		for (Session client : clients) {
+			client.sendQuietly(type, data);
+		}
+	}
+
+	private void finish(Job job) {
+		jobs.remove(job.handle);
+		if (job.uniqueId.length() != 0) {
+			uniqueJobs.remove(job.function + '\0' + job.uniqueId);
+		}
+	}
+
+	private void disconnected(Session session) {
+		sessions.remove(session);
+		List<String> requeued = new ArrayList<String>();
+		synchronized (lock) {
+			for (Job job : jobs.values()) {
+				job.clients.remove(session);
+				if (job.worker == session) {
+					// worker掉线，任务重新排队
+					job.worker = null;
+					job.running = false;
+					lanes(job.function).get(PRIORITY_HIGH).addFirst(job);
+					requeued.add(job.function);
+				}
+			}
+		}
+		for (String function : requeued) {
+			wakeWorkers(function);
+		}
+	}
+
+	private static byte[][] split(byte[] data, int parts) {
+		byte[][] args = new byte[parts][];
+		int start = 0;
+		for (int i = 0; i < parts - 1; i++) {
+			int end = start;
+			while (end < data.length && data[end] != 0) {
+				end++;
+			}
+			args[i] = copy(data, start, end);
+			start = Math.min(end + 1, data.length);
+		}
+		args[parts - 1] = copy(data, start, data.length);
+		return args;
+	}
+
+	private static byte[] copy(byte[] data, int start, int end) {
+		byte[] value = new byte[end - start];
+		System.arraycopy(data, start, value, 0, value.length);
+		return value;
+	}
+
+	private static class Job {
+		private final String handle;
+		private final String function;
+		private final String uniqueId;
+		private final byte[] data;
+		private final Set<Session> clients = new HashSet<Session>();
+		private Session worker;
+		private boolean running;
+		private long numerator;
+		private long denominator;
+
+		private Job(String handle, String function, String uniqueId,
+				byte[] data) {
+			this.handle = handle;
+			this.function = function;
+			this.uniqueId = uniqueId;
+			this.data = data;
+		}
+	}
+
+	private class Session {
+		private final Socket socket;
+		private final OutputStream output;
+		private final Set<String> abilities = new CopyOnWriteArraySet<String>();
+		private volatile boolean sleeping;
+
+		private Session(Socket socket) throws IOException {
+			this.socket = socket;
+			this.output = socket.getOutputStream();
+		}
+
+		private void serve() {
+			try {
+				DataInputStream input = new DataInputStream(
+						new BufferedInputStream(socket.getInputStream()));
+				byte[] header = new byte[12];
+				while (running) {
+					// GearmanPacketImpl(InputStream)轮询available()，不适合阻塞读取
+					input.readFully(header);
+					byte[] packet = new byte[header.length
+							+ ByteBuffer.wrap(header, 8, 4).getInt()];
+					System.arraycopy(header, 0, packet, 0, header.length);
+					input.readFully(packet, header.length, packet.length
+							- header.length);
+					GearmanPacket request = new GearmanPacketImpl(
+							new ByteArrayInputStream(packet));
+					handle(request.getPacketType(), request.getData());
+				}
+			} catch (EOFException e) {
+			} catch (IOException e) {
+			} catch (RuntimeException e) {
+			} finally {
+				close();
+				disconnected(this);
+			}
+		}
+
+		private void handle(GearmanPacketType type, byte[] data)
+				throws IOException {
+			switch (type) {
+			case SUBMIT_JOB:
+			case SUBMIT_JOB_BG:
+			case SUBMIT_JOB_HIGH:
+			case SUBMIT_JOB_HIGH_BG:
+			case SUBMIT_JOB_LOW:
+			case SUBMIT_JOB_LOW_BG:
+				submit(this, type, data);
+				break;
+			case GET_STATUS:
+				status(this, data);
+				break;
+			case ECHO_REQ:
+				send(GearmanPacketType.ECHO_RES, data);
+				break;
+			case OPTION_REQ:
+				send(GearmanPacketType.OPTION_RES, data);
+				break;
+			case SET_CLIENT_ID:
+				break;
+			case CAN_DO:
+				abilities.add(ByteUtils.fromUTF8Bytes(data));
+				break;
+			case CAN_DO_TIMEOUT:
+				abilities.add(ByteUtils.fromUTF8Bytes(split(data, 2)[0]));
+				break;
+			case CANT_DO:
+				abilities.remove(ByteUtils.fromUTF8Bytes(data));
+				break;
+			case RESET_ABILITIES:
+				abilities.clear();
+				break;
+			case PRE_SLEEP:
+				sleeping = true;
+				if (hasJobFor(this)) {
+					sleeping = false;
+					send(GearmanPacketType.NOOP, new byte[0]);
+				}
+				break;
+			case GRAB_JOB:
+			case GRAB_JOB_UNIQ:
+				sleeping = false;
+				Job job = grab(this);
+				if (job == null) {
+					send(GearmanPacketType.NO_JOB, new byte[0]);
+				} else if (type == GearmanPacketType.GRAB_JOB) {
+					send(GearmanPacketType.JOB_ASSIGN,
+							GearmanPacketImpl.generatePacketData(
+									ByteUtils.toUTF8Bytes(job.handle),
+									ByteUtils.toUTF8Bytes(job.function),
+									job.data));
+				} else {
+					send(GearmanPacketType.JOB_ASSIGN_UNIQ,
+							GearmanPacketImpl.generatePacketData(
+									ByteUtils.toUTF8Bytes(job.handle),
+									ByteUtils.toUTF8Bytes(job.function),
+									ByteUtils.toUTF8Bytes(job.uniqueId),
+									job.data));
+				}
+				break;
+			case WORK_STATUS:
+			case WORK_COMPLETE:
+			case WORK_FAIL:
+			case WORK_EXCEPTION:
+			case WORK_DATA:
+			case WORK_WARNING:
+				workUpdate(type, data);
+				break;
+			default:
+				send(GearmanPacketType.ERROR,
+						GearmanPacketImpl.generatePacketData(
+								ByteUtils.toUTF8Bytes("ERR_UNKNOWN_COMMAND"),
+								ByteUtils.toUTF8Bytes(type.name())));
+			}
+		}
+
+		private void send(GearmanPacketType type, byte[] data)
+				throws IOException {
+			byte[] bytes = new GearmanPacketImpl(GearmanPacketMagic.RES, type,
+					data).toBytes();
+			synchronized (output) {
+				output.write(bytes);
+				output.flush();
+			}
+		}
+
+		private void sendQuietly(GearmanPacketType type, byte[] data) {
+			try {
+				send(type, data);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
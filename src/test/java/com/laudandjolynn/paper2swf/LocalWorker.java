@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacket.DataComponentName;
+import org.gearman.common.GearmanPacketImpl;
+import org.gearman.common.GearmanPacketMagic;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+
+/**
+ * 直接实现worker协议的简易worker，每个实例一个连接，串行执行任务，仅用于测试
+ *
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月25日 下午2:03:44
+ * @copyright: www.laudandjolynn.com
+ */
+public class LocalWorker {
+	/**
+	 * 任务处理逻辑，抛出异常时向job server发送WORK_EXCEPTION
+	 */
+	public interface Handler {
+		byte[] execute(byte[] data) throws Exception;
+	}
+
+	private final Socket socket;
+	private final OutputStream output;
+	private final DataInputStream input;
+	private final Handler handler;
+	private final AtomicInteger completed = new AtomicInteger();
+	private volatile boolean running = true;
+
+	public LocalWorker(String host, int port, String function,
+			Handler handler) throws IOException {
+		this.socket = new Socket(host, port);
+		this.socket.setTcpNoDelay(true);
+		this.output = socket.getOutputStream();
+		this.input = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream()));
+		this.handler = handler;
+		send(GearmanPacketType.CAN_DO, ByteUtils.toUTF8Bytes(function));
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "local-worker-" + function);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 *
+	 * @return 已执行完的任务数
+	 */
+	public int getCompletedCount() {
+		return completed.get();
+	}
+
+	public void shutdown() {
+		running = false;
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void work() {
+		try {
+			while (running) {
+				send(GearmanPacketType.GRAB_JOB, new byte[0]);
+				GearmanPacket packet = read();
+				if (packet.getPacketType() == GearmanPacketType.NO_JOB) {
+					send(GearmanPacketType.PRE_SLEEP, new byte[0]);
+					while (read().getPacketType() != GearmanPacketType.NOOP) {
+					}
+					continue;
+				}
+				if (packet.getPacketType() != GearmanPacketType.JOB_ASSIGN) {
+					continue;
+				}
+				byte[] handle = packet
+						.getDataComponentValue(DataComponentName.JOB_HANDLE);
+				byte[] data = packet
+						.getDataComponentValue(DataComponentName.DATA);
+				try {
+					byte[] result = handler.execute(data);
+					send(GearmanPacketType.WORK_COMPLETE,
+							GearmanPacketImpl.generatePacketData(handle, result));
+				} catch (Exception e) {
+					send(GearmanPacketType.WORK_EXCEPTION,
+							GearmanPacketImpl.generatePacketData(handle,
+									ByteUtils.toUTF8Bytes(String.valueOf(e
+											.getMessage()))));
+				}
+				completed.incrementAndGet();
+			}
+		} catch (IOException e) {
+			// 关闭
+		}
+	}
+
+	private GearmanPacket read() throws IOException {
+		byte[] header = new byte[12];
+		input.readFully(header);
+		byte[] bytes = new byte[header.length
+				+ ByteBuffer.wrap(header, 8, 4).getInt()];
+		System.arraycopy(header, 0, bytes, 0, header.length);
+		input.readFully(bytes, header.length, bytes.length - header.length);
+		return new GearmanPacketImpl(new ByteArrayInputStream(bytes));
+	}
+
+	private void send(GearmanPacketType type, byte[] data) throws IOException {
+		output.write(new GearmanPacketImpl(GearmanPacketMagic.REQ, type, data)
+				.toBytes());
+		output.flush();
+	}
+}
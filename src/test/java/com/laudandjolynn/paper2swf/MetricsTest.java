@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.Metrics;
+import com.laudandjolynn.paper2swf.utils.MetricsMXBean;
+import com.laudandjolynn.paper2swf.utils.StageMetrics;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 下午3:36:52
+ * @copyright: www.laudandjolynn.com
+ */
+public class MetricsTest extends TestCase {
+	private final static String DOMAIN = "com.laudandjolynn.paper2swf";
+
+	@Override
+	protected void tearDown() throws Exception {
+		Metrics.unregister();
+	}
+
+	public void testStage() throws Exception {
+		StageMetrics stage = Metrics.stage("test.stage");
+		stage.reset();
+		assertSame(stage, Metrics.stage("test.stage"));
+		long begin = stage.begin();
+		assertEquals(1, stage.getInFlight());
+		stage.end(begin, true);
+		assertEquals(0, stage.getInFlight());
+		for (int i = 0; i < 97; i++) {
+			stage.record(TimeUnit.MILLISECONDS.toNanos(3), true);
+		}
+		stage.record(TimeUnit.MILLISECONDS.toNanos(700), false);
+		stage.record(TimeUnit.MILLISECONDS.toNanos(600), true);
+		assertEquals(100, stage.getCount());
+		assertEquals(1, stage.getFailures());
+		assertEquals(5.0, stage.getP50Millis());
+		assertEquals(5.0, stage.getP95Millis());
+		assertEquals(700.0, stage.getP99Millis());
+		assertEquals(700.0, stage.getMaxMillis());
+		assertTrue(stage.getThroughput() > 0);
+		stage.reset();
+		assertEquals(0, stage.getCount());
+		assertEquals(0.0, stage.getP99Millis());
+	}
+
+	public void testRegister() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Metrics.stage("test.before").record(1000000, true);
+		Metrics.register();
+		Metrics.stage("test.after").record(1000000, false);
+		Metrics.pages(3);
+		Metrics.failure("test.cause");
+
+		ObjectName before = new ObjectName(DOMAIN + ":type=Stage,name="
+				+ ObjectName.quote("test.before"));
+		ObjectName after = new ObjectName(DOMAIN + ":type=Stage,name="
+				+ ObjectName.quote("test.after"));
+		assertTrue(server.isRegistered(before));
+		assertTrue(server.isRegistered(after));
+		assertTrue((Long) server.getAttribute(after, "Failures") >= 1);
+
+		ObjectName summary = new ObjectName(DOMAIN + ":type=Metrics");
+		assertTrue((Long) server.getAttribute(summary, "Pages") >= 3);
+		// MXBean把Map映射成TabularData
+		TabularData failures = (TabularData) server.getAttribute(summary,
+				"Failures");
+		CompositeData row = failures.get(new Object[] { "test.cause" });
+		assertNotNull(row);
+		assertTrue((Long) row.get("value") >= 1);
+
+		Metrics.unregister();
+		assertFalse(server.isRegistered(summary));
+		assertFalse(server.isRegistered(before));
+	}
+
+	public void testPdf2SwfFailure() throws Exception {
+		StageMetrics stage = Metrics.stage(Metrics.PDF2SWF);
+		long count = stage.getCount();
+		long failures = stage.getFailures();
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		SwfConverter converter = new SwfConverter(
+				System.getProperty("java.home"), tmpDir);
+		assertEquals(-1,
+				converter.pdf2Swf("not-exists.pdf", tmpDir, "not-exists", false));
+		assertEquals(count + 1, stage.getCount());
+		assertEquals(failures + 1, stage.getFailures());
+		assertEquals(0, stage.getInFlight());
+		Metrics.register();
+		MetricsMXBean proxy = JMX.newMXBeanProxy(
+				ManagementFactory.getPlatformMBeanServer(), new ObjectName(
+						DOMAIN + ":type=Metrics"), MetricsMXBean.class);
+		assertTrue(proxy.getFailures().get("pdf2swf.input") >= 1);
+	}
+
+	public void testFunction() throws Exception {
+		AbstractConvertFunction[] functions = new AbstractConvertFunction[] {
+				new Pdf2SwfConvertFunction(), new Office2SwfConvertFunction(),
+				new Office2PdfConvertFunction() };
+		for (AbstractConvertFunction function : functions) {
+			StageMetrics stage = Metrics.stage(Metrics.FUNCTION_PREFIX
+					+ function.getClass().getSimpleName());
+			long count = stage.getCount();
+			long failures = stage.getFailures();
+			// 空参数无法解码
+			function.setData(new byte[0]);
+			try {
+				function.executeFunction();
+				fail();
+			} catch (ConvertException e) {
+			}
+			assertEquals(count + 1, stage.getCount());
+			assertEquals(failures + 1, stage.getFailures());
+			assertEquals(0, stage.getInFlight());
+		}
+		Metrics.register();
+		MetricsMXBean proxy = JMX.newMXBeanProxy(
+				ManagementFactory.getPlatformMBeanServer(), new ObjectName(
+						DOMAIN + ":type=Metrics"), MetricsMXBean.class);
+		assertTrue(proxy.getFailures().get(
+				Metrics.FUNCTION_PREFIX + "ConvertException") >= 3);
+	}
+
+	public void testFailures() throws Exception {
+		Metrics.failure("test.count");
+		Metrics.failure("test.count");
+		Metrics.register();
+		MetricsMXBean proxy = JMX.newMXBeanProxy(
+				ManagementFactory.getPlatformMBeanServer(), new ObjectName(
+						DOMAIN + ":type=Metrics"), MetricsMXBean.class);
+		Map<String, Long> snapshot = proxy.getFailures();
+		assertTrue(snapshot.get("test.count") >= 2);
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import junit.framework.TestCase;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月22日 上午11:30:06
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficeConverterRegistryTest extends TestCase {
+	public void testGetConverter() {
+		OpenOfficeConverter c1 = OpenOfficeConverterRegistry.getConverter(
+				"127.0.0.1", 8100);
+		OpenOfficeConverter c2 = OpenOfficeConverterRegistry.getConverter(
+				"127.0.0.1", 8100);
+		OpenOfficeConverter c3 = OpenOfficeConverterRegistry.getConverter(
+				"127.0.0.1", 8101);
+		assertSame(c1, c2);
+		assertNotSame(c1, c3);
+
+		OpenOfficeConverterRegistry.shutdown();
+		assertNotSame(c1,
+				OpenOfficeConverterRegistry.getConverter("127.0.0.1", 8100));
+		OpenOfficeConverterRegistry.shutdown();
+	}
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.CircuitBreaker;
+import com.laudandjolynn.paper2swf.utils.OpenOfficePoolConfig;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月30日 上午11:12:37
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficeConverterTest extends TestCase {
+	private String srcFilePath = null;
+	private String destFilePath = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		srcFilePath = OpenOfficeConverterTest.class.getResource(
+				"/TestConverter.doc").getPath();
+		destFilePath = OpenOfficeConverterTest.class.getResource("/")
+				.getPath() + "TestConverterCircuit.pdf";
+	}
+
+	private OpenOfficePoolConfig config(long openInterval) {
+		OpenOfficePoolConfig config = new OpenOfficePoolConfig();
+		config.setFailureThreshold(2);
+		config.setOpenInterval(openInterval);
+		config.setConnectTimeout(300);
+		return config;
+	}
+
+	public void testUnreachable() throws Exception {
+		OpenOfficeConverter converter = new OpenOfficeConverter("127.0.0.1",
+				FakeOffice.freePorts(1), config(60000));
+		try {
+			for (int i = 0; i < 2; i++) {
+				assertEquals(0, converter.office2Pdf(srcFilePath, destFilePath));
+			}
+			assertEquals(CircuitBreaker.State.OPEN,
+					converter.getCircuitState());
+			assertFalse(converter.isAvailable());
+			// 熔断后不再尝试连接
+			long start = System.nanoTime();
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(0, converter.office2Pdf(srcFilePath, destFilePath));
+			}
+			long elapsed = (System.nanoTime() - start) / 1000000;
+			assertTrue("elapsed " + elapsed + "ms", elapsed < 1000);
+		} finally {
+			converter.close();
+		}
+	}
+
+	public void testNoResponse() throws Exception {
+		// 接受TCP连接但从不响应UNO握手
+		ServerSocket wedged = new ServerSocket(0, 50,
+				InetAddress.getByName("127.0.0.1"));
+		OpenOfficeConverter converter = new OpenOfficeConverter("127.0.0.1",
+				wedged.getLocalPort(), config(100));
+		try {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < 2; i++) {
+				assertEquals(0, converter.office2Pdf(srcFilePath, destFilePath));
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("elapsed " + elapsed + "ms", elapsed < 5000);
+			assertEquals(CircuitBreaker.State.OPEN,
+					converter.getCircuitState());
+
+			// 半开后试探失败，再次熔断
+			Thread.sleep(150);
+			assertTrue(converter.isAvailable());
+			assertEquals(0, converter.office2Pdf(srcFilePath, destFilePath));
+			assertEquals(CircuitBreaker.State.OPEN,
+					converter.getCircuitState());
+			assertFalse(converter.isAvailable());
+		} finally {
+			converter.close();
+			wedged.close();
+		}
+	}
+
+	public void testExhausted() throws Exception {
+		OpenOfficePoolConfig config = config(60000);
+		// 没有可用连接，借用总是等待超时
+		config.setMaxActive(0);
+		config.setMaxWait(50);
+		OpenOfficeConverter converter = new OpenOfficeConverter("127.0.0.1",
+				FakeOffice.freePorts(1), config);
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertEquals(0, converter.office2Pdf(srcFilePath, destFilePath));
+			}
+			// 连接池耗尽不是服务故障，不熔断
+			assertEquals(CircuitBreaker.State.CLOSED,
+					converter.getCircuitState());
+			assertTrue(converter.isAvailable());
+		} finally {
+			converter.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月29日 下午4:25:17
+ * @copyright: www.laudandjolynn.com
+ */
+public class OpenOfficeFarmTest extends TestCase {
+	private final List<Integer> converted = Collections
+			.synchronizedList(new ArrayList<Integer>());
+	private OpenOfficeFarm farm = null;
+	private int basePort = 0;
+
+	/**
+	 * 实例是模拟的UNO端口，转换只记录实例端口
+	 */
+	private OpenOfficeFarm createFarm(int size) throws Exception {
+		basePort = FakeOffice.freePorts(size);
+		farm = new OpenOfficeFarm(FakeOffice.command(), "127.0.0.1", basePort,
+				size) {
+			@Override
+			protected PdfConverter createConverter(String host, final int port) {
+				return new PdfConverter() {
+					@Override
+					public int office2Pdf(String srcFilePath,
+							String destFilePath) {
+						converted.add(port);
+						return 1;
+					}
+				};
+			}
+		};
+		farm.setStartupTimeout(20000);
+		farm.setCheckInterval(200);
+		return farm;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (farm != null) {
+			farm.shutdown();
+		}
+		OpenOfficeConverterRegistry.setFarm(null);
+	}
+
+	public void testRoundRobin() throws Exception {
+		createFarm(3);
+		assertEquals(3, farm.start());
+		for (int i = 0; i < 6; i++) {
+			assertEquals(1, farm.office2Pdf("a.doc", "a.pdf"));
+		}
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, Collections.frequency(converted, basePort + i));
+		}
+		assertTrue(farm.serves("127.0.0.1", basePort + 2));
+		assertFalse(farm.serves("127.0.0.1", basePort + 3));
+
+		OpenOfficeConverterRegistry.setFarm(farm);
+		assertSame(farm,
+				OpenOfficeConverterRegistry.getPdfConverter("127.0.0.1",
+						basePort));
+		assertNotSame(farm, OpenOfficeConverterRegistry.getPdfConverter(
+				"127.0.0.1", basePort + 3));
+		OpenOfficeConverterRegistry.shutdown();
+	}
+
+	public void testRecycle() throws Exception {
+		createFarm(1);
+		farm.setMaxConversions(2);
+		assertEquals(1, farm.start());
+		Process first = farm.getProcess(0);
+		for (int i = 0; i < 5; i++) {
+			// 重启期间的请求等待实例就绪
+			assertEquals(1, farm.office2Pdf("a.doc", "a.pdf"));
+		}
+		assertEquals(5, converted.size());
+		assertTrue(farm.getRestartCount() >= 2);
+		assertFalse(first.isAlive());
+	}
+
+	public void testCrash() throws Exception {
+		createFarm(2);
+		assertEquals(2, farm.start());
+		Process crashed = farm.getProcess(1);
+		crashed.destroyForcibly().waitFor();
+		// 定时检查发现实例退出后重启
+		long deadline = System.currentTimeMillis() + 20000;
+		while (farm.getRestartCount() == 0 || farm.getReadyCount() < 2) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(100);
+		}
+		assertNotSame(crashed, farm.getProcess(1));
+		assertTrue(farm.getProcess(1).isAlive());
+	}
+
+	public void testStartFailure() throws Exception {
+		farm = new OpenOfficeFarm(Arrays.asList("false"), "127.0.0.1",
+				FakeOffice.freePorts(1), 1);
+		farm.setStartupTimeout(500);
+		assertEquals(0, farm.start());
+		assertEquals(0, farm.office2Pdf("a.doc", "a.pdf"));
+	}
+}
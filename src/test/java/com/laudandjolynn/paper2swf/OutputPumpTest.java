@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.OutputPump;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月29日 上午11:05:33
+ * @copyright: www.laudandjolynn.com
+ */
+public class OutputPumpTest extends TestCase {
+	private List<String> lines = new ArrayList<String>();
+
+	private OutputPump pump(String output, int tailSize) {
+		InputStream input = new ByteArrayInputStream(
+				ByteUtils.toUTF8Bytes(output));
+		OutputPump pump = new OutputPump(input, new OutputPump.LineHandler() {
+			@Override
+			public void onLine(byte[] buffer, int offset, int length) {
+				lines.add(new String(buffer, offset, length));
+			}
+		}, tailSize);
+		pump.run();
+		return pump;
+	}
+
+	public void testLines() throws Exception {
+		OutputPump pump = pump("first\nsecond\r\n\nlast", 1024);
+		assertEquals(Arrays.asList("first", "second", "", "last"), lines);
+		assertEquals("first\nsecond\r\n\nlast", pump.getTail());
+	}
+
+	public void testTail() throws Exception {
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			output.append("line ").append(i).append("\n");
+		}
+		OutputPump pump = pump(output.toString(), 20);
+		assertEquals(1000, lines.size());
+		assertEquals("line 999", lines.get(999));
+		assertEquals(output.substring(output.length() - 20), pump.getTail());
+	}
+
+	public void testLongLine() throws Exception {
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'x');
+		String longLine = new String(chars);
+		pump("before\n" + longLine + "\nafter\n", 16);
+		// 超长的行只回调缓冲区长度的部分，之后的行不受影响
+		assertEquals(3, lines.size());
+		assertEquals("before", lines.get(0));
+		assertTrue(lines.get(1).length() < longLine.length());
+		assertTrue(longLine.startsWith(lines.get(1)));
+		assertEquals("after", lines.get(2));
+	}
+
+	public void testHandlerFailure() throws Exception {
+		InputStream input = new ByteArrayInputStream(
+				ByteUtils.toUTF8Bytes("a\nb\nc\n"));
+		OutputPump pump = new OutputPump(input, new OutputPump.LineHandler() {
+			@Override
+			public void onLine(byte[] buffer, int offset, int length) {
+				lines.add(new String(buffer, offset, length));
+				throw new IllegalStateException("handler fails");
+			}
+		}, 1024);
+		pump.run();
+		assertEquals(Arrays.asList("a", "b", "c"), lines);
+	}
+}
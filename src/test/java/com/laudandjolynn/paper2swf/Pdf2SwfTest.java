@@ -10,8 +10,18 @@
  ******************************************************************************/
 package com.laudandjolynn.paper2swf;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import junit.framework.TestCase;
 
+import org.gearman.util.ByteUtils;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+
 /**
  * @author: Laud
  * @email: htd0324@gmail.com
@@ -31,4 +41,119 @@ public class Pdf2SwfTest extends TestCase {
 		assertEquals(2, converter.pdf2Swf(pdfFilePath, swfDir,
 				"TestConverter.swf", true));
 	}
+
+	public void testParallelPdf2Swf() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File baseDir = new File(Pdf2SwfTest.class.getResource("/").getPath(),
+				"parallel");
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 45, "0.01");
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setParallelism(4);
+		converter.setMinPagesPerRange(10);
+		String pdfFilePath = Pdf2SwfTest.class
+				.getResource("/TestConverter.pdf").getPath();
+		File swfDir = new File(baseDir, "swf");
+		assertEquals(45, converter.pdf2Swf(pdfFilePath,
+				swfDir.getAbsolutePath(), "TestConverter.swf", true));
+		for (int i = 1; i <= 45; i++) {
+			assertTrue(new File(swfDir, "TestConverter" + i + ".swf").exists());
+		}
+	}
+
+	public void testMinPagesPerRange() {
+		SwfConverter converter = new SwfConverter("swftools", "xpdf");
+		converter.setMinPagesPerRange(1);
+		try {
+			converter.setMinPagesPerRange(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testScanPage() throws Exception {
+		Pattern pattern = Pattern
+				.compile("^NOTICE\\s+processing\\s+PDF\\s+page\\s+(\\d+)\\s+\\(.+\\)$");
+		String[] lines = {
+				"NOTICE  processing PDF page 12 (595x842:0:0) (move:0:0)",
+				"NOTICE processing\tPDF page 1 (x)",
+				"NOTICE  processing PDF page 3 ()",
+				"NOTICE  processing PDF page 3 (595x842:0:0",
+				"NOTICE  processing PDF page (595x842:0:0)",
+				"NOTICE  processing PDF page3 (595x842:0:0)",
+				"NOTICEprocessing PDF page 3 (595x842:0:0)",
+				" NOTICE  processing PDF page 3 (595x842:0:0)",
+				"WARNING processing PDF page 3 (595x842:0:0)",
+				"NOTICE  processing PDF page 99999999999 (595x842:0:0)", "" };
+		for (String line : lines) {
+			byte[] bytes = ByteUtils.toUTF8Bytes("##" + line + "##");
+			Matcher matcher = pattern.matcher(line);
+			int expected = -1;
+			if (matcher.matches() && matcher.group(1).length() < 10) {
+				expected = Integer.parseInt(matcher.group(1));
+			}
+			assertEquals(line, expected,
+					SwfConverter.scanPage(bytes, 2, bytes.length - 4));
+		}
+	}
+
+	public void testPdf2SwfTimeout() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File baseDir = new File(Pdf2SwfTest.class.getResource("/").getPath(),
+				"timeout");
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 100, "0.1");
+		String pdfFilePath = Pdf2SwfTest.class
+				.getResource("/TestConverter.pdf").getPath();
+		String swfDir = new File(baseDir, "swf").getAbsolutePath();
+		for (int parallelism = 1; parallelism <= 4; parallelism += 3) {
+			SwfConverter converter = new SwfConverter(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir());
+			converter.setParallelism(parallelism);
+			converter.setMinPagesPerRange(10);
+			converter.setTimeout(500);
+			long start = System.currentTimeMillis();
+			assertEquals(-1, converter.pdf2Swf(pdfFilePath, swfDir,
+					"TestConverter.swf", true));
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("elapsed " + elapsed + "ms", elapsed < 5000);
+		}
+	}
+
+	public void testPdf2SwfProgress() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File baseDir = new File(Pdf2SwfTest.class.getResource("/").getPath(),
+				"progress");
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 30, "0.01");
+		String pdfFilePath = Pdf2SwfTest.class
+				.getResource("/TestConverter.pdf").getPath();
+		String swfDir = new File(baseDir, "swf").getAbsolutePath();
+
+		for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+			SwfConverter converter = new SwfConverter(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir());
+			converter.setParallelism(parallelism);
+			converter.setMinPagesPerRange(10);
+			final List<long[]> progress = new ArrayList<long[]>();
+			assertEquals(30, converter.pdf2Swf(pdfFilePath, swfDir,
+					"TestConverter.swf", true, new ProgressListener() {
+						@Override
+						public void onProgress(long numerator, long denominator) {
+							progress.add(new long[] { numerator, denominator });
+						}
+					}));
+			long last = -1;
+			for (long[] p : progress) {
+				assertTrue(p[0] > last);
+				assertEquals(30, p[1]);
+				last = p[0];
+			}
+			assertEquals(30, last);
+		}
+	}
 }
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.OutputPump;
+import com.laudandjolynn.paper2swf.utils.ProcessRunner;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月28日 下午5:20:14
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProcessRunnerTest extends TestCase {
+	@Override
+	protected void tearDown() throws Exception {
+		ProcessRunner.setMaxProcesses(ProcessRunner.DEFAULT_MAX_PROCESSES);
+	}
+
+	public void testExitCode() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		final List<String> lines = new ArrayList<String>();
+		ProcessRunner.Result result = ProcessRunner.run(
+				Arrays.asList("sh", "-c", "echo hello; echo world >&2; exit 3"),
+				0, new OutputPump.LineHandler() {
+					@Override
+					public void onLine(byte[] buffer, int offset, int length) {
+						lines.add(new String(buffer, offset, length));
+					}
+				});
+		assertEquals(3, result.getExitCode());
+		assertFalse(result.isTimedOut());
+		assertFalse(result.succeeded());
+		assertEquals(Arrays.asList("hello", "world"), lines);
+	}
+
+	public void testSlowHandler() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		// 进程早已结束，处理器仍在处理输出，比如延迟发布时等待队列
+		final List<String> lines = new ArrayList<String>();
+		OutputPump.LineHandler slow = new OutputPump.LineHandler() {
+			@Override
+			public void onLine(byte[] buffer, int offset, int length) {
+				try {
+					Thread.sleep(3000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				synchronized (lines) {
+					lines.add(new String(buffer, offset, length));
+				}
+			}
+		};
+		ProcessRunner.Result result = ProcessRunner.run(
+				Arrays.asList("sh", "-c", "echo a; echo b"), 0, slow);
+		assertTrue(result.succeeded());
+		synchronized (lines) {
+			assertEquals(Arrays.asList("a", "b"), lines);
+		}
+
+		// 截止时间前没有处理完时按超时处理
+		lines.clear();
+		result = ProcessRunner.run(Arrays.asList("sh", "-c", "echo a"),
+				System.currentTimeMillis() + 1000, slow);
+		assertTrue(result.isTimedOut());
+		assertFalse(result.succeeded());
+	}
+
+	public void testVerboseOutput() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		// 输出远大于管道缓冲区，没有处理器时也要持续读取
+		ProcessRunner.Result result = ProcessRunner.run(Arrays.asList("sh",
+				"-c", "yes NOTICE | head -n 1000000; echo done >&2"),
+				System.currentTimeMillis() + 30000, null);
+		assertTrue(result.succeeded());
+		assertTrue(result.getTail().length() <= 4096);
+		assertTrue(result.getTail().endsWith("NOTICE\ndone\n"));
+	}
+
+	public void testTimeout() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File pidFile = new File(ProcessRunnerTest.class.getResource("/")
+				.getPath(), "child.pid");
+		pidFile.delete();
+		long start = System.currentTimeMillis();
+		// 子进程派生的孙进程也要被结束
+		ProcessRunner.Result result = ProcessRunner.run(Arrays.asList("sh",
+				"-c", "sleep 30 & echo $! > " + pidFile.getAbsolutePath()
+						+ "; wait"), start + 500, null);
+		assertTrue(result.isTimedOut());
+		assertEquals(-1, result.getExitCode());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		BufferedReader br = new BufferedReader(new FileReader(pidFile));
+		String pid = br.readLine().trim();
+		br.close();
+		Thread.sleep(200);
+		// 孙进程被结束后可能成为未回收的僵尸进程，状态为Z
+		Process check = new ProcessBuilder("ps", "-o", "stat=", "-p", pid)
+				.start();
+		BufferedReader state = new BufferedReader(new InputStreamReader(
+				check.getInputStream()));
+		String stat = state.readLine();
+		state.close();
+		check.waitFor();
+		assertTrue("grandchild " + pid + " is still alive: " + stat,
+				stat == null || stat.trim().startsWith("Z"));
+	}
+
+	public void testMaxProcesses() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		ProcessRunner.setMaxProcesses(2);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			long start = System.currentTimeMillis();
+			List<Future<ProcessRunner.Result>> results = new ArrayList<Future<ProcessRunner.Result>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(callers.submit(new Callable<ProcessRunner.Result>() {
+					@Override
+					public ProcessRunner.Result call() throws Exception {
+						return ProcessRunner.run(
+								Arrays.asList("sleep", "0.5"), 0, null);
+					}
+				}));
+			}
+			for (Future<ProcessRunner.Result> result : results) {
+				assertTrue(result.get().succeeded());
+			}
+			// 同时只有两个进程，4个进程分两批执行
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("elapsed " + elapsed + "ms", elapsed >= 1000);
+		} finally {
+			callers.shutdown();
+		}
+	}
+
+	public void testSlotTimeout() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		ProcessRunner.setMaxProcesses(1);
+		ExecutorService callers = Executors.newSingleThreadExecutor();
+		try {
+			Future<ProcessRunner.Result> busy = callers
+					.submit(new Callable<ProcessRunner.Result>() {
+						@Override
+						public ProcessRunner.Result call() throws Exception {
+							return ProcessRunner.run(
+									Arrays.asList("sleep", "1"), 0, null);
+						}
+					});
+			Thread.sleep(200);
+			// 等待进程名额的时间也计入截止时间
+			ProcessRunner.Result result = ProcessRunner.run(
+					Arrays.asList("true"), System.currentTimeMillis() + 200,
+					null);
+			assertTrue(result.isTimedOut());
+			assertTrue(busy.get().succeeded());
+		} finally {
+			callers.shutdown();
+		}
+	}
+}
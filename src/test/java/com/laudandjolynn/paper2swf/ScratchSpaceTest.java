@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.ScratchSpace;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月27日 下午4:12:30
+ * @copyright: www.laudandjolynn.com
+ */
+public class ScratchSpaceTest extends TestCase {
+	private File memoryDir = null;
+	private File diskDir = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		File baseDir = new File(ScratchSpaceTest.class.getResource("/")
+				.getPath(), "scratch");
+		memoryDir = new File(baseDir, "memory");
+		diskDir = new File(baseDir, "disk");
+	}
+
+	public void testThreshold() throws Exception {
+		ScratchSpace space = new ScratchSpace(memoryDir, diskDir, 1024);
+		File small = space.allocate(".pdf", 100);
+		assertTrue(space.isInMemory(small));
+		assertEquals(memoryDir, small.getParentFile());
+		File large = space.allocate(".pdf", 2048);
+		assertFalse(space.isInMemory(large));
+		assertEquals(diskDir, large.getParentFile());
+
+		FileOutputStream output = new FileOutputStream(small);
+		output.write(new byte[100]);
+		output.close();
+		space.release(small);
+		assertFalse(small.exists());
+		space.release(large);
+	}
+
+	public void testNotEnoughSpace() throws Exception {
+		ScratchSpace space = new ScratchSpace(memoryDir, diskDir,
+				Long.MAX_VALUE);
+		memoryDir.mkdirs();
+		long usable = memoryDir.getUsableSpace();
+		File first = space.allocate(".pdf", usable / 3);
+		assertTrue(space.isInMemory(first));
+		// 已预留的空间计入占用
+		File second = space.allocate(".pdf", usable / 3);
+		assertFalse(space.isInMemory(second));
+		space.release(first);
+		File third = space.allocate(".pdf", usable / 3);
+		assertTrue(space.isInMemory(third));
+		space.release(third);
+	}
+
+	public void testDiskOnly() throws Exception {
+		ScratchSpace space = new ScratchSpace(null, diskDir, 1024);
+		File file = space.allocate(".pdf", 1);
+		assertFalse(space.isInMemory(file));
+		assertEquals(diskDir, file.getParentFile());
+	}
+}
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.gearman.client.GearmanIOEventListener;
+import org.gearman.client.GearmanJob.JobPriority;
+import org.gearman.client.GearmanJobResult;
+import org.gearman.common.GearmanNIOJobServerConnection;
+import org.gearman.common.GearmanPacket;
+import org.gearman.common.GearmanPacketType;
+import org.gearman.util.ByteUtils;
+import org.gearman.worker.DefaultGearmanFunctionFactory;
+import org.gearman.worker.GearmanFunction;
+import org.gearman.worker.GearmanFunctionFactory;
+
+import com.laudandjolynn.paper2swf.utils.ConvertException;
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+import com.laudandjolynn.paper2swf.utils.JobLane;
+import com.laudandjolynn.paper2swf.utils.JobMultiplexer;
+import com.laudandjolynn.paper2swf.utils.JobPayload;
+import com.laudandjolynn.paper2swf.utils.ProcessRunner;
+import com.laudandjolynn.paper2swf.utils.ScratchSpace;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年4月26日 下午2:21:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class WorkerRunnerTest extends TestCase {
+	private final static int PAGES = 5;
+	private LocalJobServer server = null;
+	private JobMultiplexer multiplexer = null;
+	private FakeSwfTools tools = null;
+	private File baseDir = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LocalJobServer();
+		multiplexer = new JobMultiplexer(server.getHost(), server.getPort());
+		baseDir = new File(WorkerRunnerTest.class.getResource("/").getPath(),
+				"worker");
+		tools = new FakeSwfTools(baseDir, PAGES, "0.1");
+		// 模拟的pdf2swf只是sleep，不受CPU核数限制
+		ProcessRunner.setMaxProcesses(16);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		multiplexer.close();
+		server.shutdown();
+		ProcessRunner.setMaxProcesses(ProcessRunner.DEFAULT_MAX_PROCESSES);
+	}
+
+	@SuppressWarnings("unchecked")
+	private WorkerRunner createRunner(int concurrency, boolean virtualThreads) {
+		WorkerRunner runner = new WorkerRunner(server.getHost(),
+				server.getPort());
+		runner.addFunction((Class<GearmanFunction>) (Class<?>) Pdf2SwfConvertFunction.class);
+		runner.setConcurrency(concurrency);
+		runner.setVirtualThreads(virtualThreads);
+		return runner;
+	}
+
+	private WorkerRunner startRunner(int concurrency, boolean virtualThreads) {
+		return start(createRunner(concurrency, virtualThreads));
+	}
+
+	private static WorkerRunner start(final WorkerRunner runner) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runner.start();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return runner;
+	}
+
+	private long convert(int jobs, String pdfFilePath) throws Exception {
+		long start = System.currentTimeMillis();
+		List<CompletableFuture<GearmanJobResult>> futures = new ArrayList<CompletableFuture<GearmanJobResult>>();
+		for (int i = 0; i < jobs; i++) {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					pdfFilePath, new File(baseDir, "swf" + i).getAbsolutePath(),
+					"TestConverter.swf", true);
+			futures.add(multiplexer.submit(request.getFunction(), null,
+					request.toPayload()));
+		}
+		for (CompletableFuture<GearmanJobResult> future : futures) {
+			assertEquals(PAGES,
+					ConversionResult.fromJobResult(future.get(60, TimeUnit.SECONDS))
+							.getResult());
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	public void testConcurrency() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		String pdfFilePath = WorkerRunnerTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		WorkerRunner runner = startRunner(1, false);
+		long serial = convert(4, pdfFilePath);
+		runner.shutdown();
+
+		runner = startRunner(4, false);
+		long concurrent = convert(4, pdfFilePath);
+		runner.shutdown();
+		assertTrue("serial " + serial + "ms, concurrent " + concurrent + "ms",
+				concurrent * 2 < serial);
+	}
+
+	public void testVirtualThreads() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		// 不支持虚拟线程的JVM上退回普通线程
+		String pdfFilePath = WorkerRunnerTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		WorkerRunner runner = startRunner(16, true);
+		try {
+			// 一个循环取到的任务各自在虚拟线程上同时执行
+			long elapsed = convert(16, pdfFilePath);
+			assertTrue("16 jobs took " + elapsed + "ms", elapsed < 4 * PAGES * 100);
+		} finally {
+			runner.shutdown();
+		}
+
+		// 同时执行的任务数不超过并发数，每个任务至少要PAGES * 100毫秒
+		runner = startRunner(2, true);
+		try {
+			long elapsed = convert(4, pdfFilePath);
+			assertTrue("4 jobs took " + elapsed + "ms", elapsed >= 2 * PAGES * 100);
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	public void testFunctionResult() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+				tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+				WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+						.getPath(), new File(baseDir, "result")
+						.getAbsolutePath(), "TestConverter.swf", true);
+		Pdf2SwfConvertFunction function = new Pdf2SwfConvertFunction();
+		function.setJobHandle(ByteUtils.toUTF8Bytes("H:local:1"));
+		function.setData(request.toPayload());
+		final List<GearmanPacketType> events = new ArrayList<GearmanPacketType>();
+		function.registerEventListener(new GearmanIOEventListener() {
+			@Override
+			public void handleGearmanIOEvent(GearmanPacket event) {
+				events.add(event.getPacketType());
+			}
+		});
+		GearmanJobResult result = function.call();
+		// 成功的转换以WORK_COMPLETE回写，结果数据是页数
+		assertTrue(result.jobSucceeded());
+		assertEquals("H:local:1", ByteUtils.fromUTF8Bytes(result.getJobHandle()));
+		assertEquals(PAGES, ByteUtils.fromBigEndian(result.getResults()));
+		assertEquals(GearmanPacketType.WORK_COMPLETE,
+				events.get(events.size() - 1));
+		assertFalse(events.contains(GearmanPacketType.WORK_FAIL));
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testOffice2PdfFailure() throws Exception {
+		WorkerRunner runner = new WorkerRunner(server.getHost(),
+				server.getPort());
+		runner.addFunction((Class<GearmanFunction>) (Class<?>) Office2PdfConvertFunction.class);
+		start(runner);
+		try {
+			// 没有OpenOffice在该端口监听，转换器返回0
+			PdfConvertRequest request = PdfConvertRequest.office2Pdf_openoffice(
+					"127.0.0.1", FakeOffice.freePorts(1),
+					WorkerRunnerTest.class.getResource("/TestConverter.doc")
+							.getPath(), new File(baseDir, "office.pdf")
+							.getAbsolutePath());
+			try {
+				multiplexer.submit(request.getFunction(), null,
+						request.toPayload()).get(60, TimeUnit.SECONDS);
+				fail("office to pdf conversion failed");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ConvertException);
+			}
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	public void testDispatch() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		// 虚拟线程下的执行方式：一个循环，每个任务一个新线程，许可限制同时执行的任务数
+		final AtomicInteger started = new AtomicInteger();
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				started.incrementAndGet();
+				new Thread(command).start();
+			}
+		};
+		List<GearmanFunctionFactory> factories = new ArrayList<GearmanFunctionFactory>();
+		factories.add(new DefaultGearmanFunctionFactory(
+				Pdf2SwfConvertFunction.class.getName()));
+		Semaphore permits = new Semaphore(4);
+		JobWorker worker = new JobWorker(server.getHost(), server.getPort(),
+				factories, permits, executor);
+		Thread thread = new Thread(worker);
+		thread.start();
+		try {
+			String pdfFilePath = WorkerRunnerTest.class.getResource(
+					"/TestConverter.pdf").getPath();
+			long elapsed = convert(8, pdfFilePath);
+			assertTrue("8 jobs took " + elapsed + "ms", elapsed >= 2 * PAGES * 100);
+			assertTrue("8 jobs took " + elapsed + "ms", elapsed < 6 * PAGES * 100);
+			assertEquals(8, started.get());
+			// 任务结束后归还许可
+			long deadline = System.currentTimeMillis() + 5000;
+			while (permits.availablePermits() < 4
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(4, permits.availablePermits());
+		} finally {
+			worker.shutdown();
+			thread.join(5000);
+		}
+	}
+
+	public void testFailure() throws Exception {
+		WorkerRunner runner = startRunner(2, false);
+		try {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					new File(baseDir, "missing.pdf").getAbsolutePath(),
+					new File(baseDir, "missing").getAbsolutePath(),
+					"missing.swf", false);
+			try {
+				multiplexer.submit(request.getFunction(), null,
+						request.toPayload()).get(60, TimeUnit.SECONDS);
+				fail("source file does not exist");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ConvertException);
+			}
+			// 失败后worker继续工作
+			convert(1, WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+					.getPath());
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	public void testReservedConcurrency() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		String pdfFilePath = WorkerRunnerTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		WorkerRunner runner = createRunner(2, false);
+		runner.setReservedConcurrency(1);
+		start(runner);
+		try {
+			// 批量任务只能在一个循环上依次执行
+			List<CompletableFuture<GearmanJobResult>> bulk = new ArrayList<CompletableFuture<GearmanJobResult>>();
+			for (int i = 0; i < 3; i++) {
+				SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+						tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+						pdfFilePath,
+						new File(baseDir, "bulk" + i).getAbsolutePath(),
+						"TestConverter.swf", true);
+				bulk.add(multiplexer.submit(request.getFunction(), null,
+						request.toPayload(), JobPriority.LOW));
+			}
+			Thread.sleep(100);
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					pdfFilePath,
+					new File(baseDir, "interactive").getAbsolutePath(),
+					"TestConverter.swf", true);
+			assertEquals(PAGES, ConversionResult.fromJobResult(
+					multiplexer.submit(request.getFunction(), null,
+							request.toPayload(), JobPriority.HIGH).get(60,
+							TimeUnit.SECONDS)).getResult());
+			// 交互任务不必等排队的批量任务
+			assertFalse(bulk.get(2).isDone());
+			for (CompletableFuture<GearmanJobResult> future : bulk) {
+				assertEquals(PAGES, ConversionResult.fromJobResult(
+						future.get(60, TimeUnit.SECONDS)).getResult());
+			}
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	public void testContentTransport() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		File scratchDir = new File(baseDir, "scratch");
+		Paper2Swf.setScratchSpace(new ScratchSpace(null, scratchDir, 0));
+		WorkerRunner runner = startRunner(1, false);
+		try {
+			File swfDir = new File(baseDir, "content");
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+							.getPath(), swfDir.getAbsolutePath(),
+					"TestConverter.swf", true).withContent();
+			byte[] data = request.toPayload();
+			// 只发送内容，不发送路径
+			JobPayload payload = JobPayload.decode(data);
+			assertFalse(payload.has(JobPayload.SRC_FILE_PATH));
+			assertFalse(payload.has(JobPayload.SWF_DIR));
+			assertEquals("TestConverter.pdf",
+					payload.getString(JobPayload.SRC_FILE_NAME));
+
+			GearmanJobResult jobResult = multiplexer.submit(
+					request.getFunction(), null, data).get(60,
+					TimeUnit.SECONDS);
+			assertFalse(swfDir.exists());
+			assertEquals(PAGES, ContentTransport.unpack(jobResult, request)
+					.getResult());
+			for (int i = 1; i <= PAGES; i++) {
+				assertEquals("page " + i + "\n", new String(
+						Files.readAllBytes(new File(swfDir, "TestConverter"
+								+ i + ".swf").toPath()), "UTF-8"));
+			}
+			// worker的中间目录已删除
+			assertEquals(0, scratchDir.list().length);
+		} finally {
+			runner.shutdown();
+			Paper2Swf.setScratchSpace(new ScratchSpace());
+		}
+	}
+
+	public void testContentAsync() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		WorkerRunner runner = startRunner(1, false);
+		SwfConvertClient client = new SwfConvertClient(
+				new GearmanNIOJobServerConnection(server.getHost(),
+						server.getPort()));
+		try {
+			File swfDir = new File(baseDir, "async");
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+							.getPath(), swfDir.getAbsolutePath(),
+					"TestConverter.swf", true).withContent();
+			assertEquals(PAGES, client.submitAsync(request).get(60,
+					TimeUnit.SECONDS).getResult());
+			assertTrue(new File(swfDir, "TestConverter" + PAGES + ".swf")
+					.exists());
+			// 不在JobMultiplexer的读线程中解包，解包线程池只在有任务时创建线程
+			boolean unpacked = false;
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				unpacked |= thread.getName().startsWith("paper2swf-unpack-");
+			}
+			assertTrue(unpacked);
+		} finally {
+			client.shutdown();
+			runner.shutdown();
+		}
+	}
+
+	public void testAsyncProgress() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		WorkerRunner runner = startRunner(1, false);
+		SwfConvertClient client = new SwfConvertClient(
+				new GearmanNIOJobServerConnection(server.getHost(),
+						server.getPort()));
+		try {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+							.getPath(), new File(baseDir, "progress")
+							.getAbsolutePath(), "TestConverter.swf", true);
+			final List<Long> progress = new ArrayList<Long>();
+			CompletableFuture<ConversionResult> future = client.submitAsync(
+					request, false, JobPriority.NORMAL, new ProgressListener() {
+						@Override
+						public void onProgress(long numerator, long denominator) {
+							synchronized (progress) {
+								progress.add(numerator);
+							}
+						}
+					});
+			assertEquals(PAGES, future.get(60, TimeUnit.SECONDS).getResult());
+			// 任务状态先于结果到达
+			synchronized (progress) {
+				assertFalse(progress.isEmpty());
+				assertEquals(PAGES, progress.get(progress.size() - 1)
+						.longValue());
+			}
+		} finally {
+			client.shutdown();
+			runner.shutdown();
+		}
+	}
+
+	public void testJobLane() {
+		String function = Pdf2SwfConvertFunction.class.getName();
+		assertEquals(JobLane.interactive(function),
+				JobLane.function(function, JobPriority.HIGH));
+		assertEquals(function, JobLane.function(function, JobPriority.NORMAL));
+		assertEquals(function, JobLane.function(function, JobPriority.LOW));
+		WorkerRunner runner = createRunner(1, false);
+		runner.setReservedConcurrency(1);
+		try {
+			runner.start();
+			fail("reserved concurrency must be less than concurrency");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testMultipleServers() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		LocalJobServer other = new LocalJobServer();
+		JobMultiplexer otherMultiplexer = new JobMultiplexer(other.getHost(),
+				other.getPort());
+		WorkerRunner runner = createRunner(2, false);
+		runner.addServer(other.getHost(), other.getPort());
+		start(runner);
+		try {
+			SwfConvertRequest request = SwfConvertRequest.pdf2Swf(
+					tools.getSwftoolsFilePath(), tools.getLanguageDir(),
+					WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+							.getPath(),
+					new File(baseDir, "other").getAbsolutePath(),
+					"TestConverter.swf", true);
+			assertEquals(PAGES, ConversionResult.fromJobResult(
+					otherMultiplexer.submit(request.getFunction(), null,
+							request.toPayload()).get(60, TimeUnit.SECONDS))
+					.getResult());
+			convert(1, WorkerRunnerTest.class.getResource("/TestConverter.pdf")
+					.getPath());
+		} finally {
+			runner.shutdown();
+			otherMultiplexer.close();
+			other.shutdown();
+		}
+	}
+}
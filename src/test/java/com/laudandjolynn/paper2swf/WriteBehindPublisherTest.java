@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2014 htd0324@gmail.com.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     htd0324@gmail.com - initial API and implementation
+ ******************************************************************************/
+package com.laudandjolynn.paper2swf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.paper2swf.utils.JacobNativesLoader;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2014年5月8日 下午2:40:16
+ * @copyright: www.laudandjolynn.com
+ */
+public class WriteBehindPublisherTest extends TestCase {
+	private File baseDir = new File(WriteBehindPublisherTest.class
+			.getResource("/").getPath(), "writebehind");
+	private File stagingDir = new File(baseDir, "staging");
+
+	public void testPdf2Swf() throws Exception {
+		if (JacobNativesLoader.isWindows) {
+			return;
+		}
+		FakeSwfTools tools = new FakeSwfTools(baseDir, 10, "0.01");
+		WriteBehindPublisher publisher = new WriteBehindPublisher(stagingDir,
+				1, 2, 4);
+		SwfConverter converter = new SwfConverter(tools.getSwftoolsFilePath(),
+				tools.getLanguageDir());
+		converter.setWriteBehindPublisher(publisher);
+		String pdfFilePath = WriteBehindPublisherTest.class.getResource(
+				"/TestConverter.pdf").getPath();
+		File swfDir = new File(baseDir, "swf");
+		try {
+			assertEquals(10, converter.pdf2Swf(pdfFilePath, swfDir.getPath(),
+					"doc.swf", true));
+			// 返回时所有页都已发布
+			for (int i = 1; i <= 10; i++) {
+				assertEquals("page " + i + "\n", new String(
+						Files.readAllBytes(new File(swfDir, "doc" + i + ".swf")
+								.toPath()), "UTF-8"));
+			}
+			assertEquals(1, converter.pdf2Swf(pdfFilePath, swfDir.getPath(),
+					"single.swf", false));
+			assertTrue(new File(swfDir, "single.swf").isFile());
+			assertEquals(0, stagingDir.list().length);
+
+			// 目的目录不可写时转换失败，暂存目录被清理
+			File blocked = new File(baseDir, "blocked");
+			new FileOutputStream(blocked).close();
+			assertEquals(-1, converter.pdf2Swf(pdfFilePath, blocked.getPath(),
+					"doc.swf", true));
+			assertEquals(0, stagingDir.list().length);
+		} finally {
+			publisher.shutdown();
+		}
+	}
+
+	public void testBackPressure() throws Exception {
+		// 没有发布线程，队列只能容纳1页
+		WriteBehindPublisher publisher = new WriteBehindPublisher(stagingDir,
+				0, 1, 1);
+		WriteBehindPublisher.Publication publication = publisher.open(
+				new File(baseDir, "target"), System.currentTimeMillis() + 300);
+		new FileOutputStream(new File(publication.getDir(), "a.swf")).close();
+		new FileOutputStream(new File(publication.getDir(), "b.swf")).close();
+		publication.submit("a.swf");
+		long begin = System.currentTimeMillis();
+		publication.submit("b.swf");
+		assertTrue(System.currentTimeMillis() - begin >= 200);
+		assertFalse(publication.await());
+		publisher.shutdown();
+		assertFalse(publication.getDir().exists());
+	}
+
+	public void testSubmitAfterShutdown() throws Exception {
+		WriteBehindPublisher publisher = new WriteBehindPublisher(stagingDir,
+				1, 4, 1);
+		WriteBehindPublisher.Publication publication = publisher.open(
+				new File(baseDir, "target"), 0);
+		new FileOutputStream(new File(publication.getDir(), "a.swf")).close();
+		publisher.shutdown();
+		// 停止之后放入的页作为失败处理，不限时的await不会一直等待
+		publication.submit("a.swf");
+		assertFalse(publication.await());
+		assertFalse(publication.getDir().exists());
+	}
+}